@@ -2,11 +2,13 @@ package com.ergouwebchat;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * 应用程序主入口类
  */
 @SpringBootApplication
+@EnableScheduling
 public class ErgouWebChatApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,48 @@
+package com.ergouwebchat.config;
+
+import com.ergouwebchat.model.entity.User;
+import com.ergouwebchat.service.UserService;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 聊天用户认证提供者
+ * <p>表单登录委托给{@link UserService#login(String, String)}完成密码校验和状态更新。
+ * 密码执行器繁忙时抛出{@link AuthenticationServiceException}，由{@link LoginFailureHandler}返回503</p>
+ */
+public class ChatAuthenticationProvider implements AuthenticationProvider {
+
+    private final UserService userService;
+
+    public ChatAuthenticationProvider(UserService userService) {
+        this.userService = userService;
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        String username = authentication.getName();
+        String password = authentication.getCredentials() != null ? authentication.getCredentials().toString() : "";
+        try {
+            User user = userService.login(username, password);
+            return UsernamePasswordAuthenticationToken.authenticated(
+                    user.getUsername(), null, List.of(new SimpleGrantedAuthority("ROLE_USER")));
+        } catch (RejectedExecutionException e) {
+            throw new AuthenticationServiceException(e.getMessage(), e);
+        } catch (RuntimeException e) {
+            throw new BadCredentialsException(e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return UsernamePasswordAuthenticationToken.class.isAssignableFrom(authentication);
+    }
+}
@@ -0,0 +1,47 @@
+package com.ergouwebchat.config;
+
+import com.ergouwebchat.service.cluster.ClusterBus;
+import com.ergouwebchat.service.cluster.InProcessClusterBus;
+import com.ergouwebchat.service.cluster.LoopbackClusterBus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.UUID;
+
+/**
+ * 集群总线配置类
+ * <p>通过chat.cluster.bus选择实现：in-process（默认，单节点）或loopback（同一JVM内多节点）。
+ * 应用的会话表是进程内单例，一个JVM内只能有一个使用loopback的应用上下文持有真实会话，
+ * 其余节点需要各自的会话表（见{@link LoopbackClusterBus}）</p>
+ */
+@Configuration
+public class ClusterConfig {
+
+    /**
+     * 配置进程内集群总线
+     * @param nodeId 节点ID，未配置时随机生成
+     * @return 集群总线
+     */
+    @Bean
+    @ConditionalOnProperty(name = "chat.cluster.bus", havingValue = "in-process", matchIfMissing = true)
+    public ClusterBus inProcessClusterBus(@Value("${chat.cluster.node-id:}") String nodeId) {
+        return new InProcessClusterBus(resolveNodeId(nodeId));
+    }
+
+    /**
+     * 配置回环集群总线
+     * @param nodeId 节点ID，未配置时随机生成
+     * @return 集群总线
+     */
+    @Bean(destroyMethod = "leave")
+    @ConditionalOnProperty(name = "chat.cluster.bus", havingValue = "loopback")
+    public ClusterBus loopbackClusterBus(@Value("${chat.cluster.node-id:}") String nodeId) {
+        return new LoopbackClusterBus(resolveNodeId(nodeId), LoopbackClusterBus.Hub.shared());
+    }
+
+    private static String resolveNodeId(String nodeId) {
+        return nodeId == null || nodeId.isBlank() ? "node-" + UUID.randomUUID().toString().substring(0, 8) : nodeId;
+    }
+}
@@ -0,0 +1,23 @@
+package com.ergouwebchat.config;
+
+import com.ergouwebchat.service.file.FileStorage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 文件存储配置类
+ */
+@Configuration
+public class FileStorageConfig {
+
+    /**
+     * 配置本地文件存储
+     * @param directory 存储根目录
+     * @return 文件存储
+     */
+    @Bean
+    public FileStorage fileStorage(@Value("${chat.files.dir:./data/files}") String directory) {
+        return new FileStorage(directory);
+    }
+}
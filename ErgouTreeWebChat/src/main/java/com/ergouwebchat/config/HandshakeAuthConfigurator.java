@@ -0,0 +1,51 @@
+package com.ergouwebchat.config;
+
+import com.ergouwebchat.service.auth.HandshakeTokenService;
+import jakarta.websocket.HandshakeResponse;
+import jakarta.websocket.server.HandshakeRequest;
+import jakarta.websocket.server.ServerEndpointConfig;
+
+import java.security.Principal;
+import java.util.List;
+
+/**
+ * WebSocket握手认证配置器
+ * <p>把握手阶段校验过的用户名写入会话属性，端点以此为准而不是信任路径参数。
+ * 正常情况下令牌已由{@link HandshakeTokenFilter}在升级前校验，这里直接取Principal；
+ * 若请求未经过滤器则在内存中重新校验令牌。全程不访问数据库</p>
+ */
+public class HandshakeAuthConfigurator extends ServerEndpointConfig.Configurator {
+
+    /**
+     * 会话属性中已认证用户名的键
+     */
+    public static final String AUTHENTICATED_USER = "authenticatedUser";
+
+    private static volatile HandshakeTokenService tokenService;
+
+    @Override
+    public void modifyHandshake(ServerEndpointConfig sec, HandshakeRequest request, HandshakeResponse response) {
+        String username = null;
+
+        Principal principal = request.getUserPrincipal();
+        if (principal != null) {
+            username = principal.getName();
+        } else {
+            List<String> tokens = request.getParameterMap().get(HandshakeTokenFilter.TOKEN_PARAMETER);
+            if (tokens != null && !tokens.isEmpty()) {
+                username = getTokenService().verify(tokens.get(0));
+            }
+        }
+
+        if (username != null) {
+            sec.getUserProperties().put(AUTHENTICATED_USER, username);
+        }
+    }
+
+    private static HandshakeTokenService getTokenService() {
+        if (tokenService == null) {
+            tokenService = SpringContextHolder.getBean(HandshakeTokenService.class);
+        }
+        return tokenService;
+    }
+}
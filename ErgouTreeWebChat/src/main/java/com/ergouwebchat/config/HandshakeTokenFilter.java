@@ -0,0 +1,100 @@
+package com.ergouwebchat.config;
+
+import com.ergouwebchat.service.HandshakeAdmission;
+import com.ergouwebchat.service.auth.HandshakeTokenService;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * WebSocket握手令牌过滤器
+ * <p>在HTTP升级之前校验握手令牌，令牌无效时直接返回401，不会进入WebSocket升级流程，也不会创建端点实例。
+ * 令牌有效时把用户名放入本次请求的安全上下文（不写入HTTP会话），
+ * 由{@link HandshakeAuthConfigurator}从握手请求的Principal中取出</p>
+ * <p>建连并发已饱和时直接返回503并通过Retry-After提示重试间隔</p>
+ * <p>令牌接口也接受{@code Authorization: Bearer <令牌>}续期：令牌只依赖共享密钥，
+ * 故障转移到没有HTTP会话的节点后，客户端仍可用未过期的令牌换取新令牌并重连。
+ * 新令牌沿用旧令牌的认证时间，超过最长有效期后续期被拒绝，只能通过HTTP会话重新取令牌</p>
+ */
+public class HandshakeTokenFilter extends OncePerRequestFilter {
+
+    /**
+     * 握手令牌查询参数名
+     */
+    public static final String TOKEN_PARAMETER = "token";
+
+    /**
+     * 接受令牌续期的令牌接口路径
+     */
+    public static final String TOKEN_ENDPOINT = "/api/ws-token";
+
+    /**
+     * 续期请求中旧令牌认证时间的请求属性名
+     */
+    public static final String AUTHENTICATED_AT_ATTRIBUTE = HandshakeTokenFilter.class.getName() + ".authenticatedAt";
+
+    private static final String BEARER_PREFIX = "Bearer ";
+
+    private final HandshakeTokenService tokenService;
+    private final HandshakeAdmission admission;
+
+    public HandshakeTokenFilter(HandshakeTokenService tokenService, HandshakeAdmission admission) {
+        this.tokenService = tokenService;
+        this.admission = admission;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !isHandshake(request) && !isTokenRefresh(request);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!isHandshake(request)) {
+            // 令牌续期：令牌有效且未超过最长有效期时以令牌中的用户身份访问，否则仍按HTTP会话认证
+            HandshakeTokenService.Claims claims = tokenService.verifyForRenewal(
+                    request.getHeader("Authorization").substring(BEARER_PREFIX.length()));
+            if (claims != null) {
+                request.setAttribute(AUTHENTICATED_AT_ATTRIBUTE, claims.getAuthenticatedAt());
+                SecurityContextHolder.getContext().setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+                        claims.getUsername(), null, Collections.emptyList()));
+            }
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        if (admission.rejectIfSaturated()) {
+            response.setHeader("Retry-After", String.valueOf(admission.retryAfterSeconds()));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "连接繁忙，请稍后重试");
+            return;
+        }
+
+        String username = tokenService.verify(request.getParameter(TOKEN_PARAMETER));
+        if (username == null) {
+            response.sendError(HttpServletResponse.SC_UNAUTHORIZED, "握手令牌无效或已过期");
+            return;
+        }
+
+        SecurityContextHolder.getContext().setAuthentication(
+                UsernamePasswordAuthenticationToken.authenticated(username, null, Collections.emptyList()));
+        filterChain.doFilter(request, response);
+    }
+
+    private static boolean isHandshake(HttpServletRequest request) {
+        return request.getRequestURI().startsWith(request.getContextPath() + "/ws/");
+    }
+
+    private static boolean isTokenRefresh(HttpServletRequest request) {
+        String authorization = request.getHeader("Authorization");
+        return authorization != null && authorization.startsWith(BEARER_PREFIX)
+                && request.getRequestURI().equals(request.getContextPath() + TOKEN_ENDPOINT);
+    }
+}
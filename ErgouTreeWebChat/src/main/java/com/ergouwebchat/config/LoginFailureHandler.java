@@ -0,0 +1,38 @@
+package com.ergouwebchat.config;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.web.authentication.SimpleUrlAuthenticationFailureHandler;
+
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 表单登录失败处理器
+ * <p>密码执行器繁忙导致的失败直接返回503并通过Retry-After提示重试间隔，
+ * 不重定向回登录页，避免客户端立即重试加重高峰；其余失败照常重定向</p>
+ */
+public class LoginFailureHandler extends SimpleUrlAuthenticationFailureHandler {
+
+    private final int retryAfterSeconds;
+
+    public LoginFailureHandler(String defaultFailureUrl, int retryAfterSeconds) {
+        super(defaultFailureUrl);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    @Override
+    public void onAuthenticationFailure(HttpServletRequest request, HttpServletResponse response,
+                                        AuthenticationException exception) throws IOException, ServletException {
+        if (exception instanceof AuthenticationServiceException
+                && exception.getCause() instanceof RejectedExecutionException) {
+            response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "登录繁忙，请稍后重试");
+            return;
+        }
+        super.onAuthenticationFailure(request, response, exception);
+    }
+}
@@ -0,0 +1,147 @@
+package com.ergouwebchat.config;
+
+import com.ergouwebchat.repository.ConversationRepository;
+import com.ergouwebchat.repository.FileBlobRepository;
+import com.ergouwebchat.repository.FileRepository;
+import com.ergouwebchat.repository.MessageRepository;
+import com.ergouwebchat.repository.UserRepository;
+import com.ergouwebchat.service.MembershipService;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.service.storage.ChunkedMessagePurger;
+import com.ergouwebchat.service.storage.JpaMessageStore;
+import com.ergouwebchat.service.storage.MessageArchive;
+import com.ergouwebchat.service.storage.MessageStore;
+import com.ergouwebchat.service.storage.ResilientMessageStore;
+import com.ergouwebchat.service.storage.SegmentedLogMessageStore;
+import com.ergouwebchat.service.storage.SpillJournal;
+import com.ergouwebchat.util.CircuitBreaker;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * 消息存储配置类
+ * <p>通过chat.storage.backend选择实现：jpa（默认，关系数据库）或log（本地分段追加日志，
+ * 适合小规模部署和压测，消息写入不经过数据库）</p>
+ */
+@Configuration
+public class MessageStoreConfig {
+
+    /**
+     * 配置关系数据库消息分块清理（消息存储和归档任务共用）
+     * @param messageRepository 消息数据访问层
+     * @param fileRepository 文件数据访问层
+     * @param fileBlobRepository 文件内容数据访问层
+     * @param transactionManager 事务管理器
+     * @param chunkSize 删除时每块的消息数
+     * @param chunkPauseMillis 删除块之间的最短停顿
+     * @return 分块清理
+     */
+    @Bean
+    @ConditionalOnProperty(name = "chat.storage.backend", havingValue = "jpa", matchIfMissing = true)
+    public ChunkedMessagePurger chunkedMessagePurger(MessageRepository messageRepository,
+                                                     FileRepository fileRepository,
+                                                     FileBlobRepository fileBlobRepository,
+                                                     PlatformTransactionManager transactionManager,
+                                                     @Value("${chat.retention.chunk-size:500}") int chunkSize,
+                                                     @Value("${chat.retention.chunk-pause-millis:20}") long chunkPauseMillis) {
+        return new ChunkedMessagePurger(messageRepository, fileRepository, fileBlobRepository,
+                new TransactionTemplate(transactionManager), chunkSize, chunkPauseMillis);
+    }
+
+    /**
+     * 配置关系数据库消息存储
+     * <p>外层包装熔断器和本地溢出日志，数据库不可用或过慢时消息先写入溢出日志，恢复后按顺序重放；
+     * 删除按索引顺序分块限速执行</p>
+     * @param messageRepository 消息数据访问层
+     * @param userRepository 用户数据访问层
+     * @param conversationRepository 会话数据访问层
+     * @param purger 分块清理
+     * @param membershipService 会话成员服务
+     * @param userCache 用户资料缓存
+     * @param transactionManager 事务管理器
+     * @param failureThreshold 熔断前允许的连续失败次数
+     * @param openMillis 熔断后等待多久放行试探写入
+     * @param slowCallMillis 慢写入阈值
+     * @param journalPath 溢出日志路径
+     * @param fsyncIntervalMillis 溢出日志批量刷盘间隔
+     * @param replayIntervalMillis 重放检查间隔
+     * @param replayBatchSize 每批重放的消息数
+     * @return 消息存储
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "chat.storage.backend", havingValue = "jpa", matchIfMissing = true)
+    public MessageStore jpaMessageStore(MessageRepository messageRepository,
+                                        UserRepository userRepository,
+                                        ConversationRepository conversationRepository,
+                                        ChunkedMessagePurger purger,
+                                        MembershipService membershipService,
+                                        UserCache userCache,
+                                        PlatformTransactionManager transactionManager,
+                                        @Value("${chat.storage.breaker.failure-threshold:5}") int failureThreshold,
+                                        @Value("${chat.storage.breaker.open-millis:10000}") long openMillis,
+                                        @Value("${chat.storage.breaker.slow-call-millis:1000}") long slowCallMillis,
+                                        @Value("${chat.storage.journal.path:./data/spill/journal.log}") String journalPath,
+                                        @Value("${chat.storage.journal.fsync-interval-millis:50}") long fsyncIntervalMillis,
+                                        @Value("${chat.storage.journal.replay-interval-millis:1000}") long replayIntervalMillis,
+                                        @Value("${chat.storage.journal.replay-batch-size:200}") int replayBatchSize) {
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        JpaMessageStore store = new JpaMessageStore(messageRepository, userRepository, conversationRepository,
+                transactionTemplate, purger, membershipService, userCache);
+        return new ResilientMessageStore(
+                store,
+                new CircuitBreaker("message-store", failureThreshold, openMillis, slowCallMillis),
+                new SpillJournal(journalPath, fsyncIntervalMillis),
+                MessageStoreConfig::isDatabaseUnavailable,
+                replayIntervalMillis,
+                replayBatchSize
+        );
+    }
+
+    /**
+     * 配置分段追加日志消息存储
+     * @param directory 日志目录
+     * @param segmentBytes 单个段文件的大小上限
+     * @param indexInterval 稀疏索引间隔
+     * @param flushIntervalMillis 刷盘间隔
+     * @return 消息存储
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "chat.storage.backend", havingValue = "log")
+    public MessageStore segmentedLogMessageStore(
+            @Value("${chat.storage.log.dir:./data/message-log}") String directory,
+            @Value("${chat.storage.log.segment-bytes:67108864}") long segmentBytes,
+            @Value("${chat.storage.log.index-interval:32}") int indexInterval,
+            @Value("${chat.storage.log.flush-interval-millis:1000}") long flushIntervalMillis) {
+        return new SegmentedLogMessageStore(directory, segmentBytes, indexInterval, flushIntervalMillis);
+    }
+
+    /**
+     * 配置消息归档（从热表移出的旧消息，查询时透明回落）
+     * @param directory 归档目录
+     * @return 消息归档
+     */
+    @Bean(destroyMethod = "close")
+    public MessageArchive messageArchive(@Value("${chat.archive.dir:./data/archive}") String directory) {
+        return new MessageArchive(directory);
+    }
+
+    /**
+     * 判断异常是否表示数据库暂时不可用（连接失败、超时、无法开启事务），而不是数据本身的错误
+     * @param e 异常
+     * @return 数据库不可用返回true
+     */
+    private static boolean isDatabaseUnavailable(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof TransactionException;
+    }
+}
@@ -1,12 +1,20 @@
 package com.ergouwebchat.config;
 
+import com.ergouwebchat.service.HandshakeAdmission;
+import com.ergouwebchat.service.UserService;
+import com.ergouwebchat.service.auth.HandshakeTokenService;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.authentication.AuthenticationProvider;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 
 /**
@@ -18,30 +26,50 @@ public class SecurityConfig {
     
     /**
      * 配置密码加密器
+     * <p>强度只影响新加密的密码，已有密文按其中记录的强度校验</p>
+     * @param strength BCrypt强度（4-31，每加1耗时翻倍）
      * @return 密码加密器
      */
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(@Value("${chat.password.bcrypt-strength:10}") int strength) {
+        return new BCryptPasswordEncoder(strength);
+    }
+    
+    /**
+     * 配置认证提供者，表单登录走UserService的登录流程
+     * @param userService 用户服务
+     * @return 认证提供者
+     */
+    @Bean
+    public AuthenticationProvider chatAuthenticationProvider(UserService userService) {
+        return new ChatAuthenticationProvider(userService);
     }
     
     /**
      * 配置安全过滤链
      * @param http HTTP安全配置
+     * @param tokenService 握手令牌服务
+     * @param admission 握手准入控制
+     * @param retryAfterSeconds 密码执行器繁忙时提示的重试间隔（秒）
      * @return 安全过滤链
      * @throws Exception 配置异常
      */
     @Bean
-    public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain securityFilterChain(HttpSecurity http, HandshakeTokenService tokenService,
+                                                   HandshakeAdmission admission,
+                                                   @Value("${chat.password.retry-after-seconds:2}") int retryAfterSeconds)
+            throws Exception {
         http
             .csrf(csrf -> csrf.disable())  // 禁用CSRF保护，因为我们使用WebSocket
+            // WebSocket握手在升级前做准入控制并校验签名令牌
+            .addFilterBefore(new HandshakeTokenFilter(tokenService, admission), UsernamePasswordAuthenticationFilter.class)
             .authorizeHttpRequests(authorize -> authorize
                 // 允许访问静态资源
                 .requestMatchers("/css/**", "/js/**", "/images/**", "/webjars/**", "/favicon.ico").permitAll()
                 // 允许访问首页和登录页
                 .requestMatchers("/", "/index", "/login").permitAll()
-                // 允许访问WebSocket端点
-                .requestMatchers("/ws/**").permitAll()
+                // WebSocket端点需要有效的握手令牌
+                .requestMatchers("/ws/**").authenticated()
                 // 允许访问聊天页面
                 .requestMatchers("/chat").permitAll()
                 // 允许访问注册页面和注册处理
@@ -52,11 +80,27 @@ public class SecurityConfig {
             .formLogin(form -> form
                 .loginPage("/login")
                 .defaultSuccessUrl("/chat")
+                .failureHandler(new LoginFailureHandler("/login?error", retryAfterSeconds))
                 .permitAll()
             )
+            // 接口请求未登录时返回401而不是重定向到登录页
+            .exceptionHandling(exceptions -> exceptions
+                .defaultAuthenticationEntryPointFor(
+                    new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED),
+                    new AntPathRequestMatcher("/api/**"))
+                .defaultAuthenticationEntryPointFor(
+                    new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED),
+                    new AntPathRequestMatcher("/ws/**"))
+            )
             .logout(logout -> logout
                 .logoutRequestMatcher(new AntPathRequestMatcher("/logout"))
                 .logoutSuccessUrl("/")
+                // 登出后此前取得的握手令牌不能再握手或续期
+                .addLogoutHandler((request, response, authentication) -> {
+                    if (authentication != null) {
+                        tokenService.revoke(authentication.getName());
+                    }
+                })
                 .permitAll()
             );
         
@@ -0,0 +1,34 @@
+package com.ergouwebchat.config;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.stereotype.Component;
+
+/**
+ * Spring上下文持有者
+ * <p>WebSocket端点和握手配置器由容器实例化而非Spring管理，通过本类获取Spring Bean</p>
+ */
+@Component
+public class SpringContextHolder implements ApplicationContextAware {
+
+    private static ApplicationContext applicationContext;
+
+    @Override
+    public void setApplicationContext(ApplicationContext context) {
+        SpringContextHolder.applicationContext = context;
+    }
+
+    /**
+     * 按类型获取Bean
+     * @param type Bean类型
+     * @param <T> 泛型类型
+     * @return Bean实例
+     * @throws IllegalStateException 当Spring上下文尚未初始化时抛出
+     */
+    public static <T> T getBean(Class<T> type) {
+        if (applicationContext == null) {
+            throw new IllegalStateException("Spring上下文尚未初始化");
+        }
+        return applicationContext.getBean(type);
+    }
+}
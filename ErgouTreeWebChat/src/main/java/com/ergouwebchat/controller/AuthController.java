@@ -0,0 +1,59 @@
+package com.ergouwebchat.controller;
+
+import com.ergouwebchat.config.HandshakeTokenFilter;
+import com.ergouwebchat.service.HandshakeAdmission;
+import com.ergouwebchat.service.auth.HandshakeTokenService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 认证接口控制器
+ */
+@RestController
+public class AuthController {
+
+    private final HandshakeTokenService tokenService;
+    private final HandshakeAdmission admission;
+
+    @Autowired
+    public AuthController(HandshakeTokenService tokenService, HandshakeAdmission admission) {
+        this.tokenService = tokenService;
+        this.admission = admission;
+    }
+
+    /**
+     * 为已登录用户签发WebSocket握手令牌
+     * <p>令牌短期有效，客户端每次建立连接前获取。建连并发已饱和时返回503，
+     * 通过Retry-After头和retryAfter字段提示客户端的重试间隔。
+     * 用旧令牌续期时新令牌沿用旧令牌的认证时间</p>
+     * @param principal 当前登录用户
+     * @param request 请求
+     * @return 用户名、令牌和有效期
+     */
+    @GetMapping("/api/ws-token")
+    public ResponseEntity<Map<String, Object>> issueHandshakeToken(Principal principal, HttpServletRequest request) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (admission.rejectIfSaturated()) {
+            int retryAfter = admission.retryAfterSeconds();
+            result.put("retryAfter", retryAfter);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header("Retry-After", String.valueOf(retryAfter))
+                    .body(result);
+        }
+        result.put("username", principal.getName());
+        Object authenticatedAt = request.getAttribute(HandshakeTokenFilter.AUTHENTICATED_AT_ATTRIBUTE);
+        result.put("token", authenticatedAt instanceof Long
+                ? tokenService.issue(principal.getName(), (Long) authenticatedAt)
+                : tokenService.issue(principal.getName()));
+        result.put("expiresIn", tokenService.getTtlSeconds());
+        return ResponseEntity.ok(result);
+    }
+}
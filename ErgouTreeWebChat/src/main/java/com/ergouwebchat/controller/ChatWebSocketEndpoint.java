@@ -1,7 +1,13 @@
 package com.ergouwebchat.controller;
 
+import com.ergouwebchat.config.HandshakeAuthConfigurator;
+import com.ergouwebchat.model.ChatMessage;
 import com.ergouwebchat.model.Message;
+import com.ergouwebchat.config.SpringContextHolder;
+import com.ergouwebchat.service.DrainCoordinator;
+import com.ergouwebchat.service.HandshakeAdmission;
 import com.ergouwebchat.service.MessageService;
+import com.ergouwebchat.service.SessionHeartbeatMonitor;
 import com.ergouwebchat.service.UserSessionManager;
 import com.ergouwebchat.util.JsonUtils;
 
@@ -15,16 +21,23 @@ import java.util.logging.Logger;
 /**
  * WebSocket端点类
  * <p>处理WebSocket连接、消息接收和发送</p>
+ * <p>握手须携带签名令牌，用户身份以{@link HandshakeAuthConfigurator}校验的结果为准</p>
  */
-@ServerEndpoint("/ws/chat/{username}")
+@ServerEndpoint(value = "/ws/chat/{username}", configurator = HandshakeAuthConfigurator.class)
 public class ChatWebSocketEndpoint {
     private static final Logger LOGGER = Logger.getLogger(ChatWebSocketEndpoint.class.getName());
     
     // 使用单例模式的用户会话管理器
     private final UserSessionManager sessionManager = UserSessionManager.getInstance();
     
-    // 消息处理服务
-    private final MessageService messageService = new MessageService();
+    // 消息处理服务（使用Spring管理的单例，保证数据库服务和集群总线已注入）
+    private final MessageService messageService = SpringContextHolder.getBean(MessageService.class);
+    
+    // 握手准入控制（容器实例化的端点无法注入，延迟从Spring上下文获取）
+    private static volatile HandshakeAdmission admission;
+    
+    // 会话心跳监测
+    private static volatile SessionHeartbeatMonitor heartbeatMonitor;
     
     // 当前连接的用户名
     private String username;
@@ -36,18 +49,42 @@ public class ChatWebSocketEndpoint {
      */
     @OnOpen
     public void onOpen(Session session, @PathParam("username") String username) {
-        LOGGER.info("WebSocket连接已建立: " + username);
-        
-        // 存储用户会话
-        this.username = username;
-        sessionManager.addUserSession(username, session);
+        // 路径中的用户名必须与握手令牌中的一致
+        String authenticatedUser = (String) session.getUserProperties().get(HandshakeAuthConfigurator.AUTHENTICATED_USER);
+        if (authenticatedUser == null || !authenticatedUser.equals(username)) {
+            LOGGER.warning("WebSocket握手身份不匹配: " + username);
+            closeQuietly(session, new CloseReason(CloseReason.CloseCodes.VIOLATED_POLICY, "身份校验失败"));
+            return;
+        }
         
-        // 创建并广播用户加入消息
-        Message joinMessage = messageService.createUserJoinMessage(username);
-        messageService.process(joinMessage);
+        // 建连并发已饱和时快速拒绝，关闭原因中携带重试间隔提示
+        HandshakeAdmission handshakeAdmission = getAdmission();
+        if (!handshakeAdmission.tryAcquire()) {
+            closeQuietly(session, new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER,
+                    "retry-after=" + handshakeAdmission.retryAfterSeconds()));
+            return;
+        }
         
-        // 设置会话属性
-        session.getUserProperties().put("username", username);
+        try {
+            LOGGER.info("WebSocket连接已建立: " + username);
+            
+            // 存储用户会话
+            this.username = username;
+            sessionManager.addUserSession(username, session);
+            messageService.markOnline(username);
+            
+            // 创建并广播用户加入消息
+            ChatMessage joinMessage = messageService.createUserJoinMessage(username);
+            messageService.process(joinMessage);
+            
+            // 设置会话属性
+            session.getUserProperties().put("username", username);
+            
+            // 开始心跳监测
+            getHeartbeatMonitor().register(username, session);
+        } finally {
+            handshakeAdmission.release();
+        }
     }
     
     /**
@@ -61,14 +98,26 @@ public class ChatWebSocketEndpoint {
         if (closingUsername == null) {
             closingUsername = this.username;
         }
+        if (closingUsername == null) {
+            // 身份校验失败的连接从未加入会话管理
+            return;
+        }
         
         LOGGER.info("WebSocket连接已关闭: " + closingUsername);
         
+        // 心跳超时被回收或停机排空关闭的会话已由对应方移除，不再逐个广播离开消息
+        getHeartbeatMonitor().unregister(session);
+        if (Boolean.TRUE.equals(session.getUserProperties().get(SessionHeartbeatMonitor.EVICTED_PROPERTY))
+                || Boolean.TRUE.equals(session.getUserProperties().get(DrainCoordinator.DRAINED_PROPERTY))) {
+            return;
+        }
+        
         // 移除用户会话
         sessionManager.removeUserSession(closingUsername);
+        messageService.markOffline(closingUsername);
         
         // 创建并广播用户离开消息
-        Message leaveMessage = messageService.createUserLeaveMessage(closingUsername);
+        ChatMessage leaveMessage = messageService.createUserLeaveMessage(closingUsername);
         messageService.process(leaveMessage);
     }
     
@@ -81,11 +130,22 @@ public class ChatWebSocketEndpoint {
     public void onMessage(Session session, String message) {
         String senderUsername = (String) session.getUserProperties().get("username");
         LOGGER.info("收到来自 " + senderUsername + " 的消息: " + message);
+        getHeartbeatMonitor().touch(session);
         
         // 处理接收到的消息
         messageService.processIncomingMessage(message, session);
     }
     
+    /**
+     * 处理心跳pong响应
+     * @param session WebSocket会话
+     * @param pong pong消息
+     */
+    @OnMessage
+    public void onPong(Session session, PongMessage pong) {
+        getHeartbeatMonitor().touch(session);
+    }
+    
     /**
      * 处理WebSocket错误事件
      * @param session WebSocket会话
@@ -111,13 +171,43 @@ public class ChatWebSocketEndpoint {
             LOGGER.log(Level.SEVERE, "发送错误消息失败: " + e.getMessage(), e);
         }
         
+        getHeartbeatMonitor().unregister(session);
+        
         // 移除用户会话
         if (errorUsername != null) {
             sessionManager.removeUserSession(errorUsername);
+            messageService.markOffline(errorUsername);
             
             // 广播用户离开消息
-            Message leaveMessage = messageService.createUserLeaveMessage(errorUsername);
+            ChatMessage leaveMessage = messageService.createUserLeaveMessage(errorUsername);
             messageService.process(leaveMessage);
         }
     }
+    
+    /**
+     * 关闭会话，忽略关闭时的IO异常
+     * @param session WebSocket会话
+     * @param reason 关闭原因
+     */
+    private void closeQuietly(Session session, CloseReason reason) {
+        try {
+            session.close(reason);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "关闭会话失败: " + e.getMessage(), e);
+        }
+    }
+    
+    private static HandshakeAdmission getAdmission() {
+        if (admission == null) {
+            admission = SpringContextHolder.getBean(HandshakeAdmission.class);
+        }
+        return admission;
+    }
+    
+    private static SessionHeartbeatMonitor getHeartbeatMonitor() {
+        if (heartbeatMonitor == null) {
+            heartbeatMonitor = SpringContextHolder.getBean(SessionHeartbeatMonitor.class);
+        }
+        return heartbeatMonitor;
+    }
 }
@@ -0,0 +1,172 @@
+package com.ergouwebchat.controller;
+
+import com.ergouwebchat.model.ConversationSummary;
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.entity.User;
+import com.ergouwebchat.repository.ConversationRepository;
+import com.ergouwebchat.service.DbMessageService;
+import com.ergouwebchat.service.MembershipService;
+import com.ergouwebchat.service.MessageRetentionService;
+import com.ergouwebchat.service.UserService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 会话接口控制器
+ */
+@RestController
+public class ConversationController {
+
+    // 每页最多返回的会话数
+    private static final int MAX_LIMIT = 100;
+
+    private final DbMessageService dbMessageService;
+    private final MembershipService membershipService;
+    private final UserService userService;
+    private final MessageRetentionService retentionService;
+
+    @Autowired
+    public ConversationController(DbMessageService dbMessageService,
+                                  MembershipService membershipService,
+                                  UserService userService,
+                                  MessageRetentionService retentionService) {
+        this.dbMessageService = dbMessageService;
+        this.membershipService = membershipService;
+        this.userService = userService;
+        this.retentionService = retentionService;
+    }
+
+    /**
+     * 分页获取当前用户的会话列表
+     * <p>按最后更新时间倒序，翻页时把上一页返回的nextBefore和nextBeforeId原样传回</p>
+     * @param principal 当前登录用户
+     * @param before 上一页最后一项的更新时间（epoch毫秒），首页不传
+     * @param beforeId 上一页最后一项的会话ID
+     * @param limit 每页数量
+     * @return 会话列表和下一页游标
+     */
+    @GetMapping("/api/conversations")
+    public ResponseEntity<Map<String, Object>> listConversations(Principal principal,
+                                                                 @RequestParam(required = false) Long before,
+                                                                 @RequestParam(required = false) Long beforeId,
+                                                                 @RequestParam(defaultValue = "20") int limit) {
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDateTime beforeTime = before != null ? LocalDateTime.ofInstant(Instant.ofEpochMilli(before), zone) : null;
+        List<ConversationSummary> summaries = dbMessageService.getConversationSummaries(
+                principal.getName(), beforeTime, beforeId, Math.max(1, Math.min(limit, MAX_LIMIT)));
+
+        // 日志存储后端不维护预览和未读数，不返回这两项，避免客户端显示为空预览和0条未读
+        boolean preview = dbMessageService.supportsConversationPreview();
+        List<Map<String, Object>> conversations = new ArrayList<>(summaries.size());
+        for (ConversationSummary summary : summaries) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", summary.getId());
+            item.put("name", summary.getName());
+            item.put("type", summary.getType());
+            if (preview) {
+                item.put("lastMessage", summary.getLastMessagePreview());
+                item.put("lastSender", summary.getLastMessageSender());
+            }
+            item.put("updatedAt", summary.getUpdatedAt().atZone(zone).toInstant().toEpochMilli());
+            if (preview) {
+                long unread = summary.getUnreadCount() != null ? summary.getUnreadCount() : 0;
+                // 未读数只统计到上限，达到上限时客户端显示为“99+”
+                item.put("unreadCount", Math.min(unread, ConversationRepository.UNREAD_COUNT_CAP - 1));
+                item.put("unreadCapped", unread >= ConversationRepository.UNREAD_COUNT_CAP);
+            }
+            conversations.add(item);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("previewSupported", preview);
+        result.put("conversations", conversations);
+        if (!conversations.isEmpty()) {
+            Map<String, Object> last = conversations.get(conversations.size() - 1);
+            result.put("nextBefore", last.get("updatedAt"));
+            result.put("nextBeforeId", last.get("id"));
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 按用户ID顺序分页获取会话成员，只有会话成员可以查看
+     * @param principal 当前登录用户
+     * @param id 会话ID
+     * @param after 上一页最后一个成员的用户ID，首页不传
+     * @param limit 每页数量
+     * @return 成员总数、本页成员和下一页游标
+     */
+    @GetMapping("/api/conversations/{id}/members")
+    public ResponseEntity<Map<String, Object>> listMembers(Principal principal,
+                                                           @PathVariable Long id,
+                                                           @RequestParam(defaultValue = "0") long after,
+                                                           @RequestParam(defaultValue = "50") int limit) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        UserProfile user = userService.findByUsername(principal.getName()).orElse(null);
+        if (user == null || !membershipService.isMember(id, user.getId())) {
+            result.put("error", "不是该会话的成员");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(result);
+        }
+
+        List<User> members = membershipService.getMembers(id, after, Math.max(1, Math.min(limit, MAX_LIMIT)));
+        List<Map<String, Object>> items = new ArrayList<>(members.size());
+        for (User member : members) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", member.getId());
+            item.put("username", member.getUsername());
+            item.put("nickname", member.getNickname());
+            item.put("avatarColor", member.getAvatarColor());
+            item.put("status", member.getStatus());
+            items.add(item);
+        }
+        result.put("total", membershipService.getMemberCount(id));
+        result.put("members", items);
+        if (!items.isEmpty()) {
+            result.put("nextAfter", members.get(members.size() - 1).getId());
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 设置私聊会话的消息保留天数，只有会话成员可以设置
+     * @param principal 当前登录用户
+     * @param id 会话ID
+     * @param days 保留天数，不传表示恢复默认值，0表示永久保留
+     * @return 设置后的保留天数
+     */
+    @PutMapping("/api/conversations/{id}/retention")
+    public ResponseEntity<Map<String, Object>> setRetention(Principal principal,
+                                                            @PathVariable Long id,
+                                                            @RequestParam(required = false) Integer days) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        UserProfile user = userService.findByUsername(principal.getName()).orElse(null);
+        if (user == null || !membershipService.isMember(id, user.getId())) {
+            result.put("error", "不是该会话的成员");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(result);
+        }
+        try {
+            retentionService.setRetentionDays(id, days);
+        } catch (RuntimeException e) {
+            result.put("error", e.getMessage());
+            return ResponseEntity.badRequest().body(result);
+        }
+        result.put("id", id);
+        result.put("retentionDays", days);
+        return ResponseEntity.ok(result);
+    }
+}
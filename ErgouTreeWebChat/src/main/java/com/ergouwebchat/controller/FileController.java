@@ -0,0 +1,288 @@
+package com.ergouwebchat.controller;
+
+import com.ergouwebchat.model.entity.FileEntity;
+import com.ergouwebchat.model.entity.FileUpload;
+import com.ergouwebchat.service.file.FileDownloadService;
+import com.ergouwebchat.service.file.FileUploadService;
+import com.ergouwebchat.util.HttpRanges;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 文件上传和下载接口控制器
+ * <p>上传流程：POST /api/uploads 创建上传，按返回的chunkSize依次 PUT /api/uploads/{id}?offset=
+ * 上传分块（请求体为原始字节），最后 POST /api/uploads/{id}/complete 发布文件消息。
+ * 中断后 GET /api/uploads/{id} 获取已接收的字节数，从该位置继续。
+ * 下载 GET /api/files/{id} 支持单段Range和If-None-Match，文件内容不经过JVM堆</p>
+ */
+@RestController
+public class FileController {
+    private static final Logger LOGGER = Logger.getLogger(FileController.class.getName());
+
+    // Tomcat sendfile请求属性：连接器支持时设置文件名和区间，由连接器在请求处理完成后直接发送文件
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    // 小于该大小的文件直接写出，sendfile的额外开销不划算（与Tomcat默认阈值一致）
+    private static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    // 文件保存后不再修改，允许浏览器长期缓存（只在本地缓存，下载需要登录）
+    private static final String CACHE_CONTROL = "private, max-age=31536000, immutable";
+
+    private final FileUploadService fileUploadService;
+    private final FileDownloadService fileDownloadService;
+
+    @Autowired
+    public FileController(FileUploadService fileUploadService, FileDownloadService fileDownloadService) {
+        this.fileUploadService = fileUploadService;
+        this.fileDownloadService = fileDownloadService;
+    }
+
+    /**
+     * 创建上传
+     * @param principal 当前登录用户
+     * @param fileName 文件名
+     * @param fileSize 文件大小（字节）
+     * @param fileType 文件MIME类型
+     * @param recipient 私聊接收者，群聊不传
+     * @return 上传ID、分块大小和已接收的字节数
+     */
+    @PostMapping("/api/uploads")
+    public ResponseEntity<Map<String, Object>> beginUpload(Principal principal,
+                                                           @RequestParam String fileName,
+                                                           @RequestParam long fileSize,
+                                                           @RequestParam(required = false) String fileType,
+                                                           @RequestParam(required = false) String recipient) {
+        try {
+            FileUpload upload = fileUploadService.begin(principal.getName(), recipient, fileName, fileType, fileSize);
+            return ResponseEntity.ok(toResult(upload));
+        } catch (RuntimeException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * 获取上传进度（断点续传时调用）
+     * @param principal 当前登录用户
+     * @param id 上传ID
+     * @return 上传进度
+     */
+    @GetMapping("/api/uploads/{id}")
+    public ResponseEntity<Map<String, Object>> getUpload(Principal principal, @PathVariable String id) {
+        try {
+            return ResponseEntity.ok(toResult(fileUploadService.getUpload(id, principal.getName())));
+        } catch (RuntimeException e) {
+            return error(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * 上传一个分块，请求体为分块的原始字节，直接流式写入磁盘
+     * @param principal 当前登录用户
+     * @param id 上传ID
+     * @param offset 分块起始位置，必须等于已接收的字节数
+     * @param request 请求
+     * @return 已接收的字节数；位置不一致时返回409和服务端已接收的字节数
+     */
+    @PutMapping("/api/uploads/{id}")
+    public ResponseEntity<Map<String, Object>> uploadChunk(Principal principal,
+                                                           @PathVariable String id,
+                                                           @RequestParam long offset,
+                                                           HttpServletRequest request) {
+        FileUpload upload;
+        try {
+            upload = fileUploadService.getUpload(id, principal.getName());
+        } catch (RuntimeException e) {
+            return error(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+        if (offset != upload.getReceivedBytes()) {
+            ResponseEntity<Map<String, Object>> conflict = error(HttpStatus.CONFLICT, "上传位置不一致");
+            conflict.getBody().put("receivedBytes", upload.getReceivedBytes());
+            return conflict;
+        }
+
+        try {
+            long received = fileUploadService.appendChunk(id, principal.getName(), offset, request.getInputStream());
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("uploadId", id);
+            result.put("receivedBytes", received);
+            result.put("totalSize", upload.getTotalSize());
+            return ResponseEntity.ok(result);
+        } catch (IOException | RuntimeException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * 完成上传并发布文件消息
+     * @param principal 当前登录用户
+     * @param id 上传ID
+     * @return 文件ID、下载地址和消息ID
+     */
+    @PostMapping("/api/uploads/{id}/complete")
+    public ResponseEntity<Map<String, Object>> completeUpload(Principal principal, @PathVariable String id) {
+        try {
+            FileEntity file = fileUploadService.complete(id, principal.getName());
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("fileId", file.getId());
+            result.put("url", "/api/files/" + file.getId());
+            result.put("messageId", file.getMessageId());
+            result.put("fileName", file.getFileName());
+            result.put("fileSize", file.getFileSize());
+            return ResponseEntity.ok(result);
+        } catch (RuntimeException e) {
+            return error(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * 取消上传
+     * @param principal 当前登录用户
+     * @param id 上传ID
+     * @return 空结果
+     */
+    @DeleteMapping("/api/uploads/{id}")
+    public ResponseEntity<Map<String, Object>> cancelUpload(Principal principal, @PathVariable String id) {
+        try {
+            fileUploadService.cancel(id, principal.getName());
+            return ResponseEntity.ok(new LinkedHashMap<>());
+        } catch (RuntimeException e) {
+            return error(HttpStatus.NOT_FOUND, e.getMessage());
+        }
+    }
+
+    /**
+     * 下载文件
+     * <p>连接器支持sendfile且文件不太小时由Tomcat直接从文件发送到套接字，
+     * 否则通过{@link java.nio.channels.FileChannel#transferTo}写出。只支持单段Range，
+     * 多段Range按完整文件返回；If-Range与ETag不一致时同样返回完整文件</p>
+     * @param principal 当前登录用户
+     * @param id 文件ID
+     * @param request 请求
+     * @param response 响应
+     * @throws IOException 写出失败
+     */
+    @GetMapping("/api/files/{id}")
+    public void download(Principal principal,
+                         @PathVariable Long id,
+                         HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        FileEntity file = fileDownloadService.getFile(id);
+        if (file == null) {
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+        if (!fileDownloadService.canAccess(file, principal.getName())) {
+            response.setStatus(HttpStatus.FORBIDDEN.value());
+            return;
+        }
+        Path path = fileDownloadService.resolve(file);
+        if (!Files.isRegularFile(path)) {
+            LOGGER.warning("文件记录存在但文件已丢失: " + file.getId() + " " + file.getFilePath());
+            response.setStatus(HttpStatus.NOT_FOUND.value());
+            return;
+        }
+
+        long size = file.getFileSize();
+        String etag = fileDownloadService.etagOf(file);
+        response.setHeader(HttpHeaders.ETAG, etag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (HttpRanges.etagMatches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            response.setStatus(HttpStatus.NOT_MODIFIED.value());
+            return;
+        }
+
+        long start = 0;
+        long length = size;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = HttpRanges.parseRange(range, size);
+            if (bounds != null && bounds.length == 0) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+                return;
+            }
+            if (bounds != null) {
+                start = bounds[0];
+                length = bounds[1] - bounds[0] + 1;
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+                response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+            }
+        }
+
+        response.setContentType(file.getFileType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.builder(isInline(file) ? "inline" : "attachment")
+                        .filename(file.getFileName(), StandardCharsets.UTF_8)
+                        .build()
+                        .toString());
+        response.setContentLengthLong(length);
+        if ("HEAD".equals(request.getMethod())) {
+            return;
+        }
+
+        if (length >= SENDFILE_MIN_SIZE && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            request.setAttribute(SENDFILE_FILENAME_ATTR, path.toString());
+            request.setAttribute(SENDFILE_START_ATTR, start);
+            request.setAttribute(SENDFILE_END_ATTR, start + length);
+            return;
+        }
+        try {
+            fileDownloadService.transfer(file, start, length, Channels.newChannel(response.getOutputStream()));
+        } catch (IOException e) {
+            // 多数是客户端中途断开（取消下载、拖动进度条）
+            LOGGER.log(Level.FINE, "文件下载中断: " + file.getId() + " " + e.getMessage(), e);
+        }
+    }
+
+    private Map<String, Object> toResult(FileUpload upload) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("uploadId", upload.getId());
+        result.put("fileName", upload.getFileName());
+        result.put("totalSize", upload.getTotalSize());
+        result.put("receivedBytes", upload.getReceivedBytes());
+        result.put("chunkSize", fileUploadService.getChunkSize());
+        return result;
+    }
+
+    /**
+     * 图片在页面中直接显示，其他类型（包括可能含脚本的SVG）作为附件下载
+     */
+    private static boolean isInline(FileEntity file) {
+        String type = file.getFileType();
+        return type.startsWith("image/") && !type.startsWith("image/svg");
+    }
+
+    private static ResponseEntity<Map<String, Object>> error(HttpStatus status, String message) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("error", message);
+        return ResponseEntity.status(status).body(result);
+    }
+}
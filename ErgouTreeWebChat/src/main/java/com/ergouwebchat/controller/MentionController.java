@@ -0,0 +1,52 @@
+package com.ergouwebchat.controller;
+
+import com.ergouwebchat.model.entity.Mention;
+import com.ergouwebchat.service.MentionService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 提及接口控制器
+ */
+@RestController
+public class MentionController {
+
+    // 每页最大数量
+    private static final int MAX_LIMIT = 100;
+
+    private final MentionService mentionService;
+
+    @Autowired
+    public MentionController(MentionService mentionService) {
+        this.mentionService = mentionService;
+    }
+
+    /**
+     * 分页获取提到当前用户的消息，最新的在前
+     * @param principal 当前登录用户
+     * @param beforeId 上一页返回的nextBeforeId，首页不传
+     * @param limit 每页数量
+     * @return 本页提及和下一页游标
+     */
+    @GetMapping("/api/mentions")
+    public ResponseEntity<Map<String, Object>> listMentions(Principal principal,
+                                                            @RequestParam(required = false) Long beforeId,
+                                                            @RequestParam(defaultValue = "20") int limit) {
+        List<Mention> mentions = mentionService.getMentions(principal.getName(), beforeId,
+                Math.max(1, Math.min(limit, MAX_LIMIT)));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("mentions", MentionService.toItems(mentions));
+        if (!mentions.isEmpty()) {
+            result.put("nextBeforeId", mentions.get(mentions.size() - 1).getId());
+        }
+        return ResponseEntity.ok(result);
+    }
+}
@@ -0,0 +1,64 @@
+package com.ergouwebchat.controller;
+
+import com.ergouwebchat.service.MentionService;
+import com.ergouwebchat.service.UsernameRegistry;
+import com.ergouwebchat.service.auth.PasswordHasher;
+import com.ergouwebchat.service.cache.FrameCache;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.service.file.FileBlobService;
+import com.ergouwebchat.service.storage.MessageStore;
+import com.ergouwebchat.service.storage.ResilientMessageStore;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 运行指标接口控制器
+ * <p>汇总各缓存、执行器和存储组件的计数，用于容量调整和排查问题</p>
+ */
+@RestController
+public class MetricsController {
+
+    private final MessageStore messageStore;
+    private final UserCache userCache;
+    private final UsernameRegistry usernameRegistry;
+    private final PasswordHasher passwordHasher;
+    private final MentionService mentionService;
+    private final FileBlobService fileBlobService;
+
+    public MetricsController(MessageStore messageStore,
+                             UserCache userCache,
+                             UsernameRegistry usernameRegistry,
+                             PasswordHasher passwordHasher,
+                             MentionService mentionService,
+                             FileBlobService fileBlobService) {
+        this.messageStore = messageStore;
+        this.userCache = userCache;
+        this.usernameRegistry = usernameRegistry;
+        this.passwordHasher = passwordHasher;
+        this.mentionService = mentionService;
+        this.fileBlobService = fileBlobService;
+    }
+
+    /**
+     * 获取运行指标
+     * @return 按组件分组的指标
+     */
+    @GetMapping("/api/metrics")
+    public ResponseEntity<Map<String, Object>> getMetrics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("frameCache", FrameCache.getInstance().getStats());
+        result.put("userCache", userCache.getStats());
+        result.put("usernameRegistry", usernameRegistry.getStats());
+        result.put("passwordHasher", passwordHasher.getStats());
+        result.put("mentions", Map.of("dropped", mentionService.getDroppedCount()));
+        result.put("fileBlobs", fileBlobService.getStats());
+        if (messageStore instanceof ResilientMessageStore) {
+            result.put("messageStore", ((ResilientMessageStore) messageStore).getStats());
+        }
+        return ResponseEntity.ok(result);
+    }
+}
@@ -0,0 +1,76 @@
+package com.ergouwebchat.controller;
+
+import com.ergouwebchat.model.enums.UserStatus;
+import com.ergouwebchat.service.PresenceService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在线状态接口控制器
+ */
+@RestController
+public class PresenceController {
+
+    // 单次最多查询的用户数
+    private static final int MAX_USERS = 200;
+
+    private final PresenceService presenceService;
+
+    @Autowired
+    public PresenceController(PresenceService presenceService) {
+        this.presenceService = presenceService;
+    }
+
+    /**
+     * 批量查询用户的在线状态和最后活跃时间（只读内存，不访问数据库）
+     * @param users 用户名列表，逗号分隔
+     * @return 用户名到状态的映射
+     */
+    @GetMapping("/api/presence")
+    public ResponseEntity<Map<String, Object>> getPresence(@RequestParam List<String> users) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (users.size() > MAX_USERS) {
+            result.put("error", "单次最多查询 " + MAX_USERS + " 个用户");
+            return ResponseEntity.badRequest().body(result);
+        }
+        for (String username : users) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("status", presenceService.getStatus(username));
+            long lastActive = presenceService.getLastActive(username);
+            item.put("lastActive", lastActive > 0 ? lastActive : null);
+            result.put(username, item);
+        }
+        return ResponseEntity.ok(result);
+    }
+
+    /**
+     * 切换当前用户的状态（在线、离开或忙碌）
+     * @param principal 当前登录用户
+     * @param status 新状态
+     * @return 切换后的状态
+     */
+    @PostMapping("/api/presence/status")
+    public ResponseEntity<Map<String, Object>> setStatus(Principal principal, @RequestParam UserStatus status) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (status == UserStatus.OFFLINE) {
+            result.put("error", "不能手动设置为离线");
+            return ResponseEntity.badRequest().body(result);
+        }
+        if (!presenceService.setStatus(principal.getName(), status)) {
+            result.put("error", "用户未连接");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(result);
+        }
+        result.put("status", status);
+        return ResponseEntity.ok(result);
+    }
+}
@@ -3,14 +3,24 @@ package com.ergouwebchat.controller;
 import com.ergouwebchat.model.entity.User;
 import com.ergouwebchat.service.UserService;
 import com.ergouwebchat.util.MessageValidator;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
 /**
  * 用户注册控制器
  */
@@ -18,10 +28,13 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 public class RegisterController {
 
     private final UserService userService;
+    private final int retryAfterSeconds;
 
     @Autowired
-    public RegisterController(UserService userService) {
+    public RegisterController(UserService userService,
+                              @Value("${chat.password.retry-after-seconds:2}") int retryAfterSeconds) {
         this.userService = userService;
+        this.retryAfterSeconds = retryAfterSeconds;
     }
 
     /**
@@ -33,12 +46,37 @@ public class RegisterController {
         return "register";
     }
 
+    /**
+     * 检查用户名是否可以注册（注册页输入时调用）
+     * <p>绝大多数未占用的用户名由内存中的布隆过滤器直接判定，不访问数据库</p>
+     * @param username 用户名
+     * @return 用户名、是否可用以及不可用的原因
+     */
+    @GetMapping("/register/check-username")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> checkUsername(@RequestParam(defaultValue = "") String username) {
+        username = username.trim();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("username", username);
+        if (!MessageValidator.isValidUsername(username)) {
+            result.put("available", false);
+            result.put("message", "用户名格式无效（3-20位字母、数字或下划线）");
+        } else if (!userService.isUsernameAvailable(username)) {
+            result.put("available", false);
+            result.put("message", "用户名已存在");
+        } else {
+            result.put("available", true);
+        }
+        return ResponseEntity.ok(result);
+    }
+
     /**
      * 处理注册请求
      * @param username 用户名
      * @param password 密码
      * @param confirmPassword 确认密码
      * @param redirectAttributes 重定向属性
+     * @param response HTTP响应
      * @return 重定向视图
      */
     @PostMapping("/register")
@@ -47,7 +85,8 @@ public class RegisterController {
             @RequestParam String password,
             @RequestParam String confirmPassword,
             @RequestParam(required = false) String email,
-            RedirectAttributes redirectAttributes) {
+            RedirectAttributes redirectAttributes,
+            HttpServletResponse response) {
         
         // 新增trim处理和格式验证
         username = username != null ? username.trim() : "";
@@ -82,6 +121,10 @@ public class RegisterController {
             // 注册成功
             redirectAttributes.addAttribute("success", true);
             return "redirect:/register";
+        } catch (RejectedExecutionException e) {
+            // 密码执行器繁忙，快速返回503
+            response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage(), e);
         } catch (Exception e) {
             // 注册失败
             redirectAttributes.addAttribute("error", e.getMessage());
@@ -0,0 +1,57 @@
+package com.ergouwebchat.controller;
+
+import com.ergouwebchat.service.search.MessageSearchIndex;
+import com.ergouwebchat.service.search.SearchHit;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 消息搜索接口控制器
+ */
+@RestController
+public class SearchController {
+
+    private final MessageSearchIndex searchIndex;
+    private final int maxLimit;
+
+    @Autowired
+    public SearchController(MessageSearchIndex searchIndex,
+                            @Value("${chat.search.max-limit:100}") int maxLimit) {
+        this.searchIndex = searchIndex;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * 在当前用户参与的会话中搜索消息
+     * <p>结果来自进程内索引，按时间倒序返回，不查询数据库</p>
+     * @param principal 当前登录用户
+     * @param q 查询文本
+     * @param limit 最多返回的结果数
+     * @return 查询文本和命中的消息
+     */
+    @GetMapping("/api/search")
+    public ResponseEntity<Map<String, Object>> search(Principal principal,
+                                                      @RequestParam String q,
+                                                      @RequestParam(defaultValue = "20") int limit) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        String query = q.trim();
+        if (query.isEmpty()) {
+            result.put("error", "搜索内容不能为空");
+            return ResponseEntity.badRequest().body(result);
+        }
+        List<SearchHit> hits = searchIndex.search(principal.getName(), query,
+                Math.max(1, Math.min(limit, maxLimit)));
+        result.put("query", query);
+        result.put("hits", hits);
+        return ResponseEntity.ok(result);
+    }
+}
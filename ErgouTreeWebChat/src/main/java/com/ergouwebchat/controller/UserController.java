@@ -0,0 +1,75 @@
+package com.ergouwebchat.controller;
+
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.service.PresenceService;
+import com.ergouwebchat.service.search.UserDirectory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 用户查找接口控制器
+ */
+@RestController
+public class UserController {
+
+    // 单次最多返回的用户数
+    private static final int MAX_LIMIT = 50;
+
+    // 前缀最大长度
+    private static final int MAX_PREFIX_LENGTH = 50;
+
+    private final UserDirectory userDirectory;
+    private final PresenceService presenceService;
+
+    @Autowired
+    public UserController(UserDirectory userDirectory, PresenceService presenceService) {
+        this.userDirectory = userDirectory;
+        this.presenceService = presenceService;
+    }
+
+    /**
+     * 按用户名或昵称前缀查找用户（@提及自动补全），在线用户优先，不包含当前用户
+     * <p>只查询内存中的前缀索引，不访问数据库</p>
+     * @param principal 当前登录用户
+     * @param q 前缀，可以带开头的@
+     * @param limit 最大返回数
+     * @return 匹配的用户列表
+     */
+    @GetMapping("/api/users/search")
+    public ResponseEntity<Map<String, Object>> search(Principal principal,
+                                                      @RequestParam(defaultValue = "") String q,
+                                                      @RequestParam(defaultValue = "10") int limit) {
+        String prefix = q.trim();
+        if (prefix.startsWith("@")) {
+            prefix = prefix.substring(1);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (prefix.length() > MAX_PREFIX_LENGTH) {
+            result.put("error", "查询内容过长");
+            return ResponseEntity.badRequest().body(result);
+        }
+
+        List<UserProfile> users = userDirectory.search(prefix, Math.max(1, Math.min(limit, MAX_LIMIT)),
+                principal.getName());
+        List<Map<String, Object>> items = new ArrayList<>(users.size());
+        for (UserProfile user : users) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("username", user.getUsername());
+            item.put("nickname", user.getNickname());
+            item.put("avatarColor", user.getAvatarColor());
+            item.put("status", presenceService.getStatus(user.getUsername()));
+            items.add(item);
+        }
+        result.put("users", items);
+        return ResponseEntity.ok(result);
+    }
+}
@@ -0,0 +1,321 @@
+package com.ergouwebchat.model;
+
+import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.util.CoarseClock;
+import com.ergouwebchat.util.NameInterner;
+
+import lombok.Getter;
+import lombok.Setter;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 服务端内部流转的精简消息
+ * <p>与对外JSON结构{@link Message}不同，本类只在真正需要时才分配对象：
+ * 消息ID按需生成，时间戳使用粗粒度时钟的epoch毫秒，发送者/接收者名称经过驻留，
+ * 常用元数据（joinedUser、leftUser、fileUrl、fileName、fileSize、imageUrl）使用类型化字段，
+ * 其余元数据的Map延迟创建。只在发送到客户端或持久化的边界处才转换为{@link Message}</p>
+ */
+public class ChatMessage {
+    // 未设置文件大小时的取值
+    public static final long NO_FILE_SIZE = -1L;
+
+    // 时间戳转换使用的时区
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    /**
+     * 消息唯一标识（按需生成）
+     */
+    private String messageId;
+
+    /**
+     * 消息类型
+     */
+    @Getter
+    @Setter
+    private MessageType type;
+
+    /**
+     * 发送者标识（驻留）
+     */
+    @Getter
+    private String sender;
+
+    /**
+     * 接收者标识（私聊时使用，驻留）
+     */
+    @Getter
+    private String recipient;
+
+    /**
+     * 消息内容主体
+     */
+    @Getter
+    @Setter
+    private String content;
+
+    /**
+     * 消息创建时间（epoch毫秒）
+     */
+    @Getter
+    @Setter
+    private long timestamp;
+
+    /**
+     * 加入的用户（USER_JOIN消息）
+     */
+    @Getter
+    private String joinedUser;
+
+    /**
+     * 离开的用户（USER_LEAVE消息）
+     */
+    @Getter
+    private String leftUser;
+
+    /**
+     * 文件URL（FILE消息）
+     */
+    @Getter
+    @Setter
+    private String fileUrl;
+
+    /**
+     * 文件名（FILE消息）
+     */
+    @Getter
+    @Setter
+    private String fileName;
+
+    /**
+     * 文件大小（字节），未设置时为{@link #NO_FILE_SIZE}
+     */
+    @Getter
+    @Setter
+    private long fileSize = NO_FILE_SIZE;
+
+    /**
+     * 图片URL（IMAGE消息）
+     */
+    @Getter
+    @Setter
+    private String imageUrl;
+
+    /**
+     * 进入历史时分配的序号，未分配时为0
+     */
+    @Getter
+    @Setter
+    private long sequence;
+
+    /**
+     * 其余扩展元数据（延迟创建）
+     */
+    private Map<String, Object> extraMetadata;
+
+    /**
+     * 消息是否已读
+     */
+    @Getter
+    @Setter
+    private boolean read;
+
+    /**
+     * 消息是否已送达
+     */
+    @Getter
+    @Setter
+    private boolean delivered;
+
+    /**
+     * 构造方法，时间戳取自粗粒度时钟
+     * @param type 消息类型
+     * @param sender 发送者标识
+     * @param content 消息内容
+     */
+    public ChatMessage(MessageType type, String sender, String content) {
+        this.type = type;
+        this.sender = NameInterner.intern(sender);
+        this.content = content;
+        this.timestamp = CoarseClock.currentTimeMillis();
+    }
+
+    /**
+     * 从对外消息结构转换（用于解析客户端发来的消息）
+     * <p>消息ID由服务端生成，不沿用客户端填写的ID：帧缓存、去重和持久化都以消息ID为键，
+     * 客户端复用其他消息的ID会拿到或覆盖别人的帧。时间戳同样取服务端收到消息的时间，
+     * 客户端填写的时间会打乱历史和搜索的顺序，也会破坏日志存储按时间递增的稀疏索引和按时间的保留清理</p>
+     * @param message 对外消息
+     * @return 内部消息
+     */
+    public static ChatMessage fromMessage(Message message) {
+        ChatMessage chatMessage = new ChatMessage(message.getType(), message.getSender(), message.getContent());
+        chatMessage.setRecipient(message.getRecipient());
+        chatMessage.read = message.isRead();
+        chatMessage.delivered = message.isDelivered();
+        if (message.getMetadata() != null) {
+            for (Map.Entry<String, Object> entry : message.getMetadata().entrySet()) {
+                chatMessage.addMetadata(entry.getKey(), entry.getValue());
+            }
+        }
+        return chatMessage;
+    }
+
+    /**
+     * 转换为对外消息结构（只应在发送或持久化的边界调用）
+     * @return 对外消息
+     */
+    public Message toMessage() {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZONE);
+        Message message = new Message(getMessageId(), type, sender, recipient, content, time, toMetadataMap());
+        message.setRead(read);
+        message.setDelivered(delivered);
+        return message;
+    }
+
+    /**
+     * 获取消息ID，首次访问时生成
+     * <p>使用ThreadLocalRandom生成UUID格式的ID，避免UUID.randomUUID()背后SecureRandom的开销</p>
+     * @return 消息ID
+     */
+    public String getMessageId() {
+        if (messageId == null) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long most = (random.nextLong() & ~0xF000L) | 0x4000L;
+            long least = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+            messageId = new UUID(most, least).toString();
+        }
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public void setSender(String sender) {
+        this.sender = NameInterner.intern(sender);
+    }
+
+    public void setRecipient(String recipient) {
+        this.recipient = NameInterner.intern(recipient);
+    }
+
+    public void setJoinedUser(String joinedUser) {
+        this.joinedUser = NameInterner.intern(joinedUser);
+    }
+
+    public void setLeftUser(String leftUser) {
+        this.leftUser = NameInterner.intern(leftUser);
+    }
+
+    /**
+     * 添加元数据项，常用键写入类型化字段，其余写入延迟创建的Map
+     * @param key 元数据键
+     * @param value 元数据值
+     */
+    public void addMetadata(String key, Object value) {
+        switch (key) {
+            case "joinedUser":
+                setJoinedUser(value != null ? value.toString() : null);
+                return;
+            case "leftUser":
+                setLeftUser(value != null ? value.toString() : null);
+                return;
+            case "fileUrl":
+                this.fileUrl = value != null ? value.toString() : null;
+                return;
+            case "fileName":
+                this.fileName = value != null ? value.toString() : null;
+                return;
+            case "imageUrl":
+                this.imageUrl = value != null ? value.toString() : null;
+                return;
+            case "fileSize":
+                if (value instanceof Number) {
+                    this.fileSize = ((Number) value).longValue();
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        if (extraMetadata == null) {
+            extraMetadata = new HashMap<>(4);
+        }
+        extraMetadata.put(key, value);
+    }
+
+    /**
+     * 获取扩展元数据项（不含类型化字段）
+     * @param key 元数据键
+     * @return 元数据值，不存在时返回null
+     */
+    public Object getExtraMetadata(String key) {
+        return extraMetadata != null ? extraMetadata.get(key) : null;
+    }
+
+    /**
+     * 判断是否携带任何元数据
+     * @return 有元数据则返回true
+     */
+    public boolean hasMetadata() {
+        return joinedUser != null || leftUser != null || fileUrl != null || fileName != null
+                || imageUrl != null || fileSize != NO_FILE_SIZE
+                || (extraMetadata != null && !extraMetadata.isEmpty());
+    }
+
+    /**
+     * 组装完整的元数据Map（类型化字段与扩展元数据合并）
+     * <p>历史序号只在本节点内存和快照中使用，不发给客户端也不持久化</p>
+     * @return 新的元数据Map
+     */
+    public Map<String, Object> toMetadataMap() {
+        Map<String, Object> metadata = new HashMap<>(extraMetadata != null ? extraMetadata : Map.of());
+        if (joinedUser != null) {
+            metadata.put("joinedUser", joinedUser);
+        }
+        if (leftUser != null) {
+            metadata.put("leftUser", leftUser);
+        }
+        if (fileUrl != null) {
+            metadata.put("fileUrl", fileUrl);
+        }
+        if (fileName != null) {
+            metadata.put("fileName", fileName);
+        }
+        if (fileSize != NO_FILE_SIZE) {
+            metadata.put("fileSize", fileSize);
+        }
+        if (imageUrl != null) {
+            metadata.put("imageUrl", imageUrl);
+        }
+        return metadata;
+    }
+
+    /**
+     * 判断消息是否为系统消息
+     * @return 如果是系统消息则返回true
+     */
+    public boolean isSystemMessage() {
+        return MessageType.SYSTEM_NOTICE.equals(this.type) ||
+                MessageType.USER_JOIN.equals(this.type) ||
+                MessageType.USER_LEAVE.equals(this.type);
+    }
+
+    @Override
+    public String toString() {
+        return "ChatMessage{" +
+                "messageId='" + messageId + '\'' +
+                ", type=" + type +
+                ", sender='" + sender + '\'' +
+                ", recipient='" + recipient + '\'' +
+                ", content='" + content + '\'' +
+                ", timestamp=" + timestamp +
+                '}';
+    }
+}
@@ -0,0 +1,45 @@
+package com.ergouwebchat.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * 会话列表项（投影）
+ * <p>会话列表只需要这些字段，由一条查询直接取出，不加载会话实体和参与者</p>
+ */
+public interface ConversationSummary {
+
+    /**
+     * 会话ID
+     */
+    Long getId();
+
+    /**
+     * 会话名称（私聊为null）
+     */
+    String getName();
+
+    /**
+     * 会话类型（GROUP或PRIVATE）
+     */
+    String getType();
+
+    /**
+     * 最后一条消息的预览
+     */
+    String getLastMessagePreview();
+
+    /**
+     * 最后一条消息的发送者用户名
+     */
+    String getLastMessageSender();
+
+    /**
+     * 最后更新时间
+     */
+    LocalDateTime getUpdatedAt();
+
+    /**
+     * 当前用户的未读消息数
+     */
+    Long getUnreadCount();
+}
@@ -132,6 +132,28 @@ public class Message {
         this.delivered = false;
     }
 
+    /**
+     * 边界转换构造方法
+     * <p>由{@link ChatMessage#toMessage()}使用，直接采用传入的ID、时间和元数据，不再额外分配</p>
+     * @param messageId 消息ID
+     * @param type 消息类型枚举
+     * @param sender 发送者标识
+     * @param recipient 接收者标识
+     * @param content 消息内容
+     * @param timestamp 消息时间
+     * @param metadata 元数据
+     */
+    public Message(String messageId, MessageType type, String sender, String recipient, String content,
+                   LocalDateTime timestamp, Map<String, Object> metadata) {
+        this.messageId = messageId;
+        this.type = type;
+        this.sender = sender;
+        this.recipient = recipient;
+        this.content = content;
+        this.timestamp = timestamp;
+        this.metadata = metadata;
+    }
+
     /**
      * 添加元数据项
      * @param key 元数据键
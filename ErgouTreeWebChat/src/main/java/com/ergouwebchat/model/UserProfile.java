@@ -0,0 +1,56 @@
+package com.ergouwebchat.model;
+
+import com.ergouwebchat.model.entity.User;
+
+import lombok.Getter;
+
+/**
+ * 用户资料（只读视图）
+ * <p>只包含展示发送者信息和关联外键所需的字段，不含密码等敏感信息，可以安全地缓存和共享</p>
+ */
+@Getter
+public class UserProfile {
+    /**
+     * 用户ID
+     */
+    private final Long id;
+
+    /**
+     * 用户名
+     */
+    private final String username;
+
+    /**
+     * 昵称
+     */
+    private final String nickname;
+
+    /**
+     * 头像颜色
+     */
+    private final String avatarColor;
+
+    public UserProfile(Long id, String username, String nickname, String avatarColor) {
+        this.id = id;
+        this.username = username;
+        this.nickname = nickname;
+        this.avatarColor = avatarColor;
+    }
+
+    /**
+     * 从用户实体创建资料视图
+     * @param user 用户实体
+     * @return 资料视图
+     */
+    public static UserProfile of(User user) {
+        return new UserProfile(user.getId(), user.getUsername(), user.getNickname(), user.getAvatarColor());
+    }
+
+    /**
+     * 获取展示名称，未设置昵称时使用用户名
+     * @return 展示名称
+     */
+    public String getDisplayName() {
+        return nickname != null && !nickname.isEmpty() ? nickname : username;
+    }
+}
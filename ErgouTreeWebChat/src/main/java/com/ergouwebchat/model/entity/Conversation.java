@@ -2,6 +2,7 @@ package com.ergouwebchat.model.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.Immutable;
 import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Set;
@@ -10,7 +11,11 @@ import java.util.Set;
  * 会话实体类
  */
 @Entity
-@Table(name = "conversations")
+@Table(name = "conversations", indexes = {
+    @Index(name = "idx_conversations_updated", columnList = "updated_at")
+}, uniqueConstraints = {
+    @UniqueConstraint(name = "uk_conversations_private_pair", columnNames = {"user_low_id", "user_high_id"})
+})
 @Data
 public class Conversation {
     
@@ -31,6 +36,32 @@ public class Conversation {
     @Column(name = "updated_at", nullable = false)
     private LocalDateTime updatedAt = LocalDateTime.now();
     
+    /**
+     * 私聊双方中较小的用户ID（群聊为null）
+     */
+    @Column(name = "user_low_id")
+    private Long userLowId;
+    
+    /**
+     * 私聊双方中较大的用户ID（群聊为null）
+     */
+    @Column(name = "user_high_id")
+    private Long userHighId;
+    
+    @Column(name = "retention_days")
+    private Integer retentionDays;
+    
+    @Column(name = "last_message_preview", length = 200)
+    private String lastMessagePreview;
+    
+    @Column(name = "last_message_sender", length = 50)
+    private String lastMessageSender;
+    
+    /**
+     * 参与者（只读视图，仅用于两人私聊）
+     * <p>成员的增删和分页查询通过{@link ConversationMember}进行，群聊不要加载此集合</p>
+     */
+    @Immutable
     @ManyToMany
     @JoinTable(
         name = "user_conversation",
@@ -0,0 +1,37 @@
+package com.ergouwebchat.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 会话成员实体类
+ * <p>会话成员关系单独建模，按成员增删和分页查询，不随会话实体整体加载或回写</p>
+ */
+@Entity
+@Table(name = "user_conversation")
+@IdClass(ConversationMember.Key.class)
+@Data
+public class ConversationMember {
+    
+    @Id
+    @Column(name = "conversation_id")
+    private Long conversationId;
+    
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+    
+    @Column(name = "joined_at")
+    private LocalDateTime joinedAt;
+    
+    /**
+     * 复合主键
+     */
+    @Data
+    public static class Key implements Serializable {
+        private Long conversationId;
+        private Long userId;
+    }
+}
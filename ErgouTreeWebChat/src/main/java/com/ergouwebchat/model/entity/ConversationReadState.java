@@ -0,0 +1,37 @@
+package com.ergouwebchat.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * 会话已读位置实体类
+ * <p>记录用户在会话中读到的最新消息时间，未读数为此后他人发送的消息数</p>
+ */
+@Entity
+@Table(name = "conversation_read_state")
+@IdClass(ConversationReadState.Key.class)
+@Data
+public class ConversationReadState {
+    
+    @Id
+    @Column(name = "conversation_id")
+    private Long conversationId;
+    
+    @Id
+    @Column(name = "user_id")
+    private Long userId;
+    
+    @Column(name = "last_read_at", nullable = false)
+    private LocalDateTime lastReadAt;
+    
+    /**
+     * 复合主键
+     */
+    @Data
+    public static class Key implements Serializable {
+        private Long conversationId;
+        private Long userId;
+    }
+}
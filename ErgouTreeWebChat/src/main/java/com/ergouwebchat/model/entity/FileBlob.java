@@ -0,0 +1,46 @@
+package com.ergouwebchat.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 文件内容实体类
+ * <p>按内容的SHA-256寻址，内容相同的文件只在磁盘上保存一份，多条文件记录共享同一个内容。
+ * 引用计数为文件记录数，降到0后经过一段宽限期由垃圾回收删除</p>
+ */
+@Entity
+@Table(name = "file_blobs", indexes = {
+        @Index(name = "idx_file_blobs_unreferenced", columnList = "ref_count, released_at")
+})
+@Data
+public class FileBlob {
+    
+    /**
+     * 内容的SHA-256（十六进制小写）
+     */
+    @Id
+    @Column(length = 64)
+    private String hash;
+    
+    @Column(nullable = false)
+    private Long size;
+    
+    /**
+     * 相对于文件存储根目录的路径
+     */
+    @Column(nullable = false)
+    private String path;
+    
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount = 0;
+    
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+    
+    /**
+     * 最近一次减少引用的时间
+     */
+    @Column(name = "released_at")
+    private LocalDateTime releasedAt;
+}
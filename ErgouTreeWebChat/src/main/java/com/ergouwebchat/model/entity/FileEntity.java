@@ -6,9 +6,16 @@ import java.time.LocalDateTime;
 
 /**
  * 文件实体类
+ * <p>消息可能保存在日志存储或归档中，关系数据库里不一定有对应的消息行，因此只记录消息ID，不建外键。
+ * 会话键用于下载时校验访问权限。内容相同的文件共享同一个{@link FileBlob}</p>
  */
 @Entity
-@Table(name = "files")
+@Table(name = "files", indexes = {
+        @Index(name = "idx_files_message", columnList = "message_id"),
+        @Index(name = "idx_files_blob", columnList = "blob_hash"),
+        @Index(name = "idx_files_conversation", columnList = "conversation_key, uploaded_at"),
+        @Index(name = "idx_files_uploaded", columnList = "uploaded_at")
+})
 @Data
 public class FileEntity {
     
@@ -16,9 +23,20 @@ public class FileEntity {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     
-    @ManyToOne
-    @JoinColumn(name = "message_id", nullable = false)
-    private Message message;
+    @Column(name = "message_id", nullable = false, length = 50)
+    private String messageId;
+    
+    /**
+     * 消息所在的会话键
+     */
+    @Column(name = "conversation_key", length = 120)
+    private String conversationKey;
+    
+    /**
+     * 上传者用户名
+     */
+    @Column(length = 50)
+    private String uploader;
     
     @Column(name = "file_name", nullable = false)
     private String fileName;
@@ -29,6 +47,15 @@ public class FileEntity {
     @Column(name = "file_size", nullable = false)
     private Long fileSize;
     
+    /**
+     * 内容哈希，早于内容寻址存储的文件为null
+     */
+    @Column(name = "blob_hash", length = 64)
+    private String blobHash;
+    
+    /**
+     * 相对于文件存储根目录的路径
+     */
     @Column(name = "file_path", nullable = false)
     private String filePath;
     
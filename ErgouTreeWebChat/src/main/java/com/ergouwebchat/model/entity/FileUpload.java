@@ -0,0 +1,52 @@
+package com.ergouwebchat.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 文件上传会话实体类
+ * <p>记录分块上传的进度，已接收的字节数只在分块写入并刷盘后推进，
+ * 客户端断线后查询进度，从已接收的位置继续上传</p>
+ */
+@Entity
+@Table(name = "file_uploads", indexes = {
+        @Index(name = "idx_file_uploads_updated", columnList = "updated_at")
+})
+@Data
+public class FileUpload {
+    
+    @Id
+    @Column(length = 36)
+    private String id;
+    
+    /**
+     * 上传者用户名
+     */
+    @Column(nullable = false, length = 50)
+    private String uploader;
+    
+    /**
+     * 私聊接收者，群聊为null
+     */
+    @Column(length = 50)
+    private String recipient;
+    
+    @Column(name = "file_name", nullable = false)
+    private String fileName;
+    
+    @Column(name = "file_type", nullable = false, length = 100)
+    private String fileType;
+    
+    @Column(name = "total_size", nullable = false)
+    private Long totalSize;
+    
+    @Column(name = "received_bytes", nullable = false)
+    private Long receivedBytes = 0L;
+    
+    @Column(name = "created_at", nullable = false, updatable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+    
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt = LocalDateTime.now();
+}
@@ -0,0 +1,57 @@
+package com.ergouwebchat.model.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDateTime;
+
+/**
+ * 提及实体类
+ * <p>消息中每个被@的用户一行，按用户建索引，查询"提到我的消息"不需要扫描会话历史。
+ * 被提及时不在线的用户在重连时收到一次汇总，汇总后标记为已通知</p>
+ */
+@Entity
+@Table(name = "mentions", indexes = {
+        @Index(name = "idx_mentions_user", columnList = "user_id, id"),
+        @Index(name = "idx_mentions_user_notified", columnList = "user_id, notified, id"),
+        @Index(name = "idx_mentions_conversation_created", columnList = "conversation_key, created_at")
+})
+@Data
+public class Mention {
+    
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+    
+    /**
+     * 被提及的用户ID
+     */
+    @Column(name = "user_id", nullable = false)
+    private Long userId;
+    
+    @Column(name = "message_id", nullable = false, length = 50)
+    private String messageId;
+    
+    /**
+     * 消息所在的会话键
+     */
+    @Column(name = "conversation_key", nullable = false, length = 120)
+    private String conversationKey;
+    
+    @Column(nullable = false, length = 50)
+    private String sender;
+    
+    /**
+     * 消息内容预览
+     */
+    @Column(length = 200)
+    private String preview;
+    
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+    
+    /**
+     * 是否已通知（在线时实时收到或已包含在重连汇总中）
+     */
+    @Column(nullable = false)
+    private boolean notified;
+}
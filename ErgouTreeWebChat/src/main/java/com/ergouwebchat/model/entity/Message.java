@@ -9,7 +9,10 @@ import java.time.LocalDateTime;
  * 消息实体类
  */
 @Entity
-@Table(name = "messages")
+@Table(name = "messages", indexes = {
+    @Index(name = "idx_messages_conversation_created", columnList = "conversation_id, created_at"),
+    @Index(name = "idx_messages_created", columnList = "created_at")
+})
 @Data
 public class Message {
     
@@ -35,6 +35,12 @@ public class User {
     @Column(name = "last_login")
     private LocalDateTime lastLogin;
     
+    /**
+     * 最后活跃时间（由在线状态服务批量写回）
+     */
+    @Column(name = "last_active_at")
+    private LocalDateTime lastActiveAt;
+    
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt = LocalDateTime.now();
     
@@ -42,6 +48,6 @@ public class User {
      * 用户状态枚举
      */
     public enum UserStatus {
-        ONLINE, OFFLINE, AWAY
+        ONLINE, OFFLINE, AWAY, BUSY
     }
 }
@@ -0,0 +1,77 @@
+package com.ergouwebchat.repository;
+
+import com.ergouwebchat.model.entity.ConversationMember;
+import com.ergouwebchat.model.entity.User;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 会话成员数据访问层
+ */
+@Repository
+public interface ConversationMemberRepository extends JpaRepository<ConversationMember, ConversationMember.Key> {
+    
+    /**
+     * 添加成员，已是成员时忽略
+     * @param conversationId 会话ID
+     * @param userId 用户ID
+     * @param joinedAt 加入时间
+     * @return 实际插入的行数
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO user_conversation (conversation_id, user_id, joined_at) VALUES (?1, ?2, ?3)",
+            nativeQuery = true)
+    int addMember(Long conversationId, Long userId, LocalDateTime joinedAt);
+    
+    /**
+     * 移除成员
+     * @param conversationId 会话ID
+     * @param userId 用户ID
+     * @return 删除的行数
+     */
+    @Modifying
+    @Query("DELETE FROM ConversationMember m WHERE m.conversationId = ?1 AND m.userId = ?2")
+    int removeMember(Long conversationId, Long userId);
+    
+    /**
+     * 判断用户是否为会话成员
+     * @param conversationId 会话ID
+     * @param userId 用户ID
+     * @return 是成员返回true
+     */
+    boolean existsByConversationIdAndUserId(Long conversationId, Long userId);
+    
+    /**
+     * 按用户ID顺序查找指定ID之后的一批成员ID（用于分批加载）
+     * @param conversationId 会话ID
+     * @param afterUserId 上一批最后一个用户ID
+     * @param pageable 分页参数（只使用页大小）
+     * @return 用户ID列表
+     */
+    @Query("SELECT m.userId FROM ConversationMember m WHERE m.conversationId = ?1 AND m.userId > ?2 ORDER BY m.userId ASC")
+    List<Long> findUserIdsAfter(Long conversationId, Long afterUserId, Pageable pageable);
+    
+    /**
+     * 按用户ID顺序分页查找成员
+     * @param conversationId 会话ID
+     * @param afterUserId 上一页最后一个用户ID
+     * @param pageable 分页参数（只使用页大小）
+     * @return 用户列表
+     */
+    @Query("SELECT u FROM ConversationMember m JOIN User u ON u.id = m.userId "
+            + "WHERE m.conversationId = ?1 AND m.userId > ?2 ORDER BY m.userId ASC")
+    List<User> findMembersAfter(Long conversationId, Long afterUserId, Pageable pageable);
+    
+    /**
+     * 统计会话成员数
+     * @param conversationId 会话ID
+     * @return 成员数
+     */
+    long countByConversationId(Long conversationId);
+}
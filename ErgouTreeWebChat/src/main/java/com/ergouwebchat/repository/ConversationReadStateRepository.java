@@ -0,0 +1,28 @@
+package com.ergouwebchat.repository;
+
+import com.ergouwebchat.model.entity.ConversationReadState;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * 会话已读位置数据访问层
+ */
+@Repository
+public interface ConversationReadStateRepository extends JpaRepository<ConversationReadState, ConversationReadState.Key> {
+    
+    /**
+     * 推进用户在会话中的已读位置（只前进不后退）
+     * @param conversationId 会话ID
+     * @param userId 用户ID
+     * @param readAt 已读消息的时间
+     * @return 影响的行数
+     */
+    @Modifying
+    @Query(value = "INSERT INTO conversation_read_state (conversation_id, user_id, last_read_at) VALUES (?1, ?2, ?3) "
+            + "ON DUPLICATE KEY UPDATE last_read_at = GREATEST(last_read_at, VALUES(last_read_at))", nativeQuery = true)
+    int advance(Long conversationId, Long userId, LocalDateTime readAt);
+}
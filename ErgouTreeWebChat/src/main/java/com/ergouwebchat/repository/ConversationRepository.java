@@ -1,11 +1,18 @@
 package com.ergouwebchat.repository;
 
+import com.ergouwebchat.model.ConversationSummary;
 import com.ergouwebchat.model.entity.Conversation;
-import com.ergouwebchat.model.entity.User;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,22 +22,61 @@ import java.util.Optional;
 @Repository
 public interface ConversationRepository extends JpaRepository<Conversation, Long> {
     
+    /**
+     * 会话列表中未读数的统计上限（与{@link #findSummaries}中的OFFSET保持一致）
+     */
+    int UNREAD_COUNT_CAP = 100;
+    
     /**
      * 查找用户参与的所有会话
-     * @param user 用户
+     * @param userId 用户ID
      * @return 会话列表
      */
-    List<Conversation> findByParticipantsContaining(User user);
+    @Query("SELECT c FROM Conversation c WHERE c.id IN "
+            + "(SELECT m.conversationId FROM ConversationMember m WHERE m.userId = ?1) ORDER BY c.updatedAt DESC")
+    List<Conversation> findByMemberUserId(Long userId);
     
     /**
-     * 查找两个用户之间的私聊会话
-     * @param type 会话类型
-     * @param user1 用户1
-     * @param user2 用户2
+     * 按规范键查找私聊会话（唯一索引上的点查询）
+     * @param userLowId 较小的用户ID
+     * @param userHighId 较大的用户ID
+     * @return 私聊会话
+     */
+    Optional<Conversation> findByUserLowIdAndUserHighId(Long userLowId, Long userHighId);
+    
+    /**
+     * 按规范键加共享锁查找私聊会话，读取已提交的最新数据（用于插入后回读）
+     * @param userLowId 较小的用户ID
+     * @param userHighId 较大的用户ID
      * @return 私聊会话
      */
-    @Query("SELECT c FROM Conversation c WHERE c.type = :type AND SIZE(c.participants) = 2 AND :user1 MEMBER OF c.participants AND :user2 MEMBER OF c.participants")
-    Optional<Conversation> findPrivateConversation(Conversation.ConversationType type, User user1, User user2);
+    @Lock(LockModeType.PESSIMISTIC_READ)
+    @Query("SELECT c FROM Conversation c WHERE c.userLowId = ?1 AND c.userHighId = ?2")
+    Optional<Conversation> findLockedByUserLowIdAndUserHighId(Long userLowId, Long userHighId);
+    
+    /**
+     * 创建私聊会话，规范键已存在时忽略（并发创建时后到者等待先到者提交后放弃插入）
+     * @param userLowId 较小的用户ID
+     * @param userHighId 较大的用户ID
+     * @param createdAt 创建时间
+     * @return 实际插入的行数
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO conversations (type, user_low_id, user_high_id, created_at, updated_at) "
+            + "VALUES ('PRIVATE', ?1, ?2, ?3, ?3)", nativeQuery = true)
+    int insertPrivateIfAbsent(Long userLowId, Long userHighId, LocalDateTime createdAt);
+    
+    /**
+     * 为缺少规范键的旧私聊会话补齐规范键（重复的私聊会话保持原样）
+     * @return 更新的行数
+     */
+    @Modifying
+    @Query(value = "UPDATE IGNORE conversations c JOIN ("
+            + "SELECT conversation_id, MIN(user_id) AS low_id, MAX(user_id) AS high_id FROM user_conversation "
+            + "GROUP BY conversation_id HAVING COUNT(*) = 2) p ON p.conversation_id = c.id "
+            + "SET c.user_low_id = p.low_id, c.user_high_id = p.high_id "
+            + "WHERE c.type = 'PRIVATE' AND c.user_low_id IS NULL", nativeQuery = true)
+    int backfillPrivateKeys();
     
     /**
      * 查找群聊会话
@@ -39,4 +85,53 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
      * @return 群聊会话
      */
     Optional<Conversation> findByTypeAndName(Conversation.ConversationType type, String name);
+    
+    /**
+     * 查找会话并同时加载参与者
+     * @param id 会话ID
+     * @return 会话
+     */
+    @EntityGraph(attributePaths = "participants")
+    Optional<Conversation> findWithParticipantsById(Long id);
+    
+    /**
+     * 批量加载会话的参与者（已在持久化上下文中的会话实体随之初始化参与者集合）
+     * @param ids 会话ID
+     * @return 会话列表
+     */
+    @Query("SELECT DISTINCT c FROM Conversation c LEFT JOIN FETCH c.participants WHERE c.id IN ?1")
+    List<Conversation> findWithParticipantsByIdIn(Collection<Long> ids);
+    
+    /**
+     * 按ID顺序查找指定ID之后的会话（用于分批遍历）
+     * @param id 上一批最后一个会话的ID
+     * @param pageable 分页参数（只使用页大小）
+     * @return 会话列表
+     */
+    List<Conversation> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+    
+    /**
+     * 分页查询用户的会话列表，按最后更新时间倒序
+     * <p>一条查询取出会话摘要和未读数：未读数只统计已读位置之后他人发送的消息，走(conversation_id, created_at)索引。
+     * 计数范围限制在会话最新的{@link #UNREAD_COUNT_CAP}条消息内（先取第N新消息的时间作为下界），
+     * 大群长期未读时不会扫描全部历史，结果达到上限时由调用方显示为“99+”</p>
+     * @param userId 用户ID
+     * @param before 上一页最后一项的更新时间
+     * @param beforeId 上一页最后一项的会话ID
+     * @param limit 每页数量
+     * @return 会话列表项
+     */
+    @Query(value = "SELECT c.id AS id, c.name AS name, c.type AS type, "
+            + "c.last_message_preview AS lastMessagePreview, c.last_message_sender AS lastMessageSender, "
+            + "c.updated_at AS updatedAt, "
+            + "(SELECT COUNT(*) FROM messages m WHERE m.conversation_id = c.id "
+            + "AND m.created_at > COALESCE(rs.last_read_at, '1970-01-01') "
+            + "AND m.created_at >= COALESCE((SELECT m2.created_at FROM messages m2 WHERE m2.conversation_id = c.id "
+            + "ORDER BY m2.created_at DESC LIMIT 1 OFFSET 99), '1970-01-01') "
+            + "AND m.sender_id <> ?1) AS unreadCount "
+            + "FROM user_conversation uc JOIN conversations c ON c.id = uc.conversation_id "
+            + "LEFT JOIN conversation_read_state rs ON rs.conversation_id = c.id AND rs.user_id = ?1 "
+            + "WHERE uc.user_id = ?1 AND (c.updated_at < ?2 OR (c.updated_at = ?2 AND c.id < ?3)) "
+            + "ORDER BY c.updated_at DESC, c.id DESC LIMIT ?4", nativeQuery = true)
+    List<ConversationSummary> findSummaries(Long userId, LocalDateTime before, Long beforeId, int limit);
 }
@@ -0,0 +1,74 @@
+package com.ergouwebchat.repository;
+
+import com.ergouwebchat.model.entity.FileBlob;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 文件内容数据访问层
+ */
+@Repository
+public interface FileBlobRepository extends JpaRepository<FileBlob, String> {
+    
+    /**
+     * 增加内容的引用，内容不存在时创建（引用计数为1）
+     * <p>持有行锁直到事务结束，与垃圾回收互斥</p>
+     * @param hash 内容哈希
+     * @param size 内容大小
+     * @param path 相对路径
+     * @param createdAt 创建时间
+     * @return 新建时为1，已存在时为2
+     */
+    @Modifying
+    @Query(value = "INSERT INTO file_blobs (hash, size, path, ref_count, created_at) VALUES (?1, ?2, ?3, 1, ?4) "
+            + "ON DUPLICATE KEY UPDATE ref_count = ref_count + 1", nativeQuery = true)
+    int retain(String hash, Long size, String path, LocalDateTime createdAt);
+    
+    /**
+     * 减少内容的引用
+     * @param hash 内容哈希
+     * @param count 减少的引用数
+     * @param releasedAt 减少引用的时间
+     * @return 影响的行数
+     */
+    @Modifying
+    @Query("UPDATE FileBlob b SET b.refCount = b.refCount - ?2, b.releasedAt = ?3 WHERE b.hash = ?1")
+    int release(String hash, int count, LocalDateTime releasedAt);
+    
+    /**
+     * 查找不再被引用且超过宽限期的内容
+     * @param cutoff 最近一次减少引用早于该时间
+     * @param pageable 分页参数（只使用大小）
+     * @return 内容哈希列表
+     */
+    @Query("SELECT b.hash FROM FileBlob b WHERE b.refCount <= 0 AND b.releasedAt < ?1 ORDER BY b.releasedAt ASC")
+    List<String> findUnreferenced(LocalDateTime cutoff, Pageable pageable);
+    
+    /**
+     * 查找已有记录的内容（孤儿清理时过滤仍被记录的文件）
+     * @param hashes 内容哈希
+     * @return 其中存在记录的哈希
+     */
+    @Query("SELECT b.hash FROM FileBlob b WHERE b.hash IN ?1")
+    List<String> findExistingHashes(Collection<String> hashes);
+    
+    /**
+     * 加排他锁查找内容（垃圾回收删除前重新确认引用计数）
+     * <p>记录不存在时InnoDB在可重复读隔离级别下锁住索引间隙，事务结束前同一哈希的插入会等待</p>
+     * @param hash 内容哈希
+     * @return 内容
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT b FROM FileBlob b WHERE b.hash = ?1")
+    Optional<FileBlob> findLockedByHash(String hash);
+}
@@ -1,10 +1,14 @@
 package com.ergouwebchat.repository;
 
 import com.ergouwebchat.model.entity.FileEntity;
-import com.ergouwebchat.model.entity.Message;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -14,11 +18,11 @@ import java.util.List;
 public interface FileRepository extends JpaRepository<FileEntity, Long> {
     
     /**
-     * 根据消息查找文件
-     * @param message 消息
+     * 根据消息ID查找文件
+     * @param messageId 消息ID
      * @return 文件列表
      */
-    List<FileEntity> findByMessage(Message message);
+    List<FileEntity> findByMessageId(String messageId);
     
     /**
      * 根据文件类型查找文件
@@ -28,8 +32,66 @@ public interface FileRepository extends JpaRepository<FileEntity, Long> {
     List<FileEntity> findByFileType(String fileType);
     
     /**
-     * 删除消息相关的所有文件
-     * @param message 消息
+     * 统计消息相关的文件记录对各个内容的引用数（删除文件记录前用于减少内容引用）
+     * @param messageIds 消息ID
+     * @return [内容哈希, 引用数]列表
      */
-    void deleteByMessage(Message message);
+    @Query("SELECT f.blobHash, COUNT(f) FROM FileEntity f WHERE f.messageId IN ?1 AND f.blobHash IS NOT NULL "
+            + "GROUP BY f.blobHash")
+    List<Object[]> countBlobReferences(Collection<String> messageIds);
+    
+    /**
+     * 批量删除消息相关的文件记录
+     * @param messageIds 消息ID
+     * @return 删除的行数
+     */
+    @Modifying
+    @Query("DELETE FROM FileEntity f WHERE f.messageId IN ?1")
+    int deleteByMessageIds(Collection<String> messageIds);
+    
+    /**
+     * 查找会话的文件记录ID
+     * @param conversationKey 会话键
+     * @param pageable 分页参数（只使用大小）
+     * @return 文件记录ID列表
+     */
+    @Query("SELECT f.id FROM FileEntity f WHERE f.conversationKey = ?1 ORDER BY f.id ASC")
+    List<Long> findIdsByConversationKey(String conversationKey, Pageable pageable);
+    
+    /**
+     * 查找会话中早于指定时间上传的文件记录ID
+     * @param conversationKey 会话键
+     * @param cutoff 截止时间
+     * @param pageable 分页参数（只使用大小）
+     * @return 文件记录ID列表
+     */
+    @Query("SELECT f.id FROM FileEntity f WHERE f.conversationKey = ?1 AND f.uploadedAt < ?2 ORDER BY f.uploadedAt ASC")
+    List<Long> findIdsByConversationKeyBefore(String conversationKey, LocalDateTime cutoff, Pageable pageable);
+    
+    /**
+     * 查找早于指定时间上传的文件记录ID
+     * @param cutoff 截止时间
+     * @param pageable 分页参数（只使用大小）
+     * @return 文件记录ID列表
+     */
+    @Query("SELECT f.id FROM FileEntity f WHERE f.uploadedAt < ?1 ORDER BY f.uploadedAt ASC")
+    List<Long> findIdsBefore(LocalDateTime cutoff, Pageable pageable);
+    
+    /**
+     * 统计文件记录对各个内容的引用数（按文件记录ID）
+     * @param ids 文件记录ID
+     * @return [内容哈希, 引用数]列表
+     */
+    @Query("SELECT f.blobHash, COUNT(f) FROM FileEntity f WHERE f.id IN ?1 AND f.blobHash IS NOT NULL "
+            + "GROUP BY f.blobHash")
+    List<Object[]> countBlobReferencesByIds(Collection<Long> ids);
+    
+    /**
+     * 按ID批量删除文件记录
+     * @param ids 文件记录ID
+     * @return 删除的行数
+     */
+    @Modifying
+    @Query("DELETE FROM FileEntity f WHERE f.id IN ?1")
+    int deleteByIds(Collection<Long> ids);
 }
@@ -0,0 +1,48 @@
+package com.ergouwebchat.repository;
+
+import com.ergouwebchat.model.entity.FileUpload;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 文件上传会话数据访问层
+ */
+@Repository
+public interface FileUploadRepository extends JpaRepository<FileUpload, String> {
+    
+    /**
+     * 推进已接收的字节数（仅当当前值等于预期值时，防止同一位置的分块并发写入）
+     * @param id 上传ID
+     * @param expected 预期的当前值
+     * @param receivedBytes 新值
+     * @param updatedAt 更新时间
+     * @return 影响的行数
+     */
+    @Modifying
+    @Query("UPDATE FileUpload u SET u.receivedBytes = ?3, u.updatedAt = ?4 WHERE u.id = ?1 AND u.receivedBytes = ?2")
+    int advance(String id, Long expected, Long receivedBytes, LocalDateTime updatedAt);
+    
+    /**
+     * 查找长时间没有进展的上传
+     * @param cutoff 截止时间
+     * @param pageable 分页参数（只使用大小）
+     * @return 上传会话列表
+     */
+    @Query("SELECT u FROM FileUpload u WHERE u.updatedAt < ?1 ORDER BY u.updatedAt ASC")
+    List<FileUpload> findStale(LocalDateTime cutoff, Pageable pageable);
+    
+    /**
+     * 认领已全部接收的上传：删除上传会话，并发完成同一上传时只有一个请求影响到1行
+     * @param id 上传ID
+     * @return 影响的行数
+     */
+    @Modifying
+    @Query("DELETE FROM FileUpload u WHERE u.id = ?1 AND u.receivedBytes = u.totalSize")
+    int claimCompleted(String id);
+}
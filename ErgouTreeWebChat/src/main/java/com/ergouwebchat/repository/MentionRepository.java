@@ -0,0 +1,89 @@
+package com.ergouwebchat.repository;
+
+import com.ergouwebchat.model.entity.Mention;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 提及数据访问层
+ */
+@Repository
+public interface MentionRepository extends JpaRepository<Mention, Long> {
+    
+    /**
+     * 按ID倒序分页获取用户被提及的记录
+     * @param userId 用户ID
+     * @param beforeId 上一页最后一条的ID
+     * @param pageable 分页参数（只使用大小）
+     * @return 提及列表
+     */
+    @Query("SELECT m FROM Mention m WHERE m.userId = ?1 AND m.id < ?2 ORDER BY m.id DESC")
+    List<Mention> findByUserIdBefore(Long userId, Long beforeId, Pageable pageable);
+    
+    /**
+     * 获取用户未通知的提及，最新的在前
+     * @param userId 用户ID
+     * @param pageable 分页参数（只使用大小）
+     * @return 提及列表
+     */
+    @Query("SELECT m FROM Mention m WHERE m.userId = ?1 AND m.notified = false ORDER BY m.id DESC")
+    List<Mention> findUnnotified(Long userId, Pageable pageable);
+    
+    /**
+     * 获取有未通知提及的用户ID
+     * @return 用户ID列表
+     */
+    @Query("SELECT DISTINCT m.userId FROM Mention m WHERE m.notified = false")
+    List<Long> findUserIdsWithUnnotified();
+    
+    /**
+     * 统计用户未通知的提及数
+     * @param userId 用户ID
+     * @return 数量
+     */
+    long countByUserIdAndNotifiedFalse(Long userId);
+    
+    /**
+     * 把用户不晚于指定ID的未通知提及标记为已通知
+     * @param userId 用户ID
+     * @param maxId 最大ID
+     * @return 影响的行数
+     */
+    @Modifying
+    @Query("UPDATE Mention m SET m.notified = true WHERE m.userId = ?1 AND m.notified = false AND m.id <= ?2")
+    int markNotified(Long userId, Long maxId);
+    
+    /**
+     * 删除会话的全部提及
+     * @param conversationKey 会话键
+     * @return 删除的行数
+     */
+    @Modifying
+    @Query("DELETE FROM Mention m WHERE m.conversationKey = ?1")
+    int deleteByConversationKey(String conversationKey);
+    
+    /**
+     * 删除会话中早于指定时间的提及
+     * @param conversationKey 会话键
+     * @param cutoff 截止时间
+     * @return 删除的行数
+     */
+    @Modifying
+    @Query("DELETE FROM Mention m WHERE m.conversationKey = ?1 AND m.createdAt < ?2")
+    int deleteByConversationKeyBefore(String conversationKey, LocalDateTime cutoff);
+    
+    /**
+     * 删除早于指定时间的提及
+     * @param cutoff 截止时间
+     * @return 删除的行数
+     */
+    @Modifying
+    @Query("DELETE FROM Mention m WHERE m.createdAt < ?1")
+    int deleteBefore(LocalDateTime cutoff);
+}
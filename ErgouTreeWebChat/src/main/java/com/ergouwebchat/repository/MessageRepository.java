@@ -6,10 +6,12 @@ import com.ergouwebchat.model.entity.User;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -43,14 +45,24 @@ public interface MessageRepository extends JpaRepository<Message, String> {
     List<Message> findBySender(User sender);
     
     /**
-     * 查找特定时间段内的消息
+     * 查找特定时间段内最早的若干条消息（同时取出发送者）
      * @param conversation 会话
      * @param start 开始时间
      * @param end 结束时间
+     * @param pageable 分页参数（限制条数）
      * @return 消息列表
      */
-    List<Message> findByConversationAndCreatedAtBetweenOrderByCreatedAtAsc(
-            Conversation conversation, LocalDateTime start, LocalDateTime end);
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation = ?1 AND m.createdAt BETWEEN ?2 AND ?3 ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findRange(Conversation conversation, LocalDateTime start, LocalDateTime end, Pageable pageable);
+    
+    /**
+     * 按ID批量查找会话中的消息（同时取出发送者）
+     * @param conversation 会话
+     * @param ids 消息ID
+     * @return 消息列表
+     */
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender WHERE m.conversation = ?1 AND m.id IN ?2")
+    List<Message> findByConversationAndIds(Conversation conversation, Collection<String> ids);
     
     /**
      * 统计会话中的消息数量
@@ -60,8 +72,67 @@ public interface MessageRepository extends JpaRepository<Message, String> {
     long countByConversation(Conversation conversation);
     
     /**
-     * 删除会话中的所有消息
-     * @param conversation 会话
+     * 按时间顺序查找早于指定时间的消息（用于分批归档，同时取出发送者和会话）
+     * @param cutoff 截止时间
+     * @param pageable 分页参数
+     * @return 消息列表
+     */
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender JOIN FETCH m.conversation WHERE m.createdAt < ?1 ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findArchivable(LocalDateTime cutoff, Pageable pageable);
+    
+    /**
+     * 按（创建时间, ID）顺序查找指定位置之后的消息（用于键集分页遍历）
+     * @param createdAt 上一页最后一条消息的创建时间
+     * @param id 上一页最后一条消息的ID
+     * @param pageable 分页参数（只使用页大小）
+     * @return 消息列表
+     */
+    @Query("SELECT m FROM Message m JOIN FETCH m.sender JOIN FETCH m.conversation WHERE m.createdAt > ?1 OR (m.createdAt = ?1 AND m.id > ?2) ORDER BY m.createdAt ASC, m.id ASC")
+    List<Message> findPageAfter(LocalDateTime createdAt, String id, Pageable pageable);
+    
+    /**
+     * 按时间顺序查找会话中最早的一批消息ID（用于分块删除）
+     * @param conversationId 会话ID
+     * @param pageable 分页参数（只使用页大小）
+     * @return 消息ID列表
+     */
+    @Query("SELECT m.id FROM Message m WHERE m.conversation.id = ?1 ORDER BY m.createdAt ASC, m.id ASC")
+    List<String> findIdsByConversationId(Long conversationId, Pageable pageable);
+    
+    /**
+     * 按时间顺序查找会话中早于指定时间的一批消息ID（用于分块删除）
+     * @param conversationId 会话ID
+     * @param cutoff 截止时间
+     * @param pageable 分页参数（只使用页大小）
+     * @return 消息ID列表
+     */
+    @Query("SELECT m.id FROM Message m WHERE m.conversation.id = ?1 AND m.createdAt < ?2 ORDER BY m.createdAt ASC, m.id ASC")
+    List<String> findIdsByConversationIdBefore(Long conversationId, LocalDateTime cutoff, Pageable pageable);
+    
+    /**
+     * 按时间顺序查找早于指定时间的一批消息ID（用于分块删除）
+     * @param cutoff 截止时间
+     * @param pageable 分页参数（只使用页大小）
+     * @return 消息ID列表
+     */
+    @Query("SELECT m.id FROM Message m WHERE m.createdAt < ?1 ORDER BY m.createdAt ASC, m.id ASC")
+    List<String> findIdsBefore(LocalDateTime cutoff, Pageable pageable);
+    
+    /**
+     * 删除指定消息的已读状态
+     * @param messageIds 消息ID
+     * @return 删除的行数
+     */
+    @Modifying
+    @Query(value = "DELETE FROM message_read_status WHERE message_id IN (?1)", nativeQuery = true)
+    int deleteReadStatusByMessageIds(Collection<String> messageIds);
+    
+    /**
+     * 按ID批量删除消息（不级联，调用前先删除已读状态和文件记录）
+     * @param ids 消息ID
+     * @return 删除的消息数量
      */
-    void deleteByConversation(Conversation conversation);
+    @Modifying(clearAutomatically = true)
+    @Query("DELETE FROM Message m WHERE m.id IN ?1")
+    int deleteByIds(Collection<String> ids);
 }
@@ -25,11 +25,4 @@ public interface UserRepository extends JpaRepository<User, Long> {
      * @return 是否存在
      */
     boolean existsByUsername(String username);
-    
-    /**
-     * 根据在线状态查找用户列表
-     * @param status 用户状态
-     * @return 用户列表
-     */
-    java.util.List<User> findByStatus(User.UserStatus status);
 }
@@ -0,0 +1,224 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.ChatMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按会话划分的最近消息历史
+ * <p>群聊和每个私聊各自保留最近的消息，私聊历史只回放给参与双方。
+ * 每条进入历史的消息分配一个单调递增的序号，序号计数器随快照持久化，重启后不回退。
+ * 会话数量有上限，超出时淘汰最久未活跃的私聊会话</p>
+ */
+public class ConversationHistory {
+    /**
+     * 群聊会话键
+     */
+    public static final String GROUP_KEY = "GROUP";
+
+    // 私聊会话键前缀
+    private static final String PRIVATE_PREFIX = "P:";
+
+    private final int maxPerConversation;
+    private final int maxConversations;
+
+    // 会话键到最近消息的映射，按访问顺序排列
+    private final LinkedHashMap<String, ArrayDeque<ChatMessage>> histories;
+
+    // 用户名到其参与的私聊会话键的索引
+    private final Map<String, Set<String>> userConversations = new HashMap<>();
+
+    // 消息序号计数器
+    private long sequence;
+
+    /**
+     * 构造方法
+     * @param maxPerConversation 每个会话保留的消息数
+     * @param maxConversations 保留的会话数上限
+     */
+    public ConversationHistory(int maxPerConversation, int maxConversations) {
+        this.maxPerConversation = maxPerConversation;
+        this.maxConversations = maxConversations;
+        this.histories = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    /**
+     * 计算消息所属的会话键
+     * @param message 消息
+     * @return 会话键
+     */
+    public static String conversationKey(ChatMessage message) {
+        return conversationKey(message.getSender(), message.getRecipient());
+    }
+
+    /**
+     * 根据发送者和接收者计算会话键
+     * @param sender 发送者
+     * @param recipient 接收者（群聊为null或GROUP）
+     * @return 会话键
+     */
+    public static String conversationKey(String sender, String recipient) {
+        if (recipient == null || recipient.isEmpty() || GROUP_KEY.equals(recipient)) {
+            return GROUP_KEY;
+        }
+        return privateKey(sender, recipient);
+    }
+
+    /**
+     * 计算两个用户之间私聊的会话键（与参数顺序无关）
+     * @param user1 用户1
+     * @param user2 用户2
+     * @return 会话键
+     */
+    public static String privateKey(String user1, String user2) {
+        return user1.compareTo(user2) <= 0
+                ? PRIVATE_PREFIX + user1 + "|" + user2
+                : PRIVATE_PREFIX + user2 + "|" + user1;
+    }
+
+    /**
+     * 添加消息并分配序号
+     * @param message 消息
+     */
+    public synchronized void add(ChatMessage message) {
+        message.setSequence(++sequence);
+        String key = conversationKey(message);
+        ArrayDeque<ChatMessage> history = histories.get(key);
+        if (history == null) {
+            history = new ArrayDeque<>();
+            histories.put(key, history);
+            indexParticipants(key);
+            evictIfNeeded();
+        }
+        history.addLast(message);
+        if (history.size() > maxPerConversation) {
+            history.removeFirst();
+        }
+    }
+
+    /**
+     * 获取用户可见的最近消息：群聊加上其参与的私聊，按序号排序后取最后若干条
+     * @param username 用户名
+     * @param limit 最多返回的消息数
+     * @return 按序号升序的消息列表
+     */
+    public synchronized List<ChatMessage> recentFor(String username, int limit) {
+        List<ChatMessage> result = new ArrayList<>();
+        appendTail(result, histories.get(GROUP_KEY), limit);
+        Set<String> keys = userConversations.get(username);
+        if (keys != null) {
+            for (String key : keys) {
+                appendTail(result, histories.get(key), limit);
+            }
+        }
+        result.sort(Comparator.comparingLong(ChatMessage::getSequence));
+        return result.size() > limit ? new ArrayList<>(result.subList(result.size() - limit, result.size())) : result;
+    }
+
+    /**
+     * 导出全部历史（用于快照）
+     * @return 会话键到消息列表的映射
+     */
+    public synchronized Map<String, List<ChatMessage>> export() {
+        Map<String, List<ChatMessage>> copy = new LinkedHashMap<>();
+        for (Map.Entry<String, ArrayDeque<ChatMessage>> entry : histories.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * 获取当前序号
+     * @return 最近分配的序号
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * 从快照恢复历史和序号计数器
+     * @param snapshot 会话键到消息列表的映射
+     * @param restoredSequence 快照中的序号
+     */
+    public synchronized void restore(Map<String, List<ChatMessage>> snapshot, long restoredSequence) {
+        histories.clear();
+        userConversations.clear();
+        for (Map.Entry<String, List<ChatMessage>> entry : snapshot.entrySet()) {
+            List<ChatMessage> messages = entry.getValue();
+            int start = Math.max(0, messages.size() - maxPerConversation);
+            histories.put(entry.getKey(), new ArrayDeque<>(messages.subList(start, messages.size())));
+            indexParticipants(entry.getKey());
+        }
+        evictIfNeeded();
+        sequence = Math.max(sequence, restoredSequence);
+    }
+
+    private static void appendTail(List<ChatMessage> target, ArrayDeque<ChatMessage> history, int limit) {
+        if (history == null) {
+            return;
+        }
+        int skip = Math.max(0, history.size() - limit);
+        Iterator<ChatMessage> iterator = history.iterator();
+        for (int i = 0; iterator.hasNext(); i++) {
+            ChatMessage message = iterator.next();
+            if (i >= skip) {
+                target.add(message);
+            }
+        }
+    }
+
+    private void indexParticipants(String key) {
+        if (!key.startsWith(PRIVATE_PREFIX)) {
+            return;
+        }
+        for (String user : participants(key)) {
+            userConversations.computeIfAbsent(user, u -> new HashSet<>()).add(key);
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<String> iterator = histories.keySet().iterator();
+        while (histories.size() > maxConversations && iterator.hasNext()) {
+            String key = iterator.next();
+            if (GROUP_KEY.equals(key)) {
+                continue;
+            }
+            iterator.remove();
+            for (String user : participants(key)) {
+                Set<String> keys = userConversations.get(user);
+                if (keys != null) {
+                    keys.remove(key);
+                    if (keys.isEmpty()) {
+                        userConversations.remove(user);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 解析私聊会话键中的双方用户名
+     * @param key 会话键
+     * @return 双方用户名，群聊会话键返回null
+     */
+    public static String[] participantsOf(String key) {
+        return key.startsWith(PRIVATE_PREFIX) ? participants(key) : null;
+    }
+
+    private static String[] participants(String privateKey) {
+        int separator = privateKey.indexOf('|', PRIVATE_PREFIX.length());
+        return new String[]{
+                privateKey.substring(PRIVATE_PREFIX.length(), separator),
+                privateKey.substring(separator + 1)
+        };
+    }
+}
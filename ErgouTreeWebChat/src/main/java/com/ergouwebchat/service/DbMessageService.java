@@ -1,25 +1,38 @@
 package com.ergouwebchat.service;
 
+import com.ergouwebchat.model.ConversationSummary;
+import com.ergouwebchat.model.UserProfile;
 import com.ergouwebchat.model.entity.Conversation;
 import com.ergouwebchat.model.entity.Message;
 import com.ergouwebchat.model.entity.User;
 import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.repository.ConversationReadStateRepository;
 import com.ergouwebchat.repository.ConversationRepository;
 import com.ergouwebchat.repository.MessageRepository;
 import com.ergouwebchat.repository.UserRepository;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.service.file.FileRetentionService;
+import com.ergouwebchat.service.search.MessageSearchIndex;
+import com.ergouwebchat.service.storage.JpaMessageStore;
+import com.ergouwebchat.service.storage.MessageArchive;
+import com.ergouwebchat.service.storage.MessageStore;
+import com.ergouwebchat.service.storage.StoredMessage;
 import com.ergouwebchat.util.JsonUtils;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Sort;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.*;
 import java.util.logging.Logger;
 
 /**
  * 消息数据库服务类
+ * <p>消息的读写委托给{@link MessageStore}，由chat.storage.backend选择后端；
+ * 热存储中取不到的旧消息透明地回落到{@link MessageArchive}。会话列表和已读状态仍然保存在关系数据库中</p>
  */
 @Service
 public class DbMessageService {
@@ -29,104 +42,155 @@ public class DbMessageService {
     private final MessageRepository messageRepository;
     private final UserRepository userRepository;
     private final ConversationRepository conversationRepository;
+    private final ConversationReadStateRepository readStateRepository;
+    private final MessageStore messageStore;
+    private final MessageArchive messageArchive;
+    private final MessageSearchIndex searchIndex;
+    private final UserCache userCache;
+    private final MentionService mentionService;
+    private final FileRetentionService fileRetentionService;
     
     @Autowired
     public DbMessageService(MessageRepository messageRepository, 
                           UserRepository userRepository,
-                          ConversationRepository conversationRepository) {
+                          ConversationRepository conversationRepository,
+                          ConversationReadStateRepository readStateRepository,
+                          MessageStore messageStore,
+                          MessageArchive messageArchive,
+                          MessageSearchIndex searchIndex,
+                          UserCache userCache,
+                          MentionService mentionService,
+                          FileRetentionService fileRetentionService) {
         this.messageRepository = messageRepository;
         this.userRepository = userRepository;
         this.conversationRepository = conversationRepository;
+        this.readStateRepository = readStateRepository;
+        this.messageStore = messageStore;
+        this.messageArchive = messageArchive;
+        this.searchIndex = searchIndex;
+        this.userCache = userCache;
+        this.mentionService = mentionService;
+        this.fileRetentionService = fileRetentionService;
     }
     
     /**
-     * 保存消息到数据库
+     * 启动时为旧的私聊会话补齐规范键（较小和较大的用户ID）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void backfillPrivateConversationKeys() {
+        int updated = conversationRepository.backfillPrivateKeys();
+        if (updated > 0) {
+            LOGGER.info("已为 " + updated + " 个私聊会话补齐规范键");
+        }
+    }
+    
+    /**
+     * 保存消息
      * @param messageId 消息ID
      * @param senderUsername 发送者用户名
      * @param recipientUsername 接收者用户名（私聊时）
      * @param content 消息内容
      * @param type 消息类型
      * @param metadata 消息元数据
+     * @param createdAt 消息时间戳（epoch毫秒），与实时投递和内存历史中的时间一致
      * @return 保存的消息
      */
-    @Transactional
-    public Message saveMessage(String messageId, String senderUsername, String recipientUsername, 
-                              String content, MessageType type, Map<String, Object> metadata) {
-        // 查找发送者
-        User sender = userRepository.findByUsername(senderUsername)
-                .orElseThrow(() -> new RuntimeException("发送者不存在"));
-        
-        // 获取或创建会话
-        Conversation conversation;
+    public StoredMessage saveMessage(String messageId, String senderUsername, String recipientUsername, 
+                                     String content, MessageType type, Map<String, Object> metadata,
+                                     long createdAt) {
+        String conversationKey = ConversationHistory.conversationKey(senderUsername, recipientUsername);
+        boolean isPrivate = !ConversationHistory.GROUP_KEY.equals(conversationKey);
         
-        if (recipientUsername != null && !recipientUsername.equals("GROUP")) {
-            // 私聊
-            User recipient = userRepository.findByUsername(recipientUsername)
-                    .orElseThrow(() -> new RuntimeException("接收者不存在"));
-            
-            // 查找或创建私聊会话
-            conversation = conversationRepository
-                    .findPrivateConversation(Conversation.ConversationType.PRIVATE, sender, recipient)
-                    .orElseGet(() -> {
-                        Conversation newConversation = new Conversation();
-                        newConversation.setType(Conversation.ConversationType.PRIVATE);
-                        newConversation.getParticipants().add(sender);
-                        newConversation.getParticipants().add(recipient);
-                        return conversationRepository.save(newConversation);
-                    });
-        } else {
-            // 群聊
-            // 查找或创建群聊会话
-            conversation = conversationRepository
-                    .findByTypeAndName(Conversation.ConversationType.GROUP, "群聊")
-                    .orElseGet(() -> {
-                        Conversation newConversation = new Conversation();
-                        newConversation.setType(Conversation.ConversationType.GROUP);
-                        newConversation.setName("群聊");
-                        // 添加所有在线用户
-                        List<User> onlineUsers = userRepository.findByStatus(User.UserStatus.ONLINE);
-                        newConversation.getParticipants().addAll(onlineUsers);
-                        return conversationRepository.save(newConversation);
-                    });
+        StoredMessage message = new StoredMessage(
+                messageId,
+                conversationKey,
+                senderUsername,
+                isPrivate ? recipientUsername : null,
+                type,
+                content,
+                metadata != null ? JsonUtils.toJson(metadata) : null,
+                createdAt
+        );
+        messageStore.append(message);
+        searchIndex.index(message);
+        return message;
+    }
+    
+    /**
+     * 获取会话的最近消息
+     * @param conversationId 会话ID
+     * @param limit 消息数量限制
+     * @return 按时间倒序的消息列表
+     */
+    public List<StoredMessage> getRecentMessages(Long conversationId, int limit) {
+        return getRecentMessages(resolveConversationKey(conversationId), limit);
+    }
+    
+    /**
+     * 按会话键获取会话的最近消息
+     * @param conversationKey 会话键
+     * @param limit 消息数量限制
+     * @return 按时间倒序的消息列表
+     */
+    public List<StoredMessage> getRecentMessages(String conversationKey, int limit) {
+        List<StoredMessage> recent = messageStore.findRecent(conversationKey, limit);
+        if (recent.size() >= limit || !messageArchive.contains(conversationKey)) {
+            return recent;
         }
         
-        // 创建消息
-        Message message = new Message();
-        message.setId(messageId);
-        message.setSender(sender);
-        message.setConversation(conversation);
-        message.setType(type);
-        message.setContent(content);
-        
-        // 设置元数据
-        if (metadata != null) {
-            message.setMetadata(JsonUtils.toJson(metadata));
+        // 热存储不足时回落到归档，从热存储中最早一条消息的时间继续向前取
+        long before = recent.isEmpty() ? Long.MAX_VALUE : recent.get(recent.size() - 1).getCreatedAt();
+        List<StoredMessage> merged = new ArrayList<>(recent);
+        Set<String> seen = new HashSet<>();
+        for (StoredMessage message : recent) {
+            seen.add(message.getMessageId());
         }
-        
-        message.setCreatedAt(LocalDateTime.now());
-        
-        // 更新会话的最后更新时间
-        conversation.setUpdatedAt(LocalDateTime.now());
-        conversationRepository.save(conversation);
-        
-        // 保存消息
-        return messageRepository.save(message);
+        for (StoredMessage message : messageArchive.findRecent(conversationKey, limit, before)) {
+            if (merged.size() >= limit) {
+                break;
+            }
+            if (seen.add(message.getMessageId())) {
+                merged.add(message);
+            }
+        }
+        return merged;
     }
     
     /**
-     * 获取会话的最近消息
-     * @param conversationId 会话ID
+     * 按会话键获取时间段内的消息
+     * @param conversationKey 会话键
+     * @param start 开始时间
+     * @param end 结束时间
      * @param limit 消息数量限制
-     * @return 消息列表
+     * @return 按时间正序的消息列表
      */
-    public List<Message> getRecentMessages(Long conversationId, int limit) {
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(() -> new RuntimeException("会话不存在"));
+    public List<StoredMessage> getMessagesBetween(String conversationKey, LocalDateTime start, LocalDateTime end, int limit) {
+        long from = toEpochMillis(start);
+        long to = toEpochMillis(end);
+        List<StoredMessage> archived = messageArchive.findRange(conversationKey, from, to, limit);
+        if (archived.isEmpty()) {
+            return messageStore.findRange(conversationKey, from, to, limit);
+        }
+        if (archived.size() >= limit) {
+            return archived;
+        }
         
-        return messageRepository.findLatestMessages(
-                conversation, 
-                PageRequest.of(0, limit, Sort.by(Sort.Direction.DESC, "createdAt"))
-        );
+        // 归档中的消息早于热存储，先归档后热存储，按消息ID去重
+        List<StoredMessage> merged = new ArrayList<>(archived);
+        Set<String> seen = new HashSet<>();
+        for (StoredMessage message : archived) {
+            seen.add(message.getMessageId());
+        }
+        for (StoredMessage message : messageStore.findRange(conversationKey, from, to, limit)) {
+            if (merged.size() >= limit) {
+                break;
+            }
+            if (seen.add(message.getMessageId())) {
+                merged.add(message);
+            }
+        }
+        return merged;
     }
     
     /**
@@ -135,10 +199,39 @@ public class DbMessageService {
      * @return 会话列表
      */
     public List<Conversation> getUserConversations(String username) {
-        User user = userRepository.findByUsername(username)
+        UserProfile user = userCache.find(username)
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+        
+        return conversationRepository.findByMemberUserId(user.getId());
+    }
+    
+    /**
+     * 分页获取用户的会话列表（含最后一条消息预览和未读数），按最后更新时间倒序
+     * @param username 用户名
+     * @param before 上一页最后一项的更新时间，为null时从最新开始
+     * @param beforeId 上一页最后一项的会话ID
+     * @param limit 每页数量
+     * @return 会话列表项
+     */
+    public List<ConversationSummary> getConversationSummaries(String username, LocalDateTime before, Long beforeId, int limit) {
+        UserProfile user = userCache.find(username)
                 .orElseThrow(() -> new RuntimeException("用户不存在"));
         
-        return conversationRepository.findByParticipantsContaining(user);
+        if (before == null) {
+            before = LocalDateTime.of(9999, 12, 31, 0, 0);
+            beforeId = Long.MAX_VALUE;
+        }
+        return conversationRepository.findSummaries(user.getId(), before,
+                beforeId != null ? beforeId : Long.MAX_VALUE, limit);
+    }
+    
+    /**
+     * 会话列表能否提供最后一条消息预览和未读数
+     * <p>预览和未读数由关系数据库后端在写入消息时维护，日志存储后端不写消息表，这两项不可用</p>
+     * @return 可以提供返回true
+     */
+    public boolean supportsConversationPreview() {
+        return messageStore.supportsReadStatus();
     }
     
     /**
@@ -148,15 +241,22 @@ public class DbMessageService {
      */
     @Transactional
     public void markMessageAsRead(String messageId, String username) {
+        if (!messageStore.supportsReadStatus()) {
+            return;
+        }
+        
         Message message = messageRepository.findById(messageId)
                 .orElseThrow(() -> new RuntimeException("消息不存在"));
         
-        User user = userRepository.findByUsername(username)
+        UserProfile user = userCache.find(username)
                 .orElseThrow(() -> new RuntimeException("用户不存在"));
         
         // 将消息添加到用户的已读消息列表中
-        message.getReadBy().add(user);
+        message.getReadBy().add(userRepository.getReferenceById(user.getId()));
         messageRepository.save(message);
+        
+        // 推进会话已读位置，用于会话列表的未读数
+        readStateRepository.advance(message.getConversation().getId(), user.getId(), message.getCreatedAt());
     }
     
     /**
@@ -165,6 +265,10 @@ public class DbMessageService {
      * @return 已读用户列表
      */
     public Set<User> getMessageReadBy(String messageId) {
+        if (!messageStore.supportsReadStatus()) {
+            return Collections.emptySet();
+        }
+        
         Message message = messageRepository.findById(messageId)
                 .orElseThrow(() -> new RuntimeException("消息不存在"));
         
@@ -173,13 +277,48 @@ public class DbMessageService {
     
     /**
      * 删除会话的所有消息
+     * <p>不在外层事务中执行，存储按块分批删除</p>
      * @param conversationId 会话ID
      */
-    @Transactional
     public void deleteConversationMessages(Long conversationId) {
-        Conversation conversation = conversationRepository.findById(conversationId)
+        String conversationKey = resolveConversationKey(conversationId);
+        messageStore.deleteConversation(conversationKey);
+        messageArchive.deleteConversation(conversationKey);
+        searchIndex.removeConversation(conversationKey);
+        mentionService.deleteConversation(conversationKey);
+        fileRetentionService.purgeConversation(conversationKey);
+    }
+    
+    /**
+     * 删除早于指定时间的消息
+     * @param cutoff 截止时间
+     * @return 删除的消息数
+     */
+    public long deleteMessagesBefore(LocalDateTime cutoff) {
+        long cutoffMillis = toEpochMillis(cutoff);
+        searchIndex.removeBefore(cutoffMillis);
+        mentionService.deleteBefore(cutoffMillis);
+        fileRetentionService.purgeBefore(cutoffMillis);
+        return messageStore.deleteBefore(cutoffMillis) + messageArchive.deleteBefore(cutoffMillis);
+    }
+    
+    /**
+     * 把数据库会话ID解析为会话键
+     * @param conversationId 会话ID
+     * @return 会话键
+     */
+    private String resolveConversationKey(Long conversationId) {
+        Conversation conversation = conversationRepository.findWithParticipantsById(conversationId)
                 .orElseThrow(() -> new RuntimeException("会话不存在"));
         
-        messageRepository.deleteByConversation(conversation);
+        String conversationKey = JpaMessageStore.keyOf(conversation);
+        if (conversationKey == null) {
+            throw new RuntimeException("无法识别的会话");
+        }
+        return conversationKey;
+    }
+    
+    private static long toEpochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
 }
@@ -0,0 +1,122 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.service.snapshot.HotStateSnapshotService;
+
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 停机排空协调器
+ * <p>应用停止时最先执行（生命周期阶段最高，早于Web服务器优雅停机）：
+ * 拒绝新握手，等待正在处理的消息完成，向所有会话发送带重连间隔提示的1012关闭码，
+ * 最后把热状态写入本地快照，让滚动发布对用户尽量无感</p>
+ */
+@Component
+public class DrainCoordinator implements SmartLifecycle {
+    private static final Logger LOGGER = Logger.getLogger(DrainCoordinator.class.getName());
+
+    /**
+     * 排空关闭的会话属性标记，端点据此跳过离开广播
+     */
+    public static final String DRAINED_PROPERTY = "drained";
+
+    private final HandshakeAdmission admission;
+    private final MessageService messageService;
+    private final HotStateSnapshotService snapshotService;
+    private final UserSessionManager sessionManager;
+
+    private final long drainTimeoutMillis;
+    private final int reconnectAfterSeconds;
+
+    private volatile boolean running;
+
+    public DrainCoordinator(HandshakeAdmission admission,
+                            MessageService messageService,
+                            HotStateSnapshotService snapshotService,
+                            @Value("${chat.drain.timeout-seconds:10}") long drainTimeoutSeconds,
+                            @Value("${chat.drain.reconnect-after-seconds:5}") int reconnectAfterSeconds) {
+        this.admission = admission;
+        this.messageService = messageService;
+        this.snapshotService = snapshotService;
+        this.sessionManager = UserSessionManager.getInstance();
+        this.drainTimeoutMillis = TimeUnit.SECONDS.toMillis(drainTimeoutSeconds);
+        this.reconnectAfterSeconds = reconnectAfterSeconds;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        drain();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // 最先停止
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * 执行排空
+     */
+    public void drain() {
+        LOGGER.info("开始停机排空，当前会话数: " + sessionManager.getActiveUserCount());
+
+        // 1. 拒绝新握手
+        admission.beginDrain(reconnectAfterSeconds);
+
+        // 2. 等待正在处理的消息（广播、持久化）完成
+        if (!messageService.awaitIdle(drainTimeoutMillis)) {
+            LOGGER.warning("等待消息处理完成超时，继续排空");
+        }
+
+        // 3. 先写快照，此时在线用户仍完整
+        snapshotService.save();
+
+        // 4. 关闭所有会话，关闭原因中携带重连间隔提示
+        CloseReason reason = new CloseReason(CloseReason.CloseCodes.SERVICE_RESTART,
+                "retry-after=" + reconnectAfterSeconds);
+        List<String> usernames = new ArrayList<>();
+        sessionManager.getUsernames().forEach(usernames::add);
+        for (Map.Entry<String, Session> entry : sessionManager.getAllSessions().entrySet()) {
+            Session session = entry.getValue();
+            session.getUserProperties().put(DRAINED_PROPERTY, Boolean.TRUE);
+            try {
+                if (session.isOpen()) {
+                    session.close(reason);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "关闭会话失败: " + e.getMessage(), e);
+            }
+        }
+        for (String username : usernames) {
+            sessionManager.removeUserSession(username);
+            messageService.markOffline(username);
+        }
+
+        LOGGER.info("停机排空完成，已关闭 " + usernames.size() + " 个会话");
+    }
+}
@@ -0,0 +1,139 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.util.CoarseClock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 握手准入控制
+ * <p>限制同时处于建连阶段（加入广播、在线列表、历史回放）的连接数。
+ * 节点重启后大量客户端同时重连时，超出上限的握手被快速拒绝并附带重试间隔提示，
+ * 提示值随最近的拒绝数增长，让客户端自然错峰</p>
+ * <p>节点停机排空期间拒绝所有新握手，提示客户端在排空完成后重连到其他节点或重启后的本节点</p>
+ */
+@Service
+public class HandshakeAdmission {
+
+    // 统计拒绝数的时间窗口（毫秒）
+    private static final long WINDOW_MILLIS = 1000;
+
+    private final int maxConcurrent;
+    private final int baseRetryAfterSeconds;
+    private final int maxRetryAfterSeconds;
+
+    private final Semaphore permits;
+
+    // 当前窗口起始时间和窗口内的拒绝数
+    private final AtomicLong windowStart = new AtomicLong();
+    private final AtomicInteger rejectedInWindow = new AtomicInteger();
+
+    // 累计拒绝数
+    private final AtomicLong totalRejected = new AtomicLong();
+
+    // 是否处于停机排空状态，以及排空期间提示的重连间隔
+    private volatile boolean draining;
+    private volatile int drainRetryAfterSeconds;
+
+    public HandshakeAdmission(@Value("${chat.ws.admission.max-concurrent:32}") int maxConcurrent,
+                              @Value("${chat.ws.admission.retry-after-seconds:2}") int baseRetryAfterSeconds,
+                              @Value("${chat.ws.admission.max-retry-after-seconds:30}") int maxRetryAfterSeconds) {
+        this.maxConcurrent = maxConcurrent;
+        this.baseRetryAfterSeconds = baseRetryAfterSeconds;
+        this.maxRetryAfterSeconds = maxRetryAfterSeconds;
+        this.permits = new Semaphore(maxConcurrent);
+    }
+
+    /**
+     * 尝试获取建连许可，不等待
+     * @return 获取成功返回true，需在建连完成后调用{@link #release()}
+     */
+    public boolean tryAcquire() {
+        if (draining) {
+            recordRejection();
+            return false;
+        }
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        recordRejection();
+        return false;
+    }
+
+    /**
+     * 释放建连许可
+     */
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * 判断是否已达到并发上限（用于获取令牌等前置环节的快速拒绝）
+     * @return 已饱和返回true，同时计入一次拒绝
+     */
+    public boolean rejectIfSaturated() {
+        if (!draining && permits.availablePermits() > 0) {
+            return false;
+        }
+        recordRejection();
+        return true;
+    }
+
+    /**
+     * 计算建议的重试间隔
+     * @return 重试间隔（秒）
+     */
+    public int retryAfterSeconds() {
+        if (draining) {
+            return drainRetryAfterSeconds;
+        }
+        long scaled = (long) baseRetryAfterSeconds * (1 + rejectedInWindow.get() / Math.max(1, maxConcurrent));
+        return (int) Math.min(maxRetryAfterSeconds, scaled);
+    }
+
+    /**
+     * 进入停机排空状态，此后所有新握手都被拒绝
+     * @param retryAfterSeconds 提示客户端的重连间隔（秒）
+     */
+    public void beginDrain(int retryAfterSeconds) {
+        this.drainRetryAfterSeconds = retryAfterSeconds;
+        this.draining = true;
+    }
+
+    /**
+     * 判断是否处于停机排空状态
+     * @return 排空中返回true
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * 获取当前正在建连的连接数
+     * @return 连接数
+     */
+    public int getInFlight() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /**
+     * 获取累计拒绝数
+     * @return 拒绝数
+     */
+    public long getTotalRejected() {
+        return totalRejected.get();
+    }
+
+    private void recordRejection() {
+        totalRejected.incrementAndGet();
+        long now = CoarseClock.currentTimeMillis();
+        long start = windowStart.get();
+        if (now - start >= WINDOW_MILLIS && windowStart.compareAndSet(start, now)) {
+            rejectedInWindow.set(0);
+        }
+        rejectedInWindow.incrementAndGet();
+    }
+}
@@ -0,0 +1,225 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.entity.User;
+import com.ergouwebchat.repository.ConversationMemberRepository;
+import com.ergouwebchat.util.CompactIdSet;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * 会话成员服务
+ * <p>成员关系按行增删，成员列表按用户ID分页，不整体加载。内存中按会话缓存成员ID集合
+ * （{@link CompactIdSet}，数万成员的群只占几十KB），用于成员判断和群发目标筛选；
+ * 集合首次使用时分批加载，之后随增删在事务提交后增量更新，缓存的会话数有上限，按最近使用淘汰</p>
+ */
+@Service
+public class MembershipService {
+    private static final Logger LOGGER = Logger.getLogger(MembershipService.class.getName());
+
+    // 加载成员集合时每批的行数
+    private static final int LOAD_PAGE_SIZE = 5000;
+
+    private final ConversationMemberRepository memberRepository;
+
+    // 会话ID到成员ID集合，按访问顺序淘汰，受this保护
+    private final LinkedHashMap<Long, CompactIdSet> cache;
+
+    // 正在加载的会话及加载期间提交的变更，受this保护
+    private final Map<Long, List<Change>> loading = new HashMap<>();
+
+    public MembershipService(ConversationMemberRepository memberRepository,
+                             @Value("${chat.membership.cache-max-conversations:10000}") int maxConversations) {
+        this.memberRepository = memberRepository;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CompactIdSet> eldest) {
+                return size() > maxConversations;
+            }
+        };
+    }
+
+    /**
+     * 判断用户是否为会话成员
+     * @param conversationId 会话ID
+     * @param userId 用户ID
+     * @return 是成员返回true
+     */
+    public boolean isMember(Long conversationId, Long userId) {
+        if (!cacheable(userId)) {
+            return memberRepository.existsByConversationIdAndUserId(conversationId, userId);
+        }
+        CompactIdSet members = members(conversationId);
+        synchronized (this) {
+            return members.contains(userId.intValue());
+        }
+    }
+
+    /**
+     * 添加成员（已是成员时不写数据库）
+     * <p>在调用方的事务中执行，缓存在事务提交后更新</p>
+     * @param conversationId 会话ID
+     * @param userId 用户ID
+     * @return 新加入返回true
+     */
+    @Transactional
+    public boolean addMember(Long conversationId, Long userId) {
+        // 成员集合首次判断时加载，之后每条群消息只查内存，不再写数据库
+        if (isMember(conversationId, userId)) {
+            return false;
+        }
+        boolean added = memberRepository.addMember(conversationId, userId, LocalDateTime.now()) > 0;
+        afterCommit(() -> applyChange(conversationId, userId, true));
+        return added;
+    }
+
+    /**
+     * 移除成员
+     * <p>在调用方的事务中执行，缓存在事务提交后更新</p>
+     * @param conversationId 会话ID
+     * @param userId 用户ID
+     * @return 原先是成员返回true
+     */
+    @Transactional
+    public boolean removeMember(Long conversationId, Long userId) {
+        boolean removed = memberRepository.removeMember(conversationId, userId) > 0;
+        afterCommit(() -> applyChange(conversationId, userId, false));
+        return removed;
+    }
+
+    /**
+     * 按用户ID顺序分页获取成员
+     * @param conversationId 会话ID
+     * @param afterUserId 上一页最后一个用户ID，首页传0
+     * @param limit 每页数量
+     * @return 用户列表
+     */
+    public List<User> getMembers(Long conversationId, long afterUserId, int limit) {
+        return memberRepository.findMembersAfter(conversationId, afterUserId, PageRequest.of(0, limit));
+    }
+
+    /**
+     * 获取成员数
+     * @param conversationId 会话ID
+     * @return 成员数
+     */
+    public int getMemberCount(Long conversationId) {
+        CompactIdSet members = members(conversationId);
+        synchronized (this) {
+            return members.size();
+        }
+    }
+
+    /**
+     * 获取会话的缓存成员集合，不在缓存中时分批加载
+     */
+    private CompactIdSet members(Long conversationId) {
+        synchronized (this) {
+            CompactIdSet cached = cache.get(conversationId);
+            if (cached != null) {
+                return cached;
+            }
+            loading.computeIfAbsent(conversationId, id -> new ArrayList<>());
+        }
+
+        CompactIdSet loaded = new CompactIdSet();
+        long after = 0;
+        while (true) {
+            List<Long> userIds = memberRepository.findUserIdsAfter(conversationId, after,
+                    PageRequest.of(0, LOAD_PAGE_SIZE));
+            for (Long userId : userIds) {
+                if (cacheable(userId)) {
+                    loaded.add(userId.intValue());
+                }
+            }
+            if (userIds.size() < LOAD_PAGE_SIZE) {
+                break;
+            }
+            after = userIds.get(userIds.size() - 1);
+        }
+
+        synchronized (this) {
+            CompactIdSet cached = cache.get(conversationId);
+            if (cached != null) {
+                return cached;
+            }
+            // 补上加载期间提交的变更
+            List<Change> changes = loading.remove(conversationId);
+            if (changes != null) {
+                for (Change change : changes) {
+                    if (change.added) {
+                        loaded.add(change.userId);
+                    } else {
+                        loaded.remove(change.userId);
+                    }
+                }
+            }
+            cache.put(conversationId, loaded);
+        }
+        if (loaded.size() >= LOAD_PAGE_SIZE) {
+            LOGGER.info("已加载会话 " + conversationId + " 的 " + loaded.size() + " 个成员");
+        }
+        return loaded;
+    }
+
+    private synchronized void applyChange(Long conversationId, Long userId, boolean added) {
+        if (!cacheable(userId)) {
+            return;
+        }
+        int id = userId.intValue();
+        CompactIdSet cached = cache.get(conversationId);
+        if (cached != null) {
+            if (added) {
+                cached.add(id);
+            } else {
+                cached.remove(id);
+            }
+        }
+        List<Change> changes = loading.get(conversationId);
+        if (changes != null) {
+            changes.add(new Change(id, added));
+        }
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private static boolean cacheable(Long userId) {
+        return userId != null && userId >= 0 && userId <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * 加载期间提交的成员变更
+     */
+    private static final class Change {
+        final int userId;
+        final boolean added;
+
+        Change(int userId, boolean added) {
+            this.userId = userId;
+            this.added = added;
+        }
+    }
+}
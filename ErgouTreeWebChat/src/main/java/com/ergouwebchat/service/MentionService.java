@@ -0,0 +1,446 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.entity.Mention;
+import com.ergouwebchat.repository.MentionRepository;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.service.cluster.ClusterBus;
+import com.ergouwebchat.service.cluster.InProcessClusterBus;
+import com.ergouwebchat.service.factory.MessageFactory;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 提及服务
+ * <p>从消息内容中提取@用户名，存在且能看到该消息的用户（群聊为所有人，私聊只有对方）写入按用户索引的提及表。
+ * 被提及时不在线的用户在重连时收到一条汇总（最近的若干条和总数），之后可以按页查询全部提及</p>
+ * <p>提及行放入有界队列，由单独的写入线程批量保存，消息投递线程不等待数据库。
+ * 队列已满时投递线程最多等待一小段时间（反压），仍放不进去才丢弃；一批写入失败时稍后重试一次，
+ * 重试仍失败才丢弃。丢弃的提及计数，并在日志中记录其会话和消息ID。
+ * 单节点部署时内存中记录有未通知提及的用户，其他用户重连时不查询数据库</p>
+ */
+@Service
+public class MentionService {
+    private static final Logger LOGGER = Logger.getLogger(MentionService.class.getName());
+
+    // @用户名，用户名规则与注册时一致
+    private static final Pattern MENTION_PATTERN = Pattern.compile("@([A-Za-z0-9_]{3,20})");
+
+    // 单条消息最多记录的提及数
+    private static final int MAX_MENTIONS_PER_MESSAGE = 20;
+
+    // 内容预览的最大长度
+    private static final int PREVIEW_LENGTH = 100;
+
+    // 重连汇总中最多包含的提及数
+    private static final int DIGEST_SIZE = 20;
+
+    // 写入线程每批保存的最大行数
+    private static final int WRITE_BATCH_SIZE = 200;
+
+    // 写入线程等待队列的时间，用于检查停止标志
+    private static final long POLL_MILLIS = 500;
+
+    // 队列已满时每条消息的投递线程最多等待的时间
+    private static final long ENQUEUE_TIMEOUT_MILLIS = 50;
+
+    // 写入失败后重试前的等待时间
+    private static final long RETRY_DELAY_MILLIS = 200;
+
+    // 丢弃日志中每个会话最多列出的消息ID数
+    private static final int MAX_LOGGED_IDS = 20;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final MentionRepository mentionRepository;
+    private final UserCache userCache;
+    private final TransactionTemplate transactionTemplate;
+
+    // 待写入的提及
+    private final BlockingQueue<Mention> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // 因队列已满或写入失败丢弃的提及数
+    private final AtomicLong dropped = new AtomicLong();
+
+    // 有未通知提及的用户ID；只有本节点能看到全部提及写入（单节点部署）时才使用
+    private final boolean trackPending;
+    private final Set<Long> pendingUsers = ConcurrentHashMap.newKeySet();
+    private volatile boolean pendingLoaded;
+
+    public MentionService(MentionRepository mentionRepository, UserCache userCache, ClusterBus clusterBus,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${chat.mention.write-queue-capacity:10000}") int queueCapacity) {
+        this.mentionRepository = mentionRepository;
+        this.userCache = userCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.trackPending = clusterBus instanceof InProcessClusterBus;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+        this.writer = new Thread(this::writeLoop, "mention-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 启动后加载有未通知提及的用户
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadPendingUsers() {
+        if (!trackPending) {
+            return;
+        }
+        try {
+            pendingUsers.addAll(mentionRepository.findUserIdsWithUnnotified());
+            pendingLoaded = true;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "加载未通知提及的用户失败，重连时逐个查询: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 停机时写完队列中剩余的提及
+     */
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 解析消息中被提及的用户（只保留存在且能看到该消息的用户，不含发送者自己）
+     * @param message 消息
+     * @return 被提及的用户名，按出现顺序
+     */
+    public List<String> resolveMentions(ChatMessage message) {
+        String content = message.getContent();
+        if (content == null || content.indexOf('@') < 0) {
+            return List.of();
+        }
+        Set<String> usernames = new LinkedHashSet<>();
+        Matcher matcher = MENTION_PATTERN.matcher(content);
+        while (matcher.find() && usernames.size() < MAX_MENTIONS_PER_MESSAGE) {
+            usernames.add(matcher.group(1));
+        }
+        usernames.remove(message.getSender());
+
+        String recipient = message.getRecipient();
+        boolean privateMessage = recipient != null && !recipient.isEmpty();
+        List<String> mentioned = new ArrayList<>(usernames.size());
+        for (String username : usernames) {
+            // 私聊中提及第三方不会通知到对方以外的人
+            if (privateMessage && !username.equals(recipient)) {
+                continue;
+            }
+            if (userCache.find(username).isPresent()) {
+                mentioned.add(username);
+            }
+        }
+        return mentioned;
+    }
+
+    /**
+     * 记录消息中的提及（放入写入队列后立即返回）
+     * @param message 消息
+     * @param mentioned 被提及的用户名（{@link #resolveMentions(ChatMessage)}的结果）
+     * @param online 判断用户当前是否在线，在线用户已实时收到消息，不再进入重连汇总
+     */
+    public void record(ChatMessage message, List<String> mentioned, Predicate<String> online) {
+        if (mentioned.isEmpty()) {
+            return;
+        }
+        String conversationKey = ConversationHistory.conversationKey(message);
+        LocalDateTime createdAt = toDateTime(message.getTimestamp());
+        String preview = preview(message.getContent());
+        long deadline = 0;
+        int droppedHere = 0;
+        for (String username : mentioned) {
+            Optional<UserProfile> profile = userCache.find(username);
+            if (profile.isEmpty()) {
+                continue;
+            }
+            Mention mention = new Mention();
+            mention.setUserId(profile.get().getId());
+            mention.setMessageId(message.getMessageId());
+            mention.setConversationKey(conversationKey);
+            mention.setSender(message.getSender());
+            mention.setPreview(preview);
+            mention.setCreatedAt(createdAt);
+            mention.setNotified(online.test(username));
+            if (queue.offer(mention)) {
+                continue;
+            }
+            // 队列已满：整条消息共用一个等待期限，给写入线程追上的机会
+            if (deadline == 0) {
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ENQUEUE_TIMEOUT_MILLIS);
+            }
+            if (!enqueueBefore(mention, deadline)) {
+                droppedHere++;
+            }
+        }
+        if (droppedHere > 0) {
+            dropped.addAndGet(droppedHere);
+            LOGGER.warning("提及写入队列已满，丢弃 " + droppedHere + " 条提及：会话 " + conversationKey
+                    + " 消息 " + message.getMessageId());
+        }
+    }
+
+    private boolean enqueueBefore(Mention mention, long deadlineNanos) {
+        try {
+            long remaining = deadlineNanos - System.nanoTime();
+            return remaining > 0 && queue.offer(mention, remaining, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * 生成用户未通知提及的汇总消息，并把汇总中的提及标记为已通知
+     * @param username 用户名
+     * @return 汇总消息，没有未通知的提及时返回null
+     */
+    public ChatMessage createDigest(String username) {
+        Optional<UserProfile> profile = userCache.find(username);
+        if (profile.isEmpty()) {
+            return null;
+        }
+        Long userId = profile.get().getId();
+        // 先移出再查询，查询期间写入的新提及会重新登记
+        if (trackPending && pendingLoaded && !pendingUsers.remove(userId)) {
+            return null;
+        }
+        try {
+            return transactionTemplate.execute(status -> digest(userId));
+        } catch (RuntimeException e) {
+            if (trackPending) {
+                pendingUsers.add(userId);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 获取因队列已满或写入失败丢弃的提及数
+     * @return 丢弃数
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * 在事务中生成汇总并标记为已通知
+     */
+    private ChatMessage digest(Long userId) {
+        List<Mention> recent = mentionRepository.findUnnotified(userId, PageRequest.of(0, DIGEST_SIZE));
+        if (recent.isEmpty()) {
+            return null;
+        }
+        long total = recent.size() < DIGEST_SIZE ? recent.size() : mentionRepository.countByUserIdAndNotifiedFalse(userId);
+        // 汇总按ID倒序取出，最大ID在第一条，比它新的提及留给下一次汇总
+        mentionRepository.markNotified(userId, recent.get(0).getId());
+
+        ChatMessage digest = MessageFactory.createSystemMessage("你离线期间被提及了 " + total + " 次");
+        digest.addMetadata("mentionCount", total);
+        digest.addMetadata("mentions", toItems(recent));
+        return digest;
+    }
+
+    /**
+     * 按时间倒序分页获取用户被提及的记录
+     * @param username 用户名
+     * @param beforeId 上一页最后一条的ID，为null时从最新开始
+     * @param limit 每页数量
+     * @return 提及列表
+     */
+    @Transactional(readOnly = true)
+    public List<Mention> getMentions(String username, Long beforeId, int limit) {
+        Optional<UserProfile> profile = userCache.find(username);
+        if (profile.isEmpty()) {
+            return List.of();
+        }
+        return mentionRepository.findByUserIdBefore(profile.get().getId(),
+                beforeId != null ? beforeId : Long.MAX_VALUE, PageRequest.of(0, limit));
+    }
+
+    /**
+     * 删除会话的全部提及
+     * @param conversationKey 会话键
+     * @return 删除的行数
+     */
+    @Transactional
+    public int deleteConversation(String conversationKey) {
+        return mentionRepository.deleteByConversationKey(conversationKey);
+    }
+
+    /**
+     * 删除会话中早于指定时间的提及
+     * @param conversationKey 会话键
+     * @param cutoffMillis 截止时间（epoch毫秒）
+     * @return 删除的行数
+     */
+    @Transactional
+    public int deleteConversationBefore(String conversationKey, long cutoffMillis) {
+        return mentionRepository.deleteByConversationKeyBefore(conversationKey, toDateTime(cutoffMillis));
+    }
+
+    /**
+     * 删除早于指定时间的提及
+     * @param cutoffMillis 截止时间（epoch毫秒）
+     * @return 删除的行数
+     */
+    @Transactional
+    public int deleteBefore(long cutoffMillis) {
+        return mentionRepository.deleteBefore(toDateTime(cutoffMillis));
+    }
+
+    /**
+     * 转换为返回给客户端的列表项
+     * @param mentions 提及列表
+     * @return 列表项
+     */
+    public static List<Map<String, Object>> toItems(List<Mention> mentions) {
+        List<Map<String, Object>> items = new ArrayList<>(mentions.size());
+        for (Mention mention : mentions) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", mention.getId());
+            item.put("messageId", mention.getMessageId());
+            item.put("conversationKey", mention.getConversationKey());
+            item.put("sender", mention.getSender());
+            item.put("preview", mention.getPreview());
+            item.put("createdAt", mention.getCreatedAt().atZone(ZONE).toInstant().toEpochMilli());
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * 写入线程：批量取出队列中的提及，每批一个事务
+     */
+    private void writeLoop() {
+        List<Mention> batch = new ArrayList<>(WRITE_BATCH_SIZE);
+        while (running || !queue.isEmpty()) {
+            try {
+                Mention first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, WRITE_BATCH_SIZE - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Mention> batch) {
+        if (!save(batch)) {
+            LOGGER.info("保存 " + batch.size() + " 条提及失败，" + RETRY_DELAY_MILLIS + " 毫秒后重试");
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // 回滚的插入可能已经回填了自增ID，清掉后按新行重新保存
+            for (Mention mention : batch) {
+                mention.setId(null);
+            }
+            if (!save(batch)) {
+                dropped.addAndGet(batch.size());
+                LOGGER.warning("重试后仍无法保存，丢弃 " + batch.size() + " 条提及：" + describe(batch));
+                return;
+            }
+        }
+        // 提交后再登记，汇总不会在提及可见前把用户移出
+        for (Mention mention : batch) {
+            if (!mention.isNotified()) {
+                pendingUsers.add(mention.getUserId());
+            }
+        }
+    }
+
+    private boolean save(List<Mention> batch) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> mentionRepository.saveAll(batch));
+            return true;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "保存 " + batch.size() + " 条提及失败: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 按会话列出提及的消息ID（用于丢弃日志）
+     */
+    private static String describe(List<Mention> mentions) {
+        Map<String, Set<String>> byConversation = new LinkedHashMap<>();
+        for (Mention mention : mentions) {
+            Set<String> ids = byConversation.computeIfAbsent(mention.getConversationKey(), k -> new LinkedHashSet<>());
+            if (ids.size() < MAX_LOGGED_IDS) {
+                ids.add(mention.getMessageId());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Set<String>> entry : byConversation.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            sb.append("会话 ").append(entry.getKey()).append(" 消息 ").append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZONE);
+    }
+
+    private static String preview(String content) {
+        if (content == null || content.length() <= PREVIEW_LENGTH) {
+            return content;
+        }
+        int end = PREVIEW_LENGTH;
+        // 不截断代理对
+        if (Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return content.substring(0, end);
+    }
+}
@@ -0,0 +1,159 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.entity.Conversation;
+import com.ergouwebchat.model.entity.Message;
+import com.ergouwebchat.repository.ConversationRepository;
+import com.ergouwebchat.repository.MessageRepository;
+import com.ergouwebchat.service.storage.ChunkedMessagePurger;
+import com.ergouwebchat.service.storage.JpaMessageStore;
+import com.ergouwebchat.service.storage.MessageArchive;
+import com.ergouwebchat.service.storage.StoredMessage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 消息归档任务
+ * <p>定期把热表中超过保留时长的消息按时间顺序分批移入归档文件：每批先写入并刷盘归档文件，
+ * 再按块从热表删除（连同已读状态），与保留期清理一样每块一个短事务、块间停顿。
+ * 归档文件名由批次的第一条消息决定，删除失败后重试同一批次会覆盖而不是重复写入；
+ * 部分块已删除时剩余消息会进入下一个文件，归档查询按消息ID去重。
+ * 发送者、会话和私聊参与者随批次一起取出，不逐条懒加载。
+ * 仅在关系数据库后端下启用，日志后端由自身的保留期清理负责</p>
+ */
+@Service
+@ConditionalOnProperty(name = "chat.storage.backend", havingValue = "jpa", matchIfMissing = true)
+public class MessageArchiver {
+    private static final Logger LOGGER = Logger.getLogger(MessageArchiver.class.getName());
+
+    private final MessageRepository messageRepository;
+    private final ConversationRepository conversationRepository;
+    private final ChunkedMessagePurger purger;
+    private final MessageArchive archive;
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+    private final long maxAgeDays;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+
+    public MessageArchiver(MessageRepository messageRepository,
+                           ConversationRepository conversationRepository,
+                           ChunkedMessagePurger purger,
+                           MessageArchive archive,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${chat.archive.enabled:true}") boolean enabled,
+                           @Value("${chat.archive.max-age-days:30}") long maxAgeDays,
+                           @Value("${chat.archive.batch-size:5000}") int batchSize,
+                           @Value("${chat.archive.max-batches-per-run:20}") int maxBatchesPerRun) {
+        this.messageRepository = messageRepository;
+        this.conversationRepository = conversationRepository;
+        this.purger = purger;
+        this.archive = archive;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.maxAgeDays = maxAgeDays;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+    }
+
+    /**
+     * 定期归档
+     */
+    @Scheduled(initialDelayString = "${chat.archive.interval-millis:3600000}",
+            fixedDelayString = "${chat.archive.interval-millis:3600000}")
+    public void archivePeriodically() {
+        if (enabled) {
+            archiveOlderThan(LocalDateTime.now().minusDays(maxAgeDays));
+        }
+    }
+
+    /**
+     * 归档早于截止时间的消息，单次最多处理max-batches-per-run批
+     * @param cutoff 截止时间
+     * @return 归档的消息数
+     */
+    public long archiveOlderThan(LocalDateTime cutoff) {
+        long total = 0;
+        try {
+            for (int i = 0; i < maxBatchesPerRun; i++) {
+                List<StoredMessage> batch = transactionTemplate.execute(status -> loadBatch(cutoff));
+                if (batch == null || batch.isEmpty()) {
+                    break;
+                }
+                int archived = archiveBatch(batch);
+                total += archived;
+                if (archived < batchSize) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "归档消息失败: " + e.getMessage(), e);
+        }
+        if (total > 0) {
+            LOGGER.info("已归档 " + total + " 条早于 " + cutoff + " 的消息");
+        }
+        return total;
+    }
+
+    /**
+     * 先写入归档文件，再分块从热表删除
+     * @return 本批次的消息数
+     */
+    private int archiveBatch(List<StoredMessage> batch) {
+        archive.write(batch);
+        List<String> ids = new ArrayList<>(batch.size());
+        for (StoredMessage message : batch) {
+            ids.add(message.getMessageId());
+        }
+        purger.purgeArchived(ids);
+        return batch.size();
+    }
+
+    /**
+     * 读取一批待归档的消息（在事务中调用）
+     */
+    private List<StoredMessage> loadBatch(LocalDateTime cutoff) {
+        List<Message> batch = messageRepository.findArchivable(cutoff, PageRequest.of(0, batchSize));
+        if (batch.isEmpty()) {
+            return List.of();
+        }
+        JpaMessageStore.prefetchParticipants(conversationRepository, batch);
+
+        // 同一批次内会话键按会话ID缓存，避免重复加载参与者
+        Map<Long, String> keys = new HashMap<>();
+        List<StoredMessage> stored = new ArrayList<>(batch.size());
+        for (Message message : batch) {
+            Conversation conversation = message.getConversation();
+            // 无法识别的会话按会话ID归档，保证数据不丢
+            String key = keys.computeIfAbsent(conversation.getId(), id -> {
+                String conversationKey = JpaMessageStore.keyOf(conversation);
+                return conversationKey != null ? conversationKey : "C:" + id;
+            });
+            String sender = message.getSender().getUsername();
+            String[] participants = ConversationHistory.participantsOf(key);
+            String recipient = participants == null ? null
+                    : participants[0].equals(sender) ? participants[1] : participants[0];
+            stored.add(new StoredMessage(message.getId(), key, sender, recipient, message.getType(),
+                    message.getContent(), message.getMetadata(),
+                    message.getCreatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        }
+
+        return stored;
+    }
+}
@@ -1,6 +1,10 @@
 package com.ergouwebchat.service;
 
-import com.ergouwebchat.model.Message;
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.service.cache.FrameCache;
+import com.ergouwebchat.service.cluster.ClusterBus;
+import com.ergouwebchat.service.cluster.ClusterEnvelope;
 import com.ergouwebchat.util.JsonUtils;
 
 import jakarta.websocket.Session;
@@ -12,44 +16,66 @@ import java.util.logging.Logger;
 /**
  * 消息广播器
  * <p>负责将消息发送给一个或多个用户</p>
+ * <p>本节点的会话直接发送；不在本节点的用户经集群总线路由到其所在节点，
+ * 群发消息对每个其他节点只投递一次已编码的帧</p>
  */
 public class MessageBroadcaster {
     private static final Logger LOGGER = Logger.getLogger(MessageBroadcaster.class.getName());
     
     private final UserSessionManager sessionManager;
     
+    // 预序列化帧缓存
+    private final FrameCache frameCache;
+    
+    // 集群消息总线
+    private final ClusterBus clusterBus;
+    
+    /**
+     * 构造函数，使用进程内会话表
+     * @param clusterBus 集群消息总线
+     */
+    public MessageBroadcaster(ClusterBus clusterBus) {
+        this(clusterBus, UserSessionManager.getInstance());
+    }
+    
     /**
      * 构造函数
+     * @param clusterBus 集群消息总线
+     * @param sessionManager 本节点的会话表
      */
-    public MessageBroadcaster() {
-        this.sessionManager = UserSessionManager.getInstance();
+    public MessageBroadcaster(ClusterBus clusterBus, UserSessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+        this.frameCache = FrameCache.getInstance();
+        this.clusterBus = clusterBus;
     }
     
     /**
-     * 向所有连接的用户广播消息
+     * 向所有连接的用户广播消息（包括其他节点上的用户）
      * @param message 要广播的消息
      */
-    public void broadcastToAll(Message message) {
-        String jsonMessage = JsonUtils.toJson(message);
-        Map<String, Session> sessions = sessionManager.getAllSessions();
-        
-        for (Session session : sessions.values()) {
-            sendMessageToSession(session, jsonMessage);
-        }
+    public void broadcastToAll(ChatMessage message) {
+        String jsonMessage = encode(message);
+        broadcastLocal(jsonMessage, null);
+        clusterBus.publish(ClusterEnvelope.broadcast(clusterBus.getNodeId(), null, jsonMessage));
     }
     
     /**
-     * 向特定用户发送消息
+     * 向特定用户发送消息，用户不在本节点时转发到其所在节点
      * @param username 目标用户名
      * @param message 要发送的消息
      * @return 是否发送成功
      */
-    public boolean sendToUser(String username, Message message) {
+    public boolean sendToUser(String username, ChatMessage message) {
         Session session = sessionManager.getUserSession(username);
         if (session != null) {
-            String jsonMessage = JsonUtils.toJson(message);
+            String jsonMessage = encode(message);
             return sendMessageToSession(session, jsonMessage);
         }
+        
+        String nodeId = clusterBus.getPresence().locate(username);
+        if (nodeId != null && !nodeId.equals(clusterBus.getNodeId())) {
+            return clusterBus.sendToNode(nodeId, ClusterEnvelope.direct(clusterBus.getNodeId(), username, encode(message)));
+        }
         return false;
     }
     
@@ -58,45 +84,77 @@ public class MessageBroadcaster {
      * @param excludeUsername 要排除的用户名
      * @param message 要广播的消息
      */
-    public void broadcastToAllExcept(String excludeUsername, Message message) {
-        String jsonMessage = JsonUtils.toJson(message);
-        Map<String, Session> sessions = sessionManager.getAllSessions();
-        
-        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
-            String sessionId = entry.getKey();
-            String username = sessionManager.getUsernameBySessionId(sessionId);
-            
-            if (username == null || !username.equals(excludeUsername)) {
-                sendMessageToSession(entry.getValue(), jsonMessage);
-            }
-        }
+    public void broadcastToAllExcept(String excludeUsername, ChatMessage message) {
+        broadcastToAllExcept(message, excludeUsername);
     }
     
     /**
      * 向除特定用户外的所有用户广播消息
      * @param message 要广播的消息
      * @param excludeUsername 要排除的用户名
+     * @return 是否至少有一个本节点用户接收到消息
+     */
+    public boolean broadcastToAllExcept(ChatMessage message, String excludeUsername) {
+        String jsonMessage = encode(message);
+        boolean atLeastOneSent = broadcastLocal(jsonMessage, excludeUsername);
+        clusterBus.publish(ClusterEnvelope.broadcast(clusterBus.getNodeId(), excludeUsername, jsonMessage));
+        return atLeastOneSent;
+    }
+    
+    /**
+     * 投递其他节点转发来的消息到本节点的会话（在线状态变更由{@link PresenceService}处理，这里忽略）
+     * @param envelope 集群消息信封
+     */
+    public void deliverFromCluster(ClusterEnvelope envelope) {
+        if (envelope.getKind() == ClusterEnvelope.Kind.DIRECT) {
+            Session session = sessionManager.getUserSession(envelope.getTargetUser());
+            if (session != null) {
+                sendMessageToSession(session, envelope.getFrame());
+            }
+        } else if (envelope.getKind() == ClusterEnvelope.Kind.BROADCAST) {
+            broadcastLocal(envelope.getFrame(), envelope.getExcludeUser());
+        }
+    }
+    
+    /**
+     * 向本节点的所有会话发送已编码的消息
+     * @param jsonMessage JSON格式的消息
+     * @param excludeUsername 要排除的用户名，可为null
      * @return 是否至少有一个用户接收到消息
      */
-    public boolean broadcastToAllExcept(Message message, String excludeUsername) {
-        String jsonMessage = JsonUtils.toJson(message);
+    private boolean broadcastLocal(String jsonMessage, String excludeUsername) {
         Map<String, Session> sessions = sessionManager.getAllSessions();
         boolean atLeastOneSent = false;
         
         for (Map.Entry<String, Session> entry : sessions.entrySet()) {
-            String username = sessionManager.getUsernameBySessionId(entry.getKey());
-            
-            if (username == null || !username.equals(excludeUsername)) {
-                boolean sent = sendMessageToSession(entry.getValue(), jsonMessage);
-                if (sent) {
-                    atLeastOneSent = true;
+            if (excludeUsername != null) {
+                String username = sessionManager.getUsernameBySessionId(entry.getKey());
+                if (excludeUsername.equals(username)) {
+                    continue;
                 }
             }
+            if (sendMessageToSession(entry.getValue(), jsonMessage)) {
+                atLeastOneSent = true;
+            }
         }
         
         return atLeastOneSent;
     }
     
+    /**
+     * 将内部消息编码为对外JSON
+     * <p>内部消息只在这里转换为对外结构。输入状态、已读回执等瞬时消息直接编码，
+     * 其余消息经帧缓存编码，私聊回显和历史回放时复用已编码的帧</p>
+     * @param message 内部消息
+     * @return JSON格式的消息
+     */
+    private String encode(ChatMessage message) {
+        if (message.getType() == MessageType.TYPING || message.getType() == MessageType.READ_RECEIPT) {
+            return JsonUtils.toJson(message.toMessage());
+        }
+        return frameCache.getOrEncode(message);
+    }
+    
     /**
      * 向指定会话发送消息
      * @param session WebSocket会话
@@ -123,7 +181,7 @@ public class MessageBroadcaster {
      * @param message 要发送的消息
      * @return 成功发送的用户数量
      */
-    public int sendToUsers(Iterable<String> usernames, Message message) {
+    public int sendToUsers(Iterable<String> usernames, ChatMessage message) {
         int successCount = 0;
         for (String username : usernames) {
             if (sendToUser(username, message)) {
@@ -0,0 +1,173 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.entity.Conversation;
+import com.ergouwebchat.repository.ConversationRepository;
+import com.ergouwebchat.service.file.FileRetentionService;
+import com.ergouwebchat.service.search.MessageSearchIndex;
+import com.ergouwebchat.service.storage.JpaMessageStore;
+import com.ergouwebchat.service.storage.MessageArchive;
+import com.ergouwebchat.service.storage.MessageStore;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 消息保留策略
+ * <p>私聊会话的成员可以通过接口单独设置保留天数，未设置时（以及群聊）使用chat.retention.default-days，0表示永久保留。
+ * 定期按会话ID顺序分批遍历会话，把超过保留期的消息从存储、归档、搜索索引和提及表中清除，
+ * 同一保留期之前上传的文件记录也一并删除并减少内容引用，之后压缩归档文件；
+ * 关系数据库后端的删除由{@link com.ergouwebchat.service.storage.ChunkedMessagePurger}分块限速执行</p>
+ */
+@Service
+public class MessageRetentionService {
+    private static final Logger LOGGER = Logger.getLogger(MessageRetentionService.class.getName());
+
+    // 每批加载的会话数
+    private static final int CONVERSATION_PAGE_SIZE = 100;
+
+    private final ConversationRepository conversationRepository;
+    private final MessageStore messageStore;
+    private final MessageArchive messageArchive;
+    private final MessageSearchIndex searchIndex;
+    private final MentionService mentionService;
+    private final FileRetentionService fileRetentionService;
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+    private final int defaultDays;
+
+    public MessageRetentionService(ConversationRepository conversationRepository,
+                                   MessageStore messageStore,
+                                   MessageArchive messageArchive,
+                                   MessageSearchIndex searchIndex,
+                                   MentionService mentionService,
+                                   FileRetentionService fileRetentionService,
+                                   PlatformTransactionManager transactionManager,
+                                   @Value("${chat.retention.enabled:true}") boolean enabled,
+                                   @Value("${chat.retention.default-days:0}") int defaultDays) {
+        this.conversationRepository = conversationRepository;
+        this.messageStore = messageStore;
+        this.messageArchive = messageArchive;
+        this.searchIndex = searchIndex;
+        this.mentionService = mentionService;
+        this.fileRetentionService = fileRetentionService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.enabled = enabled;
+        this.defaultDays = defaultDays;
+    }
+
+    /**
+     * 定期清理
+     */
+    @Scheduled(initialDelayString = "${chat.retention.interval-millis:3600000}",
+            fixedDelayString = "${chat.retention.interval-millis:3600000}")
+    public void purgePeriodically() {
+        if (enabled) {
+            purgeExpired();
+        }
+    }
+
+    /**
+     * 按各会话的保留策略清理过期消息
+     * @return 删除的消息数
+     */
+    public long purgeExpired() {
+        long now = System.currentTimeMillis();
+        long total = 0;
+        long lastId = 0;
+        while (true) {
+            long afterId = lastId;
+            List<Policy> policies = transactionTemplate.execute(status -> loadPolicies(afterId));
+            if (policies == null || policies.isEmpty()) {
+                break;
+            }
+            for (Policy policy : policies) {
+                lastId = policy.conversationId;
+                if (policy.conversationKey == null || policy.days <= 0) {
+                    continue;
+                }
+                try {
+                    total += purgeConversation(policy.conversationKey, now - TimeUnit.DAYS.toMillis(policy.days));
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "清理会话 " + policy.conversationKey + " 的过期消息失败: " + e.getMessage(), e);
+                }
+            }
+        }
+        if (total > 0) {
+            LOGGER.info("保留期清理完成：删除 " + total + " 条消息");
+        }
+        // 删除会话和过期清理留下的墓碑在这里统一压缩，永久保留的部署也会执行
+        try {
+            messageArchive.compactIfNeeded();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "压缩消息归档失败: " + e.getMessage(), e);
+        }
+        return total;
+    }
+
+    /**
+     * 设置私聊会话的保留天数（群聊使用服务器配置的默认值）
+     * @param conversationId 会话ID
+     * @param days 保留天数，null表示使用默认值，0表示永久保留
+     */
+    public void setRetentionDays(Long conversationId, Integer days) {
+        if (days != null && days < 0) {
+            throw new RuntimeException("保留天数不能为负数");
+        }
+        Conversation conversation = conversationRepository.findById(conversationId)
+                .orElseThrow(() -> new RuntimeException("会话不存在"));
+        if (conversation.getType() != Conversation.ConversationType.PRIVATE) {
+            throw new RuntimeException("群聊的保留期只能由服务器配置");
+        }
+        conversation.setRetentionDays(days);
+        conversationRepository.save(conversation);
+    }
+
+    private long purgeConversation(String conversationKey, long cutoffMillis) {
+        long removed = messageStore.deleteConversationBefore(conversationKey, cutoffMillis);
+        removed += messageArchive.deleteConversationBefore(conversationKey, cutoffMillis);
+        searchIndex.removeConversationBefore(conversationKey, cutoffMillis);
+        mentionService.deleteConversationBefore(conversationKey, cutoffMillis);
+        fileRetentionService.purgeConversationBefore(conversationKey, cutoffMillis);
+        return removed;
+    }
+
+    private List<Policy> loadPolicies(long afterId) {
+        List<Conversation> conversations = conversationRepository.findByIdGreaterThanOrderByIdAsc(
+                afterId, PageRequest.of(0, CONVERSATION_PAGE_SIZE));
+        List<Policy> policies = new ArrayList<>(conversations.size());
+        for (Conversation conversation : conversations) {
+            int days = conversation.getRetentionDays() != null ? conversation.getRetentionDays() : defaultDays;
+            // 永久保留的会话不需要加载参与者
+            String key = days > 0 ? JpaMessageStore.keyOf(conversation) : null;
+            policies.add(new Policy(conversation.getId(), key, days));
+        }
+        return policies;
+    }
+
+    /**
+     * 一个会话的保留策略
+     */
+    private static final class Policy {
+        final long conversationId;
+        final String conversationKey;
+        final int days;
+
+        Policy(long conversationId, String conversationKey, int days) {
+            this.conversationId = conversationId;
+            this.conversationKey = conversationKey;
+            this.days = days;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package com.ergouwebchat.service;
 
+import com.ergouwebchat.config.HandshakeAuthConfigurator;
+import com.ergouwebchat.model.ChatMessage;
 import com.ergouwebchat.model.Message;
 import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.service.cluster.ClusterBus;
+import com.ergouwebchat.service.cluster.PresenceDirectory;
 import com.ergouwebchat.service.factory.MessageFactory;
 import com.ergouwebchat.util.JsonUtils;
 import com.ergouwebchat.util.MessageValidator;
@@ -11,9 +15,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,8 +30,15 @@ public class MessageService {
     
     private final MessageBroadcaster messageBroadcaster;
     private final UserSessionManager sessionManager;
-    private final List<Message> messageHistory;
+    private final ClusterBus clusterBus;
+    private final PresenceDirectory presence;
+    private final ConversationHistory messageHistory;
     private static final int MAX_HISTORY_SIZE = 100;
+    private static final int MAX_HISTORY_CONVERSATIONS = 1000;
+    private static final int HISTORY_REPLAY_SIZE = 20;
+    
+    // 正在处理中的消息数，停机排空时等待其归零
+    private final AtomicInteger inFlight = new AtomicInteger();
     
     @Autowired
     private DbMessageService dbMessageService;
@@ -36,13 +46,56 @@ public class MessageService {
     @Autowired
     private UserService userService;
     
+    @Autowired
+    private PresenceService presenceService;
+    
+    @Autowired
+    private MentionService mentionService;
+    
     /**
      * 构造函数
+     * @param clusterBus 集群消息总线
      */
-    public MessageService() {
-        this.messageBroadcaster = new MessageBroadcaster();
+    @Autowired
+    public MessageService(ClusterBus clusterBus) {
+        this.clusterBus = clusterBus;
+        this.presence = clusterBus.getPresence();
+        this.messageBroadcaster = new MessageBroadcaster(clusterBus);
         this.sessionManager = UserSessionManager.getInstance();
-        this.messageHistory = new ArrayList<>();
+        this.messageHistory = new ConversationHistory(MAX_HISTORY_SIZE, MAX_HISTORY_CONVERSATIONS);
+        
+        // 接收其他节点转发来的消息
+        clusterBus.subscribe(messageBroadcaster::deliverFromCluster);
+    }
+    
+    /**
+     * 登记用户在本节点上线
+     * @param username 用户名
+     */
+    public void markOnline(String username) {
+        presence.register(username, clusterBus.getNodeId());
+        presenceService.online(username);
+    }
+    
+    /**
+     * 登记用户在本节点下线
+     * @param username 用户名
+     */
+    public void markOffline(String username) {
+        presence.unregister(username, clusterBus.getNodeId());
+        // 已在其他节点重新连接时保持在线
+        if (presence.locate(username) == null) {
+            presenceService.offline(username);
+        }
+    }
+    
+    /**
+     * 检查用户是否在线（任意节点）
+     * @param username 用户名
+     * @return 在线返回true
+     */
+    public boolean isUserOnline(String username) {
+        return sessionManager.isUserOnline(username) || presence.locate(username) != null;
     }
     
     /**
@@ -59,6 +112,24 @@ public class MessageService {
             return false;
         }
         
+        // 发送者以握手时认证的身份为准，不信任客户端填写的sender
+        String authenticatedUser = (String) session.getUserProperties().get(HandshakeAuthConfigurator.AUTHENTICATED_USER);
+        if (authenticatedUser == null) {
+            LOGGER.warning("会话未认证，丢弃消息");
+            return false;
+        }
+        if (message.getSender() != null && !message.getSender().isEmpty()
+                && !message.getSender().equals(authenticatedUser)) {
+            LOGGER.warning("消息发送者与会话身份不一致: " + message.getSender() + " != " + authenticatedUser);
+            return false;
+        }
+        // 系统消息只能由服务端产生
+        if (message.isSystemMessage()) {
+            LOGGER.warning("客户端不能发送系统消息: " + authenticatedUser);
+            return false;
+        }
+        message.setSender(authenticatedUser);
+        
         // 验证消息内容
         Message validatedMessage = MessageValidator.validateAndSanitize(message);
         if (validatedMessage == null) {
@@ -66,8 +137,8 @@ public class MessageService {
             return false;
         }
         
-        // 处理消息
-        return process(validatedMessage);
+        // 转换为内部消息后进入处理流程
+        return process(ChatMessage.fromMessage(validatedMessage));
     }
     
     /**
@@ -75,8 +146,12 @@ public class MessageService {
      * @param message 消息对象
      * @return 处理是否成功
      */
-    public boolean process(Message message) {
+    public boolean process(ChatMessage message) {
+        inFlight.incrementAndGet();
         try {
+            if (!message.isSystemMessage()) {
+                presenceService.touch(message.getSender());
+            }
             // 根据消息类型进行处理
             switch (message.getType()) {
                 case TEXT:
@@ -110,7 +185,30 @@ public class MessageService {
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "处理消息时发生错误: " + e.getMessage(), e);
             return false;
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+    
+    /**
+     * 等待正在处理的消息全部完成（停机排空时使用）
+     * @param timeoutMillis 最长等待时间（毫秒）
+     * @return 在超时前全部完成返回true
+     */
+    public boolean awaitIdle(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (inFlight.get() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
         }
+        return true;
     }
     
     /**
@@ -118,32 +216,43 @@ public class MessageService {
      * @param message 文本消息
      * @return 处理是否成功
      */
-    private boolean processTextMessage(Message message) {
+    private boolean processTextMessage(ChatMessage message) {
+        attachSenderProfile(message);
+        
+        // 标出被提及的用户，客户端据此高亮
+        List<String> mentioned = mentionService.resolveMentions(message);
+        if (!mentioned.isEmpty()) {
+            message.addMetadata("mentioned", mentioned);
+        }
+        
         // 检查是否为私聊消息
         if (message.getRecipient() != null && !message.getRecipient().isEmpty()) {
             // 私聊消息
             String recipient = message.getRecipient();
             
             // 检查接收者是否在线
-            if (!sessionManager.isUserOnline(recipient)) {
-                // 接收者不在线，发送错误消息给发送者
-                Message errorMessage = MessageFactory.createSystemMessage("用户 " + recipient + " 不在线，无法发送私信");
-                return messageBroadcaster.sendToUser(message.getSender(), errorMessage);
+            if (!isUserOnline(recipient)) {
+                // 接收者不在线，发送错误消息给发送者；消息没有投递也没有保存，返回失败
+                ChatMessage errorMessage = MessageFactory.createSystemMessage("用户 " + recipient + " 不在线，无法发送私信");
+                messageBroadcaster.sendToUser(message.getSender(), errorMessage);
+                return false;
             }
             
             // 发送给接收者
-            boolean sentToRecipient = messageBroadcaster.sendToUser(recipient, message);
+            messageBroadcaster.sendToUser(recipient, message);
             
             // 同时发送给发送者（确认消息已发送）
-            boolean sentToSender = messageBroadcaster.sendToUser(message.getSender(), message);
+            messageBroadcaster.sendToUser(message.getSender(), message);
             
             // 添加到历史记录
             addToHistory(message);
             
             // 保存到数据库
             saveMessageToDatabase(message);
+            recordMentions(message, mentioned);
             
-            return sentToRecipient && sentToSender;
+            // 消息已进入历史和存储，即使发送者没有连接（如HTTP上传文件）也算成功
+            return true;
         } else {
             // 群聊消息，广播给所有用户
             messageBroadcaster.broadcastToAll(message);
@@ -153,17 +262,29 @@ public class MessageService {
             
             // 保存到数据库
             saveMessageToDatabase(message);
+            recordMentions(message, mentioned);
             
             return true;
         }
     }
     
+    /**
+     * 附带发送者的展示名称和头像颜色（来自用户资料缓存），客户端渲染时不必再查询
+     * @param message 消息
+     */
+    private void attachSenderProfile(ChatMessage message) {
+        userService.findByUsername(message.getSender()).ifPresent(profile -> {
+            message.addMetadata("senderNickname", profile.getDisplayName());
+            message.addMetadata("senderAvatarColor", profile.getAvatarColor());
+        });
+    }
+    
     /**
      * 处理图片消息
      * @param message 图片消息
      * @return 处理是否成功
      */
-    private boolean processImageMessage(Message message) {
+    private boolean processImageMessage(ChatMessage message) {
         // 图片消息处理逻辑与文本消息类似
         return processTextMessage(message);
     }
@@ -173,7 +294,7 @@ public class MessageService {
      * @param message 文件消息
      * @return 处理是否成功
      */
-    private boolean processFileMessage(Message message) {
+    private boolean processFileMessage(ChatMessage message) {
         // 文件消息处理逻辑与文本消息类似
         return processTextMessage(message);
     }
@@ -183,7 +304,7 @@ public class MessageService {
      * @param message 系统消息
      * @return 处理是否成功
      */
-    private boolean processSystemMessage(Message message) {
+    private boolean processSystemMessage(ChatMessage message) {
         // 广播系统消息给所有用户
         messageBroadcaster.broadcastToAll(message);
         
@@ -201,7 +322,7 @@ public class MessageService {
      * @param message 用户加入消息
      * @return 处理是否成功
      */
-    private boolean processUserJoinMessage(Message message) {
+    private boolean processUserJoinMessage(ChatMessage message) {
         // 广播用户加入消息给所有用户
         messageBroadcaster.broadcastToAll(message);
         
@@ -209,13 +330,16 @@ public class MessageService {
         addToHistory(message);
         
         // 向新用户发送当前在线用户列表
-        String joinedUser = (String) message.getMetadata().get("joinedUser");
+        String joinedUser = message.getJoinedUser();
         if (joinedUser != null) {
-            Message userListMessage = createUserListMessage();
+            ChatMessage userListMessage = createUserListMessage();
             messageBroadcaster.sendToUser(joinedUser, userListMessage);
             
             // 发送最近的消息历史
             sendMessageHistory(joinedUser);
+            
+            // 发送离线期间的提及汇总
+            sendMentionDigest(joinedUser);
         }
         
         return true;
@@ -226,7 +350,7 @@ public class MessageService {
      * @param message 用户离开消息
      * @return 处理是否成功
      */
-    private boolean processUserLeaveMessage(Message message) {
+    private boolean processUserLeaveMessage(ChatMessage message) {
         // 广播用户离开消息给所有用户
         messageBroadcaster.broadcastToAll(message);
         
@@ -241,14 +365,14 @@ public class MessageService {
      * @param message 输入状态消息
      * @return 处理是否成功
      */
-    private boolean processTypingMessage(Message message) {
+    private boolean processTypingMessage(ChatMessage message) {
         // 检查是否为私聊消息
         if (message.getRecipient() != null && !message.getRecipient().isEmpty() && !"GROUP".equals(message.getRecipient())) {
             // 私聊输入状态，只发送给特定用户
             String recipient = message.getRecipient();
             
             // 检查接收者是否在线
-            if (!sessionManager.isUserOnline(recipient)) {
+            if (!isUserOnline(recipient)) {
                 return false; // 接收者不在线，忽略消息
             }
             
@@ -265,13 +389,13 @@ public class MessageService {
      * @param message 已读回执消息
      * @return 处理是否成功
      */
-    private boolean processReadReceiptMessage(Message message) {
+    private boolean processReadReceiptMessage(ChatMessage message) {
         // 已读回执只发送给原消息的发送者
         if (message.getRecipient() != null && !message.getRecipient().isEmpty()) {
             String recipient = message.getRecipient();
             
             // 检查接收者是否在线
-            if (!sessionManager.isUserOnline(recipient)) {
+            if (!isUserOnline(recipient)) {
                 return false; // 接收者不在线，忽略消息
             }
             
@@ -296,7 +420,7 @@ public class MessageService {
      * @param username 加入的用户名
      * @return 用户加入消息
      */
-    public Message createUserJoinMessage(String username) {
+    public ChatMessage createUserJoinMessage(String username) {
         return MessageFactory.createUserJoinMessage(username);
     }
     
@@ -305,7 +429,7 @@ public class MessageService {
      * @param username 离开的用户名
      * @return 用户离开消息
      */
-    public Message createUserLeaveMessage(String username) {
+    public ChatMessage createUserLeaveMessage(String username) {
         return MessageFactory.createUserLeaveMessage(username);
     }
     
@@ -313,9 +437,9 @@ public class MessageService {
      * 创建在线用户列表消息
      * @return 包含在线用户列表的系统消息
      */
-    public Message createUserListMessage() {
+    public ChatMessage createUserListMessage() {
         StringBuilder content = new StringBuilder("当前在线用户: ");
-        Iterable<String> usernames = sessionManager.getUsernames();
+        Iterable<String> usernames = presence.getOnlineUsers();
         
         boolean first = true;
         for (String username : usernames) {
@@ -327,31 +451,58 @@ public class MessageService {
             content.append(username);
         }
         
-        Message message = MessageFactory.createSystemMessage(content.toString());
-        message.addMetadata("userCount", sessionManager.getActiveUserCount());
+        ChatMessage message = MessageFactory.createSystemMessage(content.toString());
+        message.addMetadata("userCount", presence.getOnlineCount());
         message.addMetadata("userList", usernames);
         
         return message;
     }
     
+    /**
+     * 向所有用户广播当前在线用户列表
+     */
+    public void broadcastUserList() {
+        messageBroadcaster.broadcastToAll(createUserListMessage());
+    }
+    
     /**
      * 添加消息到历史记录
      * @param message 要添加的消息
      */
-    private synchronized void addToHistory(Message message) {
+    private void addToHistory(ChatMessage message) {
         messageHistory.add(message);
-        
-        // 限制历史记录大小
-        if (messageHistory.size() > MAX_HISTORY_SIZE) {
-            messageHistory.remove(0);
-        }
+    }
+    
+    /**
+     * 获取按会话划分的消息历史副本（用于写入快照）
+     * @return 会话键到按时间顺序的历史消息的映射
+     */
+    public Map<String, List<ChatMessage>> getHistorySnapshot() {
+        return messageHistory.export();
+    }
+    
+    /**
+     * 获取历史消息序号计数器的当前值（用于写入快照）
+     * @return 最近分配的序号
+     */
+    public long getHistorySequence() {
+        return messageHistory.getSequence();
+    }
+    
+    /**
+     * 用快照中的消息恢复历史记录（启动时使用）
+     * @param history 会话键到按时间顺序的历史消息的映射
+     * @param sequence 快照中的序号计数器
+     */
+    public void restoreHistory(Map<String, List<ChatMessage>> history, long sequence) {
+        messageHistory.restore(history, sequence);
     }
     
     /**
      * 保存消息到数据库
      * @param message 要保存的消息
      */
-    private void saveMessageToDatabase(Message message) {
+    private void saveMessageToDatabase(ChatMessage message) {
         try {
             // 只保存需要持久化的消息类型
             if (message.getType() == MessageType.TEXT || 
@@ -359,9 +510,8 @@ public class MessageService {
                 message.getType() == MessageType.FILE || 
                 message.getType() == MessageType.SYSTEM_NOTICE) {
                 
-                // 准备元数据
-                Map<String, Object> metadata = message.getMetadata() != null ? 
-                    message.getMetadata() : new HashMap<>();
+                // 准备元数据（只在持久化时才组装Map）
+                Map<String, Object> metadata = message.toMetadataMap();
                 
                 // 保存消息到数据库
                 dbMessageService.saveMessage(
@@ -370,7 +520,8 @@ public class MessageService {
                     message.getRecipient(),
                     message.getContent(),
                     message.getType(),
-                    metadata
+                    metadata,
+                    message.getTimestamp()
                 );
             }
         } catch (Exception e) {
@@ -379,20 +530,44 @@ public class MessageService {
         }
     }
     
+    /**
+     * 记录消息中的提及，在线的被提及者已实时收到消息，不进入重连汇总
+     * @param message 消息
+     * @param mentioned 被提及的用户名
+     */
+    private void recordMentions(ChatMessage message, List<String> mentioned) {
+        if (mentioned.isEmpty()) {
+            return;
+        }
+        try {
+            mentionService.record(message, mentioned, this::isUserOnline);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "记录提及失败: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 向重新连接的用户发送离线期间的提及汇总
+     * @param username 用户名
+     */
+    private void sendMentionDigest(String username) {
+        try {
+            ChatMessage digest = mentionService.createDigest(username);
+            if (digest != null) {
+                messageBroadcaster.sendToUser(username, digest);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "发送提及汇总失败: " + e.getMessage(), e);
+        }
+    }
+    
     /**
      * 发送消息历史记录给指定用户
      * @param username 目标用户名
      */
     private void sendMessageHistory(String username) {
-        // 只发送最近的20条消息
-        int historySize = messageHistory.size();
-        int startIndex = Math.max(0, historySize - 20);
-        
-        // 创建历史消息列表
-        List<Message> recentMessages = messageHistory.subList(startIndex, historySize);
-        
-        // 发送历史消息
-        for (Message historyMessage : recentMessages) {
+        // 只发送群聊和该用户自己参与的私聊中最近的20条消息
+        for (ChatMessage historyMessage : messageHistory.recentFor(username, HISTORY_REPLAY_SIZE)) {
             messageBroadcaster.sendToUser(username, historyMessage);
         }
     }
@@ -402,7 +577,7 @@ public class MessageService {
      * @param content 通知内容
      */
     public void broadcastSystemNotice(String content) {
-        Message systemMessage = MessageFactory.createSystemMessage(content);
+        ChatMessage systemMessage = MessageFactory.createSystemMessage(content);
         messageBroadcaster.broadcastToAll(systemMessage);
         addToHistory(systemMessage);
     }
@@ -0,0 +1,361 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.enums.UserStatus;
+import com.ergouwebchat.service.cluster.ClusterBus;
+import com.ergouwebchat.service.cluster.ClusterEnvelope;
+import com.ergouwebchat.util.JsonUtils;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 用户在线状态服务
+ * <p>内存中的状态是权威数据：上线、下线、手动切换的离开/忙碌以及最后活跃时间都只改内存，
+ * 查询不访问数据库。变更过的用户记入脏集合，定期把每个用户的最新状态合并成一批写回users表，
+ * 一波登录或断线只产生一次批量更新。离线状态写回后移除该用户的内存记录，
+ * 内存中只保留在线用户和尚未写回的变更</p>
+ * <p>多节点部署时，本节点连接上的状态变更经集群总线发给其他节点，其他节点只更新内存不写库，
+ * 每个用户的状态由其连接所在的节点写回，收到其他节点的下线通知时直接移除记录。
+ * 只有WebSocket连接建立才算上线，HTTP登录只记录登录时间</p>
+ */
+@Service
+public class PresenceService {
+    private static final Logger LOGGER = Logger.getLogger(PresenceService.class.getName());
+
+    private static final String UPDATE_SQL =
+            "UPDATE users SET status = ?, last_active_at = ?, last_login = COALESCE(?, last_login) WHERE username = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ClusterBus clusterBus;
+
+    // 用户名到在线状态
+    private final Map<String, Presence> presences = new ConcurrentHashMap<>();
+
+    // 待写回数据库的用户名
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+
+    public PresenceService(JdbcTemplate jdbcTemplate, ClusterBus clusterBus) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.clusterBus = clusterBus;
+        clusterBus.subscribe(this::applyRemote);
+    }
+
+    /**
+     * 启动时把上次异常退出遗留的在线状态重置为离线
+     * <p>只重置在全局在线目录中找不到连接的用户，其他节点上仍在线的用户保持原状态</p>
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resetStaleStatuses() {
+        try {
+            List<String> stale = new ArrayList<>();
+            for (String username : jdbcTemplate.queryForList(
+                    "SELECT username FROM users WHERE status <> 'OFFLINE'", String.class)) {
+                if (clusterBus.getPresence().locate(username) == null) {
+                    stale.add(username);
+                }
+            }
+            if (stale.isEmpty()) {
+                return;
+            }
+            List<Object[]> rows = new ArrayList<>(stale.size());
+            for (String username : stale) {
+                rows.add(new Object[] {username});
+            }
+            jdbcTemplate.batchUpdate("UPDATE users SET status = 'OFFLINE' WHERE username = ? AND status <> 'OFFLINE'", rows);
+            LOGGER.info("已将 " + stale.size() + " 个遗留的在线状态重置为离线");
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "重置遗留在线状态失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 记录用户登录（只记录登录和活跃时间，上线由WebSocket连接建立时{@link #online}设置）
+     * @param username 用户名
+     */
+    public void login(String username) {
+        long now = System.currentTimeMillis();
+        presences.compute(username, (name, presence) -> {
+            Presence target = presence != null ? presence : new Presence();
+            target.recordLogin(now);
+            return target;
+        });
+        dirty.add(username);
+    }
+
+    /**
+     * 用户建立连接，已手动设置为离开或忙碌时保持原状态
+     * @param username 用户名
+     */
+    public void online(String username) {
+        long now = System.currentTimeMillis();
+        // 在映射的锁内更新，不会与写回后的移除交错而改到已移除的记录上
+        Presence presence = presences.compute(username, (name, existing) -> {
+            Presence target = existing != null ? existing : new Presence();
+            synchronized (target) {
+                UserStatus status = target.status == UserStatus.OFFLINE ? UserStatus.ONLINE : target.status;
+                target.update(status, now, 0);
+            }
+            return target;
+        });
+        dirty.add(username);
+        publish(username, presence);
+    }
+
+    /**
+     * 用户断开全部连接
+     * @param username 用户名
+     */
+    public void offline(String username) {
+        Presence presence = presences.get(username);
+        if (presence != null) {
+            presence.update(UserStatus.OFFLINE, System.currentTimeMillis(), 0);
+            dirty.add(username);
+            publish(username, presence);
+        }
+    }
+
+    /**
+     * 用户手动切换状态（在线、离开或忙碌），离线用户不能切换
+     * @param username 用户名
+     * @param status 新状态
+     * @return 切换成功返回true
+     */
+    public boolean setStatus(String username, UserStatus status) {
+        if (status == UserStatus.OFFLINE) {
+            throw new IllegalArgumentException("不能手动设置为离线");
+        }
+        Presence presence = presences.get(username);
+        if (presence == null) {
+            return false;
+        }
+        synchronized (presence) {
+            if (presence.status == UserStatus.OFFLINE) {
+                return false;
+            }
+            presence.update(status, System.currentTimeMillis(), 0);
+        }
+        dirty.add(username);
+        publish(username, presence);
+        return true;
+    }
+
+    /**
+     * 记录用户活跃（发送消息等），只更新内存中的最后活跃时间
+     * <p>不单独标记为待写回，最后活跃时间随下一次状态变更一起写回</p>
+     * @param username 用户名
+     */
+    public void touch(String username) {
+        Presence presence = presences.get(username);
+        if (presence != null) {
+            presence.lastActiveMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 获取用户状态
+     * @param username 用户名
+     * @return 状态，没有记录时为离线
+     */
+    public UserStatus getStatus(String username) {
+        Presence presence = presences.get(username);
+        return presence != null ? presence.status : UserStatus.OFFLINE;
+    }
+
+    /**
+     * 获取用户最后活跃时间
+     * @param username 用户名
+     * @return epoch毫秒，没有内存记录（未见过或离线状态已写回）时返回0
+     */
+    public long getLastActive(String username) {
+        Presence presence = presences.get(username);
+        return presence != null ? presence.lastActiveMillis : 0;
+    }
+
+    /**
+     * 获取所有非离线用户的用户名
+     * @return 用户名列表
+     */
+    public List<String> getOnlineUsernames() {
+        List<String> usernames = new ArrayList<>();
+        for (Map.Entry<String, Presence> entry : presences.entrySet()) {
+            if (entry.getValue().status != UserStatus.OFFLINE) {
+                usernames.add(entry.getKey());
+            }
+        }
+        return usernames;
+    }
+
+    /**
+     * 定期把变更合并写回数据库
+     */
+    @Scheduled(initialDelayString = "${chat.presence.flush-interval-millis:5000}",
+            fixedDelayString = "${chat.presence.flush-interval-millis:5000}")
+    public void flushPeriodically() {
+        flush();
+    }
+
+    /**
+     * 停机前写回剩余的变更
+     */
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    /**
+     * 把脏集合中每个用户的最新状态批量写回，写回成功后移除仍为离线的用户
+     * @return 写回的用户数
+     */
+    public synchronized int flush() {
+        if (dirty.isEmpty()) {
+            return 0;
+        }
+        List<String> usernames = new ArrayList<>(dirty.size());
+        List<Object[]> rows = new ArrayList<>(dirty.size());
+        for (Iterator<String> it = dirty.iterator(); it.hasNext(); ) {
+            String username = it.next();
+            it.remove();
+            Presence presence = presences.get(username);
+            if (presence == null) {
+                continue;
+            }
+            synchronized (presence) {
+                rows.add(new Object[] {
+                        presence.status.name(),
+                        new Timestamp(presence.lastActiveMillis),
+                        presence.loginMillis > 0 ? new Timestamp(presence.loginMillis) : null,
+                        username
+                });
+            }
+            usernames.add(username);
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_SQL, rows);
+        } catch (RuntimeException e) {
+            // 写回失败时重新标记，下一轮再试
+            dirty.addAll(usernames);
+            LOGGER.log(Level.WARNING, "写回在线状态失败: " + e.getMessage(), e);
+            return 0;
+        }
+        for (String username : usernames) {
+            evictIfOffline(username);
+        }
+        return rows.size();
+    }
+
+    /**
+     * 获取内存中的用户记录数
+     * @return 记录数
+     */
+    public int getTrackedCount() {
+        return presences.size();
+    }
+
+    /**
+     * 移除离线且没有待写回变更的用户记录
+     */
+    private void evictIfOffline(String username) {
+        presences.computeIfPresent(username, (name, presence) ->
+                presence.status == UserStatus.OFFLINE && !dirty.contains(name) ? null : presence);
+    }
+
+    /**
+     * 把本节点的状态变更发给其他节点
+     */
+    private void publish(String username, Presence presence) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        synchronized (presence) {
+            frame.put("status", presence.status.name());
+            frame.put("lastActive", presence.lastActiveMillis);
+        }
+        try {
+            clusterBus.publish(ClusterEnvelope.presence(clusterBus.getNodeId(), username, JsonUtils.toJson(frame)));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "发布用户 " + username + " 的在线状态失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 应用其他节点发来的状态变更，只更新内存，由来源节点写回数据库
+     * <p>用户连接在本节点时以本节点状态为准；乱序到达的旧变更按最后活跃时间丢弃</p>
+     * @param envelope 集群消息信封
+     */
+    void applyRemote(ClusterEnvelope envelope) {
+        if (envelope.getKind() != ClusterEnvelope.Kind.PRESENCE
+                || clusterBus.getNodeId().equals(envelope.getSourceNode())) {
+            return;
+        }
+        String username = envelope.getTargetUser();
+        if (clusterBus.getNodeId().equals(clusterBus.getPresence().locate(username))) {
+            return;
+        }
+        Map<?, ?> frame = JsonUtils.fromJson(envelope.getFrame(), Map.class);
+        if (frame == null) {
+            return;
+        }
+        UserStatus status = UserStatus.valueOf((String) frame.get("status"));
+        long lastActive = ((Number) frame.get("lastActive")).longValue();
+        presences.compute(username, (name, presence) -> {
+            if (presence == null) {
+                // 来源节点负责写回，本节点不需要保留离线用户
+                return status == UserStatus.OFFLINE ? null : new Presence(status, lastActive);
+            }
+            synchronized (presence) {
+                if (lastActive < presence.lastActiveMillis) {
+                    return presence;
+                }
+                if (status == UserStatus.OFFLINE && !dirty.contains(name)) {
+                    return null;
+                }
+                presence.update(status, lastActive, 0);
+                return presence;
+            }
+        });
+    }
+
+    /**
+     * 单个用户的在线状态
+     */
+    private static final class Presence {
+        volatile UserStatus status = UserStatus.OFFLINE;
+        volatile long lastActiveMillis;
+        // 最近一次登录时间，0表示本进程内未登录过
+        long loginMillis;
+
+        Presence() {
+        }
+
+        Presence(UserStatus status, long lastActiveMillis) {
+            this.status = status;
+            this.lastActiveMillis = lastActiveMillis;
+        }
+
+        synchronized void recordLogin(long nowMillis) {
+            this.lastActiveMillis = nowMillis;
+            this.loginMillis = nowMillis;
+        }
+
+        synchronized void update(UserStatus status, long activeMillis, long loginMillis) {
+            this.status = status;
+            this.lastActiveMillis = activeMillis;
+            if (loginMillis > 0) {
+                this.loginMillis = loginMillis;
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.service.factory.MessageFactory;
+import com.ergouwebchat.util.CoarseClock;
+import com.ergouwebchat.util.HashedTimingWheel;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 会话心跳与空闲回收
+ * <p>服务端定期向每个会话发送ping，收到pong或任意消息即视为活跃。
+ * 超过空闲时限的半开连接被判定为失效，按批次从会话管理器移除并关闭，
+ * 每批只广播一次离开消息和一次在线列表，修正在线人数。
+ * 所有会话的定时检查共用一个哈希时间轮，而不是每个会话一个定时器</p>
+ * <p>ping由固定大小的线程池发送，每次发送带独立的超时，
+ * 个别对端不读取数据导致发送阻塞时只占用一个线程且最多阻塞超时时长，不会拖慢其他会话的心跳</p>
+ */
+@Service
+public class SessionHeartbeatMonitor {
+    private static final Logger LOGGER = Logger.getLogger(SessionHeartbeatMonitor.class.getName());
+
+    /**
+     * 被回收会话的会话属性标记，端点据此跳过重复的离开广播
+     */
+    public static final String EVICTED_PROPERTY = "evicted";
+
+    // Tomcat读取的会话级阻塞发送超时属性（毫秒）
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    // 每个发送线程平均排队的检查数上限，超出时本轮跳过ping
+    private static final int PING_QUEUE_PER_THREAD = 1024;
+
+    private static final ByteBuffer PING_PAYLOAD = ByteBuffer.wrap(new byte[]{'h', 'b'}).asReadOnlyBuffer();
+
+    private final long pingIntervalMillis;
+    private final long idleTimeoutMillis;
+    private final long evictionBatchMillis;
+    private final long pingTimeoutMillis;
+
+    private final UserSessionManager sessionManager;
+    private final MessageService messageService;
+
+    private final HashedTimingWheel wheel;
+
+    // 批量回收在独立线程执行，避免阻塞时间轮
+    private final ExecutorService worker;
+
+    // 检查会话和发送ping的有界线程池
+    private final ThreadPoolExecutor pingPool;
+
+    // 会话ID到心跳状态的映射
+    private final Map<String, HeartbeatState> states = new ConcurrentHashMap<>();
+
+    // 待回收的失效会话
+    private final Queue<HeartbeatState> deadSessions = new ConcurrentLinkedQueue<>();
+
+    public SessionHeartbeatMonitor(MessageService messageService,
+                                   @Value("${chat.ws.heartbeat.interval-seconds:25}") long pingIntervalSeconds,
+                                   @Value("${chat.ws.heartbeat.idle-timeout-seconds:75}") long idleTimeoutSeconds,
+                                   @Value("${chat.ws.heartbeat.eviction-batch-millis:1000}") long evictionBatchMillis,
+                                   @Value("${chat.ws.heartbeat.ping-threads:4}") int pingThreads,
+                                   @Value("${chat.ws.heartbeat.ping-timeout-millis:5000}") long pingTimeoutMillis) {
+        this.messageService = messageService;
+        this.sessionManager = UserSessionManager.getInstance();
+        this.pingIntervalMillis = TimeUnit.SECONDS.toMillis(pingIntervalSeconds);
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+        this.evictionBatchMillis = evictionBatchMillis;
+        this.pingTimeoutMillis = pingTimeoutMillis;
+        this.wheel = new HashedTimingWheel("heartbeat-wheel", 100, TimeUnit.MILLISECONDS, 512);
+        this.worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "heartbeat-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger pingThreadIndex = new AtomicInteger();
+        this.pingPool = new ThreadPoolExecutor(pingThreads, pingThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(pingThreads * PING_QUEUE_PER_THREAD), r -> {
+            Thread thread = new Thread(r, "heartbeat-ping-" + pingThreadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduleEviction();
+    }
+
+    /**
+     * 开始监测会话
+     * @param username 用户名
+     * @param session WebSocket会话
+     */
+    public void register(String username, Session session) {
+        HeartbeatState state = new HeartbeatState(username, session);
+        states.put(session.getId(), state);
+        schedule(state);
+    }
+
+    /**
+     * 停止监测会话（会话正常关闭时调用）
+     * @param session WebSocket会话
+     */
+    public void unregister(Session session) {
+        HeartbeatState state = states.remove(session.getId());
+        if (state != null && state.timeout != null) {
+            state.timeout.cancel();
+        }
+    }
+
+    /**
+     * 记录会话活跃（收到消息或pong时调用）
+     * @param session WebSocket会话
+     */
+    public void touch(Session session) {
+        HeartbeatState state = states.get(session.getId());
+        if (state != null) {
+            state.lastSeen = CoarseClock.currentTimeMillis();
+        }
+    }
+
+    /**
+     * 获取正在监测的会话数
+     * @return 会话数
+     */
+    public int getMonitoredCount() {
+        return states.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wheel.stop();
+        worker.shutdownNow();
+        pingPool.shutdownNow();
+    }
+
+    private void schedule(HeartbeatState state) {
+        state.timeout = wheel.newTimeout(() -> submitCheck(state), pingIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void submitCheck(HeartbeatState state) {
+        try {
+            pingPool.execute(() -> check(state));
+        } catch (RejectedExecutionException e) {
+            // 发送线程都被慢连接占满，本轮跳过，空闲超时仍会在后续检查中生效
+            if (!pingPool.isShutdown()) {
+                schedule(state);
+            }
+        }
+    }
+
+    /**
+     * 检查会话：空闲超时则加入回收队列，否则发送ping并安排下一次检查
+     * @param state 心跳状态
+     */
+    private void check(HeartbeatState state) {
+        if (states.get(state.session.getId()) != state) {
+            return;
+        }
+        long idle = CoarseClock.currentTimeMillis() - state.lastSeen;
+        if (idle > idleTimeoutMillis || !state.session.isOpen()) {
+            deadSessions.add(state);
+            return;
+        }
+        try {
+            sendPing(state.session);
+        } catch (IOException | IllegalStateException e) {
+            LOGGER.log(Level.FINE, "发送心跳失败: " + state.username, e);
+            deadSessions.add(state);
+            return;
+        }
+        schedule(state);
+    }
+
+    /**
+     * 以心跳超时发送ping，发送完成后恢复会话原有的发送超时
+     * @param session WebSocket会话
+     * @throws IOException 发送失败或超时
+     */
+    private void sendPing(Session session) throws IOException {
+        synchronized (session) {
+            Map<String, Object> properties = session.getUserProperties();
+            Object previous = properties.put(BLOCKING_SEND_TIMEOUT, pingTimeoutMillis);
+            try {
+                session.getBasicRemote().sendPing(PING_PAYLOAD.duplicate());
+            } finally {
+                if (previous == null) {
+                    properties.remove(BLOCKING_SEND_TIMEOUT);
+                } else {
+                    properties.put(BLOCKING_SEND_TIMEOUT, previous);
+                }
+            }
+        }
+    }
+
+    private void scheduleEviction() {
+        wheel.newTimeout(() -> worker.execute(() -> {
+            try {
+                evictBatch();
+            } finally {
+                scheduleEviction();
+            }
+        }), evictionBatchMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 批量回收失效会话，整批只广播一次离开消息和在线列表
+     */
+    private void evictBatch() {
+        List<String> evictedUsers = new ArrayList<>();
+        HeartbeatState state;
+        while ((state = deadSessions.poll()) != null) {
+            if (!states.remove(state.session.getId(), state)) {
+                continue;
+            }
+            state.session.getUserProperties().put(EVICTED_PROPERTY, Boolean.TRUE);
+            // 只在该用户名仍指向这个会话时才移除，避免误删用户重连后的新会话
+            if (sessionManager.getUserSession(state.username) == state.session) {
+                sessionManager.removeUserSession(state.username);
+                messageService.markOffline(state.username);
+                evictedUsers.add(state.username);
+            } else {
+                sessionManager.removeSessionById(state.session.getId());
+            }
+            closeQuietly(state.session);
+        }
+        if (evictedUsers.isEmpty()) {
+            return;
+        }
+
+        LOGGER.info("回收失效会话: " + evictedUsers);
+        ChatMessage leaveMessage = MessageFactory.createUsersLeaveMessage(evictedUsers);
+        messageService.process(leaveMessage);
+        messageService.broadcastUserList();
+    }
+
+    private void closeQuietly(Session session) {
+        try {
+            if (session.isOpen()) {
+                session.close(new CloseReason(CloseReason.CloseCodes.GOING_AWAY, "心跳超时"));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "关闭失效会话失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 单个会话的心跳状态
+     */
+    private static final class HeartbeatState {
+        private final String username;
+        private final Session session;
+        private volatile long lastSeen = CoarseClock.currentTimeMillis();
+        private volatile HashedTimingWheel.Timeout timeout;
+
+        private HeartbeatState(String username, Session session) {
+            this.username = username;
+            this.session = session;
+        }
+    }
+}
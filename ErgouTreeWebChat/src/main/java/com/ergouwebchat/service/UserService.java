@@ -1,9 +1,12 @@
 package com.ergouwebchat.service;
 
+import com.ergouwebchat.model.UserProfile;
 import com.ergouwebchat.model.entity.User;
 import com.ergouwebchat.repository.UserRepository;
+import com.ergouwebchat.service.auth.PasswordHasher;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.service.search.UserDirectory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -18,51 +21,108 @@ import java.util.Optional;
 public class UserService {
     
     private final UserRepository userRepository;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHasher passwordHasher;
+    private final PresenceService presenceService;
+    private final UserCache userCache;
+    private final UsernameRegistry usernameRegistry;
+    private final UserDirectory userDirectory;
     
     @Autowired
-    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepository userRepository, PasswordHasher passwordHasher,
+                       PresenceService presenceService, UserCache userCache,
+                       UsernameRegistry usernameRegistry, UserDirectory userDirectory) {
         this.userRepository = userRepository;
-        this.passwordEncoder = passwordEncoder;
+        this.passwordHasher = passwordHasher;
+        this.presenceService = presenceService;
+        this.userCache = userCache;
+        this.usernameRegistry = usernameRegistry;
+        this.userDirectory = userDirectory;
     }
     
     /**
      * 创建新用户
+     * <p>不在外层开启事务，密码加密在专用执行器上排队和计算期间不占用数据库连接</p>
      * @param username 用户名
      * @param password 密码
      * @return 创建的用户
+     * @throws java.util.concurrent.RejectedExecutionException 密码执行器繁忙
      */
-    @Transactional
     public User createUser(String username, String password) {
         // 确保用户名已trim
         username = username.trim();
         
-        if (userRepository.existsByUsername(username)) {
+        // 用户名过滤器判定不存在时不查数据库，并发注册同名用户时由唯一索引兜底
+        if (!usernameRegistry.isAvailable(username)) {
             throw new RuntimeException("用户名已存在");
         }
         
         User user = new User();
         user.setUsername(username);
-        user.setPassword(passwordEncoder.encode(password.trim())); // 确保密码trim后加密
+        user.setPassword(passwordHasher.encode(password.trim())); // 确保密码trim后加密
         user.setStatus(User.UserStatus.OFFLINE);
         user.setCreatedAt(LocalDateTime.now());
         
         // 生成随机头像颜色
         user.setAvatarColor(generateRandomColor());
         
-        return userRepository.save(user);
+        usernameRegistry.register(username);
+        User saved = userRepository.save(user);
+        // 清除该用户名可能存在的负缓存
+        userCache.invalidate(username);
+        userDirectory.put(UserProfile.of(saved));
+        return saved;
+    }
+    
+    /**
+     * 修改用户资料
+     * @param username 用户名
+     * @param nickname 昵称，为null时不修改
+     * @param avatarColor 头像颜色，为null时不修改
+     * @return 修改后的用户
+     */
+    @Transactional
+    public User updateProfile(String username, String nickname, String avatarColor) {
+        User user = userRepository.findByUsername(username)
+                .orElseThrow(() -> new RuntimeException("用户不存在"));
+        
+        if (nickname != null) {
+            user.setNickname(nickname.trim());
+        }
+        if (avatarColor != null) {
+            user.setAvatarColor(avatarColor.trim());
+        }
+        
+        User saved = userRepository.save(user);
+        userCache.invalidate(username);
+        userDirectory.put(UserProfile.of(saved));
+        return saved;
+    }
+    
+    /**
+     * 判断用户名是否可以注册
+     * @param username 用户名
+     * @return 未被占用返回true
+     */
+    public boolean isUsernameAvailable(String username) {
+        return usernameRegistry.isAvailable(username.trim());
     }
     
     /**
      * 用户登录
+     * <p>在线状态和登录时间只记入{@link PresenceService}，由其批量写回。
+     * 校验密码需要读取数据库，已确认不存在的用户名直接拒绝。密码校验在专用执行器上进行</p>
      * @param username 用户名
      * @param password 密码
      * @return 登录成功的用户
+     * @throws java.util.concurrent.RejectedExecutionException 密码执行器繁忙
      */
-    @Transactional
     public User login(String username, String password) {
         username = username.trim(); // 新增trim处理
         
+        if (userCache.isKnownAbsent(username)) {
+            throw new RuntimeException("用户不存在");
+        }
+        
         Optional<User> optionalUser = userRepository.findByUsername(username);
         
         if (optionalUser.isEmpty()) {
@@ -72,49 +132,39 @@ public class UserService {
         User user = optionalUser.get();
         
         // 验证密码
-        if (!passwordEncoder.matches(password, user.getPassword())) {
+        if (!passwordHasher.matches(password, user.getPassword())) {
             throw new RuntimeException("密码错误");
         }
         
         // 更新用户状态和登录时间
-        user.setStatus(User.UserStatus.ONLINE);
-        user.setLastLogin(LocalDateTime.now());
+        presenceService.login(username);
         
-        return userRepository.save(user);
+        return user;
     }
     
     /**
      * 用户登出
      * @param username 用户名
      */
-    @Transactional
     public void logout(String username) {
-        // 查找用户
-        Optional<User> optionalUser = userRepository.findByUsername(username);
-        
-        if (optionalUser.isPresent()) {
-            User user = optionalUser.get();
-            // 更新用户状态
-            user.setStatus(User.UserStatus.OFFLINE);
-            userRepository.save(user);
-        }
+        presenceService.offline(username);
     }
     
     /**
      * 获取所有在线用户
-     * @return 在线用户列表
+     * @return 在线用户名列表
      */
-    public List<User> getOnlineUsers() {
-        return userRepository.findByStatus(User.UserStatus.ONLINE);
+    public List<String> getOnlineUsers() {
+        return presenceService.getOnlineUsernames();
     }
     
     /**
-     * 根据用户名查找用户
+     * 根据用户名查找用户资料（经缓存）
      * @param username 用户名
-     * @return 用户对象
+     * @return 用户资料
      */
-    public Optional<User> findByUsername(String username) {
-        return userRepository.findByUsername(username);
+    public Optional<UserProfile> findByUsername(String username) {
+        return userCache.find(username);
     }
     
     /**
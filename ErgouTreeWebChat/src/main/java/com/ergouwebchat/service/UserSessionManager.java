@@ -8,6 +8,8 @@ import java.util.concurrent.ConcurrentHashMap;
 /**
  * 用户会话管理器（单例模式）
  * <p>负责管理所有WebSocket连接的用户会话</p>
+ * <p>应用使用{@link #getInstance()}返回的进程内会话表；同一JVM内模拟多个集群节点时，
+ * 每个节点通过构造方法持有自己的会话表</p>
  */
 public class UserSessionManager {
     // 单例实例
@@ -20,9 +22,9 @@ public class UserSessionManager {
     private final Map<String, String> usernameToSessionId;
     
     /**
-     * 私有构造函数，防止外部实例化
+     * 构造方法，创建独立的会话表（应用中应使用{@link #getInstance()}）
      */
-    private UserSessionManager() {
+    public UserSessionManager() {
         this.activeSessions = new ConcurrentHashMap<>();
         this.usernameToSessionId = new ConcurrentHashMap<>();
     }
@@ -0,0 +1,215 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.repository.UserRepository;
+import com.ergouwebchat.service.cluster.ClusterBus;
+import com.ergouwebchat.service.cluster.InProcessClusterBus;
+import com.ergouwebchat.util.BloomFilter;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 用户名占用判断
+ * <p>内存中维护全部已注册用户名的布隆过滤器：过滤器判定不存在时直接回答"可用"，不查数据库；
+ * 只有可能冲突（确实已注册或误判）时才回落到数据库查询。过滤器在启动时分页扫描用户表构建，
+ * 注册时增量加入；加入的用户名超过容量时在后台按当前用户数重建。
+ * 用户名的唯一索引不区分大小写，过滤器中统一按小写保存</p>
+ * <p>多节点部署时其他节点注册的用户名不会加入本节点的过滤器，过滤器的“不存在”不再可信，
+ * 此时不构建过滤器，全部查询数据库</p>
+ */
+@Service
+public class UsernameRegistry {
+    private static final Logger LOGGER = Logger.getLogger(UsernameRegistry.class.getName());
+
+    // 构建时每页读取的用户数
+    private static final int LOAD_PAGE_SIZE = 5000;
+
+    private final UserRepository userRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final long expectedUsers;
+    private final double falsePositiveRate;
+
+    // 本节点能看到全部注册（单节点部署）时才使用过滤器
+    private final boolean filterEnabled;
+
+    private final Object lock = new Object();
+
+    // 当前过滤器，构建完成前为null（全部回落到数据库）
+    private volatile BloomFilter filter;
+
+    // 构建期间注册的用户名，构建完成后补入新过滤器，不在构建时为null，受lock保护
+    private List<String> pending;
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    // 过滤器直接判定可用的次数与回落到数据库的次数
+    private final AtomicLong filterAnswers = new AtomicLong();
+    private final AtomicLong databaseChecks = new AtomicLong();
+
+    public UsernameRegistry(UserRepository userRepository, JdbcTemplate jdbcTemplate, ClusterBus clusterBus,
+                            @Value("${chat.username-filter.expected-users:100000}") long expectedUsers,
+                            @Value("${chat.username-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.userRepository = userRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.expectedUsers = expectedUsers;
+        this.falsePositiveRate = falsePositiveRate;
+        this.filterEnabled = clusterBus instanceof InProcessClusterBus;
+    }
+
+    /**
+     * 启动后在后台构建过滤器
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        if (!filterEnabled) {
+            LOGGER.info("多节点部署，用户名占用判断直接查询数据库");
+            return;
+        }
+        rebuildInBackground();
+    }
+
+    /**
+     * 判断用户名是否可以注册
+     * @param username 用户名
+     * @return 未被占用返回true
+     */
+    public boolean isAvailable(String username) {
+        BloomFilter current = filter;
+        if (current != null && !current.mightContain(normalize(username))) {
+            filterAnswers.incrementAndGet();
+            return true;
+        }
+        databaseChecks.incrementAndGet();
+        return !userRepository.existsByUsername(username);
+    }
+
+    /**
+     * 登记新注册的用户名
+     * <p>在保存用户之前调用即可：事务回滚时只多出一个误判，不影响正确性</p>
+     * @param username 用户名
+     */
+    public void register(String username) {
+        String key = normalize(username);
+        BloomFilter current;
+        synchronized (lock) {
+            current = filter;
+            if (current != null) {
+                current.put(key);
+            }
+            if (pending != null) {
+                pending.add(key);
+            }
+        }
+        if (current != null && current.isSaturated()) {
+            rebuildInBackground();
+        }
+    }
+
+    /**
+     * 扫描用户表重建过滤器，容量取配置的预计用户数和当前用户数两倍中的较大者
+     */
+    public void rebuild() {
+        if (!filterEnabled) {
+            return;
+        }
+        synchronized (lock) {
+            pending = new ArrayList<>();
+        }
+        try {
+            Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Long.class);
+            BloomFilter next = new BloomFilter(Math.max(expectedUsers, (count != null ? count : 0) * 2),
+                    falsePositiveRate);
+            long afterId = 0;
+            long loaded = 0;
+            while (true) {
+                long[] lastId = {afterId};
+                int[] rows = {0};
+                jdbcTemplate.query("SELECT id, username FROM users WHERE id > ? ORDER BY id LIMIT ?",
+                        rs -> {
+                            lastId[0] = rs.getLong(1);
+                            next.put(normalize(rs.getString(2)));
+                            rows[0]++;
+                        },
+                        afterId, LOAD_PAGE_SIZE);
+                loaded += rows[0];
+                if (rows[0] < LOAD_PAGE_SIZE) {
+                    break;
+                }
+                afterId = lastId[0];
+            }
+            synchronized (lock) {
+                for (String key : pending) {
+                    next.put(key);
+                }
+                filter = next;
+            }
+            LOGGER.info("用户名过滤器已构建，共 " + loaded + " 个用户名，" + next.getBitSize() + " 位，"
+                    + next.getHashCount() + " 个哈希");
+        } finally {
+            synchronized (lock) {
+                pending = null;
+            }
+        }
+    }
+
+    /**
+     * 获取由过滤器直接判定可用的次数
+     * @return 次数
+     */
+    public long getFilterAnswers() {
+        return filterAnswers.get();
+    }
+
+    /**
+     * 获取回落到数据库查询的次数
+     * @return 次数
+     */
+    public long getDatabaseChecks() {
+        return databaseChecks.get();
+    }
+
+    /**
+     * 获取过滤器统计
+     * @return 过滤器直接判定和回落到数据库的次数
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("filterAnswers", getFilterAnswers());
+        stats.put("databaseChecks", getDatabaseChecks());
+        return stats;
+    }
+
+    private void rebuildInBackground() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "构建用户名过滤器失败: " + e.getMessage(), e);
+            } finally {
+                rebuilding.set(false);
+            }
+        }, "username-filter-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,195 @@
+package com.ergouwebchat.service.auth;
+
+import com.ergouwebchat.util.CoarseClock;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * WebSocket握手令牌服务
+ * <p>签发和校验短期有效的HMAC-SHA256签名令牌，格式为
+ * {@code base64url(用户名).过期时间(epoch秒).认证时间(epoch毫秒).base64url(签名)}。
+ * 校验只做内存中的签名和过期检查，不访问数据库和HTTP会话，重连风暴时握手吞吐不受MySQL限制</p>
+ * <p>认证时间是用户通过HTTP会话登录后第一次取令牌的时间，用令牌续期时原样带入新令牌。
+ * 超过最长有效期的令牌不能再续期，必须回到HTTP会话重新取令牌，泄露的令牌不能无限续用。
+ * 登出时记录撤销时间，本节点拒绝此前认证的令牌；其他节点上的续期由最长有效期兜底</p>
+ */
+@Service
+public class HandshakeTokenService {
+
+    private static final Logger LOGGER = Logger.getLogger(HandshakeTokenService.class.getName());
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final long ttlSeconds;
+    private final long maxLifetimeMillis;
+
+    // 用户名到登出时间（epoch毫秒），认证时间不晚于该时间的令牌无效
+    private final Map<String, Long> revokedAt = new ConcurrentHashMap<>();
+
+    // Mac实例非线程安全，每个线程复用一个
+    private final ThreadLocal<Mac> macs;
+
+    public HandshakeTokenService(@Value("${chat.ws.token-secret:}") String secret,
+                                 @Value("${chat.ws.token-ttl-seconds:300}") long ttlSeconds,
+                                 @Value("${chat.ws.token-max-lifetime-seconds:43200}") long maxLifetimeSeconds) {
+        byte[] secretBytes;
+        if (secret == null || secret.isBlank()) {
+            // 未配置密钥时随机生成，只适用于单节点部署
+            secretBytes = new byte[32];
+            new SecureRandom().nextBytes(secretBytes);
+            LOGGER.warning("未配置chat.ws.token-secret，已生成随机密钥，多节点部署时令牌无法互认");
+        } else {
+            secretBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.key = new SecretKeySpec(secretBytes, ALGORITHM);
+        this.ttlSeconds = ttlSeconds;
+        this.maxLifetimeMillis = maxLifetimeSeconds * 1000;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    /**
+     * 为通过HTTP会话认证的用户签发握手令牌，认证时间取当前时间
+     * @param username 用户名
+     * @return 签名令牌
+     */
+    public String issue(String username) {
+        return issue(username, CoarseClock.currentTimeMillis());
+    }
+
+    /**
+     * 为用户签发握手令牌
+     * @param username 用户名
+     * @param authenticatedAt 认证时间（epoch毫秒），续期时取旧令牌中的值
+     * @return 签名令牌
+     */
+    public String issue(String username, long authenticatedAt) {
+        long expiresAt = CoarseClock.currentTimeMillis() / 1000 + ttlSeconds;
+        String payload = ENCODER.encodeToString(username.getBytes(StandardCharsets.UTF_8))
+                + "." + expiresAt + "." + authenticatedAt;
+        return payload + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * 校验握手令牌
+     * @param token 签名令牌
+     * @return 令牌中的用户名，令牌无效、已过期或已撤销时返回null
+     */
+    public String verify(String token) {
+        Claims claims = parse(token);
+        return claims == null ? null : claims.getUsername();
+    }
+
+    /**
+     * 校验用于续期的令牌
+     * @param token 签名令牌
+     * @return 令牌内容，令牌无效或认证时间超过最长有效期时返回null
+     */
+    public Claims verifyForRenewal(String token) {
+        Claims claims = parse(token);
+        if (claims == null || CoarseClock.currentTimeMillis() - claims.getAuthenticatedAt() > maxLifetimeMillis) {
+            return null;
+        }
+        return claims;
+    }
+
+    /**
+     * 撤销用户此前认证的所有令牌（登出时调用，只对本节点生效）
+     * @param username 用户名
+     */
+    public void revoke(String username) {
+        long now = CoarseClock.currentTimeMillis();
+        revokedAt.put(username, now);
+        // 超过最长有效期的记录已经没有令牌能通过续期检查，顺带清理
+        revokedAt.values().removeIf(time -> now - time > maxLifetimeMillis + ttlSeconds * 1000);
+    }
+
+    /**
+     * 获取令牌有效期
+     * @return 有效期（秒）
+     */
+    public long getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    private Claims parse(String token) {
+        if (token == null) {
+            return null;
+        }
+        int first = token.indexOf('.');
+        int second = token.indexOf('.', first + 1);
+        int last = token.lastIndexOf('.');
+        if (first <= 0 || second <= first + 1 || last <= second + 1 || last == token.length() - 1) {
+            return null;
+        }
+        try {
+            long expiresAt = Long.parseLong(token, first + 1, second, 10);
+            if (expiresAt < CoarseClock.currentTimeMillis() / 1000) {
+                return null;
+            }
+            long authenticatedAt = Long.parseLong(token, second + 1, last, 10);
+            byte[] expected = sign(token.substring(0, last));
+            byte[] actual = DECODER.decode(token.substring(last + 1));
+            if (!MessageDigest.isEqual(expected, actual)) {
+                return null;
+            }
+            String username = new String(DECODER.decode(token.substring(0, first)), StandardCharsets.UTF_8);
+            Long revoked = revokedAt.get(username);
+            if (revoked != null && authenticatedAt <= revoked) {
+                return null;
+            }
+            return new Claims(username, authenticatedAt);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("无法初始化HMAC: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 令牌内容
+     */
+    public static final class Claims {
+        private final String username;
+        private final long authenticatedAt;
+
+        private Claims(String username, long authenticatedAt) {
+            this.username = username;
+            this.authenticatedAt = authenticatedAt;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public long getAuthenticatedAt() {
+            return authenticatedAt;
+        }
+    }
+}
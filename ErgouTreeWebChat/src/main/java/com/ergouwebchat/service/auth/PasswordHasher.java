@@ -0,0 +1,229 @@
+package com.ergouwebchat.service.auth;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 密码哈希执行器
+ * <p>BCrypt加密和校验每次要占用几十毫秒CPU，统一放到固定大小的专用线程池中执行，
+ * 同时进行的哈希计算不超过线程数，登录高峰不会占满CPU拖慢聊天页面和WebSocket的处理。
+ * 等待队列有上限，队列已满或等待超时时立即抛出{@link RejectedExecutionException}，
+ * 由调用方转换为503。记录排队时间和哈希耗时，用于调整线程数和BCrypt强度</p>
+ */
+@Service
+public class PasswordHasher {
+
+    private final PasswordEncoder encoder;
+    private final ThreadPoolExecutor executor;
+    private final long maxWaitMillis;
+
+    // 排队时间和哈希耗时
+    private final Timing queueTiming = new Timing();
+    private final Timing hashTiming = new Timing();
+
+    // 因队列已满或等待超时被拒绝的次数
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * 构造方法
+     * @param encoder 密码加密器
+     * @param threads 哈希线程数，不大于0时取CPU核数的一半
+     * @param queueCapacity 等待队列容量
+     * @param maxWaitMillis 调用方最长等待时间（含排队）
+     */
+    public PasswordHasher(PasswordEncoder encoder,
+                          @Value("${chat.password.threads:0}") int threads,
+                          @Value("${chat.password.queue-capacity:100}") int queueCapacity,
+                          @Value("${chat.password.max-wait-millis:5000}") long maxWaitMillis) {
+        this.encoder = encoder;
+        this.maxWaitMillis = maxWaitMillis;
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread thread = new Thread(r, "password-hasher-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 加密密码
+     * @param rawPassword 明文密码
+     * @return 密文
+     * @throws RejectedExecutionException 执行器繁忙
+     */
+    public String encode(CharSequence rawPassword) {
+        return execute(() -> encoder.encode(rawPassword));
+    }
+
+    /**
+     * 校验密码
+     * @param rawPassword 明文密码
+     * @param encodedPassword 密文
+     * @return 匹配返回true
+     * @throws RejectedExecutionException 执行器繁忙
+     */
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return execute(() -> encoder.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * 获取当前排队的任务数
+     * @return 任务数
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * 获取正在计算的任务数
+     * @return 任务数
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * 获取被拒绝的次数
+     * @return 次数
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * 获取平均排队时间
+     * @return 毫秒
+     */
+    public double getAverageQueueMillis() {
+        return queueTiming.averageMillis();
+    }
+
+    /**
+     * 获取最长排队时间
+     * @return 毫秒
+     */
+    public double getMaxQueueMillis() {
+        return queueTiming.maxMillis();
+    }
+
+    /**
+     * 获取平均哈希耗时
+     * @return 毫秒
+     */
+    public double getAverageHashMillis() {
+        return hashTiming.averageMillis();
+    }
+
+    /**
+     * 获取最长哈希耗时
+     * @return 毫秒
+     */
+    public double getMaxHashMillis() {
+        return hashTiming.maxMillis();
+    }
+
+    /**
+     * 获取执行器统计
+     * @return 队列长度、活动线程数、拒绝次数以及排队和哈希耗时
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueSize", getQueueSize());
+        stats.put("activeCount", getActiveCount());
+        stats.put("rejected", getRejectedCount());
+        stats.put("averageQueueMillis", getAverageQueueMillis());
+        stats.put("maxQueueMillis", getMaxQueueMillis());
+        stats.put("averageHashMillis", getAverageHashMillis());
+        stats.put("maxHashMillis", getMaxHashMillis());
+        return stats;
+    }
+
+    /**
+     * 停止执行器
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T execute(Supplier<T> task) {
+        long submittedAt = System.nanoTime();
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long startedAt = System.nanoTime();
+                queueTiming.record(startedAt - submittedAt);
+                try {
+                    return task.get();
+                } finally {
+                    hashTiming.record(System.nanoTime() - startedAt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("密码校验繁忙，请稍后重试", e);
+        }
+
+        try {
+            return future.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException("密码校验超时，请稍后重试", e);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("密码校验被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("密码校验失败: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * 耗时统计（次数、总耗时和最大值）
+     */
+    private static final class Timing {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        double averageMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / (double) n / 1_000_000;
+        }
+
+        double maxMillis() {
+            return maxNanos.get() / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.ergouwebchat.service.cache;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.util.CoarseClock;
+import com.ergouwebchat.util.JsonUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * 预序列化消息帧缓存（单例模式）
+ * <p>以消息ID为键，把每条消息编码后的UTF-8帧保存在堆外的direct ByteBuffer中，
+ * 私聊回显、历史回放等重复发送同一条消息的场景直接复用已编码的字节，不再重复做JSON序列化，
+ * 最近消息的帧也不占用GC管理的堆。WebSocket文本接口需要String，命中时从堆外缓冲区直接解码，不经过中间的byte[]。
+ * 缓存按总字节数和存活时间双重限制，超出时按LRU顺序淘汰。
+ * 键是服务端生成的消息ID（客户端填写的ID在入口处被丢弃），不同消息不会共用一个帧</p>
+ */
+public class FrameCache {
+    // 缓存帧总字节数上限
+    private static final long MAX_TOTAL_BYTES = 16L * 1024 * 1024;
+
+    // 单帧最大字节数，超过则不缓存
+    private static final int MAX_FRAME_BYTES = 64 * 1024;
+
+    // 帧最长存活时间（毫秒）
+    private static final long MAX_AGE_MILLIS = 30L * 60 * 1000;
+
+    // 单例实例
+    private static FrameCache instance;
+
+    // 按访问顺序排列的帧表，最久未访问的在最前
+    private final LinkedHashMap<String, Frame> frames;
+
+    // 当前缓存的总字节数（堆外）
+    private long totalBytes;
+
+    // 命中与未命中次数
+    private long hits;
+    private long misses;
+
+    /**
+     * 私有构造函数，防止外部实例化
+     */
+    private FrameCache() {
+        this.frames = new LinkedHashMap<>(256, 0.75f, true);
+    }
+
+    /**
+     * 获取单例实例
+     * @return FrameCache实例
+     */
+    public static synchronized FrameCache getInstance() {
+        if (instance == null) {
+            instance = new FrameCache();
+        }
+        return instance;
+    }
+
+    /**
+     * 获取消息的已编码帧，未命中时编码并放入缓存
+     * @param message 内部消息
+     * @return JSON格式的消息
+     */
+    public String getOrEncode(ChatMessage message) {
+        return getOrEncode(message, m -> JsonUtils.toJson(m.toMessage()));
+    }
+
+    /**
+     * 获取消息的已编码帧，未命中时使用指定编码器编码并放入缓存
+     * @param message 内部消息
+     * @param encoder 编码器
+     * @return JSON格式的消息
+     */
+    public String getOrEncode(ChatMessage message, Function<ChatMessage, String> encoder) {
+        String messageId = message.getMessageId();
+        String cached = get(messageId);
+        if (cached != null) {
+            return cached;
+        }
+        String json = encoder.apply(message);
+        put(messageId, json);
+        return json;
+    }
+
+    /**
+     * 获取已缓存的帧
+     * @param messageId 消息ID
+     * @return 帧，不存在或已过期时返回null
+     */
+    public String get(String messageId) {
+        ByteBuffer buffer;
+        synchronized (this) {
+            Frame frame = frames.get(messageId);
+            if (frame == null) {
+                misses++;
+                return null;
+            }
+            if (CoarseClock.currentTimeMillis() - frame.createdAt > MAX_AGE_MILLIS) {
+                removeFrame(messageId);
+                misses++;
+                return null;
+            }
+            hits++;
+            buffer = frame.buffer.duplicate();
+        }
+        // 缓冲区只读且不会被复用，淘汰后仍可在锁外安全解码
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+
+    /**
+     * 放入已编码帧
+     * @param messageId 消息ID
+     * @param json JSON格式的消息
+     */
+    public void put(String messageId, String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_FRAME_BYTES) {
+            return;
+        }
+        // 在锁外完成堆外内存分配和拷贝
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        Frame frame = new Frame(buffer.asReadOnlyBuffer(), CoarseClock.currentTimeMillis());
+
+        synchronized (this) {
+            Frame previous = frames.put(messageId, frame);
+            if (previous != null) {
+                totalBytes -= previous.bytes();
+            }
+            totalBytes += frame.bytes();
+            evict();
+        }
+    }
+
+    /**
+     * 移除指定消息的帧
+     * @param messageId 消息ID
+     */
+    public synchronized void invalidate(String messageId) {
+        removeFrame(messageId);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        frames.clear();
+        totalBytes = 0;
+    }
+
+    /**
+     * 获取缓存统计信息
+     * @return 包含帧数、字节数、命中和未命中次数的Map
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("frames", (long) frames.size());
+        stats.put("bytes", totalBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        return stats;
+    }
+
+    /**
+     * 按LRU顺序淘汰超出容量或已过期的帧，调用方需持有锁
+     */
+    private void evict() {
+        long now = CoarseClock.currentTimeMillis();
+        Iterator<Map.Entry<String, Frame>> iterator = frames.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Frame eldest = iterator.next().getValue();
+            if (totalBytes <= MAX_TOTAL_BYTES && now - eldest.createdAt <= MAX_AGE_MILLIS) {
+                break;
+            }
+            totalBytes -= eldest.bytes();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * 移除帧并更新字节计数，调用方需持有锁
+     * @param messageId 消息ID
+     */
+    private void removeFrame(String messageId) {
+        Frame removed = frames.remove(messageId);
+        if (removed != null) {
+            totalBytes -= removed.bytes();
+        }
+    }
+
+    /**
+     * 缓存帧
+     */
+    private static final class Frame {
+        // 堆外只读帧数据
+        private final ByteBuffer buffer;
+
+        // 帧创建时间（epoch毫秒）
+        private final long createdAt;
+
+        private Frame(ByteBuffer buffer, long createdAt) {
+            this.buffer = buffer;
+            this.createdAt = createdAt;
+        }
+
+        /**
+         * 占用的堆外字节数
+         */
+        long bytes() {
+            return buffer.capacity();
+        }
+    }
+}
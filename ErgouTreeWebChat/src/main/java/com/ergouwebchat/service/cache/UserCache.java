@@ -0,0 +1,278 @@
+package com.ergouwebchat.service.cache;
+
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.repository.UserRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * 用户资料缓存
+ * <p>按用户名读穿缓存{@link UserProfile}，每条消息的发送者、接收者查找不再访问数据库。
+ * 不存在的用户名同样缓存（负缓存），存活时间较短。创建用户和修改资料后失效对应条目，
+ * 条目另有存活时间，兜底其他节点上的修改</p>
+ * <p>条目存放在{@link ConcurrentHashMap}中，查找不加全局锁，只在条目上记录最近访问时间。
+ * 条目数超过上限时由一个线程（拿不到淘汰锁的线程直接跳过）清掉过期条目，
+ * 仍超出时按最近访问时间淘汰最旧的一批，降到上限的90%，淘汰的开销分摊到多次插入上</p>
+ */
+@Service
+public class UserCache {
+    private final UserRepository userRepository;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final long negativeTtlMillis;
+
+    // 用户名到缓存条目
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // 同一时刻只有一个线程执行淘汰
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // 失效次数，加载期间发生过失效时丢弃加载结果，避免旧数据覆盖失效
+    private final AtomicLong generation = new AtomicLong();
+
+    // 命中、负缓存命中与未命中次数
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public UserCache(UserRepository userRepository,
+                     @Value("${chat.user-cache.max-size:10000}") int maxSize,
+                     @Value("${chat.user-cache.ttl-millis:600000}") long ttlMillis,
+                     @Value("${chat.user-cache.negative-ttl-millis:30000}") long negativeTtlMillis) {
+        this.userRepository = userRepository;
+        this.maxSize = Math.max(1, maxSize);
+        this.ttlMillis = ttlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * 按用户名获取用户资料，未命中时从数据库加载并缓存
+     * @param username 用户名
+     * @return 用户资料，用户不存在时为空
+     */
+    public Optional<UserProfile> find(String username) {
+        if (username == null) {
+            return Optional.empty();
+        }
+        Entry entry = lookup(username);
+        if (entry != null) {
+            if (entry.profile != null) {
+                hits.increment();
+            } else {
+                negativeHits.increment();
+            }
+            return Optional.ofNullable(entry.profile);
+        }
+        misses.increment();
+        long loadGeneration = generation.get();
+
+        Optional<UserProfile> loaded = userRepository.findByUsername(username).map(UserProfile::of);
+        if (loadGeneration == generation.get()) {
+            Entry created = new Entry(loaded.orElse(null), System.currentTimeMillis());
+            entries.put(username, created);
+            // 写入与失效并发时撤回刚写入的条目
+            if (loadGeneration != generation.get()) {
+                entries.remove(username, created);
+            }
+            if (entries.size() > maxSize) {
+                evict();
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 判断用户名是否已确认不存在（命中负缓存），不访问数据库
+     * @param username 用户名
+     * @return 确认不存在返回true
+     */
+    public boolean isKnownAbsent(String username) {
+        Entry entry = lookup(username);
+        if (entry != null && entry.profile == null) {
+            negativeHits.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 失效用户的缓存条目
+     * <p>在事务中调用时，提交后再失效一次，避免提交前并发读取把旧数据（或负缓存）重新放回</p>
+     * @param username 用户名
+     */
+    public void invalidate(String username) {
+        evict(username);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict(username);
+                }
+            });
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * 遍历未过期的用户资料条目（用于热状态快照，不含负缓存）
+     * @param action 接收用户资料和加载时间（epoch毫秒）
+     */
+    public void forEachProfile(ObjLongConsumer<UserProfile> action) {
+        long now = System.currentTimeMillis();
+        for (Entry entry : entries.values()) {
+            if (entry.profile != null && !expired(entry, now)) {
+                action.accept(entry.profile, entry.loadedAt);
+            }
+        }
+    }
+
+    /**
+     * 放入从快照恢复的用户资料
+     * <p>保留原加载时间，存活时间从原加载时算起，停机期间的修改最多延迟一个存活时间可见；
+     * 已过期、已有条目或缓存已满时忽略</p>
+     * @param profile 用户资料
+     * @param loadedAt 原加载时间（epoch毫秒）
+     * @return 放入返回true
+     */
+    public boolean restore(UserProfile profile, long loadedAt) {
+        Entry entry = new Entry(profile, loadedAt);
+        if (expired(entry, System.currentTimeMillis()) || entries.size() >= maxSize) {
+            return false;
+        }
+        return entries.putIfAbsent(profile.getUsername(), entry) == null;
+    }
+
+    /**
+     * 获取命中次数（不含负缓存命中）
+     * @return 命中次数
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 获取负缓存命中次数
+     * @return 负缓存命中次数
+     */
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    /**
+     * 获取未命中次数
+     * @return 未命中次数
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 获取当前缓存的条目数
+     * @return 条目数
+     */
+    public int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * 获取缓存统计
+     * @return 条目数、命中、负缓存命中和未命中次数
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("entries", (long) getSize());
+        stats.put("hits", getHits());
+        stats.put("negativeHits", getNegativeHits());
+        stats.put("misses", getMisses());
+        return stats;
+    }
+
+    private void evict(String username) {
+        generation.incrementAndGet();
+        entries.remove(username);
+    }
+
+    /**
+     * 查找未过期的条目并记录访问时间，过期条目顺带移除
+     */
+    private Entry lookup(String username) {
+        Entry entry = entries.get(username);
+        if (entry == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (expired(entry, now)) {
+            entries.remove(username, entry);
+            return null;
+        }
+        entry.accessedAt = now;
+        return entry;
+    }
+
+    /**
+     * 超出上限时先清理过期条目，仍超出时按最近访问时间淘汰到上限的90%
+     */
+    private void evict() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            entries.entrySet().removeIf(e -> expired(e.getValue(), now));
+            int excess = entries.size() - maxSize * 9 / 10;
+            if (entries.size() <= maxSize || excess <= 0) {
+                return;
+            }
+            List<Map.Entry<String, Entry>> candidates = new ArrayList<>(entries.entrySet());
+            candidates.sort((a, b) -> Long.compare(a.getValue().accessedAt, b.getValue().accessedAt));
+            for (int i = 0; i < excess && i < candidates.size(); i++) {
+                Map.Entry<String, Entry> victim = candidates.get(i);
+                entries.remove(victim.getKey(), victim.getValue());
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private boolean expired(Entry entry, long now) {
+        long ttl = entry.profile != null ? ttlMillis : negativeTtlMillis;
+        return now - entry.loadedAt > ttl;
+    }
+
+    /**
+     * 缓存条目，资料为null表示用户不存在
+     */
+    private static final class Entry {
+        final UserProfile profile;
+        final long loadedAt;
+        // 最近访问时间，只用于淘汰排序，不要求精确
+        volatile long accessedAt;
+
+        Entry(UserProfile profile, long loadedAt) {
+            this.profile = profile;
+            this.loadedAt = loadedAt;
+            this.accessedAt = loadedAt;
+        }
+    }
+}
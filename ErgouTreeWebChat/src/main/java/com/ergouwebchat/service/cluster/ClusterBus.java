@@ -0,0 +1,43 @@
+package com.ergouwebchat.service.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * 集群消息总线（SPI）
+ * <p>节点之间转发已编码的消息帧。私聊按全局在线目录路由到目标用户所在的节点，
+ * 群发消息对每个其他节点只投递一次，由接收节点向本地会话扇出</p>
+ */
+public interface ClusterBus {
+
+    /**
+     * 获取本节点ID
+     * @return 节点ID
+     */
+    String getNodeId();
+
+    /**
+     * 获取全局在线目录
+     * @return 在线目录
+     */
+    PresenceDirectory getPresence();
+
+    /**
+     * 向除本节点外的所有节点投递（每个节点一次）
+     * @param envelope 消息信封
+     */
+    void publish(ClusterEnvelope envelope);
+
+    /**
+     * 向指定节点投递
+     * @param nodeId 目标节点ID
+     * @param envelope 消息信封
+     * @return 目标节点可达返回true
+     */
+    boolean sendToNode(String nodeId, ClusterEnvelope envelope);
+
+    /**
+     * 订阅其他节点投递到本节点的消息
+     * @param listener 消息处理器
+     */
+    void subscribe(Consumer<ClusterEnvelope> listener);
+}
@@ -0,0 +1,94 @@
+package com.ergouwebchat.service.cluster;
+
+import lombok.Getter;
+
+/**
+ * 集群消息信封
+ * <p>携带已编码好的JSON帧和路由信息，接收节点不需要再次序列化</p>
+ */
+@Getter
+public class ClusterEnvelope {
+
+    /**
+     * 投递方式
+     */
+    public enum Kind {
+        /**
+         * 投递给指定用户
+         */
+        DIRECT,
+
+        /**
+         * 投递给接收节点上的所有用户
+         */
+        BROADCAST,
+
+        /**
+         * 用户在线状态变更，由接收节点的在线状态服务处理，不投递给会话
+         */
+        PRESENCE
+    }
+
+    private final Kind kind;
+
+    /**
+     * 来源节点ID
+     */
+    private final String sourceNode;
+
+    /**
+     * 目标用户（DIRECT时使用；PRESENCE时为状态变更的用户）
+     */
+    private final String targetUser;
+
+    /**
+     * 排除的用户（BROADCAST时使用，可为null）
+     */
+    private final String excludeUser;
+
+    /**
+     * 已编码的JSON帧（PRESENCE时为状态和最后活跃时间）
+     */
+    private final String frame;
+
+    private ClusterEnvelope(Kind kind, String sourceNode, String targetUser, String excludeUser, String frame) {
+        this.kind = kind;
+        this.sourceNode = sourceNode;
+        this.targetUser = targetUser;
+        this.excludeUser = excludeUser;
+        this.frame = frame;
+    }
+
+    /**
+     * 创建定向投递信封
+     * @param sourceNode 来源节点ID
+     * @param targetUser 目标用户
+     * @param frame 已编码的JSON帧
+     * @return 消息信封
+     */
+    public static ClusterEnvelope direct(String sourceNode, String targetUser, String frame) {
+        return new ClusterEnvelope(Kind.DIRECT, sourceNode, targetUser, null, frame);
+    }
+
+    /**
+     * 创建广播信封
+     * @param sourceNode 来源节点ID
+     * @param excludeUser 排除的用户，可为null
+     * @param frame 已编码的JSON帧
+     * @return 消息信封
+     */
+    public static ClusterEnvelope broadcast(String sourceNode, String excludeUser, String frame) {
+        return new ClusterEnvelope(Kind.BROADCAST, sourceNode, null, excludeUser, frame);
+    }
+
+    /**
+     * 创建在线状态变更信封
+     * @param sourceNode 来源节点ID
+     * @param username 状态变更的用户
+     * @param frame 已编码的状态JSON
+     * @return 消息信封
+     */
+    public static ClusterEnvelope presence(String sourceNode, String username, String frame) {
+        return new ClusterEnvelope(Kind.PRESENCE, sourceNode, username, null, frame);
+    }
+}
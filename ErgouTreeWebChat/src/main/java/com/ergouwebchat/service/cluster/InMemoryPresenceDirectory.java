@@ -0,0 +1,41 @@
+package com.ergouwebchat.service.cluster;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于内存的在线目录
+ * <p>单节点部署和同一JVM内的回环总线共用</p>
+ */
+public class InMemoryPresenceDirectory implements PresenceDirectory {
+
+    // 用户名到节点ID的映射
+    private final Map<String, String> userToNode = new ConcurrentHashMap<>();
+
+    @Override
+    public void register(String username, String nodeId) {
+        userToNode.put(username, nodeId);
+    }
+
+    @Override
+    public void unregister(String username, String nodeId) {
+        userToNode.remove(username, nodeId);
+    }
+
+    @Override
+    public String locate(String username) {
+        return userToNode.get(username);
+    }
+
+    @Override
+    public Collection<String> getOnlineUsers() {
+        return Collections.unmodifiableSet(userToNode.keySet());
+    }
+
+    @Override
+    public int getOnlineCount() {
+        return userToNode.size();
+    }
+}
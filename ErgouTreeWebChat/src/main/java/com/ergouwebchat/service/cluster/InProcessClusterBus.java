@@ -0,0 +1,42 @@
+package com.ergouwebchat.service.cluster;
+
+import java.util.function.Consumer;
+
+/**
+ * 进程内集群总线
+ * <p>单节点部署的默认实现：只有本节点，没有需要转发的目标，在线目录即本节点的在线用户</p>
+ */
+public class InProcessClusterBus implements ClusterBus {
+
+    private final String nodeId;
+    private final PresenceDirectory presence = new InMemoryPresenceDirectory();
+
+    public InProcessClusterBus(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public PresenceDirectory getPresence() {
+        return presence;
+    }
+
+    @Override
+    public void publish(ClusterEnvelope envelope) {
+        // 没有其他节点
+    }
+
+    @Override
+    public boolean sendToNode(String nodeId, ClusterEnvelope envelope) {
+        return false;
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterEnvelope> listener) {
+        // 没有其他节点会投递消息
+    }
+}
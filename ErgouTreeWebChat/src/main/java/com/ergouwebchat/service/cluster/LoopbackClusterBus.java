@@ -0,0 +1,105 @@
+package com.ergouwebchat.service.cluster;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 回环集群总线
+ * <p>同一JVM内的多个节点通过共享的{@link Hub}互相投递，共用一个在线目录。
+ * 用于在单进程内模拟多节点部署，便于测试跨节点路由。
+ * 投递语义与真实总线相同：广播帧对每个其他节点投递一次，定向投递只到达目标节点。
+ * 每个节点必须持有自己的{@link com.ergouwebchat.service.UserSessionManager}会话表，
+ * 共用会话表时发送节点的本地扇出已到达所有会话，其他节点上的用户会收到两次</p>
+ */
+public class LoopbackClusterBus implements ClusterBus {
+    private static final Logger LOGGER = Logger.getLogger(LoopbackClusterBus.class.getName());
+
+    private final String nodeId;
+    private final Hub hub;
+    private final List<Consumer<ClusterEnvelope>> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 构造方法，加入指定的回环中心
+     * @param nodeId 节点ID
+     * @param hub 回环中心
+     */
+    public LoopbackClusterBus(String nodeId, Hub hub) {
+        this.nodeId = nodeId;
+        this.hub = hub;
+        hub.nodes.put(nodeId, this);
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public PresenceDirectory getPresence() {
+        return hub.presence;
+    }
+
+    @Override
+    public void publish(ClusterEnvelope envelope) {
+        for (LoopbackClusterBus node : hub.nodes.values()) {
+            if (node != this) {
+                node.deliver(envelope);
+            }
+        }
+    }
+
+    @Override
+    public boolean sendToNode(String targetNodeId, ClusterEnvelope envelope) {
+        LoopbackClusterBus node = hub.nodes.get(targetNodeId);
+        if (node == null || node == this) {
+            return false;
+        }
+        node.deliver(envelope);
+        return true;
+    }
+
+    @Override
+    public void subscribe(Consumer<ClusterEnvelope> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * 离开回环中心
+     */
+    public void leave() {
+        hub.nodes.remove(nodeId, this);
+    }
+
+    private void deliver(ClusterEnvelope envelope) {
+        for (Consumer<ClusterEnvelope> listener : listeners) {
+            try {
+                listener.accept(envelope);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "节点 " + nodeId + " 处理集群消息失败: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 回环中心，持有同一JVM内的所有节点和共享的在线目录
+     */
+    public static final class Hub {
+        private static final Hub SHARED = new Hub();
+
+        private final Map<String, LoopbackClusterBus> nodes = new ConcurrentHashMap<>();
+        private final PresenceDirectory presence = new InMemoryPresenceDirectory();
+
+        /**
+         * 获取JVM内共享的回环中心
+         * @return 回环中心
+         */
+        public static Hub shared() {
+            return SHARED;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.ergouwebchat.service.cluster;
+
+import java.util.Collection;
+
+/**
+ * 全局在线目录
+ * <p>记录每个在线用户所在的节点</p>
+ */
+public interface PresenceDirectory {
+
+    /**
+     * 登记用户上线
+     * @param username 用户名
+     * @param nodeId 用户连接所在节点
+     */
+    void register(String username, String nodeId);
+
+    /**
+     * 登记用户下线，只有用户当前仍登记在该节点时才移除
+     * @param username 用户名
+     * @param nodeId 用户连接所在节点
+     */
+    void unregister(String username, String nodeId);
+
+    /**
+     * 查找用户所在节点
+     * @param username 用户名
+     * @return 节点ID，用户不在线时返回null
+     */
+    String locate(String username);
+
+    /**
+     * 获取所有在线用户
+     * @return 在线用户名集合
+     */
+    Collection<String> getOnlineUsers();
+
+    /**
+     * 获取在线用户数
+     * @return 在线用户数
+     */
+    int getOnlineCount();
+}
@@ -1,13 +1,14 @@
 package com.ergouwebchat.service.factory;
 
-import com.ergouwebchat.model.Message;
+import com.ergouwebchat.model.ChatMessage;
 import com.ergouwebchat.model.enums.MessageType;
 
-import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 消息工厂类
  * <p>负责创建不同类型的消息对象，实现工厂模式</p>
+ * <p>产出的都是服务端内部流转的{@link ChatMessage}，时间戳取自粗粒度时钟，元数据按需分配</p>
  */
 public class MessageFactory {
     
@@ -24,13 +25,8 @@ public class MessageFactory {
      * @param content 消息内容
      * @return 文本消息对象
      */
-    public static Message createTextMessage(String sender, String content) {
-        Message message = new Message();
-        message.setType(MessageType.TEXT);
-        message.setSender(sender);
-        message.setContent(content);
-        message.setTimestamp(LocalDateTime.now());
-        return message;
+    public static ChatMessage createTextMessage(String sender, String content) {
+        return new ChatMessage(MessageType.TEXT, sender, content);
     }
     
     /**
@@ -40,8 +36,8 @@ public class MessageFactory {
      * @param content 消息内容
      * @return 私聊文本消息对象
      */
-    public static Message createPrivateTextMessage(String sender, String recipient, String content) {
-        Message message = createTextMessage(sender, content);
+    public static ChatMessage createPrivateTextMessage(String sender, String recipient, String content) {
+        ChatMessage message = createTextMessage(sender, content);
         message.setRecipient(recipient);
         return message;
     }
@@ -51,13 +47,8 @@ public class MessageFactory {
      * @param content 通知内容
      * @return 系统通知消息对象
      */
-    public static Message createSystemMessage(String content) {
-        Message message = new Message();
-        message.setType(MessageType.SYSTEM_NOTICE);
-        message.setSender("SYSTEM");
-        message.setContent(content);
-        message.setTimestamp(LocalDateTime.now());
-        return message;
+    public static ChatMessage createSystemMessage(String content) {
+        return new ChatMessage(MessageType.SYSTEM_NOTICE, "SYSTEM", content);
     }
     
     /**
@@ -65,13 +56,9 @@ public class MessageFactory {
      * @param username 加入的用户名
      * @return 用户加入消息对象
      */
-    public static Message createUserJoinMessage(String username) {
-        Message message = new Message();
-        message.setType(MessageType.USER_JOIN);
-        message.setSender("SYSTEM");
-        message.setContent(username + " 加入了聊天室");
-        message.setTimestamp(LocalDateTime.now());
-        message.addMetadata("joinedUser", username);
+    public static ChatMessage createUserJoinMessage(String username) {
+        ChatMessage message = new ChatMessage(MessageType.USER_JOIN, "SYSTEM", username + " 加入了聊天室");
+        message.setJoinedUser(username);
         return message;
     }
     
@@ -80,13 +67,21 @@ public class MessageFactory {
      * @param username 离开的用户名
      * @return 用户离开消息对象
      */
-    public static Message createUserLeaveMessage(String username) {
-        Message message = new Message();
-        message.setType(MessageType.USER_LEAVE);
-        message.setSender("SYSTEM");
-        message.setContent(username + " 离开了聊天室");
-        message.setTimestamp(LocalDateTime.now());
-        message.addMetadata("leftUser", username);
+    public static ChatMessage createUserLeaveMessage(String username) {
+        ChatMessage message = new ChatMessage(MessageType.USER_LEAVE, "SYSTEM", username + " 离开了聊天室");
+        message.setLeftUser(username);
+        return message;
+    }
+    
+    /**
+     * 创建批量用户离开消息（心跳超时批量回收时使用）
+     * @param usernames 离开的用户名列表
+     * @return 用户离开消息对象
+     */
+    public static ChatMessage createUsersLeaveMessage(List<String> usernames) {
+        ChatMessage message = new ChatMessage(MessageType.USER_LEAVE, "SYSTEM",
+                String.join(", ", usernames) + " 连接超时，离开了聊天室");
+        message.addMetadata("leftUsers", usernames);
         return message;
     }
     
@@ -97,13 +92,9 @@ public class MessageFactory {
      * @param caption 图片说明（可选）
      * @return 图片消息对象
      */
-    public static Message createImageMessage(String sender, String imageUrl, String caption) {
-        Message message = new Message();
-        message.setType(MessageType.IMAGE);
-        message.setSender(sender);
-        message.setContent(caption != null ? caption : "");
-        message.setTimestamp(LocalDateTime.now());
-        message.addMetadata("imageUrl", imageUrl);
+    public static ChatMessage createImageMessage(String sender, String imageUrl, String caption) {
+        ChatMessage message = new ChatMessage(MessageType.IMAGE, sender, caption != null ? caption : "");
+        message.setImageUrl(imageUrl);
         return message;
     }
     
@@ -115,15 +106,11 @@ public class MessageFactory {
      * @param fileSize 文件大小（字节）
      * @return 文件消息对象
      */
-    public static Message createFileMessage(String sender, String fileUrl, String fileName, long fileSize) {
-        Message message = new Message();
-        message.setType(MessageType.FILE);
-        message.setSender(sender);
-        message.setContent("分享了文件: " + fileName);
-        message.setTimestamp(LocalDateTime.now());
-        message.addMetadata("fileUrl", fileUrl);
-        message.addMetadata("fileName", fileName);
-        message.addMetadata("fileSize", fileSize);
+    public static ChatMessage createFileMessage(String sender, String fileUrl, String fileName, long fileSize) {
+        ChatMessage message = new ChatMessage(MessageType.FILE, sender, "分享了文件: " + fileName);
+        message.setFileUrl(fileUrl);
+        message.setFileName(fileName);
+        message.setFileSize(fileSize);
         return message;
     }
 }
@@ -0,0 +1,248 @@
+package com.ergouwebchat.service.file;
+
+import com.ergouwebchat.model.entity.FileBlob;
+import com.ergouwebchat.repository.FileBlobRepository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * 文件内容服务
+ * <p>上传完成的文件按内容哈希存储，同一内容被再次分享时只增加引用计数，不再占用磁盘。
+ * 文件记录删除时减少引用，引用降到0并经过宽限期后由定时垃圾回收删除内容。
+ * 增加引用和回收都在内容行的行锁下进行：回收先加锁确认引用仍为0，删除行，并在锁内把文件移到回收目录；
+ * 增加引用先写行（持有行锁），再确认文件存在，不存在时移入本次上传的文件。
+ * 回收提交后内容路径已经空出，之后的增加引用总会移入自己的文件，不会引用到已被回收的文件。
+ * 回收的文件在事务提交后删除，回滚时移回原位。
+ * 新内容在事务中移入后如果事务回滚，磁盘上会留下没有记录的文件，由定期的孤儿清理删除</p>
+ */
+@Service
+public class FileBlobService {
+    private static final Logger LOGGER = Logger.getLogger(FileBlobService.class.getName());
+
+    // 每轮回收的内容数
+    private static final int GC_BATCH_SIZE = 100;
+
+    private final FileBlobRepository blobRepository;
+    private final FileStorage storage;
+    private final TransactionTemplate transactionTemplate;
+    private final long graceMillis;
+
+    // 命中已有内容的次数和因此节省的字节数
+    private final AtomicLong dedupHits = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+    // 回收的内容数和清理的孤儿文件数
+    private final AtomicLong collected = new AtomicLong();
+    private final AtomicLong orphansRemoved = new AtomicLong();
+
+    public FileBlobService(FileBlobRepository blobRepository,
+                           FileStorage storage,
+                           PlatformTransactionManager transactionManager,
+                           @Value("${chat.files.blob-gc-grace-millis:3600000}") long graceMillis) {
+        this.blobRepository = blobRepository;
+        this.storage = storage;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.graceMillis = graceMillis;
+    }
+
+    /**
+     * 把上传完成的文件存为内容并增加一次引用
+     * @param uploadId 上传ID
+     * @param hash 内容哈希
+     * @param size 内容大小
+     * @return 内容相对于存储根目录的路径
+     */
+    public String acquire(String uploadId, String hash, long size) {
+        String path = storage.blobPath(hash);
+        Integer affected = transactionTemplate.execute(status -> {
+            int rows = blobRepository.retain(hash, size, path, LocalDateTime.now());
+            // 行锁持有到提交，回收不会在这之间删除文件；文件不存在（新内容或上次回收未完成）时移入
+            storage.commitBlob(uploadId, hash);
+            return rows;
+        });
+        if (affected != null && affected > 1) {
+            dedupHits.incrementAndGet();
+            savedBytes.addAndGet(size);
+        }
+        return path;
+    }
+
+    /**
+     * 减少一次引用（文件记录删除或创建失败时调用）
+     * @param hash 内容哈希
+     */
+    public void release(String hash) {
+        transactionTemplate.executeWithoutResult(status ->
+                blobRepository.release(hash, 1, LocalDateTime.now()));
+    }
+
+    /**
+     * 定期回收不再被引用的内容
+     */
+    @Scheduled(initialDelayString = "${chat.files.blob-gc-interval-millis:3600000}",
+            fixedDelayString = "${chat.files.blob-gc-interval-millis:3600000}")
+    public void collectGarbage() {
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minusNanos(graceMillis * 1_000_000);
+            int removed = 0;
+            List<String> hashes;
+            do {
+                hashes = blobRepository.findUnreferenced(cutoff, PageRequest.of(0, GC_BATCH_SIZE));
+                for (String hash : hashes) {
+                    if (Boolean.TRUE.equals(transactionTemplate.execute(status -> collect(hash)))) {
+                        removed++;
+                    }
+                }
+            } while (hashes.size() == GC_BATCH_SIZE);
+            if (removed > 0) {
+                collected.addAndGet(removed);
+                LOGGER.info("已回收 " + removed + " 个不再被引用的文件内容");
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "回收文件内容失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 定期清理磁盘上没有记录的内容文件
+     * <p>移入内容的事务回滚后留下的文件没有对应的记录，也不会被引用计数回收。
+     * 只处理修改时间超过宽限期的文件，删除前加锁确认记录仍不存在。
+     * 同时清空回收提交前进程退出时留在回收目录中的文件</p>
+     */
+    @Scheduled(initialDelayString = "${chat.files.orphan-sweep-interval-millis:86400000}",
+            fixedDelayString = "${chat.files.orphan-sweep-interval-millis:86400000}")
+    public void sweepOrphans() {
+        long cutoff = System.currentTimeMillis() - graceMillis;
+        int removed = 0;
+        try (Stream<String> blobs = storage.blobsModifiedBefore(cutoff)) {
+            Iterator<String> iterator = blobs.iterator();
+            List<String> batch = new ArrayList<>(GC_BATCH_SIZE);
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == GC_BATCH_SIZE || !iterator.hasNext()) {
+                    removed += sweepBatch(batch);
+                    batch.clear();
+                }
+            }
+            removed += storage.emptyTrash(cutoff);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "清理孤儿文件失败: " + e.getMessage(), e);
+        }
+        if (removed > 0) {
+            orphansRemoved.addAndGet(removed);
+            LOGGER.info("已清理 " + removed + " 个没有记录的文件内容");
+        }
+    }
+
+    /**
+     * 获取命中已有内容的次数
+     * @return 次数
+     */
+    public long getDedupHits() {
+        return dedupHits.get();
+    }
+
+    /**
+     * 获取因内容去重节省的磁盘字节数
+     * @return 字节数
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    /**
+     * 获取内容存储的统计
+     * @return 统计
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("dedupHits", getDedupHits());
+        stats.put("savedBytes", getSavedBytes());
+        stats.put("collected", collected.get());
+        stats.put("orphansRemoved", orphansRemoved.get());
+        return stats;
+    }
+
+    /**
+     * 加锁确认引用仍为0后回收内容（在事务中调用）
+     * <p>文件在持有行锁时移到回收目录，提交后才删除：提交失败时移回原位，记录和内容仍然一致；
+     * 提交后等待行锁的增加引用看到内容路径为空，会移入自己上传的文件</p>
+     */
+    private boolean collect(String hash) {
+        FileBlob blob = blobRepository.findLockedByHash(hash).orElse(null);
+        if (blob == null || blob.getRefCount() > 0) {
+            return false;
+        }
+        blobRepository.delete(blob);
+        blobRepository.flush();
+        String trashed = storage.trashBlob(hash);
+        if (trashed != null) {
+            afterCompletion(committed -> {
+                if (committed) {
+                    storage.delete(trashed);
+                } else {
+                    storage.restoreBlob(trashed, hash);
+                }
+            });
+        }
+        return true;
+    }
+
+    private int sweepBatch(List<String> hashes) {
+        Set<String> orphans = new HashSet<>(hashes);
+        orphans.removeAll(blobRepository.findExistingHashes(hashes));
+        int removed = 0;
+        for (String hash : orphans) {
+            if (Boolean.TRUE.equals(transactionTemplate.execute(status -> sweep(hash)))) {
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 加锁确认记录仍不存在后删除文件（在事务中调用）
+     * <p>锁住记录所在的索引间隙，同一内容的增加引用要等到删除完成，之后发现文件不存在会重新移入</p>
+     */
+    private boolean sweep(String hash) {
+        if (blobRepository.findLockedByHash(hash).isPresent()) {
+            return false;
+        }
+        storage.delete(storage.blobPath(hash));
+        return true;
+    }
+
+    private static void afterCompletion(Consumer<Boolean> action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    action.accept(status == STATUS_COMMITTED);
+                }
+            });
+        } else {
+            action.accept(true);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.ergouwebchat.service.file;
+
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.entity.Conversation;
+import com.ergouwebchat.model.entity.FileEntity;
+import com.ergouwebchat.repository.ConversationRepository;
+import com.ergouwebchat.repository.FileRepository;
+import com.ergouwebchat.service.ConversationHistory;
+import com.ergouwebchat.service.MembershipService;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.service.storage.JpaMessageStore;
+import com.ergouwebchat.service.storage.MessageStore;
+
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * 文件下载服务
+ * <p>按会话校验访问权限，默认拒绝：群聊文件只有群成员可以下载（存储后端不维护成员关系时为所有注册用户），
+ * 私聊文件只有会话双方可以下载，没有会话键的文件不允许下载。
+ * 文件保存后不再修改，ETag取内容哈希（早于内容寻址存储的文件由文件ID和大小生成），不需要读取文件内容</p>
+ */
+@Service
+public class FileDownloadService {
+
+    private final FileRepository fileRepository;
+    private final FileStorage storage;
+    private final ConversationRepository conversationRepository;
+    private final MembershipService membershipService;
+    private final UserCache userCache;
+    private final MessageStore messageStore;
+
+    // 群聊会话ID，首次查到后缓存；群聊会话由第一条群消息创建，之前为null
+    private volatile Long groupConversationId;
+
+    public FileDownloadService(FileRepository fileRepository,
+                               FileStorage storage,
+                               ConversationRepository conversationRepository,
+                               MembershipService membershipService,
+                               UserCache userCache,
+                               MessageStore messageStore) {
+        this.fileRepository = fileRepository;
+        this.storage = storage;
+        this.conversationRepository = conversationRepository;
+        this.membershipService = membershipService;
+        this.userCache = userCache;
+        this.messageStore = messageStore;
+    }
+
+    /**
+     * 获取文件记录
+     * @param fileId 文件ID
+     * @return 文件记录，不存在（或消息已删除）时返回null
+     */
+    public FileEntity getFile(Long fileId) {
+        return fileRepository.findById(fileId).orElse(null);
+    }
+
+    /**
+     * 判断用户能否下载文件
+     * @param file 文件记录
+     * @param username 用户名
+     * @return 能下载返回true
+     */
+    public boolean canAccess(FileEntity file, String username) {
+        String key = file.getConversationKey();
+        if (key == null || username == null) {
+            return false;
+        }
+        if (ConversationHistory.GROUP_KEY.equals(key)) {
+            return isGroupMember(username);
+        }
+        String[] participants = ConversationHistory.participantsOf(key);
+        return participants != null && (participants[0].equals(username) || participants[1].equals(username));
+    }
+
+    private boolean isGroupMember(String username) {
+        Optional<UserProfile> user = userCache.find(username);
+        if (user.isEmpty()) {
+            return false;
+        }
+        // 日志存储后端不写会话和成员表，只能按注册用户放行
+        if (!messageStore.supportsReadStatus()) {
+            return true;
+        }
+        Long conversationId = groupConversationId;
+        if (conversationId == null) {
+            conversationId = conversationRepository
+                    .findByTypeAndName(Conversation.ConversationType.GROUP, JpaMessageStore.GROUP_NAME)
+                    .map(Conversation::getId)
+                    .orElse(null);
+            if (conversationId == null) {
+                return false;
+            }
+            groupConversationId = conversationId;
+        }
+        return membershipService.isMember(conversationId, user.get().getId());
+    }
+
+    /**
+     * 生成文件的ETag
+     * @param file 文件记录
+     * @return 带引号的强ETag
+     */
+    public String etagOf(FileEntity file) {
+        if (file.getBlobHash() != null) {
+            return "\"" + file.getBlobHash() + "\"";
+        }
+        return "\"" + file.getId() + "-" + file.getFileSize() + "\"";
+    }
+
+    /**
+     * 获取文件在磁盘上的绝对路径
+     * @param file 文件记录
+     * @return 绝对路径
+     */
+    public Path resolve(FileEntity file) {
+        return storage.resolve(file.getFilePath());
+    }
+
+    /**
+     * 把文件的一段写入目标通道
+     * @param file 文件记录
+     * @param start 起始位置
+     * @param length 字节数
+     * @param target 目标通道
+     * @throws IOException 读取或写入失败
+     */
+    public void transfer(FileEntity file, long start, long length, WritableByteChannel target) throws IOException {
+        storage.transferTo(file.getFilePath(), start, length, target);
+    }
+}
@@ -0,0 +1,109 @@
+package com.ergouwebchat.service.file;
+
+import com.ergouwebchat.repository.FileBlobRepository;
+import com.ergouwebchat.repository.FileRepository;
+import com.ergouwebchat.util.ChunkPacer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * 文件记录保留
+ * <p>消息可能在日志存储或归档中被删除，关系数据库里没有对应的消息行可以关联，
+ * 因此文件记录按会话键和上传时间单独清理，与消息使用同样的保留期。
+ * 每块在一个短事务里按内容汇总减少引用并删除文件记录，文件内容由{@link FileBlobService}的垃圾回收删除</p>
+ */
+@Service
+public class FileRetentionService {
+    private static final Logger LOGGER = Logger.getLogger(FileRetentionService.class.getName());
+
+    private final FileRepository fileRepository;
+    private final FileBlobRepository fileBlobRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+    private final long pauseMillis;
+
+    public FileRetentionService(FileRepository fileRepository,
+                                FileBlobRepository fileBlobRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${chat.retention.chunk-size:500}") int chunkSize,
+                                @Value("${chat.retention.chunk-pause-millis:20}") long pauseMillis) {
+        this.fileRepository = fileRepository;
+        this.fileBlobRepository = fileBlobRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pauseMillis = Math.max(0, pauseMillis);
+    }
+
+    /**
+     * 删除会话的全部文件记录
+     * @param conversationKey 会话键
+     * @return 删除的文件记录数
+     */
+    public long purgeConversation(String conversationKey) {
+        return purge(page -> fileRepository.findIdsByConversationKey(conversationKey, page));
+    }
+
+    /**
+     * 删除会话中早于指定时间上传的文件记录
+     * @param conversationKey 会话键
+     * @param cutoffMillis 截止时间（毫秒时间戳）
+     * @return 删除的文件记录数
+     */
+    public long purgeConversationBefore(String conversationKey, long cutoffMillis) {
+        LocalDateTime cutoff = toDateTime(cutoffMillis);
+        return purge(page -> fileRepository.findIdsByConversationKeyBefore(conversationKey, cutoff, page));
+    }
+
+    /**
+     * 删除早于指定时间上传的全部文件记录
+     * @param cutoffMillis 截止时间（毫秒时间戳）
+     * @return 删除的文件记录数
+     */
+    public long purgeBefore(long cutoffMillis) {
+        LocalDateTime cutoff = toDateTime(cutoffMillis);
+        return purge(page -> fileRepository.findIdsBefore(cutoff, page));
+    }
+
+    private long purge(Function<Pageable, List<Long>> nextChunk) {
+        Pageable page = PageRequest.of(0, chunkSize);
+        long total = 0;
+        while (true) {
+            long start = System.nanoTime();
+            Integer deleted = transactionTemplate.execute(status -> {
+                List<Long> ids = nextChunk.apply(page);
+                if (ids.isEmpty()) {
+                    return 0;
+                }
+                LocalDateTime now = LocalDateTime.now();
+                for (Object[] row : fileRepository.countBlobReferencesByIds(ids)) {
+                    fileBlobRepository.release((String) row[0], ((Number) row[1]).intValue(), now);
+                }
+                return fileRepository.deleteByIds(ids);
+            });
+            if (deleted == null || deleted == 0) {
+                return total;
+            }
+            total += deleted;
+            if (!ChunkPacer.pause(start, pauseMillis)) {
+                LOGGER.warning("文件记录清理被中断，已删除 " + total + " 条");
+                return total;
+            }
+        }
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
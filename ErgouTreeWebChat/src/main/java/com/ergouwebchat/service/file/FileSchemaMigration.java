@@ -0,0 +1,60 @@
+package com.ergouwebchat.service.file;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 文件表结构迁移
+ * <p>早期版本的文件记录通过外键关联消息表，现在消息可能只在日志存储或归档中，文件记录只保存消息ID。
+ * message_id列类型不变（与消息ID相同的VARCHAR(50)），但ddl-auto=update不会删除旧的外键约束，
+ * 旧库上保存文件记录会因为消息行不存在而失败。启动时（表结构更新之后）查出并删除这些外键</p>
+ */
+@Component
+public class FileSchemaMigration {
+    private static final Logger LOGGER = Logger.getLogger(FileSchemaMigration.class.getName());
+
+    private static final String FIND_FOREIGN_KEYS_SQL =
+            "SELECT CONSTRAINT_NAME FROM information_schema.KEY_COLUMN_USAGE WHERE TABLE_SCHEMA = DATABASE() "
+            + "AND TABLE_NAME = 'files' AND COLUMN_NAME = 'message_id' AND REFERENCED_TABLE_NAME IS NOT NULL";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 构造方法
+     * @param jdbcTemplate JDBC模板
+     * @param entityManagerFactory 只用于保证在Hibernate更新表结构之后执行
+     */
+    public FileSchemaMigration(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 删除文件表上指向消息表的外键
+     * @return 删除的外键数
+     */
+    @PostConstruct
+    public int dropMessageForeignKey() {
+        int dropped = 0;
+        try {
+            List<String> names = jdbcTemplate.queryForList(FIND_FOREIGN_KEYS_SQL, String.class);
+            for (String name : names) {
+                if (!name.matches("[A-Za-z0-9_]+")) {
+                    LOGGER.warning("跳过名称异常的外键: " + name);
+                    continue;
+                }
+                jdbcTemplate.execute("ALTER TABLE files DROP FOREIGN KEY `" + name + "`");
+                dropped++;
+                LOGGER.info("已删除文件表指向消息表的外键 " + name);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "检查文件表外键失败: " + e.getMessage(), e);
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,355 @@
+package com.ergouwebchat.service.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * 本地文件存储
+ * <p>上传中的文件以{@code uploads/<上传ID>.part}保存，分块通过{@link FileChannel#transferFrom}
+ * 从请求流直接写入文件的指定位置，不在内存中缓存整个分块，写入的同时计算内容哈希。
+ * 上传完成后按内容哈希原子移动到{@code blobs/<前两位>/<三四位>/<哈希>}，内容已存在时直接丢弃，
+ * 数据库中只记录相对路径。下载时同样通过{@link FileChannel#transferTo}输出。
+ * 回收的内容先移到{@code trash/}，回收事务提交后再删除，回滚时移回原位</p>
+ */
+public class FileStorage {
+    private static final Logger LOGGER = Logger.getLogger(FileStorage.class.getName());
+
+    // 每次transferFrom的最大字节数
+    private static final long TRANSFER_SIZE = 1024 * 1024;
+
+    // 重新计算哈希时的读取缓冲区大小
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private static final String PART_SUFFIX = ".part";
+
+    private static final String TRASH_DIRECTORY = "trash";
+
+    private final Path root;
+    private final Path uploads;
+
+    /**
+     * 构造方法
+     * @param directory 存储根目录
+     */
+    public FileStorage(String directory) {
+        this.root = Paths.get(directory).toAbsolutePath().normalize();
+        this.uploads = root.resolve("uploads");
+        try {
+            Files.createDirectories(uploads);
+        } catch (IOException e) {
+            throw new RuntimeException("创建文件存储目录失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把一个分块写入上传中的文件
+     * <p>先把文件截断到offset，丢弃上次中断的分块留下的未确认数据，写完后刷盘</p>
+     * @param uploadId 上传ID
+     * @param offset 分块在文件中的起始位置
+     * @param in 分块数据流
+     * @param maxBytes 分块最大字节数，超出时丢弃整个分块
+     * @param digest 用写入的数据更新的摘要，可以为null
+     * @return 写入后文件的长度
+     */
+    public long writeChunk(String uploadId, long offset, InputStream in, long maxBytes, MessageDigest digest) {
+        Path part = partPath(uploadId);
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() < offset) {
+                throw new RuntimeException("上传文件不完整，请从头重新上传");
+            }
+            channel.truncate(offset);
+            // 不关闭请求流，由容器负责
+            ReadableByteChannel source = Channels.newChannel(in);
+            if (digest != null) {
+                source = new DigestingChannel(source, digest);
+            }
+            long position = offset;
+            long limit = offset + maxBytes;
+            while (true) {
+                // 多读一个字节用于判断是否超出上限
+                long count = Math.min(TRANSFER_SIZE, limit + 1 - position);
+                long transferred = channel.transferFrom(source, position, count);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+                if (position > limit) {
+                    channel.truncate(offset);
+                    throw new RuntimeException("分块超过允许的大小");
+                }
+            }
+            channel.force(false);
+            return position;
+        } catch (IOException e) {
+            throw new RuntimeException("写入上传文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 计算上传中文件的内容哈希（服务重启后内存中的摘要丢失时使用）
+     * @param uploadId 上传ID
+     * @param digest 空白摘要
+     * @return 十六进制小写哈希
+     */
+    public String hashPart(String uploadId, MessageDigest digest) {
+        try (FileChannel channel = FileChannel.open(partPath(uploadId), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            throw new RuntimeException("读取上传文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把上传完成的文件存为内容，内容已存在时丢弃上传的文件
+     * @param uploadId 上传ID
+     * @param hash 内容哈希
+     * @return 内容相对于存储根目录的路径
+     */
+    public String commitBlob(String uploadId, String hash) {
+        String relative = blobPath(hash);
+        Path target = root.resolve(relative);
+        try {
+            if (Files.exists(target)) {
+                discard(uploadId);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(partPath(uploadId), target, StandardCopyOption.ATOMIC_MOVE);
+                // 移动保留最后一个分块的写入时间，重置为现在，孤儿清理的宽限期从移入时算起
+                Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("保存上传文件失败: " + e.getMessage(), e);
+        }
+        return relative;
+    }
+
+    /**
+     * 把内容文件移到回收目录，原路径随即空出
+     * @param hash 内容哈希
+     * @return 回收目录中的相对路径，文件不存在时返回null
+     */
+    public String trashBlob(String hash) {
+        Path source = root.resolve(blobPath(hash));
+        if (!Files.exists(source)) {
+            return null;
+        }
+        String relative = TRASH_DIRECTORY + "/" + hash + "." + System.currentTimeMillis();
+        try {
+            Path target = root.resolve(relative);
+            Files.createDirectories(target.getParent());
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            // 回收目录的清理宽限期从移入时算起，不会删除事务还没结束的文件
+            Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+            return relative;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("移动回收的文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把回收目录中的文件移回内容路径，内容路径已有文件（已被重新上传）时删除回收的文件
+     * @param trashPath {@link #trashBlob}返回的相对路径
+     * @param hash 内容哈希
+     */
+    public void restoreBlob(String trashPath, String hash) {
+        Path source = resolve(trashPath);
+        Path target = root.resolve(blobPath(hash));
+        try {
+            if (Files.exists(target)) {
+                deleteQuietly(source);
+            } else {
+                Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "恢复回收的文件失败 " + source + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 删除回收目录中修改时间早于指定时间的文件（回收提交前进程退出时留下的文件）
+     * <p>这些文件的记录要么已删除，要么引用为0且内容路径为空，再次增加引用时会重新移入上传的文件</p>
+     * @param cutoffMillis 修改时间上限
+     * @return 删除的文件数
+     * @throws IOException 遍历目录失败
+     */
+    public int emptyTrash(long cutoffMillis) throws IOException {
+        Path trash = root.resolve(TRASH_DIRECTORY);
+        if (!Files.isDirectory(trash)) {
+            return 0;
+        }
+        int removed = 0;
+        try (Stream<Path> files = Files.list(trash)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                if (isOlderThan(path, cutoffMillis)) {
+                    deleteQuietly(path);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * 获取内容的相对路径
+     * @param hash 内容哈希
+     * @return 相对于存储根目录的路径
+     */
+    public String blobPath(String hash) {
+        return "blobs/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash;
+    }
+
+    /**
+     * 列出修改时间早于指定时间的内容文件
+     * <p>返回的流需要由调用方关闭</p>
+     * @param cutoffMillis 修改时间上限
+     * @return 内容哈希
+     * @throws IOException 遍历目录失败
+     */
+    public Stream<String> blobsModifiedBefore(long cutoffMillis) throws IOException {
+        Path blobs = root.resolve("blobs");
+        if (!Files.isDirectory(blobs)) {
+            return Stream.empty();
+        }
+        return Files.walk(blobs, 3)
+                .filter(path -> isBlobFile(path, cutoffMillis))
+                .map(path -> path.getFileName().toString());
+    }
+
+    /**
+     * 删除上传中的文件
+     * @param uploadId 上传ID
+     */
+    public void discard(String uploadId) {
+        deleteQuietly(partPath(uploadId));
+    }
+
+    /**
+     * 把相对路径解析为存储目录下的绝对路径
+     * @param relativePath 相对路径
+     * @return 绝对路径
+     */
+    public Path resolve(String relativePath) {
+        Path path = root.resolve(relativePath).normalize();
+        if (!path.startsWith(root)) {
+            throw new RuntimeException("非法的文件路径");
+        }
+        return path;
+    }
+
+    /**
+     * 把已保存文件的一段通过{@link FileChannel#transferTo}写入目标通道
+     * @param relativePath 相对路径
+     * @param position 起始位置
+     * @param count 字节数
+     * @param target 目标通道
+     * @throws IOException 读取或写入失败（包括客户端断开）
+     */
+    public void transferTo(String relativePath, long position, long count, WritableByteChannel target)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(resolve(relativePath), StandardOpenOption.READ)) {
+            long end = position + count;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("文件长度与记录不一致");
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * 删除已保存的文件
+     * @param relativePath 相对路径
+     */
+    public void delete(String relativePath) {
+        deleteQuietly(resolve(relativePath));
+    }
+
+    private Path partPath(String uploadId) {
+        return uploads.resolve(uploadId + PART_SUFFIX);
+    }
+
+    /**
+     * 读取时同时更新摘要的通道
+     */
+    private static final class DigestingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel source;
+        private final MessageDigest digest;
+
+        DigestingChannel(ReadableByteChannel source, MessageDigest digest) {
+            this.source = source;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int start = dst.position();
+            int read = source.read(dst);
+            if (read > 0) {
+                digest.update(dst.duplicate().flip().position(start));
+            }
+            return read;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+    }
+
+    private boolean isBlobFile(Path path, long cutoffMillis) {
+        String name = path.getFileName().toString();
+        if (name.length() < 4 || !root.resolve(blobPath(name)).equals(path)) {
+            return false;
+        }
+        return isOlderThan(path, cutoffMillis);
+    }
+
+    private static boolean isOlderThan(Path path, long cutoffMillis) {
+        try {
+            return Files.isRegularFile(path) && Files.getLastModifiedTime(path).toMillis() < cutoffMillis;
+        } catch (IOException e) {
+            // 遍历期间被回收
+            return false;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "删除文件失败 " + path + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.ergouwebchat.service.file;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.model.entity.FileEntity;
+import com.ergouwebchat.model.entity.FileUpload;
+import com.ergouwebchat.repository.FileRepository;
+import com.ergouwebchat.repository.FileUploadRepository;
+import com.ergouwebchat.service.ConversationHistory;
+import com.ergouwebchat.service.MessageService;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.service.factory.MessageFactory;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 分块文件上传服务
+ * <p>客户端先创建上传会话，再按顺序逐块上传（每块一个请求，请求线程只在传输一个分块期间被占用），
+ * 每块写入并刷盘后推进数据库中记录的已接收字节数。断线后查询进度，从已接收的位置继续。
+ * 写入的同时计算SHA-256（摘要状态按上传保存在内存中，每块成功后才推进），全部接收后按内容哈希
+ * 交给{@link FileBlobService}存储，内容相同的文件只保存一份；再创建文件记录并以上传者的身份发布文件
+ * （或图片）消息，消息没有被接受时删除文件记录。完成时先条件删除上传会话，重复的完成请求不会重复保存。
+ * 长时间没有进展的上传定期清理</p>
+ */
+@Service
+public class FileUploadService {
+    private static final Logger LOGGER = Logger.getLogger(FileUploadService.class.getName());
+
+    // 文件名最大长度
+    private static final int MAX_FILE_NAME_LENGTH = 255;
+
+    // 文件类型最大长度
+    private static final int MAX_FILE_TYPE_LENGTH = 100;
+
+    private static final String DEFAULT_FILE_TYPE = "application/octet-stream";
+
+    // 每轮清理的上传会话数
+    private static final int CLEANUP_BATCH_SIZE = 100;
+
+    private final FileUploadRepository uploadRepository;
+    private final FileRepository fileRepository;
+    private final FileStorage storage;
+    private final FileBlobService blobService;
+    private final MessageService messageService;
+    private final UserCache userCache;
+    private final TransactionTemplate transactionTemplate;
+    private final long maxFileSize;
+    private final int chunkSize;
+    private final long expireMillis;
+
+    // 上传ID到摘要状态，同时用作同一上传的分块互斥锁
+    private final Map<String, UploadState> states = new ConcurrentHashMap<>();
+
+    public FileUploadService(FileUploadRepository uploadRepository,
+                             FileRepository fileRepository,
+                             FileStorage storage,
+                             FileBlobService blobService,
+                             MessageService messageService,
+                             UserCache userCache,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${chat.files.max-size:104857600}") long maxFileSize,
+                             @Value("${chat.files.chunk-size:4194304}") int chunkSize,
+                             @Value("${chat.files.upload-expire-millis:86400000}") long expireMillis) {
+        this.uploadRepository = uploadRepository;
+        this.fileRepository = fileRepository;
+        this.storage = storage;
+        this.blobService = blobService;
+        this.messageService = messageService;
+        this.userCache = userCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.maxFileSize = maxFileSize;
+        this.chunkSize = chunkSize;
+        this.expireMillis = expireMillis;
+    }
+
+    /**
+     * 创建上传会话
+     * @param uploader 上传者用户名
+     * @param recipient 私聊接收者，群聊为null
+     * @param fileName 文件名
+     * @param fileType 文件MIME类型，可以为null
+     * @param totalSize 文件大小（字节）
+     * @return 上传会话
+     */
+    public FileUpload begin(String uploader, String recipient, String fileName, String fileType, long totalSize) {
+        String name = sanitizeFileName(fileName);
+        if (name.isEmpty()) {
+            throw new RuntimeException("文件名不能为空");
+        }
+        if (totalSize <= 0) {
+            throw new RuntimeException("文件不能为空");
+        }
+        if (totalSize > maxFileSize) {
+            throw new RuntimeException("文件大小不能超过 " + maxFileSize / (1024 * 1024) + "MB");
+        }
+        if (recipient != null && !recipient.isEmpty()) {
+            if (recipient.equals(uploader) || userCache.find(recipient).isEmpty()) {
+                throw new RuntimeException("接收者不存在");
+            }
+        } else {
+            recipient = null;
+        }
+
+        FileUpload upload = new FileUpload();
+        upload.setId(UUID.randomUUID().toString());
+        upload.setUploader(uploader);
+        upload.setRecipient(recipient);
+        upload.setFileName(name);
+        upload.setFileType(normalizeFileType(fileType));
+        upload.setTotalSize(totalSize);
+        return uploadRepository.save(upload);
+    }
+
+    /**
+     * 获取上传会话（只有上传者本人可以访问）
+     * @param uploadId 上传ID
+     * @param username 当前用户名
+     * @return 上传会话
+     */
+    public FileUpload getUpload(String uploadId, String username) {
+        FileUpload upload = uploadRepository.findById(uploadId).orElse(null);
+        if (upload == null || !upload.getUploader().equals(username)) {
+            throw new RuntimeException("上传不存在或已过期");
+        }
+        return upload;
+    }
+
+    /**
+     * 上传一个分块，分块必须从当前已接收的位置开始
+     * @param uploadId 上传ID
+     * @param username 当前用户名
+     * @param offset 分块起始位置
+     * @param in 分块数据流
+     * @return 已接收的字节数
+     */
+    public long appendChunk(String uploadId, String username, long offset, InputStream in) {
+        getUpload(uploadId, username);
+        UploadState state = states.computeIfAbsent(uploadId, id -> new UploadState());
+        synchronized (state) {
+            // 持锁后重新读取进度，同一上传的分块依次写入
+            FileUpload upload = getUpload(uploadId, username);
+            long received = upload.getReceivedBytes();
+            if (offset != received) {
+                throw new RuntimeException("上传位置不一致，已接收 " + received + " 字节");
+            }
+            long remaining = upload.getTotalSize() - received;
+            if (remaining <= 0) {
+                throw new RuntimeException("文件已全部上传");
+            }
+
+            // 在摘要副本上计算，分块失败时摘要保持不变；文件写入不占用数据库连接，写完后再条件更新进度
+            MessageDigest digest = state.digestFrom(offset);
+            long end = storage.writeChunk(uploadId, offset, in, Math.min(chunkSize, remaining), digest);
+            Integer updated = transactionTemplate.execute(status ->
+                    uploadRepository.advance(uploadId, received, end, LocalDateTime.now()));
+            if (updated == null || updated == 0) {
+                throw new RuntimeException("同一位置的分块正在并发上传");
+            }
+            state.advance(digest, end);
+            return end;
+        }
+    }
+
+    /**
+     * 完成上传：保存文件、创建文件记录并发布文件消息
+     * @param uploadId 上传ID
+     * @param username 当前用户名
+     * @return 文件记录
+     */
+    public FileEntity complete(String uploadId, String username) {
+        FileUpload upload = getUpload(uploadId, username);
+        if (!upload.getReceivedBytes().equals(upload.getTotalSize())) {
+            throw new RuntimeException("文件尚未上传完成，已接收 " + upload.getReceivedBytes() + " 字节");
+        }
+        // 私聊对方不在线时文件消息无法发送，保留上传会话，稍后可以重试
+        if (upload.getRecipient() != null && !messageService.isUserOnline(upload.getRecipient())) {
+            throw new RuntimeException("用户 " + upload.getRecipient() + " 不在线，无法发送文件");
+        }
+
+        // 先条件删除上传会话，同一上传的并发完成请求只有一个能继续
+        Integer claimed = transactionTemplate.execute(status -> uploadRepository.claimCompleted(uploadId));
+        if (claimed == null || claimed != 1) {
+            throw new RuntimeException("上传正在完成或已完成");
+        }
+
+        UploadState state = states.remove(uploadId);
+        String hash = state != null ? state.hashAt(upload.getTotalSize()) : null;
+        String path;
+        try {
+            if (hash == null) {
+                // 服务重启过，内存中的摘要已丢失，重新读取一遍文件
+                hash = storage.hashPart(uploadId, newDigest());
+            }
+            path = blobService.acquire(uploadId, hash, upload.getTotalSize());
+        } catch (RuntimeException e) {
+            // 恢复上传会话，客户端可以重试完成
+            uploadRepository.save(upload);
+            throw e;
+        }
+
+        boolean image = upload.getFileType().startsWith("image/");
+        ChatMessage message = image
+                ? MessageFactory.createImageMessage(username, null, "")
+                : MessageFactory.createFileMessage(username, null, upload.getFileName(), upload.getTotalSize());
+        if (upload.getRecipient() != null) {
+            message.setRecipient(upload.getRecipient());
+        }
+
+        FileEntity file = new FileEntity();
+        file.setMessageId(message.getMessageId());
+        file.setConversationKey(ConversationHistory.conversationKey(username, upload.getRecipient()));
+        file.setUploader(username);
+        file.setFileName(upload.getFileName());
+        file.setFileType(upload.getFileType());
+        file.setFileSize(upload.getTotalSize());
+        file.setBlobHash(hash);
+        file.setFilePath(path);
+        try {
+            file = fileRepository.save(file);
+        } catch (RuntimeException e) {
+            blobService.release(hash);
+            throw e;
+        }
+
+        String url = "/api/files/" + file.getId();
+        if (image) {
+            message.setImageUrl(url);
+        } else {
+            message.setFileUrl(url);
+        }
+        message.addMetadata("fileId", file.getId());
+
+        if (!messageService.process(message)) {
+            fileRepository.delete(file);
+            blobService.release(hash);
+            throw new RuntimeException("发送文件消息失败");
+        }
+        return file;
+    }
+
+    /**
+     * 取消上传
+     * @param uploadId 上传ID
+     * @param username 当前用户名
+     */
+    public void cancel(String uploadId, String username) {
+        FileUpload upload = getUpload(uploadId, username);
+        uploadRepository.delete(upload);
+        states.remove(uploadId);
+        storage.discard(uploadId);
+    }
+
+    /**
+     * 获取分块大小
+     * @return 字节数
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * 定期清理长时间没有进展的上传
+     */
+    @Scheduled(initialDelayString = "${chat.files.cleanup-interval-millis:3600000}",
+            fixedDelayString = "${chat.files.cleanup-interval-millis:3600000}")
+    public void cleanupStaleUploads() {
+        try {
+            LocalDateTime cutoff = LocalDateTime.now().minusNanos(expireMillis * 1_000_000);
+            int removed = 0;
+            List<FileUpload> stale;
+            do {
+                stale = uploadRepository.findStale(cutoff, PageRequest.of(0, CLEANUP_BATCH_SIZE));
+                for (FileUpload upload : stale) {
+                    uploadRepository.delete(upload);
+                    states.remove(upload.getId());
+                    storage.discard(upload.getId());
+                    removed++;
+                }
+            } while (stale.size() == CLEANUP_BATCH_SIZE);
+            if (removed > 0) {
+                LOGGER.info("已清理 " + removed + " 个过期的上传");
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "清理过期上传失败: " + e.getMessage(), e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String sanitizeFileName(String fileName) {
+        if (fileName == null) {
+            return "";
+        }
+        // 去掉客户端可能带上的目录部分
+        String name = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1).trim();
+        return name.length() > MAX_FILE_NAME_LENGTH ? name.substring(0, MAX_FILE_NAME_LENGTH) : name;
+    }
+
+    private static String normalizeFileType(String fileType) {
+        if (fileType == null || fileType.isBlank() || fileType.length() > MAX_FILE_TYPE_LENGTH
+                || fileType.indexOf('/') < 0) {
+            return DEFAULT_FILE_TYPE;
+        }
+        return fileType.trim().toLowerCase();
+    }
+
+    /**
+     * 上传的摘要状态：已计算到的位置和对应的摘要
+     */
+    private static final class UploadState {
+        private MessageDigest digest;
+        private long position;
+
+        /**
+         * 获取从指定位置继续计算的摘要副本，无法继续（服务重启后从中间续传）时返回null
+         */
+        MessageDigest digestFrom(long offset) {
+            if (offset == 0) {
+                return newDigest();
+            }
+            if (digest == null || position != offset) {
+                return null;
+            }
+            try {
+                return (MessageDigest) digest.clone();
+            } catch (CloneNotSupportedException e) {
+                return null;
+            }
+        }
+
+        void advance(MessageDigest chunkDigest, long end) {
+            digest = chunkDigest;
+            position = end;
+        }
+
+        /**
+         * 摘要覆盖到指定长度时返回十六进制哈希，否则返回null
+         */
+        String hashAt(long length) {
+            return digest != null && position == length ? HexFormat.of().formatHex(digest.digest()) : null;
+        }
+    }
+}
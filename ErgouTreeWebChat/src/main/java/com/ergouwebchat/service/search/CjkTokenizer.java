@@ -0,0 +1,117 @@
+package com.ergouwebchat.service.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 中日韩文本分词工具类
+ * <p>不依赖词典：连续的中日韩字符按单字和相邻二元组切分，字母数字按单词切分并转为小写，其余字符作为分隔。
+ * 索引时单字和二元组都写入，查询时两个字以上的片段只用二元组，单字片段用单字，
+ * 二元组命中后再用原文片段校验，排除字符不连续造成的误命中</p>
+ */
+public class CjkTokenizer {
+
+    /**
+     * 私有构造函数，防止实例化
+     */
+    private CjkTokenizer() {
+        throw new AssertionError("工具类不应被实例化");
+    }
+
+    /**
+     * 切分待索引的文本
+     * @param text 文本
+     * @return 去重后的词项
+     */
+    public static Set<String> indexTerms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String segment : segments(text)) {
+            if (isCjk(segment.codePointAt(0))) {
+                int[] codePoints = segment.codePoints().toArray();
+                for (int i = 0; i < codePoints.length; i++) {
+                    terms.add(new String(codePoints, i, 1));
+                    if (i + 1 < codePoints.length) {
+                        terms.add(new String(codePoints, i, 2));
+                    }
+                }
+            } else {
+                terms.add(segment);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 切分查询文本
+     * @param query 查询文本
+     * @return 去重后的词项（全部需要命中）
+     */
+    public static Set<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String segment : segments(query)) {
+            if (isCjk(segment.codePointAt(0))) {
+                int[] codePoints = segment.codePoints().toArray();
+                if (codePoints.length == 1) {
+                    terms.add(segment);
+                }
+                for (int i = 0; i + 1 < codePoints.length; i++) {
+                    terms.add(new String(codePoints, i, 2));
+                }
+            } else {
+                terms.add(segment);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * 把文本切成连续的中日韩片段和小写的字母数字片段
+     * @param text 文本
+     * @return 片段列表
+     */
+    public static List<String> segments(String text) {
+        List<String> segments = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return segments;
+        }
+        StringBuilder current = new StringBuilder();
+        int currentKind = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            int kind = isCjk(codePoint) ? 1 : Character.isLetterOrDigit(codePoint) ? 2 : 0;
+            if (kind != currentKind && current.length() > 0) {
+                segments.add(current.toString());
+                current.setLength(0);
+            }
+            currentKind = kind;
+            if (kind != 0) {
+                current.appendCodePoint(kind == 2 ? Character.toLowerCase(codePoint) : codePoint);
+            }
+        }
+        if (current.length() > 0) {
+            segments.add(current.toString());
+        }
+        return segments;
+    }
+
+    /**
+     * 规范化文本，用于片段校验（字母转小写）
+     * @param text 文本
+     * @return 规范化后的文本
+     */
+    public static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,532 @@
+package com.ergouwebchat.service.search;
+
+import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.service.ConversationHistory;
+import com.ergouwebchat.service.storage.MessageArchive;
+import com.ergouwebchat.service.storage.MessageStore;
+import com.ergouwebchat.service.storage.StoredMessage;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 消息全文索引
+ * <p>进程内增量维护的倒排索引，按会话划分：每个会话有自己的文档表和词项到倒排表的映射，
+ * 倒排表是递增文档号的变长增量编码。消息写入存储时同步加入索引，启动后在后台从存储和归档重建；
+ * 重建期间新到的消息先照常进入旧索引并排队，新索引就绪后补入并按消息ID去重。
+ * 查询只在调用者参与的会话（群聊和自己的私聊）中进行</p>
+ * <p>文档表只保存消息ID和时间，不在堆上保留消息内容：倒排表求交得到候选后，
+ * 每个会话按消息ID从存储批量读取一次候选消息（不在存储中的再按时间从本地归档读取），再用原文片段校验。
+ * 保留期清理时物理压缩受影响的会话：丢弃早于下限的文档，其余文档重新编号并重新编码倒排表</p>
+ */
+@Service
+public class MessageSearchIndex {
+    private static final Logger LOGGER = Logger.getLogger(MessageSearchIndex.class.getName());
+
+    // 每个会话最多读取并校验的候选数（相对于结果数的倍数）
+    private static final int CANDIDATE_FACTOR = 4;
+
+    // 按时间从归档读取候选消息时同一毫秒内最多比对的消息数
+    private static final int LOOKUP_LIMIT = 16;
+
+    private final MessageStore messageStore;
+    private final MessageArchive messageArchive;
+    private final boolean rebuildOnStartup;
+
+    // 当前索引，重建完成时整体替换
+    private volatile Index index = new Index();
+
+    // 重建期间到达的消息，非重建期间为null
+    private Queue<StoredMessage> rebuildBacklog;
+
+    // 保护索引替换与增量写入之间的可见性
+    private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    // 保留期水位
+    private volatile long retentionCutoff;
+
+    public MessageSearchIndex(MessageStore messageStore,
+                              MessageArchive messageArchive,
+                              @Value("${chat.search.rebuild-on-startup:true}") boolean rebuildOnStartup) {
+        this.messageStore = messageStore;
+        this.messageArchive = messageArchive;
+        this.rebuildOnStartup = rebuildOnStartup;
+    }
+
+    /**
+     * 应用就绪后在后台重建索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        if (!rebuildOnStartup) {
+            return;
+        }
+        Thread thread = new Thread(this::rebuild, "search-index-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 把一条消息加入索引（只索引文本消息）
+     * @param message 消息
+     */
+    public void index(StoredMessage message) {
+        if (message.getType() != MessageType.TEXT || message.getContent() == null || message.getContent().isEmpty()) {
+            return;
+        }
+        swapLock.readLock().lock();
+        try {
+            if (rebuildBacklog != null) {
+                rebuildBacklog.add(message);
+            }
+            index.add(message);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 从存储和归档重建索引
+     * @return 重建后的文档数，已有重建在进行时返回-1
+     */
+    public long rebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return -1;
+        }
+        try {
+            swapLock.writeLock().lock();
+            try {
+                rebuildBacklog = new ConcurrentLinkedQueue<>();
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+
+            long start = System.currentTimeMillis();
+            Index rebuilt = new Index();
+            Set<String> seen = new HashSet<>();
+            try {
+                messageArchive.forEach(message -> addIfAbsent(rebuilt, seen, message));
+                messageStore.forEach(message -> addIfAbsent(rebuilt, seen, message));
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "重建搜索索引失败，继续使用增量索引: " + e.getMessage(), e);
+                swapLock.writeLock().lock();
+                try {
+                    rebuildBacklog = null;
+                } finally {
+                    swapLock.writeLock().unlock();
+                }
+                return index.documentCount();
+            }
+
+            swapLock.writeLock().lock();
+            try {
+                for (StoredMessage message : rebuildBacklog) {
+                    addIfAbsent(rebuilt, seen, message);
+                }
+                rebuildBacklog = null;
+                index = rebuilt;
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+            LOGGER.info("搜索索引重建完成：" + rebuilt.documentCount() + " 条消息，耗时 "
+                    + (System.currentTimeMillis() - start) + " 毫秒");
+            return rebuilt.documentCount();
+        } finally {
+            rebuilding.set(false);
+        }
+    }
+
+    /**
+     * 在调用者参与的会话中搜索消息
+     * @param username 调用者用户名
+     * @param query 查询文本
+     * @param limit 最多返回的结果数
+     * @return 按时间倒序的命中消息
+     */
+    public List<SearchHit> search(String username, String query, int limit) {
+        Set<String> terms = CjkTokenizer.queryTerms(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<String> segments = CjkTokenizer.segments(query);
+        Index current = index;
+        long floor = retentionCutoff;
+
+        List<SearchHit> hits = new ArrayList<>();
+        for (String conversationKey : current.conversationsOf(username)) {
+            ConversationIndex conversation = current.conversations.get(conversationKey);
+            if (conversation == null) {
+                continue;
+            }
+            List<Candidate> candidates = conversation.candidates(terms, floor, limit * CANDIDATE_FACTOR);
+            if (candidates.isEmpty()) {
+                continue;
+            }
+            Map<String, StoredMessage> loaded = load(conversationKey, candidates);
+            // 候选按新到旧排列，用原文校验，直到本会话取满结果
+            int found = 0;
+            for (Candidate candidate : candidates) {
+                if (found >= limit) {
+                    break;
+                }
+                StoredMessage message = loaded.get(candidate.messageId);
+                if (message == null || message.getContent() == null || !containsAll(message.getContent(), segments)) {
+                    continue;
+                }
+                hits.add(new SearchHit(message.getMessageId(), conversationKey, message.getSender(),
+                        message.getRecipient(), message.getContent(), message.getCreatedAt()));
+                found++;
+            }
+        }
+        hits.sort(Comparator.comparingLong(SearchHit::getCreatedAt).reversed());
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * 从索引中移除会话
+     * @param conversationKey 会话键
+     */
+    public void removeConversation(String conversationKey) {
+        index.conversations.remove(conversationKey);
+    }
+
+    /**
+     * 从索引中清除会话中早于指定时间的消息
+     * @param conversationKey 会话键
+     * @param cutoffMillis 截止时间
+     */
+    public void removeConversationBefore(String conversationKey, long cutoffMillis) {
+        ConversationIndex conversation = index.conversations.get(conversationKey);
+        if (conversation != null) {
+            conversation.truncate(cutoffMillis);
+        }
+    }
+
+    /**
+     * 从索引中清除早于指定时间的消息
+     * @param cutoffMillis 截止时间
+     */
+    public void removeBefore(long cutoffMillis) {
+        if (cutoffMillis > retentionCutoff) {
+            retentionCutoff = cutoffMillis;
+        }
+        for (ConversationIndex conversation : index.conversations.values()) {
+            conversation.truncate(cutoffMillis);
+        }
+    }
+
+    /**
+     * 获取索引中的文档数
+     * @return 文档数
+     */
+    public long getDocumentCount() {
+        return index.documentCount();
+    }
+
+    /**
+     * 读取一个会话的候选消息：按消息ID从存储批量读取一次，存储中没有的按时间查归档
+     * @return 消息ID到消息
+     */
+    private Map<String, StoredMessage> load(String conversationKey, List<Candidate> candidates) {
+        Map<String, Long> createdAtById = new LinkedHashMap<>();
+        for (Candidate candidate : candidates) {
+            createdAtById.put(candidate.messageId, candidate.createdAt);
+        }
+        Map<String, StoredMessage> loaded = new HashMap<>();
+        for (StoredMessage message : messageStore.findByIds(conversationKey, createdAtById)) {
+            loaded.put(message.getMessageId(), message);
+        }
+        for (Candidate candidate : candidates) {
+            if (!loaded.containsKey(candidate.messageId)) {
+                StoredMessage message = find(messageArchive.findRange(conversationKey, candidate.createdAt,
+                        candidate.createdAt, LOOKUP_LIMIT), candidate.messageId);
+                if (message != null) {
+                    loaded.put(message.getMessageId(), message);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    private static StoredMessage find(List<StoredMessage> messages, String messageId) {
+        for (StoredMessage message : messages) {
+            if (message.getMessageId().equals(messageId)) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    private static boolean containsAll(String content, List<String> segments) {
+        String normalized = CjkTokenizer.normalize(content);
+        for (String segment : segments) {
+            if (!normalized.contains(segment)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addIfAbsent(Index target, Set<String> seen, StoredMessage message) {
+        if (message.getType() == MessageType.TEXT && message.getContent() != null
+                && !message.getContent().isEmpty() && seen.add(message.getMessageId())) {
+            target.add(message);
+        }
+    }
+
+    /**
+     * 全部会话的索引
+     */
+    private static final class Index {
+        final Map<String, ConversationIndex> conversations = new ConcurrentHashMap<>();
+
+        // 用户名到其私聊会话键
+        final Map<String, Set<String>> userConversations = new ConcurrentHashMap<>();
+
+        void add(StoredMessage message) {
+            String key = message.getConversationKey();
+            ConversationIndex conversation = conversations.get(key);
+            if (conversation == null) {
+                conversation = conversations.computeIfAbsent(key, k -> new ConversationIndex());
+                String[] participants = ConversationHistory.participantsOf(key);
+                if (participants != null) {
+                    for (String user : participants) {
+                        userConversations.computeIfAbsent(user, u -> ConcurrentHashMap.newKeySet()).add(key);
+                    }
+                }
+            }
+            conversation.add(message);
+        }
+
+        List<String> conversationsOf(String username) {
+            List<String> keys = new ArrayList<>();
+            keys.add(ConversationHistory.GROUP_KEY);
+            Set<String> privateKeys = userConversations.get(username);
+            if (privateKeys != null) {
+                keys.addAll(privateKeys);
+            }
+            return keys;
+        }
+
+        long documentCount() {
+            long count = 0;
+            for (ConversationIndex conversation : conversations.values()) {
+                count += conversation.size();
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 候选消息的ID和时间
+     */
+    private static final class Candidate {
+        final String messageId;
+        final long createdAt;
+
+        Candidate(String messageId, long createdAt) {
+            this.messageId = messageId;
+            this.createdAt = createdAt;
+        }
+    }
+
+    /**
+     * 单个会话的文档表和倒排表
+     */
+    private static final class ConversationIndex {
+        private static final int INITIAL_CAPACITY = 8;
+
+        // 文档号到消息ID和时间
+        private String[] messageIds = new String[INITIAL_CAPACITY];
+        private long[] createdAt = new long[INITIAL_CAPACITY];
+        private int size;
+        private Map<String, Postings> postings = new HashMap<>();
+        // 会话保留策略的时间下限
+        private long floor;
+
+        synchronized void add(StoredMessage message) {
+            if (message.getCreatedAt() < floor) {
+                return;
+            }
+            if (size == messageIds.length) {
+                messageIds = Arrays.copyOf(messageIds, size * 2);
+                createdAt = Arrays.copyOf(createdAt, size * 2);
+            }
+            int document = size++;
+            messageIds[document] = message.getMessageId();
+            createdAt[document] = message.getCreatedAt();
+            for (String term : CjkTokenizer.indexTerms(message.getContent())) {
+                postings.computeIfAbsent(term, t -> new Postings()).add(document);
+            }
+        }
+
+        /**
+         * 提高时间下限并丢弃早于下限的文档：保留的文档按原顺序重新编号，倒排表按新编号重新编码
+         */
+        synchronized void truncate(long cutoffMillis) {
+            if (cutoffMillis <= floor) {
+                return;
+            }
+            floor = cutoffMillis;
+            int[] remap = new int[size];
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (createdAt[i] >= cutoffMillis) {
+                    remap[i] = kept;
+                    messageIds[kept] = messageIds[i];
+                    createdAt[kept] = createdAt[i];
+                    kept++;
+                } else {
+                    remap[i] = -1;
+                }
+            }
+            if (kept == size) {
+                return;
+            }
+            Arrays.fill(messageIds, kept, size, null);
+            size = kept;
+
+            Map<String, Postings> compacted = new HashMap<>();
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                Postings list = new Postings();
+                for (int document : entry.getValue().decode()) {
+                    if (remap[document] >= 0) {
+                        list.add(remap[document]);
+                    }
+                }
+                if (list.count > 0) {
+                    compacted.put(entry.getKey(), list);
+                }
+            }
+            postings = compacted;
+
+            int capacity = Math.max(INITIAL_CAPACITY, Integer.highestOneBit(Math.max(1, size)) * 2);
+            if (capacity < messageIds.length) {
+                messageIds = Arrays.copyOf(messageIds, capacity);
+                createdAt = Arrays.copyOf(createdAt, capacity);
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * 求包含全部词项的文档，按新到旧返回
+         * @param terms 查询词项
+         * @param retentionFloor 全局保留期水位
+         * @param max 最多返回的候选数
+         * @return 候选消息
+         */
+        synchronized List<Candidate> candidates(Set<String> terms, long retentionFloor, int max) {
+            long from = Math.max(retentionFloor, floor);
+            List<Postings> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                Postings list = postings.get(term);
+                if (list == null) {
+                    return List.of();
+                }
+                lists.add(list);
+            }
+            // 从最短的倒排表开始求交集
+            lists.sort(Comparator.comparingInt(p -> p.count));
+            int[] documents = lists.get(0).decode();
+            int count = documents.length;
+            for (int i = 1; i < lists.size() && count > 0; i++) {
+                count = intersect(documents, count, lists.get(i).decode());
+            }
+
+            // 文档号越大越新
+            List<Candidate> result = new ArrayList<>(Math.min(count, max));
+            for (int i = count - 1; i >= 0 && result.size() < max; i--) {
+                int document = documents[i];
+                if (createdAt[document] >= from) {
+                    result.add(new Candidate(messageIds[document], createdAt[document]));
+                }
+            }
+            return result;
+        }
+
+        private static int intersect(int[] target, int size, int[] other) {
+            int kept = 0;
+            int j = 0;
+            for (int i = 0; i < size && j < other.length; i++) {
+                while (j < other.length && other[j] < target[i]) {
+                    j++;
+                }
+                if (j < other.length && other[j] == target[i]) {
+                    target[kept++] = target[i];
+                }
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * 压缩倒排表：递增文档号的变长增量编码
+     */
+    private static final class Postings {
+        private byte[] data = new byte[4];
+        private int length;
+        private int last = -1;
+        private int count;
+
+        void add(int document) {
+            if (document <= last) {
+                return;
+            }
+            int delta = document - last;
+            last = document;
+            count++;
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+            }
+            while ((delta & ~0x7F) != 0) {
+                data[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+        }
+
+        int[] decode() {
+            int[] documents = new int[count];
+            int document = -1;
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                document += delta;
+                documents[i] = document;
+            }
+            return documents;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.ergouwebchat.service.search;
+
+import lombok.Getter;
+
+/**
+ * 搜索命中的消息
+ */
+@Getter
+public class SearchHit {
+    /**
+     * 消息ID
+     */
+    private final String messageId;
+
+    /**
+     * 会话键
+     */
+    private final String conversationKey;
+
+    /**
+     * 发送者用户名
+     */
+    private final String sender;
+
+    /**
+     * 接收者用户名（群聊为null）
+     */
+    private final String recipient;
+
+    /**
+     * 消息内容
+     */
+    private final String content;
+
+    /**
+     * 创建时间（epoch毫秒）
+     */
+    private final long createdAt;
+
+    public SearchHit(String messageId, String conversationKey, String sender, String recipient,
+                     String content, long createdAt) {
+        this.messageId = messageId;
+        this.conversationKey = conversationKey;
+        this.sender = sender;
+        this.recipient = recipient;
+        this.content = content;
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,282 @@
+package com.ergouwebchat.service.search;
+
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.enums.UserStatus;
+import com.ergouwebchat.service.PresenceService;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 用户前缀索引
+ * <p>用户名和昵称（转小写）放在一个有序数组中，前缀查询是一次二分查找加一段顺序扫描，
+ * 用于@提及自动补全和用户查找，不访问数据库。数组整体不可变，查询无锁读取当前快照；
+ * 新用户和昵称修改按有序插入生成新快照（写入很少，读取很多）。
+ * 查询结果在线用户优先，在线状态来自{@link PresenceService}的内存数据</p>
+ */
+@Service
+public class UserDirectory {
+    private static final Logger LOGGER = Logger.getLogger(UserDirectory.class.getName());
+
+    // 构建时每页读取的用户数
+    private static final int LOAD_PAGE_SIZE = 5000;
+
+    // 单次查询最多扫描的索引项数，很短的前缀匹配项很多时只在这些项中做在线优先排序
+    private static final int MAX_SCAN = 2000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final PresenceService presenceService;
+
+    // 当前快照
+    private volatile Snapshot snapshot = new Snapshot(new String[0], new UserProfile[0]);
+
+    // 用户ID到当前资料，用于修改时找到旧的索引项，受this保护
+    private final Map<Long, UserProfile> profiles = new HashMap<>();
+
+    // 构建期间的增量更新，构建完成后重放，不在构建时为null，受this保护
+    private List<UserProfile> pending;
+
+    public UserDirectory(JdbcTemplate jdbcTemplate, PresenceService presenceService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.presenceService = presenceService;
+    }
+
+    /**
+     * 启动后在后台构建索引
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void buildOnStartup() {
+        Thread thread = new Thread(() -> {
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "构建用户前缀索引失败: " + e.getMessage(), e);
+            }
+        }, "user-directory-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 分页扫描用户表重建索引
+     */
+    public void rebuild() {
+        synchronized (this) {
+            pending = new ArrayList<>();
+        }
+        try {
+            Map<Long, UserProfile> loaded = new HashMap<>();
+            long afterId = 0;
+            while (true) {
+                long[] lastId = {afterId};
+                int[] rows = {0};
+                jdbcTemplate.query(
+                        "SELECT id, username, nickname, avatar_color FROM users WHERE id > ? ORDER BY id LIMIT ?",
+                        rs -> {
+                            UserProfile profile = new UserProfile(rs.getLong(1), rs.getString(2),
+                                    rs.getString(3), rs.getString(4));
+                            loaded.put(profile.getId(), profile);
+                            lastId[0] = profile.getId();
+                            rows[0]++;
+                        },
+                        afterId, LOAD_PAGE_SIZE);
+                if (rows[0] < LOAD_PAGE_SIZE) {
+                    break;
+                }
+                afterId = lastId[0];
+            }
+
+            synchronized (this) {
+                for (UserProfile profile : pending) {
+                    loaded.put(profile.getId(), profile);
+                }
+                profiles.clear();
+                profiles.putAll(loaded);
+                snapshot = Snapshot.build(loaded.values());
+                LOGGER.info("用户前缀索引已构建，共 " + loaded.size() + " 个用户，" + snapshot.keys.length + " 个索引项");
+            }
+        } finally {
+            synchronized (this) {
+                pending = null;
+            }
+        }
+    }
+
+    /**
+     * 加入或更新用户（注册、修改昵称后调用）
+     * @param profile 用户资料
+     */
+    public synchronized void put(UserProfile profile) {
+        if (pending != null) {
+            pending.add(profile);
+        }
+        UserProfile previous = profiles.put(profile.getId(), profile);
+        Snapshot current = snapshot;
+        if (previous != null) {
+            current = current.without(previous.getId());
+        }
+        for (String key : keysOf(profile)) {
+            current = current.with(key, profile);
+        }
+        snapshot = current;
+    }
+
+    /**
+     * 按用户名或昵称前缀查找用户，在线用户优先，同为在线或离线时按索引顺序
+     * @param prefix 前缀（不区分大小写）
+     * @param limit 最大返回数
+     * @param excludeUsername 排除的用户名（通常是查询者自己），可以为null
+     * @return 匹配的用户
+     */
+    public List<UserProfile> search(String prefix, int limit, String excludeUsername) {
+        if (prefix == null || prefix.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        String key = prefix.toLowerCase(Locale.ROOT);
+        Snapshot current = snapshot;
+        int from = current.lowerBound(key);
+
+        // 同一用户的用户名和昵称可能都匹配，按用户名去重
+        Map<String, UserProfile> online = new LinkedHashMap<>();
+        Map<String, UserProfile> offline = new LinkedHashMap<>();
+        int end = Math.min(current.keys.length, from + MAX_SCAN);
+        for (int i = from; i < end && current.keys[i].startsWith(key); i++) {
+            UserProfile profile = current.profiles[i];
+            String username = profile.getUsername();
+            if (username.equals(excludeUsername) || online.containsKey(username) || offline.containsKey(username)) {
+                continue;
+            }
+            if (presenceService.getStatus(username) != UserStatus.OFFLINE) {
+                online.put(username, profile);
+                if (online.size() >= limit) {
+                    break;
+                }
+            } else if (offline.size() < limit) {
+                offline.put(username, profile);
+            }
+        }
+
+        List<UserProfile> result = new ArrayList<>(Math.min(limit, online.size() + offline.size()));
+        result.addAll(online.values());
+        for (UserProfile profile : offline.values()) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(profile);
+        }
+        return result;
+    }
+
+    /**
+     * 获取索引项数
+     * @return 索引项数
+     */
+    public int getKeyCount() {
+        return snapshot.keys.length;
+    }
+
+    private static List<String> keysOf(UserProfile profile) {
+        String username = profile.getUsername().toLowerCase(Locale.ROOT);
+        String nickname = profile.getNickname();
+        if (nickname == null || nickname.isBlank()) {
+            return List.of(username);
+        }
+        nickname = nickname.trim().toLowerCase(Locale.ROOT);
+        return nickname.equals(username) ? List.of(username) : List.of(username, nickname);
+    }
+
+    /**
+     * 不可变的有序索引快照，键升序，键相同时按用户名升序
+     */
+    private static final class Snapshot {
+        final String[] keys;
+        final UserProfile[] profiles;
+
+        Snapshot(String[] keys, UserProfile[] profiles) {
+            this.keys = keys;
+            this.profiles = profiles;
+        }
+
+        static Snapshot build(Iterable<UserProfile> users) {
+            List<Object[]> items = new ArrayList<>();
+            for (UserProfile profile : users) {
+                for (String key : keysOf(profile)) {
+                    items.add(new Object[] {key, profile});
+                }
+            }
+            items.sort((a, b) -> compare((String) a[0], (UserProfile) a[1], (String) b[0], (UserProfile) b[1]));
+            String[] keys = new String[items.size()];
+            UserProfile[] profiles = new UserProfile[items.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = (String) items.get(i)[0];
+                profiles[i] = (UserProfile) items.get(i)[1];
+            }
+            return new Snapshot(keys, profiles);
+        }
+
+        /**
+         * 第一个不小于给定键的位置
+         */
+        int lowerBound(String key) {
+            int low = 0;
+            int high = keys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        Snapshot with(String key, UserProfile profile) {
+            int low = lowerBound(key);
+            while (low < keys.length && keys[low].equals(key)
+                    && compare(keys[low], profiles[low], key, profile) < 0) {
+                low++;
+            }
+            String[] newKeys = new String[keys.length + 1];
+            UserProfile[] newProfiles = new UserProfile[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, low);
+            System.arraycopy(profiles, 0, newProfiles, 0, low);
+            newKeys[low] = key;
+            newProfiles[low] = profile;
+            System.arraycopy(keys, low, newKeys, low + 1, keys.length - low);
+            System.arraycopy(profiles, low, newProfiles, low + 1, keys.length - low);
+            return new Snapshot(newKeys, newProfiles);
+        }
+
+        Snapshot without(Long userId) {
+            int kept = 0;
+            String[] newKeys = new String[keys.length];
+            UserProfile[] newProfiles = new UserProfile[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                if (!profiles[i].getId().equals(userId)) {
+                    newKeys[kept] = keys[i];
+                    newProfiles[kept] = profiles[i];
+                    kept++;
+                }
+            }
+            return new Snapshot(Arrays.copyOf(newKeys, kept), Arrays.copyOf(newProfiles, kept));
+        }
+
+        private static int compare(String keyA, UserProfile a, String keyB, UserProfile b) {
+            int result = keyA.compareTo(keyB);
+            return result != 0 ? result : a.getUsername().compareTo(b.getUsername());
+        }
+    }
+}
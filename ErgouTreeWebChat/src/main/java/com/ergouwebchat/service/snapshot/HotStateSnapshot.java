@@ -0,0 +1,281 @@
+package com.ergouwebchat.service.snapshot;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.util.JsonUtils;
+import lombok.Getter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 热状态快照
+ * <p>节点内存中的热数据（按会话划分的最近消息历史、消息序号计数器、用户资料缓存）的紧凑二进制表示。
+ * 文件由文件头和若干带标签与长度的分段组成，读取方跳过不认识的分段，
+ * 便于以后把更多缓存加入快照而不破坏旧文件的读取</p>
+ */
+@Getter
+public class HotStateSnapshot {
+    // 文件头魔数和格式版本
+    private static final int MAGIC = 0x45475348; // "EGSH"
+    private static final int VERSION = 2;
+
+    // 分段标签
+    private static final byte SECTION_END = 0;
+    private static final byte SECTION_HISTORY = 1;
+    private static final byte SECTION_SEQUENCE = 2;
+    // 标签3曾用于在线用户，已不再写入，旧文件中的该分段按未知分段跳过
+    private static final byte SECTION_USER_PROFILES = 4;
+
+    /**
+     * 快照创建时间（epoch毫秒）
+     */
+    private final long createdAt;
+
+    /**
+     * 按会话划分的最近消息历史（会话键到按时间顺序的消息）
+     */
+    private final Map<String, List<ChatMessage>> history;
+
+    /**
+     * 历史消息序号计数器
+     */
+    private final long sequence;
+
+    /**
+     * 用户资料缓存中的条目
+     */
+    private final List<CachedProfile> userProfiles;
+
+    public HotStateSnapshot(long createdAt, Map<String, List<ChatMessage>> history, long sequence,
+                            List<CachedProfile> userProfiles) {
+        this.createdAt = createdAt;
+        this.history = history;
+        this.sequence = sequence;
+        this.userProfiles = userProfiles;
+    }
+
+    /**
+     * 统计快照中的历史消息总数
+     * @return 消息条数
+     */
+    public int getHistoryMessageCount() {
+        int count = 0;
+        for (List<ChatMessage> messages : history.values()) {
+            count += messages.size();
+        }
+        return count;
+    }
+
+    /**
+     * 写出快照
+     * @param out 输出
+     * @throws IOException 写入失败时抛出
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(createdAt);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+        DataOutputStream section = new DataOutputStream(buffer);
+
+        section.writeInt(history.size());
+        for (Map.Entry<String, List<ChatMessage>> entry : history.entrySet()) {
+            writeString(section, entry.getKey());
+            section.writeInt(entry.getValue().size());
+            for (ChatMessage message : entry.getValue()) {
+                writeMessage(section, message);
+            }
+        }
+        writeSection(out, SECTION_HISTORY, buffer);
+
+        section.writeLong(sequence);
+        writeSection(out, SECTION_SEQUENCE, buffer);
+
+        section.writeInt(userProfiles.size());
+        for (CachedProfile cached : userProfiles) {
+            UserProfile profile = cached.getProfile();
+            section.writeLong(profile.getId());
+            writeString(section, profile.getUsername());
+            writeString(section, profile.getNickname());
+            writeString(section, profile.getAvatarColor());
+            section.writeLong(cached.getLoadedAt());
+        }
+        writeSection(out, SECTION_USER_PROFILES, buffer);
+
+        out.writeByte(SECTION_END);
+    }
+
+    /**
+     * 读取快照（通常传入内存映射的文件内容）
+     * @param in 快照内容
+     * @return 快照
+     * @throws IOException 格式不符或内容被截断时抛出
+     */
+    public static HotStateSnapshot readFrom(ByteBuffer in) throws IOException {
+        try {
+            if (in.getInt() != MAGIC) {
+                throw new IOException("不是有效的热状态快照文件");
+            }
+            int version = in.getInt();
+            if (version != VERSION) {
+                throw new IOException("不支持的快照版本: " + version);
+            }
+            long createdAt = in.getLong();
+
+            Map<String, List<ChatMessage>> history = new LinkedHashMap<>();
+            long sequence = 0;
+            List<CachedProfile> userProfiles = new ArrayList<>();
+
+            byte tag;
+            while ((tag = in.get()) != SECTION_END) {
+                int length = in.getInt();
+                ByteBuffer section = in.slice(in.position(), length);
+                in.position(in.position() + length);
+
+                switch (tag) {
+                    case SECTION_HISTORY:
+                        history = readHistory(section);
+                        break;
+                    case SECTION_SEQUENCE:
+                        sequence = section.getLong();
+                        break;
+                    case SECTION_USER_PROFILES:
+                        userProfiles = readProfiles(section);
+                        break;
+                    default:
+                        // 新版本写入的分段，忽略
+                        break;
+                }
+            }
+            return new HotStateSnapshot(createdAt, history, sequence, userProfiles);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("快照文件已损坏或被截断", e);
+        }
+    }
+
+    private static void writeSection(DataOutput out, byte tag, ByteArrayOutputStream buffer) throws IOException {
+        out.writeByte(tag);
+        out.writeInt(buffer.size());
+        out.write(buffer.toByteArray());
+        buffer.reset();
+    }
+
+    private static void writeMessage(DataOutput out, ChatMessage message) throws IOException {
+        writeString(out, message.getMessageId());
+        out.writeByte(message.getType().ordinal());
+        writeString(out, message.getSender());
+        writeString(out, message.getRecipient());
+        writeString(out, message.getContent());
+        out.writeLong(message.getTimestamp());
+        out.writeLong(message.getSequence());
+        writeString(out, message.hasMetadata() ? JsonUtils.toJson(message.toMetadataMap()) : null);
+    }
+
+    private static Map<String, List<ChatMessage>> readHistory(ByteBuffer in) {
+        MessageType[] types = MessageType.values();
+        int conversationCount = in.getInt();
+        Map<String, List<ChatMessage>> history = new LinkedHashMap<>(conversationCount * 2);
+        for (int c = 0; c < conversationCount; c++) {
+            String key = readString(in);
+            int size = in.getInt();
+            List<ChatMessage> messages = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                messages.add(readMessage(in, types));
+            }
+            history.put(key, messages);
+        }
+        return history;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ChatMessage readMessage(ByteBuffer in, MessageType[] types) {
+        String messageId = readString(in);
+        MessageType type = types[in.get() & 0xFF];
+        String sender = readString(in);
+        String recipient = readString(in);
+        String content = readString(in);
+        long timestamp = in.getLong();
+        long sequence = in.getLong();
+        String metadata = readString(in);
+
+        ChatMessage message = new ChatMessage(type, sender, content);
+        message.setMessageId(messageId);
+        message.setRecipient(recipient);
+        message.setTimestamp(timestamp);
+        if (metadata != null) {
+            Map<String, Object> map = JsonUtils.fromJson(metadata, Map.class);
+            if (map != null) {
+                map.forEach(message::addMetadata);
+            }
+        }
+        message.setSequence(sequence);
+        return message;
+    }
+
+    private static List<CachedProfile> readProfiles(ByteBuffer in) {
+        int count = in.getInt();
+        List<CachedProfile> profiles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long id = in.getLong();
+            String username = readString(in);
+            String nickname = readString(in);
+            String avatarColor = readString(in);
+            long loadedAt = in.getLong();
+            profiles.add(new CachedProfile(new UserProfile(id, username, nickname, avatarColor), loadedAt));
+        }
+        return profiles;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 用户资料缓存条目
+     */
+    @Getter
+    public static final class CachedProfile {
+        /**
+         * 用户资料
+         */
+        private final UserProfile profile;
+
+        /**
+         * 加载时间（epoch毫秒）
+         */
+        private final long loadedAt;
+
+        public CachedProfile(UserProfile profile, long loadedAt) {
+            this.profile = profile;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.ergouwebchat.service.snapshot;
+
+import com.ergouwebchat.service.MessageService;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.util.CoarseClock;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 热状态快照服务
+ * <p>运行期间定期、停机时再一次把内存热数据写入本地快照文件（先写临时文件再原子替换），
+ * 启动时在Bean初始化阶段通过内存映射读回，早于Web服务器开始接受连接，
+ * 首批加入的用户即可拿到历史、发送者资料直接命中缓存，而无需集中查询数据库。
+ * 临时文件在替换前刷盘。读回时所有内容都拷贝成对象，映射随即不再被引用；
+ * 快照按重命名替换，不改写被映射的文件，残留的映射只指向旧文件</p>
+ */
+@Service
+public class HotStateSnapshotService {
+    private static final Logger LOGGER = Logger.getLogger(HotStateSnapshotService.class.getName());
+
+    private final MessageService messageService;
+    private final UserCache userCache;
+    private final Path snapshotPath;
+
+    public HotStateSnapshotService(MessageService messageService,
+                                   UserCache userCache,
+                                   @Value("${chat.snapshot.path:./data/hot-state.snap}") String snapshotPath) {
+        this.messageService = messageService;
+        this.userCache = userCache;
+        this.snapshotPath = Paths.get(snapshotPath);
+    }
+
+    /**
+     * 启动时恢复快照
+     */
+    @PostConstruct
+    public void restore() {
+        if (!Files.isRegularFile(snapshotPath)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            HotStateSnapshot snapshot = HotStateSnapshot.readFrom(buffer);
+            messageService.restoreHistory(snapshot.getHistory(), snapshot.getSequence());
+            int profiles = 0;
+            for (HotStateSnapshot.CachedProfile cached : snapshot.getUserProfiles()) {
+                if (userCache.restore(cached.getProfile(), cached.getLoadedAt())) {
+                    profiles++;
+                }
+            }
+            LOGGER.info("已从快照恢复 " + snapshot.getHistory().size() + " 个会话、"
+                    + snapshot.getHistoryMessageCount() + " 条历史消息、" + profiles + " 个用户资料");
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "读取热状态快照失败，按冷启动处理: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 定期保存快照，缩小非正常退出时丢失的热数据范围
+     */
+    @Scheduled(initialDelayString = "${chat.snapshot.interval-millis:60000}",
+            fixedDelayString = "${chat.snapshot.interval-millis:60000}")
+    public void savePeriodically() {
+        save();
+    }
+
+    /**
+     * 保存当前热状态到快照文件
+     * @return 保存成功返回true
+     */
+    public synchronized boolean save() {
+        List<HotStateSnapshot.CachedProfile> profiles = new ArrayList<>();
+        userCache.forEachProfile((profile, loadedAt) -> profiles.add(new HotStateSnapshot.CachedProfile(profile, loadedAt)));
+        HotStateSnapshot snapshot = new HotStateSnapshot(
+                CoarseClock.currentTimeMillis(), messageService.getHistorySnapshot(),
+                messageService.getHistorySequence(), profiles);
+
+        try {
+            Path parent = snapshotPath.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tempFile = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                snapshot.writeTo(out);
+                out.flush();
+                // 先落盘再替换，避免掉电后留下不完整的快照
+                channel.force(true);
+            }
+            Files.move(tempFile, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "写入热状态快照失败: " + e.getMessage(), e);
+            return false;
+        }
+    }
+}
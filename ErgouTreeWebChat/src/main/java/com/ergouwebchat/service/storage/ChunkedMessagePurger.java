@@ -0,0 +1,140 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.repository.FileBlobRepository;
+import com.ergouwebchat.repository.FileRepository;
+import com.ergouwebchat.repository.MessageRepository;
+import com.ergouwebchat.util.ChunkPacer;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * 关系数据库消息分块清理
+ * <p>按（创建时间, ID）索引顺序每次取一块消息ID，在一个短事务里依次删除已读状态、文件记录和消息本身，
+ * 都是按ID的集合删除，不加载实体；删除文件记录前按内容汇总减少引用，文件内容由垃圾回收删除。块与块之间停顿，停顿时间不短于本块耗时，
+ * 清理最多占用一半的数据库时间，大会话的删除不会长期占住连接和锁</p>
+ */
+public class ChunkedMessagePurger {
+    private static final Logger LOGGER = Logger.getLogger(ChunkedMessagePurger.class.getName());
+
+    private final MessageRepository messageRepository;
+    private final FileRepository fileRepository;
+    private final FileBlobRepository fileBlobRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+    private final long pauseMillis;
+
+    /**
+     * 构造方法
+     * @param messageRepository 消息数据访问层
+     * @param fileRepository 文件数据访问层
+     * @param fileBlobRepository 文件内容数据访问层
+     * @param transactionTemplate 事务模板（每块一个事务）
+     * @param chunkSize 每块的消息数
+     * @param pauseMillis 块之间的最短停顿
+     */
+    public ChunkedMessagePurger(MessageRepository messageRepository,
+                                FileRepository fileRepository,
+                                FileBlobRepository fileBlobRepository,
+                                TransactionTemplate transactionTemplate,
+                                int chunkSize, long pauseMillis) {
+        this.messageRepository = messageRepository;
+        this.fileRepository = fileRepository;
+        this.fileBlobRepository = fileBlobRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.pauseMillis = Math.max(0, pauseMillis);
+    }
+
+    /**
+     * 删除会话的全部消息
+     * @param conversationId 会话ID
+     * @return 删除的消息数
+     */
+    public long purgeConversation(Long conversationId) {
+        return purge(page -> messageRepository.findIdsByConversationId(conversationId, page));
+    }
+
+    /**
+     * 删除会话中早于指定时间的消息
+     * @param conversationId 会话ID
+     * @param cutoff 截止时间
+     * @return 删除的消息数
+     */
+    public long purgeConversationBefore(Long conversationId, LocalDateTime cutoff) {
+        return purge(page -> messageRepository.findIdsByConversationIdBefore(conversationId, cutoff, page));
+    }
+
+    /**
+     * 删除早于指定时间的全部消息
+     * @param cutoff 截止时间
+     * @return 删除的消息数
+     */
+    public long purgeBefore(LocalDateTime cutoff) {
+        return purge(page -> messageRepository.findIdsBefore(cutoff, page));
+    }
+
+    /**
+     * 删除已写入归档的消息：按块删除已读状态和消息本身，文件记录保留（归档消息仍引用文件）
+     * @param messageIds 消息ID
+     * @return 删除的消息数
+     */
+    public long purgeArchived(List<String> messageIds) {
+        long total = 0;
+        for (int from = 0; from < messageIds.size(); from += chunkSize) {
+            long start = System.nanoTime();
+            List<String> ids = messageIds.subList(from, Math.min(messageIds.size(), from + chunkSize));
+            Integer deleted = transactionTemplate.execute(status -> {
+                messageRepository.deleteReadStatusByMessageIds(ids);
+                return messageRepository.deleteByIds(ids);
+            });
+            total += deleted != null ? deleted : 0;
+            if (from + chunkSize < messageIds.size() && !ChunkPacer.pause(start, pauseMillis)) {
+                LOGGER.warning("归档消息删除被中断，已删除 " + total + " 条");
+                return total;
+            }
+        }
+        return total;
+    }
+
+    private long purge(Function<Pageable, List<String>> nextChunk) {
+        Pageable page = PageRequest.of(0, chunkSize);
+        long total = 0;
+        while (true) {
+            long start = System.nanoTime();
+            Integer deleted = transactionTemplate.execute(status -> {
+                List<String> ids = nextChunk.apply(page);
+                if (ids.isEmpty()) {
+                    return 0;
+                }
+                messageRepository.deleteReadStatusByMessageIds(ids);
+                releaseBlobs(ids);
+                fileRepository.deleteByMessageIds(ids);
+                return messageRepository.deleteByIds(ids);
+            });
+            if (deleted == null || deleted == 0) {
+                return total;
+            }
+            total += deleted;
+            if (!ChunkPacer.pause(start, pauseMillis)) {
+                LOGGER.warning("消息清理被中断，已删除 " + total + " 条");
+                return total;
+            }
+        }
+    }
+
+    /**
+     * 减少即将删除的文件记录对内容的引用
+     */
+    private void releaseBlobs(List<String> messageIds) {
+        LocalDateTime now = LocalDateTime.now();
+        for (Object[] row : fileRepository.countBlobReferences(messageIds)) {
+            fileBlobRepository.release((String) row[0], ((Number) row[1]).intValue(), now);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.entity.Conversation;
+import com.ergouwebchat.model.entity.Message;
+import com.ergouwebchat.model.entity.User;
+import com.ergouwebchat.repository.ConversationRepository;
+import com.ergouwebchat.repository.MessageRepository;
+import com.ergouwebchat.repository.UserRepository;
+import com.ergouwebchat.service.ConversationHistory;
+import com.ergouwebchat.service.MembershipService;
+import com.ergouwebchat.service.cache.UserCache;
+import org.hibernate.Hibernate;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 关系数据库消息存储
+ * <p>通过JPA写入MySQL，会话键按需解析为会话实体（不存在时创建）。
+ * 写入自带事务，以便外层在事务之外判断数据库是否可用；删除交给{@link ChunkedMessagePurger}分块执行，
+ * 同样不能放在外层事务中；查询由调用方负责事务边界</p>
+ */
+public class JpaMessageStore implements MessageStore {
+    /**
+     * 默认群聊会话名称
+     */
+    public static final String GROUP_NAME = "群聊";
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    // 遍历时每页的消息数
+    private static final int SCAN_PAGE_SIZE = 1000;
+    // 会话列表中最后一条消息预览的最大长度
+    private static final int PREVIEW_LENGTH = 100;
+
+    private final MessageRepository messageRepository;
+    private final UserRepository userRepository;
+    private final ConversationRepository conversationRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ChunkedMessagePurger purger;
+    private final MembershipService membershipService;
+    private final UserCache userCache;
+
+    public JpaMessageStore(MessageRepository messageRepository,
+                           UserRepository userRepository,
+                           ConversationRepository conversationRepository,
+                           TransactionTemplate transactionTemplate,
+                           ChunkedMessagePurger purger,
+                           MembershipService membershipService,
+                           UserCache userCache) {
+        this.messageRepository = messageRepository;
+        this.userRepository = userRepository;
+        this.conversationRepository = conversationRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.purger = purger;
+        this.membershipService = membershipService;
+        this.userCache = userCache;
+    }
+
+    @Override
+    public void append(StoredMessage stored) {
+        transactionTemplate.executeWithoutResult(status -> insert(stored));
+    }
+
+    @Override
+    public boolean appendIfAbsent(StoredMessage stored) {
+        Boolean inserted = transactionTemplate.execute(status -> {
+            if (messageRepository.existsById(stored.getMessageId())) {
+                return false;
+            }
+            insert(stored);
+            return true;
+        });
+        return Boolean.TRUE.equals(inserted);
+    }
+
+    private void insert(StoredMessage stored) {
+        // 查找发送者（经缓存，消息只需要发送者的外键）
+        UserProfile sender = userCache.find(stored.getSender())
+                .orElseThrow(() -> new RuntimeException("发送者不存在"));
+
+        // 获取或创建会话
+        Conversation conversation;
+        String[] participants = ConversationHistory.participantsOf(stored.getConversationKey());
+
+        if (participants != null) {
+            // 私聊
+            UserProfile recipient = userCache.find(stored.getRecipient())
+                    .orElseThrow(() -> new RuntimeException("接收者不存在"));
+
+            // 按规范键查找或创建私聊会话
+            long lowId = Math.min(sender.getId(), recipient.getId());
+            long highId = Math.max(sender.getId(), recipient.getId());
+            conversation = conversationRepository.findByUserLowIdAndUserHighId(lowId, highId)
+                    .orElseGet(() -> createPrivateConversation(lowId, highId));
+        } else {
+            // 群聊
+            // 查找或创建群聊会话
+            conversation = conversationRepository
+                    .findByTypeAndName(Conversation.ConversationType.GROUP, GROUP_NAME)
+                    .orElseGet(() -> {
+                        Conversation newConversation = new Conversation();
+                        newConversation.setType(Conversation.ConversationType.GROUP);
+                        newConversation.setName(GROUP_NAME);
+                        return conversationRepository.save(newConversation);
+                    });
+            // 发言者按需加入群聊，已是成员时只查内存中的成员集合
+            membershipService.addMember(conversation.getId(), sender.getId());
+        }
+
+        // 创建消息
+        LocalDateTime createdAt = toDateTime(stored.getCreatedAt());
+        Message message = new Message();
+        message.setId(stored.getMessageId());
+        message.setSender(userRepository.getReferenceById(sender.getId()));
+        message.setConversation(conversation);
+        message.setType(stored.getType());
+        message.setContent(stored.getContent());
+        message.setMetadata(stored.getMetadata());
+        message.setCreatedAt(createdAt);
+
+        // 更新会话的最后更新时间和最后一条消息预览
+        conversation.setUpdatedAt(createdAt);
+        conversation.setLastMessagePreview(preview(stored.getContent()));
+        conversation.setLastMessageSender(stored.getSender());
+        conversationRepository.save(conversation);
+
+        // 保存消息
+        messageRepository.save(message);
+    }
+
+    /**
+     * 创建私聊会话，并发创建时由唯一索引保证只有一个成功，其余回读已提交的会话
+     */
+    private Conversation createPrivateConversation(long lowId, long highId) {
+        boolean created = conversationRepository.insertPrivateIfAbsent(lowId, highId, LocalDateTime.now()) > 0;
+        Conversation conversation = conversationRepository.findLockedByUserLowIdAndUserHighId(lowId, highId)
+                .orElseThrow(() -> new RuntimeException("创建私聊会话失败"));
+        if (created) {
+            membershipService.addMember(conversation.getId(), lowId);
+            membershipService.addMember(conversation.getId(), highId);
+        }
+        return conversation;
+    }
+
+    @Override
+    public List<StoredMessage> findRecent(String conversationKey, int limit) {
+        Optional<Conversation> conversation = resolve(conversationKey);
+        if (conversation.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Message> messages = messageRepository.findLatestMessages(
+                conversation.get(),
+                PageRequest.of(0, limit, Sort.by(Sort.Direction.DESC, "createdAt"))
+        );
+        return toStored(conversationKey, messages);
+    }
+
+    @Override
+    public List<StoredMessage> findRange(String conversationKey, long fromMillis, long toMillis, int limit) {
+        Optional<Conversation> conversation = resolve(conversationKey);
+        if (conversation.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 条数限制下推到查询，不加载整个时间段
+        List<Message> messages = messageRepository.findRange(
+                conversation.get(), toDateTime(fromMillis), toDateTime(toMillis), PageRequest.of(0, limit));
+        return toStored(conversationKey, messages);
+    }
+
+    @Override
+    public List<StoredMessage> findByIds(String conversationKey, Map<String, Long> createdAtById) {
+        if (createdAtById.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Optional<Conversation> conversation = resolve(conversationKey);
+        if (conversation.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return toStored(conversationKey, messageRepository.findByConversationAndIds(
+                conversation.get(), createdAtById.keySet()));
+    }
+
+    @Override
+    public void forEach(Consumer<StoredMessage> consumer) {
+        // 按（创建时间, ID）键集分页，每页一个事务，会话键按会话ID缓存
+        Map<Long, String> keys = new HashMap<>();
+        ScanPage page = new ScanPage(LocalDateTime.of(1970, 1, 1, 0, 0), "");
+        while (true) {
+            ScanPage previous = page;
+            page = transactionTemplate.execute(status -> {
+                List<Message> messages = messageRepository.findPageAfter(
+                        previous.lastCreatedAt, previous.lastId, PageRequest.of(0, SCAN_PAGE_SIZE));
+                if (messages.isEmpty()) {
+                    return null;
+                }
+                Message last = messages.get(messages.size() - 1);
+                prefetchParticipants(conversationRepository, messages);
+                ScanPage next = new ScanPage(last.getCreatedAt(), last.getId());
+                for (Message message : messages) {
+                    Conversation conversation = message.getConversation();
+                    String key = keys.computeIfAbsent(conversation.getId(), id -> keyOf(conversation));
+                    if (key != null) {
+                        next.messages.addAll(toStored(key, List.of(message)));
+                    }
+                }
+                return next;
+            });
+            if (page == null) {
+                return;
+            }
+            page.messages.forEach(consumer);
+        }
+    }
+
+    @Override
+    public long deleteConversation(String conversationKey) {
+        Optional<Conversation> conversation = resolve(conversationKey);
+        if (conversation.isEmpty()) {
+            return 0;
+        }
+        return purger.purgeConversation(conversation.get().getId());
+    }
+
+    @Override
+    public long deleteConversationBefore(String conversationKey, long cutoffMillis) {
+        Optional<Conversation> conversation = resolve(conversationKey);
+        if (conversation.isEmpty()) {
+            return 0;
+        }
+        return purger.purgeConversationBefore(conversation.get().getId(), toDateTime(cutoffMillis));
+    }
+
+    @Override
+    public long deleteBefore(long cutoffMillis) {
+        return purger.purgeBefore(toDateTime(cutoffMillis));
+    }
+
+    @Override
+    public boolean supportsReadStatus() {
+        return true;
+    }
+
+    /**
+     * 把会话实体转换为会话键
+     * @param conversation 会话
+     * @return 会话键，无法识别的私聊会话返回null
+     */
+    public static String keyOf(Conversation conversation) {
+        if (conversation.getType() == Conversation.ConversationType.GROUP) {
+            return ConversationHistory.GROUP_KEY;
+        }
+        List<String> usernames = new ArrayList<>(2);
+        for (User user : conversation.getParticipants()) {
+            usernames.add(user.getUsername());
+        }
+        return usernames.size() == 2 ? ConversationHistory.privateKey(usernames.get(0), usernames.get(1)) : null;
+    }
+
+    /**
+     * 批量加载一批消息所属私聊会话的参与者，之后的{@link #keyOf}不再逐个会话懒加载（在事务中调用）
+     * @param conversationRepository 会话数据访问层
+     * @param messages 消息（会话已随消息取出）
+     */
+    public static void prefetchParticipants(ConversationRepository conversationRepository, List<Message> messages) {
+        Set<Long> ids = new HashSet<>();
+        for (Message message : messages) {
+            Conversation conversation = message.getConversation();
+            if (conversation.getType() != Conversation.ConversationType.GROUP
+                    && !Hibernate.isInitialized(conversation.getParticipants())) {
+                ids.add(conversation.getId());
+            }
+        }
+        if (!ids.isEmpty()) {
+            conversationRepository.findWithParticipantsByIdIn(ids);
+        }
+    }
+
+    private Optional<Conversation> resolve(String conversationKey) {
+        String[] participants = ConversationHistory.participantsOf(conversationKey);
+        if (participants == null) {
+            return conversationRepository.findByTypeAndName(Conversation.ConversationType.GROUP, GROUP_NAME);
+        }
+        Optional<UserProfile> user1 = userCache.find(participants[0]);
+        Optional<UserProfile> user2 = userCache.find(participants[1]);
+        if (user1.isEmpty() || user2.isEmpty()) {
+            return Optional.empty();
+        }
+        long id1 = user1.get().getId();
+        long id2 = user2.get().getId();
+        return conversationRepository.findByUserLowIdAndUserHighId(Math.min(id1, id2), Math.max(id1, id2));
+    }
+
+    private static List<StoredMessage> toStored(String conversationKey, List<Message> messages) {
+        String[] participants = ConversationHistory.participantsOf(conversationKey);
+        List<StoredMessage> result = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            String sender = message.getSender().getUsername();
+            String recipient = null;
+            if (participants != null) {
+                recipient = participants[0].equals(sender) ? participants[1] : participants[0];
+            }
+            result.add(new StoredMessage(message.getId(), conversationKey, sender, recipient,
+                    message.getType(), message.getContent(), message.getMetadata(),
+                    message.getCreatedAt().atZone(ZONE).toInstant().toEpochMilli()));
+        }
+        return result;
+    }
+
+    private static String preview(String content) {
+        if (content == null || content.length() <= PREVIEW_LENGTH) {
+            return content;
+        }
+        int end = PREVIEW_LENGTH;
+        // 不截断代理对
+        if (Character.isHighSurrogate(content.charAt(end - 1))) {
+            end--;
+        }
+        return content.substring(0, end);
+    }
+
+    private static LocalDateTime toDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZONE);
+    }
+
+    /**
+     * 键集分页遍历的一页
+     */
+    private static final class ScanPage {
+        final LocalDateTime lastCreatedAt;
+        final String lastId;
+        final List<StoredMessage> messages = new ArrayList<>();
+
+        ScanPage(LocalDateTime lastCreatedAt, String lastId) {
+            this.lastCreatedAt = lastCreatedAt;
+            this.lastId = lastId;
+        }
+    }
+}
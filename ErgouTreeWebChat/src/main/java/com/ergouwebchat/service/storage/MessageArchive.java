@@ -0,0 +1,841 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.model.enums.MessageType;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 消息归档
+ * <p>从热表中移出的旧消息写入不可变的归档文件。每个文件包含若干会话块，每块是一个会话在该批次中的消息，
+ * 按列存放（时间增量、消息ID、发送者字典编号、类型、内容、元数据）后整体Deflate压缩，
+ * 文件尾部是会话键到块位置和时间范围的索引。启动时只读取各文件的尾部索引，
+ * 查询时按会话和时间范围定位需要解压的块</p>
+ * <p>删除会话时记录墓碑（会话键和删除时间），早于墓碑时间的归档消息不再返回；
+ * 保留期清理删除全部过期的文件，其余文件中的过期消息按时间水位过滤。
+ * 被过滤的消息由压缩从文件中真正移除：墓碑积累到阈值或定期清理时，重写含有不可见消息的文件
+ * （全部不可见时删除文件），再丢弃不再需要的墓碑并重写墓碑文件。
+ * 刚写入的墓碑保留一段时间，挡住删除前已读出、稍后才写入归档的批次</p>
+ * <p>查询在读锁下定位并读取块，替换和删除文件在写锁下进行，块位置不会指向已被替换的文件</p>
+ * <p>文件名由批次中最早的消息决定，重试同一批次时原子替换已有文件；
+ * 同一消息仍可能出现在两个文件中（上一批次只删除了一部分），查询和遍历按消息ID去重</p>
+ */
+public class MessageArchive implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(MessageArchive.class.getName());
+
+    private static final int MAGIC = 0x45474152; // "EGAR"
+    private static final int VERSION = 1;
+    private static final String FILE_PREFIX = "archive-";
+    private static final String FILE_SUFFIX = ".arc";
+    private static final String TOMBSTONE_FILE = "tombstones";
+
+    // 自上次压缩以来新增的墓碑数达到该值时立即压缩
+    private static final int COMPACT_AFTER_TOMBSTONES = 16;
+
+    // 本进程写入的墓碑至少保留的时间，覆盖归档批次从读出到写入的间隔
+    private static final long TOMBSTONE_GRACE_MILLIS = 10L * 60 * 1000;
+
+    private final Path directory;
+
+    // 会话键到其归档块的索引，按块的最早时间排序
+    private final Map<String, List<BlockRef>> catalog = new ConcurrentHashMap<>();
+
+    // 已加载的归档文件（用于保留期清理）
+    private final Map<Path, ArchiveFile> files = new ConcurrentHashMap<>();
+
+    // 会话键到删除时间的墓碑
+    private final Map<String, Long> tombstones = new ConcurrentHashMap<>();
+
+    // 本进程写入墓碑的时间（会话键到epoch毫秒），受this保护
+    private final Map<String, Long> tombstoneWrittenAt = new LinkedHashMap<>();
+
+    // 自上次压缩以来新增的墓碑数，受this保护
+    private int pendingTombstones;
+
+    // 读取块与替换文件互斥
+    private final ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock();
+
+    // 保留期水位
+    private volatile long retentionCutoff;
+
+    /**
+     * 构造方法，加载归档目录中全部文件的索引
+     * @param directory 归档目录
+     */
+    public MessageArchive(String directory) {
+        this.directory = Paths.get(directory);
+        try {
+            Files.createDirectories(this.directory);
+            loadTombstones();
+            // 上次运行留下的墓碑可能还没有压缩
+            pendingTombstones = tombstones.size();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+                for (Path path : stream) {
+                    try {
+                        loadFooter(path);
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "忽略无法读取的归档文件 " + path + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("打开消息归档失败: " + e.getMessage(), e);
+        }
+        if (!files.isEmpty()) {
+            LOGGER.info("已加载 " + files.size() + " 个归档文件，涉及 " + catalog.size() + " 个会话");
+        }
+    }
+
+    /**
+     * 写入一批归档消息（同一批次写成一个文件，先写临时文件再原子替换）
+     * @param messages 待归档的消息
+     * @return 写入的消息数
+     */
+    public synchronized int write(Collection<StoredMessage> messages) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        writeFile(directory.resolve(fileNameOf(messages)), messages);
+        return messages.size();
+    }
+
+    /**
+     * 压缩归档：重写含有不可见消息（已删除或已过期）的文件，只保留仍可见的消息，
+     * 之后丢弃不再需要的墓碑并重写墓碑文件
+     * @return 重写或删除的文件数
+     */
+    public synchronized int compact() {
+        int compacted = 0;
+        boolean complete = true;
+        for (ArchiveFile file : new ArrayList<>(files.values())) {
+            try {
+                if (compactFile(file)) {
+                    compacted++;
+                }
+            } catch (RuntimeException e) {
+                complete = false;
+                LOGGER.log(Level.WARNING, "压缩归档文件失败 " + file.path + ": " + e.getMessage(), e);
+            }
+        }
+        // 有文件没压缩成功时保留墓碑，下次再试
+        if (complete) {
+            pendingTombstones = 0;
+            pruneTombstones();
+        }
+        if (compacted > 0) {
+            LOGGER.info("已压缩 " + compacted + " 个归档文件");
+        }
+        return compacted;
+    }
+
+    /**
+     * 有未压缩的墓碑时压缩归档（由定期清理调用）
+     * @return 重写或删除的文件数
+     */
+    public synchronized int compactIfNeeded() {
+        return pendingTombstones > 0 ? compact() : 0;
+    }
+
+    /**
+     * 获取墓碑数
+     * @return 墓碑数
+     */
+    public int getTombstoneCount() {
+        return tombstones.size();
+    }
+
+    private void writeFile(Path path, Collection<StoredMessage> messages) {
+        Map<String, List<StoredMessage>> byConversation = new LinkedHashMap<>();
+        for (StoredMessage message : messages) {
+            byConversation.computeIfAbsent(message.getConversationKey(), k -> new ArrayList<>()).add(message);
+        }
+
+        Path tempFile = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            List<BlockRef> refs = new ArrayList<>(byConversation.size());
+            try (OutputStream file = Files.newOutputStream(tempFile);
+                 DataOutputStream out = new DataOutputStream(file)) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                long offset = 8;
+                for (Map.Entry<String, List<StoredMessage>> entry : byConversation.entrySet()) {
+                    List<StoredMessage> block = entry.getValue();
+                    block.sort(Comparator.comparingLong(StoredMessage::getCreatedAt));
+                    byte[] compressed = deflate(encodeBlock(block));
+                    out.write(compressed);
+                    refs.add(new BlockRef(path, entry.getKey(), offset, compressed.length, block.size(),
+                            block.get(0).getCreatedAt(), block.get(block.size() - 1).getCreatedAt()));
+                    offset += compressed.length;
+                }
+
+                long footerOffset = offset;
+                out.writeInt(refs.size());
+                for (BlockRef ref : refs) {
+                    StoredMessageCodec.writeString(out, ref.conversationKey);
+                    out.writeLong(ref.offset);
+                    out.writeInt(ref.length);
+                    out.writeInt(ref.count);
+                    out.writeLong(ref.minTime);
+                    out.writeLong(ref.maxTime);
+                }
+                out.writeLong(footerOffset);
+                out.writeInt(MAGIC);
+                out.flush();
+            }
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            fileLock.writeLock().lock();
+            try {
+                Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                ArchiveFile replaced = files.remove(path);
+                if (replaced != null) {
+                    unregister(replaced);
+                }
+                register(path, refs);
+            } finally {
+                fileLock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(tempFile);
+            } catch (IOException ignored) {
+                // 临时文件留待下次清理
+            }
+            throw new RuntimeException("写入归档文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 查询会话在指定时间之前（包含）的最近归档消息
+     * @param conversationKey 会话键
+     * @param limit 消息数量限制
+     * @param beforeMillis 时间上限（包含，epoch毫秒）
+     * @return 按时间倒序的消息列表
+     */
+    public List<StoredMessage> findRecent(String conversationKey, int limit, long beforeMillis) {
+        fileLock.readLock().lock();
+        try {
+            return findRecentLocked(conversationKey, limit, beforeMillis);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    private List<StoredMessage> findRecentLocked(String conversationKey, int limit, long beforeMillis) {
+        List<BlockRef> blocks = catalog.get(conversationKey);
+        if (blocks == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        long floor = floorOf(conversationKey);
+        List<BlockRef> candidates = new ArrayList<>();
+        for (BlockRef block : blocks) {
+            if (block.minTime <= beforeMillis && block.maxTime >= floor) {
+                candidates.add(block);
+            }
+        }
+        candidates.sort(Comparator.comparingLong((BlockRef b) -> b.maxTime).reversed());
+
+        List<StoredMessage> result = new ArrayList<>(Math.min(limit, 64));
+        Set<String> seen = new HashSet<>();
+        for (BlockRef block : candidates) {
+            List<StoredMessage> messages = readBlock(block);
+            for (int i = messages.size() - 1; i >= 0 && result.size() < limit; i--) {
+                StoredMessage message = messages.get(i);
+                if (message.getCreatedAt() <= beforeMillis && message.getCreatedAt() >= floor
+                        && seen.add(message.getMessageId())) {
+                    result.add(message);
+                }
+            }
+            if (result.size() >= limit) {
+                break;
+            }
+        }
+        result.sort(Comparator.comparingLong(StoredMessage::getCreatedAt).reversed());
+        return result;
+    }
+
+    /**
+     * 查询会话在时间段内的归档消息
+     * @param conversationKey 会话键
+     * @param fromMillis 开始时间（包含）
+     * @param toMillis 结束时间（包含）
+     * @param limit 消息数量限制
+     * @return 按时间正序的消息列表，超出限制时保留最早的部分
+     */
+    public List<StoredMessage> findRange(String conversationKey, long fromMillis, long toMillis, int limit) {
+        fileLock.readLock().lock();
+        try {
+            return findRangeLocked(conversationKey, fromMillis, toMillis, limit);
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    private List<StoredMessage> findRangeLocked(String conversationKey, long fromMillis, long toMillis, int limit) {
+        List<BlockRef> blocks = catalog.get(conversationKey);
+        if (blocks == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        long from = Math.max(fromMillis, floorOf(conversationKey));
+        List<StoredMessage> result = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (BlockRef block : blocks) {
+            if (block.maxTime < from || block.minTime > toMillis) {
+                continue;
+            }
+            for (StoredMessage message : readBlock(block)) {
+                if (message.getCreatedAt() >= from && message.getCreatedAt() <= toMillis
+                        && seen.add(message.getMessageId())) {
+                    result.add(message);
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(StoredMessage::getCreatedAt));
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * 遍历全部归档消息（同一会话内按时间正序）
+     * @param consumer 消息处理器
+     */
+    public void forEach(Consumer<StoredMessage> consumer) {
+        fileLock.readLock().lock();
+        try {
+            for (Map.Entry<String, List<BlockRef>> entry : catalog.entrySet()) {
+                long floor = floorOf(entry.getKey());
+                Set<String> seen = new HashSet<>();
+                for (BlockRef block : entry.getValue()) {
+                    if (block.maxTime < floor) {
+                        continue;
+                    }
+                    for (StoredMessage message : readBlock(block)) {
+                        if (message.getCreatedAt() >= floor && seen.add(message.getMessageId())) {
+                            consumer.accept(message);
+                        }
+                    }
+                }
+            }
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 判断会话是否有归档消息
+     * @param conversationKey 会话键
+     * @return 有归档返回true
+     */
+    public boolean contains(String conversationKey) {
+        return catalog.containsKey(conversationKey);
+    }
+
+    /**
+     * 删除会话的全部归档消息（记录墓碑）
+     * @param conversationKey 会话键
+     * @return 删除的消息数
+     */
+    public synchronized long deleteConversation(String conversationKey) {
+        List<BlockRef> blocks = catalog.remove(conversationKey);
+        if (blocks == null) {
+            return 0;
+        }
+        writeTombstone(conversationKey, System.currentTimeMillis());
+        long count = 0;
+        for (BlockRef block : blocks) {
+            count += block.count;
+        }
+        compactIfManyTombstones();
+        return count;
+    }
+
+    /**
+     * 删除会话中早于指定时间的归档消息（记录墓碑作为该会话的时间下限）
+     * @param conversationKey 会话键
+     * @param cutoffMillis 截止时间
+     * @return 随整块删除的消息数
+     */
+    public synchronized long deleteConversationBefore(String conversationKey, long cutoffMillis) {
+        List<BlockRef> blocks = catalog.get(conversationKey);
+        if (blocks == null || cutoffMillis <= floorOf(conversationKey)) {
+            return 0;
+        }
+        writeTombstone(conversationKey, cutoffMillis - 1);
+        long removed = 0;
+        for (BlockRef block : blocks) {
+            if (block.maxTime < cutoffMillis) {
+                blocks.remove(block);
+                removed += block.count;
+            }
+        }
+        if (blocks.isEmpty()) {
+            catalog.remove(conversationKey, blocks);
+        }
+        compactIfManyTombstones();
+        return removed;
+    }
+
+    /**
+     * 删除早于指定时间的归档消息
+     * @param cutoffMillis 截止时间
+     * @return 随整个文件删除的消息数
+     */
+    public synchronized long deleteBefore(long cutoffMillis) {
+        if (cutoffMillis > retentionCutoff) {
+            retentionCutoff = cutoffMillis;
+        }
+        long removed = 0;
+        for (ArchiveFile file : new ArrayList<>(files.values())) {
+            if (file.maxTime >= cutoffMillis) {
+                continue;
+            }
+            for (BlockRef block : file.blocks) {
+                removed += block.count;
+            }
+            deleteFile(file);
+        }
+        return removed;
+    }
+
+    /**
+     * 获取归档文件数
+     * @return 文件数
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    @Override
+    public void close() {
+        // 归档文件只在读取时短暂打开，没有需要释放的资源
+    }
+
+    private void compactIfManyTombstones() {
+        if (pendingTombstones >= COMPACT_AFTER_TOMBSTONES) {
+            compact();
+        }
+    }
+
+    /**
+     * 重写含有不可见消息的文件，调用方需持有this
+     * @return 重写或删除了文件返回true
+     */
+    private boolean compactFile(ArchiveFile file) {
+        boolean hasHidden = false;
+        for (BlockRef block : file.blocks) {
+            if (block.minTime < floorOf(block.conversationKey)) {
+                hasHidden = true;
+                break;
+            }
+        }
+        if (!hasHidden) {
+            return false;
+        }
+        List<StoredMessage> visible = new ArrayList<>();
+        for (BlockRef block : file.blocks) {
+            long floor = floorOf(block.conversationKey);
+            if (block.maxTime < floor) {
+                continue;
+            }
+            for (StoredMessage message : readBlock(block)) {
+                if (message.getCreatedAt() >= floor) {
+                    visible.add(message);
+                }
+            }
+        }
+        if (visible.isEmpty()) {
+            deleteFile(file);
+        } else {
+            writeFile(file.path, visible);
+        }
+        return true;
+    }
+
+    private void deleteFile(ArchiveFile file) {
+        fileLock.writeLock().lock();
+        try {
+            unregister(file);
+            files.remove(file.path);
+            Files.deleteIfExists(file.path);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "删除归档文件失败: " + file.path, e);
+        } finally {
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 丢弃压缩后不再需要的墓碑（本进程刚写入的除外）并重写墓碑文件，调用方需持有this
+     */
+    private void pruneTombstones() {
+        long now = System.currentTimeMillis();
+        tombstoneWrittenAt.values().removeIf(writtenAt -> now - writtenAt > TOMBSTONE_GRACE_MILLIS);
+        if (!tombstones.keySet().retainAll(tombstoneWrittenAt.keySet())) {
+            return;
+        }
+        Path path = directory.resolve(TOMBSTONE_FILE);
+        Path tempFile = path.resolveSibling(TOMBSTONE_FILE + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, Long> entry : tombstones.entrySet()) {
+                    writer.write(entry.getValue() + "\t" + entry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // 墓碑文件只会多不会少，下次压缩再重写
+            LOGGER.log(Level.WARNING, "重写归档墓碑文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    private void writeTombstone(String conversationKey, long deletedAt) {
+        tombstones.merge(conversationKey, deletedAt, Math::max);
+        tombstoneWrittenAt.put(conversationKey, System.currentTimeMillis());
+        pendingTombstones++;
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(TOMBSTONE_FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            writer.write(deletedAt + "\t" + conversationKey);
+            writer.newLine();
+        } catch (IOException e) {
+            throw new RuntimeException("写入归档墓碑失败: " + e.getMessage(), e);
+        }
+    }
+
+    private long floorOf(String conversationKey) {
+        Long deletedAt = tombstones.get(conversationKey);
+        return deletedAt != null ? Math.max(deletedAt + 1, retentionCutoff) : retentionCutoff;
+    }
+
+    /**
+     * 由批次中最早的消息（时间、消息ID）生成文件名，同一批次重试时得到相同的文件名
+     */
+    private static String fileNameOf(Collection<StoredMessage> messages) {
+        StoredMessage first = null;
+        for (StoredMessage message : messages) {
+            if (first == null || message.getCreatedAt() < first.getCreatedAt()
+                    || (message.getCreatedAt() == first.getCreatedAt()
+                    && message.getMessageId().compareTo(first.getMessageId()) < 0)) {
+                first = message;
+            }
+        }
+        try {
+            // 消息ID不一定适合作为文件名，取其摘要
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(first.getMessageId().getBytes(StandardCharsets.UTF_8));
+            return FILE_PREFIX + first.getCreatedAt() + "-" + HexFormat.of().formatHex(digest, 0, 16) + FILE_SUFFIX;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 从目录中移除被替换文件的块
+     */
+    private void unregister(ArchiveFile file) {
+        for (BlockRef block : file.blocks) {
+            List<BlockRef> blocks = catalog.get(block.conversationKey);
+            if (blocks != null) {
+                blocks.remove(block);
+                if (blocks.isEmpty()) {
+                    catalog.remove(block.conversationKey, blocks);
+                }
+            }
+        }
+    }
+
+    private void register(Path path, List<BlockRef> refs) {
+        long maxTime = Long.MIN_VALUE;
+        for (BlockRef ref : refs) {
+            Long deletedAt = tombstones.get(ref.conversationKey);
+            maxTime = Math.max(maxTime, ref.maxTime);
+            if (deletedAt != null && ref.maxTime <= deletedAt) {
+                continue;
+            }
+            List<BlockRef> blocks = catalog.computeIfAbsent(ref.conversationKey, k -> new CopyOnWriteArrayList<>());
+            blocks.add(ref);
+            blocks.sort(Comparator.comparingLong(b -> b.minTime));
+        }
+        files.put(path, new ArchiveFile(path, refs, maxTime));
+    }
+
+    private void loadFooter(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer tail = ByteBuffer.allocate(12);
+            readFully(channel, tail, size - 12);
+            long footerOffset = tail.getLong(0);
+            if (tail.getInt(8) != MAGIC) {
+                throw new IOException("不是有效的归档文件");
+            }
+            ByteBuffer footer = ByteBuffer.allocate((int) (size - 12 - footerOffset));
+            readFully(channel, footer, footerOffset);
+            footer.flip();
+            int count = footer.getInt();
+            List<BlockRef> refs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String key = StoredMessageCodec.readString(footer);
+                refs.add(new BlockRef(path, key, footer.getLong(), footer.getInt(), footer.getInt(),
+                        footer.getLong(), footer.getLong()));
+            }
+            register(path, refs);
+        }
+    }
+
+    private void loadTombstones() throws IOException {
+        Path path = directory.resolve(TOMBSTONE_FILE);
+        if (!Files.isRegularFile(path)) {
+            return;
+        }
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            int tab = line.indexOf('\t');
+            if (tab > 0) {
+                tombstones.merge(line.substring(tab + 1), Long.parseLong(line.substring(0, tab)), Math::max);
+            }
+        }
+    }
+
+    private List<StoredMessage> readBlock(BlockRef block) {
+        try (FileChannel channel = FileChannel.open(block.path, StandardOpenOption.READ)) {
+            ByteBuffer compressed = ByteBuffer.allocate(block.length);
+            readFully(channel, compressed, block.offset);
+            return decodeBlock(block.conversationKey, inflate(compressed.array()));
+        } catch (IOException | DataFormatException e) {
+            throw new RuntimeException("读取归档文件失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按列编码一个会话块（消息已按时间排序）
+     */
+    private static byte[] encodeBlock(List<StoredMessage> messages) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(messages.size());
+
+        // 时间：首条绝对值，其余为与前一条的增量
+        long previous = messages.get(0).getCreatedAt();
+        out.writeLong(previous);
+        for (int i = 1; i < messages.size(); i++) {
+            long createdAt = messages.get(i).getCreatedAt();
+            writeVarLong(out, createdAt - previous);
+            previous = createdAt;
+        }
+
+        for (StoredMessage message : messages) {
+            StoredMessageCodec.writeString(out, message.getMessageId());
+        }
+
+        // 发送者和接收者共用一个用户名字典
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (StoredMessage message : messages) {
+            dictionary.putIfAbsent(message.getSender(), dictionary.size());
+            if (message.getRecipient() != null) {
+                dictionary.putIfAbsent(message.getRecipient(), dictionary.size());
+            }
+        }
+        out.writeInt(dictionary.size());
+        for (String name : dictionary.keySet()) {
+            StoredMessageCodec.writeString(out, name);
+        }
+        for (StoredMessage message : messages) {
+            writeVarLong(out, dictionary.get(message.getSender()));
+            writeVarLong(out, message.getRecipient() != null ? dictionary.get(message.getRecipient()) + 1 : 0);
+        }
+
+        for (StoredMessage message : messages) {
+            out.writeByte(message.getType().ordinal());
+        }
+        for (StoredMessage message : messages) {
+            StoredMessageCodec.writeString(out, message.getContent());
+        }
+        for (StoredMessage message : messages) {
+            StoredMessageCodec.writeString(out, message.getMetadata());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<StoredMessage> decodeBlock(String conversationKey, byte[] data) {
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int count = in.getInt();
+
+        long[] createdAt = new long[count];
+        createdAt[0] = in.getLong();
+        for (int i = 1; i < count; i++) {
+            createdAt[i] = createdAt[i - 1] + readVarLong(in);
+        }
+
+        String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = StoredMessageCodec.readString(in);
+        }
+
+        String[] dictionary = new String[in.getInt()];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = StoredMessageCodec.readString(in);
+        }
+        String[] senders = new String[count];
+        String[] recipients = new String[count];
+        for (int i = 0; i < count; i++) {
+            senders[i] = dictionary[(int) readVarLong(in)];
+            int recipient = (int) readVarLong(in);
+            recipients[i] = recipient > 0 ? dictionary[recipient - 1] : null;
+        }
+
+        MessageType[] allTypes = MessageType.values();
+        MessageType[] types = new MessageType[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = allTypes[in.get() & 0xFF];
+        }
+        String[] contents = new String[count];
+        for (int i = 0; i < count; i++) {
+            contents[i] = StoredMessageCodec.readString(in);
+        }
+
+        List<StoredMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String metadata = StoredMessageCodec.readString(in);
+            messages.add(new StoredMessage(ids[i], conversationKey, senders[i], recipients[i],
+                    types[i], contents[i], metadata, createdAt[i]));
+        }
+        return messages;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 4));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new DataFormatException("归档块不完整");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        // ZigZag编码，时钟回拨产生的负增量同样紧凑
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("归档文件不完整");
+            }
+        }
+    }
+
+    /**
+     * 归档块的位置与时间范围
+     */
+    private static final class BlockRef {
+        final Path path;
+        final String conversationKey;
+        final long offset;
+        final int length;
+        final int count;
+        final long minTime;
+        final long maxTime;
+
+        BlockRef(Path path, String conversationKey, long offset, int length, int count, long minTime, long maxTime) {
+            this.path = path;
+            this.conversationKey = conversationKey;
+            this.offset = offset;
+            this.length = length;
+            this.count = count;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+        }
+    }
+
+    /**
+     * 归档文件及其包含的块
+     */
+    private static final class ArchiveFile {
+        final Path path;
+        final List<BlockRef> blocks;
+        final long maxTime;
+
+        ArchiveFile(Path path, List<BlockRef> blocks, long maxTime) {
+            this.path = path;
+            this.blocks = blocks;
+            this.maxTime = maxTime;
+        }
+    }
+}
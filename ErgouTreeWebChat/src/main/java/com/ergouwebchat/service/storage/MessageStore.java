@@ -0,0 +1,86 @@
+package com.ergouwebchat.service.storage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 消息存储（SPI）
+ * <p>{@link com.ergouwebchat.service.DbMessageService}之下的持久化后端，
+ * 通过chat.storage.backend选择：jpa（默认，写入关系数据库）或log（本地分段追加日志）</p>
+ */
+public interface MessageStore {
+
+    /**
+     * 追加一条消息
+     * @param message 消息
+     */
+    void append(StoredMessage message);
+
+    /**
+     * 追加一条可能已经写入过的消息，已存在相同消息ID时忽略（用于重放）
+     * @param message 消息
+     * @return 实际写入返回true
+     */
+    boolean appendIfAbsent(StoredMessage message);
+
+    /**
+     * 查询会话的最近消息
+     * @param conversationKey 会话键
+     * @param limit 消息数量限制
+     * @return 按时间倒序的消息列表
+     */
+    List<StoredMessage> findRecent(String conversationKey, int limit);
+
+    /**
+     * 查询会话在时间段内的消息
+     * @param conversationKey 会话键
+     * @param fromMillis 开始时间（包含，epoch毫秒）
+     * @param toMillis 结束时间（包含，epoch毫秒）
+     * @param limit 消息数量限制
+     * @return 按时间正序的消息列表，超出限制时保留最早的部分
+     */
+    List<StoredMessage> findRange(String conversationKey, long fromMillis, long toMillis, int limit);
+
+    /**
+     * 按消息ID批量查询会话中的消息（一次往返）
+     * @param conversationKey 会话键
+     * @param createdAtById 消息ID到创建时间（epoch毫秒），供不能按ID直接查找的后端定位
+     * @return 找到的消息，不保证顺序，不存在的消息ID忽略
+     */
+    List<StoredMessage> findByIds(String conversationKey, Map<String, Long> createdAtById);
+
+    /**
+     * 遍历全部消息（用于重建索引等离线任务，同一会话内按时间正序）
+     * @param consumer 消息处理器
+     */
+    void forEach(Consumer<StoredMessage> consumer);
+
+    /**
+     * 删除会话的所有消息
+     * @param conversationKey 会话键
+     * @return 删除的消息数
+     */
+    long deleteConversation(String conversationKey);
+
+    /**
+     * 删除会话中早于指定时间的消息（按会话的保留策略清理）
+     * @param conversationKey 会话键
+     * @param cutoffMillis 截止时间（epoch毫秒）
+     * @return 删除的消息数
+     */
+    long deleteConversationBefore(String conversationKey, long cutoffMillis);
+
+    /**
+     * 删除早于指定时间的消息（保留期清理）
+     * @param cutoffMillis 截止时间（epoch毫秒）
+     * @return 删除的消息数
+     */
+    long deleteBefore(long cutoffMillis);
+
+    /**
+     * 是否支持按用户记录已读状态
+     * @return 支持返回true
+     */
+    boolean supportsReadStatus();
+}
@@ -0,0 +1,260 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.util.CircuitBreaker;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 带熔断和溢出日志的消息存储
+ * <p>包装实际的存储后端：写入失败或过慢时熔断器断开，此后的消息直接写入本地溢出日志，
+ * 不再等待数据库。后台线程在熔断器放行时按顺序重放溢出日志，重放按消息ID去重；
+ * 积压未清空前新消息同样进入溢出日志，保证写入顺序。只有判定为存储不可用的异常才会熔断和溢出，
+ * 数据本身的错误（例如发送者不存在）照常抛给调用方</p>
+ * <p>查询同样经过熔断器：断开期间或存储不可用时返回空结果，不再让每次加入和翻页都等待数据库超时。
+ * 每次放行的调用无论以何种方式结束都会向熔断器报告结果，半开状态的试探名额不会因意外异常而泄漏</p>
+ */
+public class ResilientMessageStore implements MessageStore, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ResilientMessageStore.class.getName());
+
+    private final MessageStore delegate;
+    private final CircuitBreaker breaker;
+    private final SpillJournal journal;
+    private final Predicate<RuntimeException> unavailable;
+    private final int replayBatchSize;
+    private final ScheduledExecutorService replayer;
+
+    /**
+     * 构造方法
+     * @param delegate 实际的存储后端
+     * @param breaker 熔断器
+     * @param journal 溢出日志
+     * @param unavailable 判断异常是否表示存储不可用
+     * @param replayIntervalMillis 重放检查间隔
+     * @param replayBatchSize 每批重放的消息数
+     */
+    public ResilientMessageStore(MessageStore delegate, CircuitBreaker breaker, SpillJournal journal,
+                                 Predicate<RuntimeException> unavailable,
+                                 long replayIntervalMillis, int replayBatchSize) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+        this.journal = journal;
+        this.unavailable = unavailable;
+        this.replayBatchSize = Math.max(1, replayBatchSize);
+        this.replayer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "spill-journal-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayer.scheduleWithFixedDelay(this::replay, replayIntervalMillis, replayIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void append(StoredMessage message) {
+        // 积压未清空时排在积压之后
+        if (journal.appendIfPending(message)) {
+            return;
+        }
+        call(() -> {
+            delegate.append(message);
+            return Boolean.TRUE;
+        }, () -> {
+            journal.append(message);
+            return Boolean.TRUE;
+        }, "消息已写入溢出日志");
+    }
+
+    @Override
+    public boolean appendIfAbsent(StoredMessage message) {
+        if (journal.appendIfPending(message)) {
+            return true;
+        }
+        // 溢出日志重放时按消息ID去重，写入溢出日志等同于不存在时写入
+        return call(() -> delegate.appendIfAbsent(message), () -> {
+            journal.append(message);
+            return Boolean.TRUE;
+        }, "消息已写入溢出日志");
+    }
+
+    @Override
+    public List<StoredMessage> findRecent(String conversationKey, int limit) {
+        return call(() -> delegate.findRecent(conversationKey, limit), Collections::emptyList, "返回空的历史消息");
+    }
+
+    @Override
+    public List<StoredMessage> findRange(String conversationKey, long fromMillis, long toMillis, int limit) {
+        return call(() -> delegate.findRange(conversationKey, fromMillis, toMillis, limit),
+                Collections::emptyList, "返回空的历史消息");
+    }
+
+    @Override
+    public List<StoredMessage> findByIds(String conversationKey, Map<String, Long> createdAtById) {
+        return call(() -> delegate.findByIds(conversationKey, createdAtById),
+                Collections::emptyList, "返回空的查询结果");
+    }
+
+    @Override
+    public void forEach(Consumer<StoredMessage> consumer) {
+        delegate.forEach(consumer);
+    }
+
+    @Override
+    public long deleteConversation(String conversationKey) {
+        return delegate.deleteConversation(conversationKey);
+    }
+
+    @Override
+    public long deleteConversationBefore(String conversationKey, long cutoffMillis) {
+        return delegate.deleteConversationBefore(conversationKey, cutoffMillis);
+    }
+
+    @Override
+    public long deleteBefore(long cutoffMillis) {
+        return delegate.deleteBefore(cutoffMillis);
+    }
+
+    @Override
+    public boolean supportsReadStatus() {
+        return delegate.supportsReadStatus();
+    }
+
+    /**
+     * 获取熔断器状态
+     * @return 状态
+     */
+    public CircuitBreaker.State getBreakerState() {
+        return breaker.getState();
+    }
+
+    /**
+     * 获取溢出日志中待重放的消息数
+     * @return 消息数
+     */
+    public long getSpilledCount() {
+        return journal.getPending();
+    }
+
+    /**
+     * 获取熔断器累计断开次数
+     * @return 断开次数
+     */
+    public long getTripCount() {
+        return breaker.getTripCount();
+    }
+
+    /**
+     * 获取熔断和溢出统计
+     * @return 熔断器状态、累计断开次数和待重放的消息数
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("breakerState", getBreakerState().name());
+        stats.put("tripCount", getTripCount());
+        stats.put("spilled", getSpilledCount());
+        return stats;
+    }
+
+    /**
+     * 停止重放并关闭溢出日志（未重放的消息留待下次启动）
+     */
+    @Override
+    public void close() {
+        replayer.shutdownNow();
+        journal.close();
+    }
+
+    /**
+     * 按顺序重放溢出日志，遇到存储不可用时停止并等待下一轮
+     */
+    private void replay() {
+        try {
+            while (journal.hasPending() && breaker.allowRequest()) {
+                List<SpillJournal.Entry> batch = journal.peek(replayBatchSize);
+                long offset = -1;
+                int replayed = 0;
+                for (SpillJournal.Entry entry : batch) {
+                    long start = System.nanoTime();
+                    boolean reported = false;
+                    try {
+                        delegate.appendIfAbsent(entry.getMessage());
+                        reported = true;
+                        breaker.onSuccess(elapsedMillis(start));
+                    } catch (RuntimeException e) {
+                        reported = true;
+                        if (unavailable.test(e)) {
+                            breaker.onFailure();
+                            journal.advance(offset, replayed);
+                            return;
+                        }
+                        breaker.onSuccess(elapsedMillis(start));
+                        LOGGER.warning("丢弃无法重放的消息 " + entry.getMessage().getMessageId() + ": " + e.getMessage());
+                    } finally {
+                        if (!reported) {
+                            breaker.onFailure();
+                        }
+                    }
+                    offset = entry.getEndOffset();
+                    replayed++;
+                }
+                journal.advance(offset, replayed);
+                if (!journal.hasPending()) {
+                    LOGGER.info("溢出日志已全部重放");
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "重放溢出日志失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 经熔断器调用存储后端
+     * <p>熔断器断开或存储不可用时执行降级操作；数据错误照常抛出并按成功计（存储本身可用）；
+     * 其他异常（包括Error）按失败计后抛出</p>
+     * @param operation 存储操作
+     * @param fallback 降级操作
+     * @param fallbackDescription 降级时的日志说明
+     * @return 操作结果
+     */
+    private <T> T call(Supplier<T> operation, Supplier<T> fallback, String fallbackDescription) {
+        if (!breaker.allowRequest()) {
+            return fallback.get();
+        }
+        long start = System.nanoTime();
+        boolean reported = false;
+        try {
+            T result = operation.get();
+            reported = true;
+            breaker.onSuccess(elapsedMillis(start));
+            return result;
+        } catch (RuntimeException e) {
+            reported = true;
+            if (!unavailable.test(e)) {
+                breaker.onSuccess(elapsedMillis(start));
+                throw e;
+            }
+            breaker.onFailure();
+            LOGGER.warning("消息存储不可用，" + fallbackDescription + ": " + e.getMessage());
+            return fallback.get();
+        } finally {
+            if (!reported) {
+                // 试探调用必须结束，否则熔断器一直停在半开状态
+                breaker.onFailure();
+            }
+        }
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
@@ -0,0 +1,745 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.model.enums.MessageType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 本地分段追加日志消息存储
+ * <p>消息按到达顺序追加到固定大小上限的段文件中，不经过外部数据库。每条记录带有同一会话上一条记录的位置，
+ * 形成会话内的反向链；内存中为每个会话保存链头和稀疏时间索引（每隔若干条记录一项），
+ * 最近消息沿链回溯，时间段查询先二分稀疏索引定位再回溯。已封存的段以只读内存映射读取，
+ * 活动段按位置读取。保留期清理按整段删除，段内更早的记录由时间水位过滤；
+ * 单个会话的保留策略写入一条截断记录，作为该会话的时间下限；全局保留期水位同样写入一条水位记录。
+ * 删除段后把仍然生效的水位和截断记录重新写入活动段，它们不会随所在的段一起被删除</p>
+ * <p>记录格式：[int 长度][int CRC32][byte 类型][long 上一条位置][long 时间][会话键][消息字段]，
+ * 位置编码为（段号 &lt;&lt; 32 | 段内偏移）。启动时顺序扫描全部段重建索引，并截断活动段末尾不完整的记录</p>
+ */
+public class SegmentedLogMessageStore implements MessageStore, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(SegmentedLogMessageStore.class.getName());
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 8;
+    private static final byte KIND_MESSAGE = 1;
+    private static final byte KIND_DELETE = 2;
+    private static final byte KIND_TRUNCATE = 3;
+    private static final byte KIND_CUTOFF = 4;
+    // 水位记录不属于任何会话
+    private static final String NO_CONVERSATION = "";
+    // 记录体中上一条位置字段的偏移（紧跟类型字节）
+    private static final int PREV_OFFSET = 1;
+    private static final long NO_POINTER = -1L;
+    // 按消息ID去重时沿会话链回溯检查的记录数
+    private static final int DEDUP_WINDOW = 256;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final int indexInterval;
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<String, ConversationIndex> conversations = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService flusher;
+    private final CRC32 crc = new CRC32();
+
+    // 当前追加的段，受this保护
+    private Segment active;
+
+    // 自上次刷盘以来是否有新写入
+    private volatile boolean dirty;
+
+    // 保留期水位，早于此时间的记录不再返回
+    private volatile long retentionCutoff;
+
+    /**
+     * 构造方法，打开（或创建）日志目录并恢复索引
+     * @param directory 日志目录
+     * @param segmentBytes 单个段文件的大小上限
+     * @param indexInterval 稀疏索引间隔（每个会话每隔多少条记录建一项）
+     * @param flushIntervalMillis 刷盘间隔
+     */
+    public SegmentedLogMessageStore(String directory, long segmentBytes, int indexInterval, long flushIntervalMillis) {
+        if (segmentBytes <= HEADER_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("段文件大小必须在 " + HEADER_BYTES + " 与 " + Integer.MAX_VALUE + " 之间");
+        }
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentBytes;
+        this.indexInterval = Math.max(1, indexInterval);
+
+        try {
+            Files.createDirectories(this.directory);
+            recover();
+        } catch (IOException e) {
+            throw new RuntimeException("打开消息日志失败: " + e.getMessage(), e);
+        }
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "message-log-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void append(StoredMessage message) {
+        ByteBuffer record = encode(KIND_MESSAGE, message.getCreatedAt(), message.getConversationKey(), message);
+        synchronized (this) {
+            ConversationIndex index = conversations.computeIfAbsent(message.getConversationKey(), k -> new ConversationIndex());
+            record.putLong(HEADER_BYTES + PREV_OFFSET, index.head());
+            long pointer = write(record, message.getCreatedAt(), true);
+            index.add(pointer, message.getCreatedAt(), indexInterval);
+        }
+    }
+
+    @Override
+    public boolean appendIfAbsent(StoredMessage message) {
+        synchronized (this) {
+            ConversationIndex index = conversations.get(message.getConversationKey());
+            if (index != null) {
+                long pointer = index.head();
+                for (int i = 0; i < DEDUP_WINDOW && pointer != NO_POINTER; i++) {
+                    Record record = read(pointer);
+                    if (record == null) {
+                        break;
+                    }
+                    if (record.message.getMessageId().equals(message.getMessageId())) {
+                        return false;
+                    }
+                    pointer = record.prev;
+                }
+            }
+            append(message);
+            return true;
+        }
+    }
+
+    @Override
+    public List<StoredMessage> findRecent(String conversationKey, int limit) {
+        ConversationIndex index = conversations.get(conversationKey);
+        if (index == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        long cutoff = Math.max(retentionCutoff, index.floor());
+        List<StoredMessage> result = new ArrayList<>(Math.min(limit, 64));
+        long pointer = index.head();
+        while (pointer != NO_POINTER && result.size() < limit) {
+            Record record = read(pointer);
+            if (record == null || record.createdAt < cutoff) {
+                break;
+            }
+            result.add(record.message);
+            pointer = record.prev;
+        }
+        return result;
+    }
+
+    @Override
+    public List<StoredMessage> findRange(String conversationKey, long fromMillis, long toMillis, int limit) {
+        ConversationIndex index = conversations.get(conversationKey);
+        if (index == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        long from = Math.max(fromMillis, Math.max(retentionCutoff, index.floor()));
+        ArrayDeque<StoredMessage> result = new ArrayDeque<>();
+        long pointer = index.startPointer(toMillis);
+        while (pointer != NO_POINTER) {
+            Record record = read(pointer);
+            if (record == null || record.createdAt < from) {
+                break;
+            }
+            if (record.createdAt <= toMillis) {
+                // 反向遍历，超出限制时丢弃较新的消息
+                result.addFirst(record.message);
+                if (result.size() > limit) {
+                    result.removeLast();
+                }
+            }
+            pointer = record.prev;
+        }
+        return new ArrayList<>(result);
+    }
+
+    @Override
+    public List<StoredMessage> findByIds(String conversationKey, Map<String, Long> createdAtById) {
+        ConversationIndex index = conversations.get(conversationKey);
+        if (index == null || createdAtById.isEmpty()) {
+            return Collections.emptyList();
+        }
+        long floor = Math.max(retentionCutoff, index.floor());
+        List<StoredMessage> result = new ArrayList<>(createdAtById.size());
+        // 本地日志没有按ID的索引，按时间从稀疏索引定位后回溯到该毫秒之前
+        for (Map.Entry<String, Long> entry : createdAtById.entrySet()) {
+            long createdAt = entry.getValue();
+            if (createdAt < floor) {
+                continue;
+            }
+            long pointer = index.startPointer(createdAt);
+            while (pointer != NO_POINTER) {
+                Record record = read(pointer);
+                if (record == null || record.createdAt < createdAt) {
+                    break;
+                }
+                if (record.message.getMessageId().equals(entry.getKey())) {
+                    result.add(record.message);
+                    break;
+                }
+                pointer = record.prev;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void forEach(Consumer<StoredMessage> consumer) {
+        for (String conversationKey : conversations.keySet()) {
+            List<StoredMessage> messages = findRecent(conversationKey, Integer.MAX_VALUE);
+            for (int i = messages.size() - 1; i >= 0; i--) {
+                consumer.accept(messages.get(i));
+            }
+        }
+    }
+
+    @Override
+    public long deleteConversation(String conversationKey) {
+        ByteBuffer record = encode(KIND_DELETE, System.currentTimeMillis(), conversationKey, null);
+        synchronized (this) {
+            ConversationIndex index = conversations.remove(conversationKey);
+            if (index == null) {
+                return 0;
+            }
+            record.putLong(HEADER_BYTES + PREV_OFFSET, NO_POINTER);
+            write(record, 0, false);
+            return index.count();
+        }
+    }
+
+    @Override
+    public long deleteConversationBefore(String conversationKey, long cutoffMillis) {
+        ConversationIndex index = conversations.get(conversationKey);
+        if (index == null) {
+            return 0;
+        }
+        long floor = Math.max(retentionCutoff, index.floor());
+        if (cutoffMillis <= floor) {
+            return 0;
+        }
+
+        // 从截止时间处沿链回溯到原有下限，统计新截断的消息数
+        long removed = 0;
+        long pointer = index.startPointer(cutoffMillis - 1);
+        while (pointer != NO_POINTER) {
+            Record record = read(pointer);
+            if (record == null || record.createdAt < floor) {
+                break;
+            }
+            if (record.createdAt < cutoffMillis) {
+                removed++;
+            }
+            pointer = record.prev;
+        }
+
+        ByteBuffer record = encode(KIND_TRUNCATE, cutoffMillis, conversationKey, null);
+        synchronized (this) {
+            record.putLong(HEADER_BYTES + PREV_OFFSET, NO_POINTER);
+            write(record, 0, false);
+            index.truncate(cutoffMillis, removed);
+        }
+        return removed;
+    }
+
+    @Override
+    public long deleteBefore(long cutoffMillis) {
+        List<Segment> expired = new ArrayList<>();
+        synchronized (this) {
+            if (cutoffMillis > retentionCutoff) {
+                // 先持久化水位再删除段，重启后早于水位的记录不会重新出现
+                write(encode(KIND_CUTOFF, cutoffMillis, NO_CONVERSATION, null), 0, false);
+                retentionCutoff = cutoffMillis;
+            }
+            for (Segment segment : segments.values()) {
+                if (segment == active || segment.maxTimestamp >= cutoffMillis) {
+                    break;
+                }
+                expired.add(segment);
+            }
+            for (Segment segment : expired) {
+                segments.remove(segment.id);
+            }
+            if (!expired.isEmpty()) {
+                int minSegment = segments.firstKey();
+                conversations.values().removeIf(index -> index.prune(minSegment));
+                rewriteMarkers();
+            }
+        }
+        if (expired.isEmpty()) {
+            return 0;
+        }
+
+        long removed = 0;
+        for (Segment segment : expired) {
+            removed += segment.recordCount;
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "删除过期日志段失败: " + segment.path, e);
+            }
+        }
+        LOGGER.info("消息日志保留期清理：删除 " + expired.size() + " 个段，" + removed + " 条消息");
+        return removed;
+    }
+
+    @Override
+    public boolean supportsReadStatus() {
+        return false;
+    }
+
+    /**
+     * 获取当前段数
+     * @return 段数
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * 刷盘并关闭日志
+     */
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        synchronized (this) {
+            try {
+                active.channel.force(false);
+                active.channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "关闭消息日志失败: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 把新写入的数据刷到磁盘（刷盘不持有写锁，不阻塞追加）
+     */
+    private void flush() {
+        if (!dirty) {
+            return;
+        }
+        FileChannel channel;
+        synchronized (this) {
+            dirty = false;
+            channel = active.channel;
+        }
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException e) {
+            // 段已封存，封存时已经刷盘
+        } catch (IOException e) {
+            dirty = true;
+            LOGGER.log(Level.WARNING, "消息日志刷盘失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 追加一条已编码的记录（调用方持有this锁）
+     * @return 记录位置
+     */
+    private long write(ByteBuffer record, long createdAt, boolean isMessage) {
+        int length = record.limit();
+        crc.reset();
+        crc.update(record.array(), HEADER_BYTES, length - HEADER_BYTES);
+        record.putInt(4, (int) crc.getValue());
+
+        try {
+            if (active.size + length > segmentBytes && active.size > 0) {
+                roll();
+            }
+            long position = active.size;
+            record.position(0);
+            while (record.hasRemaining()) {
+                active.channel.write(record, position + record.position());
+            }
+            active.size = position + length;
+            if (isMessage) {
+                active.recordCount++;
+                active.maxTimestamp = Math.max(active.maxTimestamp, createdAt);
+            }
+            dirty = true;
+            return pointer(active.id, position);
+        } catch (IOException e) {
+            throw new RuntimeException("写入消息日志失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 把仍然生效的水位和会话截断记录重新写入活动段（调用方持有this锁），
+     * 原记录可能位于刚删除的段中
+     */
+    private void rewriteMarkers() {
+        if (retentionCutoff > 0) {
+            write(encode(KIND_CUTOFF, retentionCutoff, NO_CONVERSATION, null), 0, false);
+        }
+        for (Map.Entry<String, ConversationIndex> entry : conversations.entrySet()) {
+            long floor = entry.getValue().floor();
+            if (floor > retentionCutoff) {
+                write(encode(KIND_TRUNCATE, floor, entry.getKey(), null), 0, false);
+            }
+        }
+    }
+
+    /**
+     * 封存当前段并开启新段
+     */
+    private void roll() throws IOException {
+        Segment sealed = active;
+        sealed.channel.force(false);
+        sealed.mapped = sealed.channel.map(FileChannel.MapMode.READ_ONLY, 0, sealed.size);
+        sealed.channel.close();
+
+        active = openSegment(sealed.id + 1);
+        segments.put(active.id, active);
+    }
+
+    private Segment openSegment(int id) throws IOException {
+        Segment segment = new Segment(id, directory.resolve(String.format("%010d", id) + SEGMENT_SUFFIX));
+        segment.channel = FileChannel.open(segment.path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return segment;
+    }
+
+    /**
+     * 启动时扫描全部段，重建会话索引
+     */
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    ids.add(Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("忽略无法识别的日志文件: " + path);
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        long records = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            boolean last = i == ids.size() - 1;
+            Segment segment = openSegment(ids.get(i));
+            long fileSize = segment.channel.size();
+            if (fileSize > 0) {
+                MappedByteBuffer buffer = segment.channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+                segment.size = scan(segment, buffer);
+                records += segment.recordCount;
+                if (segment.size < fileSize) {
+                    LOGGER.warning("日志段 " + segment.path + " 末尾有 " + (fileSize - segment.size) + " 字节不完整的记录，已忽略");
+                    if (last) {
+                        segment.channel.truncate(segment.size);
+                    }
+                }
+                if (!last) {
+                    segment.mapped = buffer;
+                }
+            }
+            if (!last) {
+                segment.channel.close();
+            }
+            segments.put(segment.id, segment);
+            active = segment;
+        }
+
+        if (active == null) {
+            active = openSegment(0);
+            segments.put(active.id, active);
+        }
+        if (records > 0) {
+            LOGGER.info("消息日志恢复完成：" + segments.size() + " 个段，" + records + " 条消息，" + conversations.size() + " 个会话");
+        }
+    }
+
+    /**
+     * 扫描一个段并应用到索引
+     * @return 最后一条完整记录的结束位置
+     */
+    private long scan(Segment segment, ByteBuffer buffer) {
+        CRC32 checksum = new CRC32();
+        int limit = buffer.limit();
+        int position = 0;
+        while (position + HEADER_BYTES <= limit) {
+            int length = buffer.getInt(position);
+            int bodyLength = length - HEADER_BYTES;
+            if (bodyLength <= 0 || position + length > limit) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(buffer.slice(position + HEADER_BYTES, bodyLength));
+            if ((int) checksum.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+
+            ByteBuffer body = buffer.slice(position + HEADER_BYTES, bodyLength);
+            byte kind = body.get();
+            body.getLong();
+            long createdAt = body.getLong();
+            String key = StoredMessageCodec.readString(body);
+            if (kind == KIND_MESSAGE) {
+                conversations.computeIfAbsent(key, k -> new ConversationIndex())
+                        .add(pointer(segment.id, position), createdAt, indexInterval);
+                segment.recordCount++;
+                segment.maxTimestamp = Math.max(segment.maxTimestamp, createdAt);
+            } else if (kind == KIND_DELETE) {
+                conversations.remove(key);
+            } else if (kind == KIND_TRUNCATE) {
+                ConversationIndex index = conversations.get(key);
+                if (index != null) {
+                    index.truncate(createdAt, 0);
+                }
+            } else if (kind == KIND_CUTOFF) {
+                retentionCutoff = Math.max(retentionCutoff, createdAt);
+            }
+            position += length;
+        }
+        return position;
+    }
+
+    /**
+     * 按位置读取一条消息记录
+     * @return 记录，所在段已被清理时返回null
+     */
+    private Record read(long pointer) {
+        Segment segment = segments.get((int) (pointer >>> 32));
+        if (segment == null) {
+            return null;
+        }
+        int position = (int) pointer;
+        try {
+            ByteBuffer mapped = segment.mapped;
+            if (mapped == null) {
+                try {
+                    return readFromChannel(segment.channel, position);
+                } catch (ClosedChannelException e) {
+                    // 读取期间段被封存，改为从映射读取
+                    mapped = segment.mapped;
+                    if (mapped == null) {
+                        return null;
+                    }
+                }
+            }
+            int length = mapped.getInt(position);
+            return decode(mapped.slice(position + HEADER_BYTES, length - HEADER_BYTES));
+        } catch (IOException e) {
+            throw new RuntimeException("读取消息日志失败: " + e.getMessage(), e);
+        }
+    }
+
+    private static Record readFromChannel(FileChannel channel, int position) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        readFully(channel, header, position);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0) - HEADER_BYTES);
+        readFully(channel, body, position + HEADER_BYTES);
+        body.flip();
+        return decode(body);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("日志记录不完整");
+            }
+        }
+    }
+
+    private static ByteBuffer encode(byte kind, long createdAt, String key, StoredMessage message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeByte(kind);
+            out.writeLong(NO_POINTER);
+            out.writeLong(createdAt);
+            StoredMessageCodec.writeString(out, key);
+            if (message != null) {
+                StoredMessageCodec.writeString(out, message.getMessageId());
+                StoredMessageCodec.writeString(out, message.getSender());
+                StoredMessageCodec.writeString(out, message.getRecipient());
+                out.writeByte(message.getType().ordinal());
+                StoredMessageCodec.writeString(out, message.getContent());
+                StoredMessageCodec.writeString(out, message.getMetadata());
+            }
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            record.putInt(0, record.limit());
+            return record;
+        } catch (IOException e) {
+            throw new RuntimeException("编码日志记录失败", e);
+        }
+    }
+
+    private static Record decode(ByteBuffer body) {
+        body.get();
+        long prev = body.getLong();
+        long createdAt = body.getLong();
+        String key = StoredMessageCodec.readString(body);
+        String messageId = StoredMessageCodec.readString(body);
+        String sender = StoredMessageCodec.readString(body);
+        String recipient = StoredMessageCodec.readString(body);
+        MessageType type = MessageType.values()[body.get() & 0xFF];
+        String content = StoredMessageCodec.readString(body);
+        String metadata = StoredMessageCodec.readString(body);
+        return new Record(prev, createdAt,
+                new StoredMessage(messageId, key, sender, recipient, type, content, metadata, createdAt));
+    }
+
+    private static long pointer(int segmentId, long position) {
+        return ((long) segmentId << 32) | position;
+    }
+
+    /**
+     * 日志段
+     */
+    private static final class Segment {
+        final int id;
+        final Path path;
+
+        // 活动段的读写通道，封存后关闭
+        FileChannel channel;
+
+        // 封存段的只读映射
+        volatile MappedByteBuffer mapped;
+
+        volatile long size;
+        volatile long recordCount;
+        volatile long maxTimestamp = Long.MIN_VALUE;
+
+        Segment(int id, Path path) {
+            this.id = id;
+            this.path = path;
+        }
+    }
+
+    /**
+     * 解码后的消息记录
+     */
+    private static final class Record {
+        final long prev;
+        final long createdAt;
+        final StoredMessage message;
+
+        Record(long prev, long createdAt, StoredMessage message) {
+            this.prev = prev;
+            this.createdAt = createdAt;
+            this.message = message;
+        }
+    }
+
+    /**
+     * 单个会话的链头与稀疏时间索引
+     */
+    private static final class ConversationIndex {
+        private long head = NO_POINTER;
+        private long count;
+        private long[] sparsePointers = new long[4];
+        private long[] sparseTimes = new long[4];
+        private int sparseSize;
+        // 会话保留策略的时间下限
+        private long floor = Long.MIN_VALUE;
+
+        synchronized long head() {
+            return head;
+        }
+
+        synchronized long floor() {
+            return floor;
+        }
+
+        synchronized void truncate(long cutoffMillis, long removed) {
+            if (cutoffMillis > floor) {
+                floor = cutoffMillis;
+                count = Math.max(0, count - removed);
+            }
+        }
+
+        synchronized long count() {
+            return count;
+        }
+
+        synchronized void add(long pointer, long createdAt, int interval) {
+            if (count % interval == 0) {
+                if (sparseSize == sparsePointers.length) {
+                    sparsePointers = Arrays.copyOf(sparsePointers, sparseSize * 2);
+                    sparseTimes = Arrays.copyOf(sparseTimes, sparseSize * 2);
+                }
+                sparsePointers[sparseSize] = pointer;
+                sparseTimes[sparseSize] = createdAt;
+                sparseSize++;
+            }
+            head = pointer;
+            count++;
+        }
+
+        /**
+         * 查找回溯起点：第一条时间晚于toMillis的稀疏索引项，没有时从链头开始
+         */
+        synchronized long startPointer(long toMillis) {
+            int low = 0;
+            int high = sparseSize;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sparseTimes[mid] <= toMillis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low < sparseSize ? sparsePointers[low] : head;
+        }
+
+        /**
+         * 移除指向已删除段的索引项
+         * @return 整个会话都已过期时返回true
+         */
+        synchronized boolean prune(int minSegment) {
+            if ((int) (head >>> 32) < minSegment) {
+                return true;
+            }
+            int keep = 0;
+            while (keep < sparseSize && (int) (sparsePointers[keep] >>> 32) < minSegment) {
+                keep++;
+            }
+            if (keep > 0) {
+                sparseSize -= keep;
+                System.arraycopy(sparsePointers, keep, sparsePointers, 0, sparseSize);
+                System.arraycopy(sparseTimes, keep, sparseTimes, 0, sparseSize);
+            }
+            return false;
+        }
+    }
+}
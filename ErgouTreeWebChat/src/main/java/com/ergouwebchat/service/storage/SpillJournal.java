@@ -0,0 +1,290 @@
+package com.ergouwebchat.service.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * 持久化溢出日志
+ * <p>数据库不可用时消息按到达顺序追加到本地文件，后台按固定间隔批量刷盘（一次fsync覆盖一批写入），
+ * 追加本身不等待刷盘，实时投递的延迟不受影响。积压全部重放完成后文件被截断为空</p>
+ * <p>记录格式：[int 长度][int CRC32][消息字段]。打开时校验全部记录，截断末尾不完整的部分</p>
+ */
+public class SpillJournal implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(SpillJournal.class.getName());
+
+    private static final int HEADER_BYTES = 8;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ScheduledExecutorService syncer;
+    private final CRC32 crc = new CRC32();
+
+    // 文件中有效数据的长度
+    private long size;
+
+    // 下一条待重放记录的位置
+    private long readOffset;
+
+    // 待重放的记录数
+    private long pending;
+
+    // 自上次刷盘以来是否有新写入
+    private volatile boolean dirty;
+
+    /**
+     * 待重放的记录
+     */
+    public static final class Entry {
+        private final StoredMessage message;
+        private final long endOffset;
+
+        Entry(StoredMessage message, long endOffset) {
+            this.message = message;
+            this.endOffset = endOffset;
+        }
+
+        public StoredMessage getMessage() {
+            return message;
+        }
+
+        /**
+         * 获取记录结束位置，重放成功后传给{@link #advance(long, int)}
+         * @return 结束位置
+         */
+        public long getEndOffset() {
+            return endOffset;
+        }
+    }
+
+    /**
+     * 构造方法，打开（或创建）溢出日志
+     * @param path 文件路径
+     * @param fsyncIntervalMillis 批量刷盘间隔
+     */
+    public SpillJournal(String path, long fsyncIntervalMillis) {
+        this.path = Paths.get(path);
+        try {
+            Path parent = this.path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            this.channel = FileChannel.open(this.path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            recover();
+        } catch (IOException e) {
+            throw new RuntimeException("打开溢出日志失败: " + e.getMessage(), e);
+        }
+
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "spill-journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 追加一条消息
+     * @param message 消息
+     */
+    public synchronized void append(StoredMessage message) {
+        ByteBuffer record = encode(message);
+        try {
+            long position = size;
+            while (record.hasRemaining()) {
+                channel.write(record, position + record.position());
+            }
+            size = position + record.limit();
+            pending++;
+            dirty = true;
+        } catch (IOException e) {
+            throw new RuntimeException("写入溢出日志失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 仅在存在积压时追加，保证积压未重放完之前新消息排在其后
+     * @param message 消息
+     * @return 已追加返回true
+     */
+    public synchronized boolean appendIfPending(StoredMessage message) {
+        if (pending == 0) {
+            return false;
+        }
+        append(message);
+        return true;
+    }
+
+    /**
+     * 是否有待重放的记录
+     * @return 有积压返回true
+     */
+    public synchronized boolean hasPending() {
+        return pending > 0;
+    }
+
+    /**
+     * 获取待重放的记录数
+     * @return 记录数
+     */
+    public synchronized long getPending() {
+        return pending;
+    }
+
+    /**
+     * 按顺序读取下一批待重放的记录（不移动读取位置）
+     * @param max 最多读取的记录数
+     * @return 记录列表
+     */
+    public synchronized List<Entry> peek(int max) {
+        List<Entry> entries = new ArrayList<>(Math.min(max, 256));
+        long position = readOffset;
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (entries.size() < max && position < size) {
+                header.clear();
+                readFully(header, position);
+                int length = header.getInt(0);
+                ByteBuffer body = ByteBuffer.allocate(length - HEADER_BYTES);
+                readFully(body, position + HEADER_BYTES);
+                body.flip();
+                position += length;
+                entries.add(new Entry(StoredMessageCodec.read(body), position));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("读取溢出日志失败: " + e.getMessage(), e);
+        }
+        return entries;
+    }
+
+    /**
+     * 确认重放到指定位置，全部重放完成时截断文件
+     * @param offset 最后一条已重放记录的结束位置
+     * @param count 本次确认的记录数
+     */
+    public synchronized void advance(long offset, int count) {
+        if (offset <= readOffset) {
+            return;
+        }
+        readOffset = Math.min(offset, size);
+        pending = readOffset >= size ? 0 : Math.max(0, pending - count);
+        if (pending == 0) {
+            try {
+                channel.truncate(0);
+                channel.force(false);
+                size = 0;
+                readOffset = 0;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "截断溢出日志失败: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 刷盘并关闭
+     */
+    @Override
+    public void close() {
+        syncer.shutdownNow();
+        synchronized (this) {
+            try {
+                channel.force(false);
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "关闭溢出日志失败: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void sync() {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            dirty = true;
+            LOGGER.log(Level.WARNING, "溢出日志刷盘失败: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 打开时校验记录，截断末尾不完整的部分
+     */
+    private void recover() throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        CRC32 checksum = new CRC32();
+        long position = 0;
+        long count = 0;
+        while (position + HEADER_BYTES <= fileSize) {
+            header.clear();
+            readFully(header, position);
+            int length = header.getInt(0);
+            if (length <= HEADER_BYTES || position + length > fileSize) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(length - HEADER_BYTES);
+            readFully(body, position + HEADER_BYTES);
+            checksum.reset();
+            checksum.update(body.array());
+            if ((int) checksum.getValue() != header.getInt(4)) {
+                break;
+            }
+            position += length;
+            count++;
+        }
+        if (position < fileSize) {
+            LOGGER.warning("溢出日志 " + path + " 末尾有 " + (fileSize - position) + " 字节不完整的记录，已截断");
+            channel.truncate(position);
+        }
+        size = position;
+        pending = count;
+        if (count > 0) {
+            LOGGER.info("溢出日志中有 " + count + " 条消息待重放");
+        }
+    }
+
+    private ByteBuffer encode(StoredMessage message) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(0);
+            StoredMessageCodec.write(out, message);
+            ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+            crc.reset();
+            crc.update(record.array(), HEADER_BYTES, record.limit() - HEADER_BYTES);
+            record.putInt(0, record.limit());
+            record.putInt(4, (int) crc.getValue());
+            return record;
+        } catch (IOException e) {
+            throw new RuntimeException("编码溢出日志记录失败", e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("溢出日志记录不完整");
+            }
+        }
+    }
+}
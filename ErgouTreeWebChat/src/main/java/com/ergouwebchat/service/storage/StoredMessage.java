@@ -0,0 +1,64 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.model.enums.MessageType;
+import lombok.Getter;
+
+/**
+ * 存储层消息记录
+ * <p>与具体存储后端无关的不可变消息表示，会话以会话键标识（群聊为GROUP，私聊为排序后的双方用户名），
+ * 不依赖数据库生成的会话ID</p>
+ */
+@Getter
+public class StoredMessage {
+    /**
+     * 消息ID
+     */
+    private final String messageId;
+
+    /**
+     * 会话键
+     */
+    private final String conversationKey;
+
+    /**
+     * 发送者用户名
+     */
+    private final String sender;
+
+    /**
+     * 接收者用户名（群聊为null）
+     */
+    private final String recipient;
+
+    /**
+     * 消息类型
+     */
+    private final MessageType type;
+
+    /**
+     * 消息内容
+     */
+    private final String content;
+
+    /**
+     * 元数据JSON，没有时为null
+     */
+    private final String metadata;
+
+    /**
+     * 创建时间（epoch毫秒）
+     */
+    private final long createdAt;
+
+    public StoredMessage(String messageId, String conversationKey, String sender, String recipient,
+                         MessageType type, String content, String metadata, long createdAt) {
+        this.messageId = messageId;
+        this.conversationKey = conversationKey;
+        this.sender = sender;
+        this.recipient = recipient;
+        this.type = type;
+        this.content = content;
+        this.metadata = metadata;
+        this.createdAt = createdAt;
+    }
+}
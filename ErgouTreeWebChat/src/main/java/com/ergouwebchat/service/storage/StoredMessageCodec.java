@@ -0,0 +1,73 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.model.enums.MessageType;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 存储层消息的二进制编解码
+ * <p>字符串按[int 字节数][UTF-8字节]写出，-1表示null</p>
+ */
+final class StoredMessageCodec {
+
+    private StoredMessageCodec() {
+        throw new AssertionError("工具类不应被实例化");
+    }
+
+    /**
+     * 写出完整消息
+     * @param out 输出
+     * @param message 消息
+     * @throws IOException 写入失败时抛出
+     */
+    static void write(DataOutput out, StoredMessage message) throws IOException {
+        writeString(out, message.getMessageId());
+        writeString(out, message.getConversationKey());
+        writeString(out, message.getSender());
+        writeString(out, message.getRecipient());
+        out.writeByte(message.getType().ordinal());
+        writeString(out, message.getContent());
+        writeString(out, message.getMetadata());
+        out.writeLong(message.getCreatedAt());
+    }
+
+    /**
+     * 读取完整消息
+     * @param in 输入
+     * @return 消息
+     */
+    static StoredMessage read(ByteBuffer in) {
+        String messageId = readString(in);
+        String conversationKey = readString(in);
+        String sender = readString(in);
+        String recipient = readString(in);
+        MessageType type = MessageType.values()[in.get() & 0xFF];
+        String content = readString(in);
+        String metadata = readString(in);
+        long createdAt = in.getLong();
+        return new StoredMessage(messageId, conversationKey, sender, recipient, type, content, metadata, createdAt);
+    }
+
+    static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,128 @@
+package com.ergouwebchat.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 字符串布隆过滤器
+ * <p>判断"一定不存在"或"可能存在"：不存在的结论总是准确的，存在的结论有按容量和误判率估算的误判。
+ * 位数组按预计元素数和目标误判率确定大小，k个位置由一次64位哈希拆成两个哈希做双重散列得到。
+ * 添加和查询都是线程安全的，不支持删除</p>
+ */
+public class BloomFilter {
+    private static final double LN2 = Math.log(2);
+
+    private final AtomicLongArray words;
+    private final long bitSize;
+    private final int hashCount;
+    private final long capacity;
+
+    // 已添加的元素数（重复添加也计数，只用于判断是否超出容量）
+    private final AtomicLong added = new AtomicLong();
+
+    /**
+     * 构造方法
+     * @param expectedInsertions 预计元素数
+     * @param falsePositiveRate 目标误判率（0到1之间）
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("误判率必须在0和1之间: " + falsePositiveRate);
+        }
+        this.capacity = Math.max(1, expectedInsertions);
+        long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (LN2 * LN2));
+        // 按64位对齐
+        long wordCount = Math.max(1, (bits + 63) >>> 6);
+        if (wordCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("布隆过滤器过大: " + bits + " 位");
+        }
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bitSize = wordCount << 6;
+        this.hashCount = (int) Math.max(1, Math.min(16, Math.round((double) bitSize / capacity * LN2)));
+    }
+
+    /**
+     * 添加元素
+     * @param value 元素
+     */
+    public void put(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitSize;
+            long mask = 1L << bit;
+            int index = (int) (bit >>> 6);
+            if ((words.get(index) & mask) == 0) {
+                words.getAndAccumulate(index, mask, (a, b) -> a | b);
+            }
+        }
+        added.incrementAndGet();
+    }
+
+    /**
+     * 判断元素是否可能存在
+     * @param value 元素
+     * @return 返回false时一定不存在，返回true时可能存在
+     */
+    public boolean mightContain(String value) {
+        long hash = hash64(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Integer.toUnsignedLong(h1 + i * h2) % bitSize;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 判断添加的元素数是否已超过预计容量（误判率将高于目标值）
+     * @return 超过返回true
+     */
+    public boolean isSaturated() {
+        return added.get() > capacity;
+    }
+
+    /**
+     * 获取位数组大小
+     * @return 位数
+     */
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    /**
+     * 获取哈希函数个数
+     * @return 哈希函数个数
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * 获取已添加的元素数
+     * @return 元素数
+     */
+    public long getAddedCount() {
+        return added.get();
+    }
+
+    /**
+     * 64位字符串哈希（FNV-1a逐字符散列，再做一次murmur3的终结混合）
+     */
+    private static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
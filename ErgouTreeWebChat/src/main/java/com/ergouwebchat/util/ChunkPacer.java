@@ -0,0 +1,34 @@
+package com.ergouwebchat.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分块批处理的限速工具类
+ * <p>每块之后停顿不少于该块的耗时（至少为配置的最短停顿），后台清理最多占用一半的数据库时间</p>
+ */
+public class ChunkPacer {
+
+    /**
+     * 私有构造函数，防止实例化
+     */
+    private ChunkPacer() {
+        throw new AssertionError("工具类不应被实例化");
+    }
+
+    /**
+     * 块之间停顿
+     * @param startNanos 本块开始时的System.nanoTime()
+     * @param minPauseMillis 最短停顿（毫秒）
+     * @return 被中断时返回false（已恢复中断标志）
+     */
+    public static boolean pause(long startNanos, long minPauseMillis) {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        try {
+            Thread.sleep(Math.max(minPauseMillis, elapsed));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.ergouwebchat.util;
+
+import java.util.logging.Logger;
+
+/**
+ * 熔断器
+ * <p>连续失败（或耗时超过慢调用阈值）达到次数后断开，断开期间直接拒绝调用；
+ * 冷却时间过后放行一次试探调用，成功则恢复，失败则重新断开</p>
+ */
+public class CircuitBreaker {
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final long slowCallMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private long tripCount;
+
+    /**
+     * 构造方法
+     * @param name 名称（用于日志）
+     * @param failureThreshold 断开前允许的连续失败次数
+     * @param openMillis 断开后等待多久放行试探调用
+     * @param slowCallMillis 慢调用阈值，耗时达到该值的调用按失败计
+     */
+    public CircuitBreaker(String name, int failureThreshold, long openMillis, long slowCallMillis) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+        this.slowCallMillis = slowCallMillis;
+    }
+
+    /**
+     * 判断是否放行本次调用，放行后必须调用{@link #onSuccess}或{@link #onFailure}
+     * @return 放行返回true
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (CoarseClock.currentTimeMillis() - openedAt >= openMillis) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                return false;
+            default:
+                // 试探调用进行中
+                return false;
+        }
+    }
+
+    /**
+     * 记录一次成功的调用
+     * @param durationMillis 调用耗时
+     */
+    public synchronized void onSuccess(long durationMillis) {
+        if (durationMillis >= slowCallMillis) {
+            onFailure();
+            return;
+        }
+        consecutiveFailures = 0;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            LOGGER.info("熔断器 " + name + " 已恢复");
+        }
+    }
+
+    /**
+     * 记录一次失败的调用
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = CoarseClock.currentTimeMillis();
+            tripCount++;
+            LOGGER.warning("熔断器 " + name + " 已断开，" + openMillis + " 毫秒后重试");
+        }
+    }
+
+    /**
+     * 获取当前状态
+     * @return 状态
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * 获取累计断开次数
+     * @return 断开次数
+     */
+    public synchronized long getTripCount() {
+        return tripCount;
+    }
+}
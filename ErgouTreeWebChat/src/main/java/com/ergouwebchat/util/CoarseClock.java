@@ -0,0 +1,45 @@
+package com.ergouwebchat.util;
+
+/**
+ * 粗粒度时钟工具类
+ * <p>由后台守护线程按固定间隔刷新缓存的毫秒时间戳，
+ * 热路径上读取时间只是一次volatile读，不再每条消息调用系统时钟或分配时间对象</p>
+ */
+public class CoarseClock {
+    // 时钟刷新间隔（毫秒）
+    private static final long TICK_MILLIS = 2;
+
+    // 缓存的当前时间（epoch毫秒）
+    private static volatile long currentMillis = System.currentTimeMillis();
+
+    static {
+        Thread ticker = new Thread(() -> {
+            while (true) {
+                currentMillis = System.currentTimeMillis();
+                try {
+                    Thread.sleep(TICK_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * 私有构造函数，防止实例化
+     */
+    private CoarseClock() {
+        throw new AssertionError("工具类不应被实例化");
+    }
+
+    /**
+     * 获取当前时间
+     * @return epoch毫秒，精度约为刷新间隔
+     */
+    public static long currentTimeMillis() {
+        return currentMillis;
+    }
+}
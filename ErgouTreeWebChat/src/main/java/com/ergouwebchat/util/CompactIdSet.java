@@ -0,0 +1,264 @@
+package com.ergouwebchat.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * 紧凑整数ID集合（roaring位图思路）
+ * <p>按高16位把ID分桶，每个桶一个容器：元素不多于4096个时用有序char数组（每个ID 2字节），
+ * 超过后换成固定8KB的位图。稀疏和密集的ID分布都只占很少的内存，
+ * 成员判断是一次二分查找加一次容器内查找。只支持非负int，非线程安全，由调用方加锁</p>
+ */
+public class CompactIdSet {
+    // 数组容器的元素上限，超过后转为位图容器
+    private static final int ARRAY_MAX = 4096;
+
+    // 各容器的高16位，升序
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int containerCount;
+    private int size;
+
+    /**
+     * 添加ID
+     * @param id 非负ID
+     * @return 原先不存在返回true
+     */
+    public boolean add(int id) {
+        checkId(id);
+        char high = (char) (id >>> 16);
+        int index = indexOf(high);
+        if (index < 0) {
+            index = -index - 1;
+            insertContainer(index, high, new ArrayContainer());
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        containers[index] = container.add((char) id);
+        if (containers[index].cardinality() == before) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * 移除ID
+     * @param id 非负ID
+     * @return 原先存在返回true
+     */
+    public boolean remove(int id) {
+        if (id < 0) {
+            return false;
+        }
+        int index = indexOf((char) (id >>> 16));
+        if (index < 0) {
+            return false;
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        container = container.remove((char) id);
+        if (container.cardinality() == before) {
+            return false;
+        }
+        size--;
+        if (container.cardinality() == 0) {
+            removeContainer(index);
+        } else {
+            containers[index] = container;
+        }
+        return true;
+    }
+
+    /**
+     * 判断ID是否存在
+     * @param id ID
+     * @return 存在返回true
+     */
+    public boolean contains(int id) {
+        if (id < 0) {
+            return false;
+        }
+        int index = indexOf((char) (id >>> 16));
+        return index >= 0 && containers[index].contains((char) id);
+    }
+
+    /**
+     * 获取元素个数
+     * @return 元素个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 按升序遍历全部ID
+     * @param consumer ID处理器
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < containerCount; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    private int indexOf(char high) {
+        return Arrays.binarySearch(keys, 0, containerCount, high);
+    }
+
+    private void insertContainer(int index, char high, Container container) {
+        if (containerCount == keys.length) {
+            keys = Arrays.copyOf(keys, containerCount * 2);
+            containers = Arrays.copyOf(containers, containerCount * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, containerCount - index);
+        System.arraycopy(containers, index, containers, index + 1, containerCount - index);
+        keys[index] = high;
+        containers[index] = container;
+        containerCount++;
+    }
+
+    private void removeContainer(int index) {
+        System.arraycopy(keys, index + 1, keys, index, containerCount - index - 1);
+        System.arraycopy(containers, index + 1, containers, index, containerCount - index - 1);
+        containerCount--;
+        containers[containerCount] = null;
+    }
+
+    private static void checkId(int id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("ID不能为负数: " + id);
+        }
+    }
+
+    /**
+     * 低16位容器，add和remove可能返回换了实现的新容器
+     */
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(char low);
+
+        abstract Container add(char low);
+
+        abstract Container remove(char low);
+
+        abstract void forEach(int base, IntConsumer consumer);
+    }
+
+    /**
+     * 有序数组容器
+     */
+    private static final class ArrayContainer extends Container {
+        private char[] values = new char[4];
+        private int count;
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, count, low) >= 0;
+        }
+
+        @Override
+        Container add(char low) {
+            int index = Arrays.binarySearch(values, 0, count, low);
+            if (index >= 0) {
+                return this;
+            }
+            if (count == ARRAY_MAX) {
+                BitmapContainer bitmap = new BitmapContainer();
+                for (int i = 0; i < count; i++) {
+                    bitmap.add(values[i]);
+                }
+                return bitmap.add(low);
+            }
+            index = -index - 1;
+            if (count == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, count * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, count - index);
+            values[index] = low;
+            count++;
+            return this;
+        }
+
+        @Override
+        Container remove(char low) {
+            int index = Arrays.binarySearch(values, 0, count, low);
+            if (index >= 0) {
+                System.arraycopy(values, index + 1, values, index, count - index - 1);
+                count--;
+            }
+            return this;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < count; i++) {
+                consumer.accept(base | values[i]);
+            }
+        }
+    }
+
+    /**
+     * 位图容器（65536位）
+     */
+    private static final class BitmapContainer extends Container {
+        private final long[] words = new long[1024];
+        private int count;
+
+        @Override
+        int cardinality() {
+            return count;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        Container add(char low) {
+            long word = words[low >>> 6];
+            long updated = word | (1L << low);
+            if (updated != word) {
+                words[low >>> 6] = updated;
+                count++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char low) {
+            long word = words[low >>> 6];
+            long updated = word & ~(1L << low);
+            if (updated == word) {
+                return this;
+            }
+            words[low >>> 6] = updated;
+            count--;
+            // 元素减少到数组容器能容纳时换回数组，留一半余量避免在边界来回转换
+            if (count <= ARRAY_MAX / 2) {
+                ArrayContainer array = new ArrayContainer();
+                forEach(0, id -> array.add((char) id));
+                return array;
+            }
+            return this;
+        }
+
+        @Override
+        void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    consumer.accept(base | (i << 6) | bit);
+                    word &= word - 1;
+                }
+            }
+        }
+    }
+}
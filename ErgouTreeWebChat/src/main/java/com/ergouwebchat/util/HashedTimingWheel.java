@@ -0,0 +1,162 @@
+package com.ergouwebchat.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 哈希时间轮
+ * <p>用固定数量的槽和单个工作线程管理大量定时任务，添加和取消都是O(1)，
+ * 适合心跳、空闲检测这类每个连接都有一个、精度要求不高的定时器。
+ * 到期任务在工作线程上执行，任务本身必须足够轻量，重活应转交给其他线程池</p>
+ */
+public class HashedTimingWheel {
+    private static final Logger LOGGER = Logger.getLogger(HashedTimingWheel.class.getName());
+
+    private final long tickMillis;
+    private final int mask;
+    private final Queue<Timeout>[] buckets;
+
+    // 新添加、尚未放入槽中的任务
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+    private volatile boolean running = true;
+
+    // 工作线程启动时间和已推进的刻度数
+    private final long startMillis;
+    private long tick;
+
+    /**
+     * 构造方法，立即启动工作线程
+     * @param name 工作线程名
+     * @param tickDuration 每个刻度的时长
+     * @param unit 时长单位
+     * @param wheelSize 槽数量，会向上取整为2的幂
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        this.tickMillis = Math.max(1, unit.toMillis(tickDuration));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.startMillis = System.currentTimeMillis();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 添加定时任务
+     * @param task 到期时执行的任务
+     * @param delay 延迟
+     * @param unit 延迟单位
+     * @return 可取消的任务句柄
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        long deadline = System.currentTimeMillis() - startMillis + unit.toMillis(delay);
+        Timeout timeout = new Timeout(task, deadline);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 停止时间轮，未到期的任务不再执行
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long nextTickAt = (tick + 1) * tickMillis;
+            long sleep = nextTickAt - (System.currentTimeMillis() - startMillis);
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                    continue;
+                }
+            }
+            transferPending();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * 把新任务放入对应的槽
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // 已经过期的任务放入当前槽，本刻度内执行
+            long deadlineTick = Math.max(tick, timeout.deadline / tickMillis);
+            timeout.remainingRounds = (deadlineTick - tick) / buckets.length;
+            buckets[(int) (deadlineTick & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * 执行槽中到期的任务
+     * @param bucket 当前槽
+     */
+    private void expire(Queue<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+            } else if (timeout.remainingRounds <= 0) {
+                iterator.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "定时任务执行失败: " + e.getMessage(), e);
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+
+    /**
+     * 定时任务句柄
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 取消任务，已取消的任务在所在槽被扫描时移除
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+}
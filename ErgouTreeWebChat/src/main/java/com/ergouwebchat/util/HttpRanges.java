@@ -0,0 +1,75 @@
+package com.ergouwebchat.util;
+
+/**
+ * HTTP条件请求和范围请求工具类
+ * <p>只支持单段Range，多段请求按忽略Range处理，返回完整内容</p>
+ */
+public class HttpRanges {
+
+    /**
+     * 私有构造函数，防止实例化
+     */
+    private HttpRanges() {
+        throw new AssertionError("工具类不应被实例化");
+    }
+
+    /**
+     * 解析单段Range请求头
+     * @param header Range请求头
+     * @param size 文件大小
+     * @return 闭区间[起始, 结束]；格式不支持（包括多段）时返回null，表示忽略Range；
+     *         区间超出文件时返回空数组
+     */
+    public static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // 最后N个字节
+                long suffix = Long.parseLong(last);
+                return suffix <= 0 || size == 0 ? new long[0] : new long[] {Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(first);
+            if (last.isEmpty()) {
+                return start >= size ? new long[0] : new long[] {start, size - 1};
+            }
+            long end = Long.parseLong(last);
+            if (start > end) {
+                return null;
+            }
+            return start >= size ? new long[0] : new long[] {start, Math.min(end, size - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 判断If-None-Match请求头是否匹配ETag（弱比较）
+     * @param ifNoneMatch If-None-Match请求头，可以为null
+     * @param etag 带引号的ETag
+     * @return 匹配返回true
+     */
+    public static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String value = candidate.trim();
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.equals("*") || value.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,44 @@
+package com.ergouwebchat.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 名称驻留工具类
+ * <p>对发送者、接收者等高重复度的用户名做驻留，让同一用户的所有消息共享同一个字符串实例。
+ * 驻留池有容量上限，超过上限后直接返回原字符串，避免被恶意构造的名称撑爆内存</p>
+ */
+public class NameInterner {
+    // 驻留池容量上限
+    private static final int MAX_SIZE = 10_000;
+
+    // 驻留池
+    private static final Map<String, String> POOL = new ConcurrentHashMap<>();
+
+    /**
+     * 私有构造函数，防止实例化
+     */
+    private NameInterner() {
+        throw new AssertionError("工具类不应被实例化");
+    }
+
+    /**
+     * 驻留名称
+     * @param name 原始名称
+     * @return 驻留后的共享实例，name为null时返回null
+     */
+    public static String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        String cached = POOL.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        if (POOL.size() >= MAX_SIZE) {
+            return name;
+        }
+        cached = POOL.putIfAbsent(name, name);
+        return cached != null ? cached : name;
+    }
+}
@@ -46,6 +46,30 @@ document.addEventListener('DOMContentLoaded', function() {
     let typingUsers = new Set(); // 正在输入的用户集合
     let typingTimer = null; // 输入计时器
     let unreadMessages = {}; // 未读消息计数
+    let reconnectAttempts = 0; // 连续重连次数
+    let reconnectTimer = null; // 重连计时器
+    let connecting = false; // 是否正在获取令牌或建立连接
+    let handshakeToken = null; // 缓存的握手令牌
+    let handshakeTokenExpiresAt = 0; // 握手令牌过期时间（epoch毫秒）
+    let tokenRefreshTimer = null; // 令牌续期计时器
+    
+    let mentionList = null; // @提及候选列表元素
+    let mentionCandidates = []; // 当前候选用户
+    let mentionIndex = 0; // 当前选中的候选
+    let mentionTimer = null; // 候选查询防抖计时器
+    
+    // 重连退避参数（毫秒）
+    const RECONNECT_BASE_DELAY = 1000;
+    const RECONNECT_MAX_DELAY = 30000;
+    
+    // 缓存的令牌剩余有效期不足该值（毫秒）时重新获取
+    const TOKEN_MIN_REMAINING = 30000;
+    
+    // 光标前正在输入的@提及
+    const MENTION_PATTERN = /@([A-Za-z0-9_\u4e00-\u9fa5]{1,20})$/;
+    
+    // 分块上传失败后的最大连续重试次数
+    const MAX_UPLOAD_RETRIES = 3;
     
     // 初始化
     init();
@@ -66,7 +90,7 @@ document.addEventListener('DOMContentLoaded', function() {
         // 显示当前用户名
         currentUser.textContent = username;
         
-        // 连接WebSocket
+        // 连接WebSocket（以登录身份为准）
         connectWebSocket();
         
         // 绑定事件
@@ -83,18 +107,145 @@ document.addEventListener('DOMContentLoaded', function() {
      * 连接WebSocket
      */
     function connectWebSocket() {
+        // 已在连接中或已有等待中的重连时不重复发起
+        if (connecting || reconnectTimer || (webSocket && webSocket.readyState === WebSocket.OPEN)) {
+            return;
+        }
+        connecting = true;
+        
+        // 缓存的令牌仍然有效时直接使用，重连不依赖原节点上的HTTP会话
+        if (handshakeToken && handshakeTokenExpiresAt - Date.now() > TOKEN_MIN_REMAINING) {
+            openWebSocket(handshakeToken);
+            return;
+        }
+        
+        fetchHandshakeToken()
+            .then(function(response) {
+                if (response.status === 401) {
+                    // 未登录，跳转到登录页
+                    window.location.href = '/login';
+                    return null;
+                }
+                if (response.status === 503) {
+                    // 服务器建连繁忙，按提示的间隔退避重试
+                    connecting = false;
+                    scheduleReconnect(parseInt(response.headers.get('Retry-After'), 10));
+                    return null;
+                }
+                if (!response.ok) {
+                    throw new Error('获取握手令牌失败: ' + response.status);
+                }
+                return response.json();
+            })
+            .then(function(data) {
+                if (!data) {
+                    return;
+                }
+                // 以登录身份为准
+                username = data.username;
+                sessionStorage.setItem('chatUsername', username);
+                currentUser.textContent = username;
+                cacheHandshakeToken(data);
+                openWebSocket(data.token);
+            })
+            .catch(function(error) {
+                console.error(error);
+                connecting = false;
+                updateConnectionStatus(false);
+                showNotification('连接错误', '无法连接到聊天服务器', 'error');
+                scheduleReconnect();
+            });
+    }
+    
+    /**
+     * 获取握手令牌
+     * <p>缓存的令牌未过期时以它续期（任意节点都能校验），否则使用登录会话</p>
+     * @returns {Promise<Response>} 响应
+     */
+    function fetchHandshakeToken() {
+        const headers = {};
+        if (handshakeToken && handshakeTokenExpiresAt > Date.now()) {
+            headers['Authorization'] = 'Bearer ' + handshakeToken;
+        }
+        return fetch('/api/ws-token', { credentials: 'same-origin', headers: headers });
+    }
+    
+    /**
+     * 缓存握手令牌，并在有效期过半时续期
+     * @param {Object} data 令牌接口的响应
+     */
+    function cacheHandshakeToken(data) {
+        handshakeToken = data.token;
+        handshakeTokenExpiresAt = Date.now() + data.expiresIn * 1000;
+        clearTimeout(tokenRefreshTimer);
+        tokenRefreshTimer = setTimeout(function() {
+            fetchHandshakeToken()
+                .then(response => response.ok ? response.json() : null)
+                .then(refreshed => {
+                    if (refreshed) {
+                        cacheHandshakeToken(refreshed);
+                    }
+                })
+                .catch(error => console.error('令牌续期失败:', error));
+        }, data.expiresIn * 500);
+    }
+    
+    /**
+     * 安排重连
+     * <p>指数退避加全量随机抖动，避免服务重启后所有客户端同时重连；
+     * 服务器给出重试间隔提示时，在提示间隔之后再叠加抖动</p>
+     * @param {number} retryAfterSeconds 服务器建议的重试间隔（秒，可选）
+     */
+    function scheduleReconnect(retryAfterSeconds) {
+        if (reconnectTimer) {
+            return;
+        }
+        
+        const backoff = Math.min(RECONNECT_MAX_DELAY, RECONNECT_BASE_DELAY * Math.pow(2, reconnectAttempts));
+        const hint = retryAfterSeconds > 0 ? retryAfterSeconds * 1000 : 0;
+        const delay = hint + Math.random() * backoff;
+        reconnectAttempts++;
+        
+        console.log(`将在 ${Math.round(delay)}ms 后重新连接（第 ${reconnectAttempts} 次）`);
+        reconnectTimer = setTimeout(function() {
+            reconnectTimer = null;
+            if (document.visibilityState !== 'hidden') {
+                connectWebSocket();
+            }
+        }, delay);
+    }
+    
+    /**
+     * 从关闭原因中解析服务器的重试间隔提示
+     * @param {string} reason 关闭原因，格式为 retry-after=秒数
+     * @returns {number} 重试间隔（秒），没有提示时返回0
+     */
+    function parseRetryAfter(reason) {
+        const match = /retry-after=(\d+)/.exec(reason || '');
+        return match ? parseInt(match[1], 10) : 0;
+    }
+    
+    /**
+     * 使用握手令牌建立WebSocket连接
+     * @param {string} token 握手令牌
+     */
+    function openWebSocket(token) {
         // 获取当前主机
         const host = window.location.host;
         const wsProtocol = window.location.protocol === 'https:' ? 'wss:' : 'ws:';
         const contextPath = window.location.pathname.substring(0, window.location.pathname.indexOf('/', 1) + 1) || '/';
         
         // 创建WebSocket连接
-        const wsUrl = `${wsProtocol}//${host}${contextPath}ws/chat/${username}`;
-        console.log("正在连接WebSocket: " + wsUrl);
+        const wsUrl = `${wsProtocol}//${host}${contextPath}ws/chat/${encodeURIComponent(username)}?token=${encodeURIComponent(token)}`;
+        console.log("正在连接WebSocket: " + wsUrl.split('?')[0]);
         webSocket = new WebSocket(wsUrl);
+        let opened = false;
         
         // 连接打开事件
         webSocket.onopen = function(event) {
+            opened = true;
+            connecting = false;
+            reconnectAttempts = 0;
             updateConnectionStatus(true);
             showNotification('连接成功', '已成功连接到聊天服务器', 'success');
             console.log("WebSocket连接已建立");
@@ -108,15 +259,16 @@ document.addEventListener('DOMContentLoaded', function() {
         
         // 连接关闭事件
         webSocket.onclose = function(event) {
+            connecting = false;
+            if (!opened) {
+                // 握手被拒绝（令牌无效，例如服务端密钥已更换），下次重新获取令牌
+                handshakeToken = null;
+            }
             updateConnectionStatus(false);
             showNotification('连接断开', '与服务器的连接已断开', 'error');
             
-            // 尝试重新连接
-            setTimeout(function() {
-                if (document.visibilityState !== 'hidden') {
-                    connectWebSocket();
-                }
-            }, 3000);
+            // 尝试重新连接（1013表示服务器繁忙，1012表示服务器重启，关闭原因中带有重试间隔提示）
+            scheduleReconnect(event.code === 1013 || event.code === 1012 ? parseRetryAfter(event.reason) : 0);
         };
         
         // 连接错误事件
@@ -136,6 +288,10 @@ document.addEventListener('DOMContentLoaded', function() {
         
         // 消息输入框按键事件
         messageInput.addEventListener('keydown', function(event) {
+            // 候选列表显示时由列表处理方向键、回车和Esc
+            if (handleMentionKey(event)) {
+                return;
+            }
             if (event.key === 'Enter' && !event.shiftKey) {
                 event.preventDefault();
                 sendMessage();
@@ -145,9 +301,14 @@ document.addEventListener('DOMContentLoaded', function() {
             }
         });
         
+        // 输入@时查询候选用户
+        messageInput.addEventListener('input', updateMentionCandidates);
+        
         // 消息输入框失去焦点事件
         messageInput.addEventListener('blur', function() {
             sendTypingStatus(false);
+            // 延迟隐藏，保证点击候选项能生效
+            setTimeout(hideMentionList, 150);
         });
         
         // 用户搜索框输入事件
@@ -217,6 +378,143 @@ document.addEventListener('DOMContentLoaded', function() {
         });
     }
     
+    /**
+     * 根据光标前的@提及查询候选用户（停止输入150毫秒后查询）
+     */
+    function updateMentionCandidates() {
+        clearTimeout(mentionTimer);
+        const match = messageInput.value.slice(0, messageInput.selectionStart).match(MENTION_PATTERN);
+        if (!match) {
+            hideMentionList();
+            return;
+        }
+        const prefix = match[1];
+        mentionTimer = setTimeout(function() {
+            fetch('/api/users/search?limit=8&q=' + encodeURIComponent(prefix))
+                .then(response => response.ok ? response.json() : { users: [] })
+                .then(result => {
+                    // 忽略过期的响应
+                    const current = messageInput.value.slice(0, messageInput.selectionStart).match(MENTION_PATTERN);
+                    if (!current || current[1] !== prefix) {
+                        return;
+                    }
+                    showMentionList(result.users || []);
+                })
+                .catch(() => hideMentionList());
+        }, 150);
+    }
+    
+    /**
+     * 显示候选用户列表
+     * @param {Array} users 候选用户
+     */
+    function showMentionList(users) {
+        mentionCandidates = users;
+        mentionIndex = 0;
+        if (users.length === 0) {
+            hideMentionList();
+            return;
+        }
+        if (!mentionList) {
+            mentionList = document.createElement('div');
+            mentionList.className = 'absolute bottom-full left-0 mb-1 w-64 bg-white border border-gray-300 rounded-md shadow-lg z-10';
+            messageInput.parentElement.classList.add('relative');
+            messageInput.parentElement.appendChild(mentionList);
+        }
+        renderMentionList();
+        mentionList.classList.remove('hidden');
+    }
+    
+    /**
+     * 渲染候选用户列表
+     */
+    function renderMentionList() {
+        mentionList.innerHTML = '';
+        mentionCandidates.forEach((user, index) => {
+            const item = document.createElement('div');
+            item.className = 'flex items-center px-3 py-2 cursor-pointer ' + (index === mentionIndex ? 'bg-blue-100' : 'hover:bg-gray-100');
+            
+            const avatar = document.createElement('div');
+            avatar.className = 'user-avatar';
+            avatar.style.cssText = 'width: 24px; height: 24px; font-size: 12px; background-color: '
+                + (user.avatarColor || generateAvatarColor(user.username));
+            avatar.textContent = user.username.charAt(0).toUpperCase();
+            
+            const name = document.createElement('span');
+            name.className = 'ml-2 text-sm';
+            name.textContent = user.nickname ? user.nickname + ' (' + user.username + ')' : user.username;
+            
+            const status = document.createElement('span');
+            status.className = 'ml-auto text-xs ' + (user.status === 'OFFLINE' ? 'text-gray-400' : 'text-green-500');
+            status.textContent = user.status === 'OFFLINE' ? '离线' : '在线';
+            
+            item.appendChild(avatar);
+            item.appendChild(name);
+            item.appendChild(status);
+            item.addEventListener('mousedown', function(event) {
+                event.preventDefault();
+                insertMention(user.username);
+            });
+            mentionList.appendChild(item);
+        });
+    }
+    
+    /**
+     * 隐藏候选用户列表
+     */
+    function hideMentionList() {
+        mentionCandidates = [];
+        if (mentionList) {
+            mentionList.classList.add('hidden');
+        }
+    }
+    
+    /**
+     * 处理候选列表显示时的按键
+     * @param {KeyboardEvent} event 按键事件
+     * @returns {boolean} 按键已处理返回true
+     */
+    function handleMentionKey(event) {
+        if (mentionCandidates.length === 0) {
+            return false;
+        }
+        switch (event.key) {
+            case 'ArrowDown':
+                mentionIndex = (mentionIndex + 1) % mentionCandidates.length;
+                break;
+            case 'ArrowUp':
+                mentionIndex = (mentionIndex - 1 + mentionCandidates.length) % mentionCandidates.length;
+                break;
+            case 'Enter':
+            case 'Tab':
+                insertMention(mentionCandidates[mentionIndex].username);
+                break;
+            case 'Escape':
+                hideMentionList();
+                break;
+            default:
+                return false;
+        }
+        event.preventDefault();
+        if (mentionCandidates.length > 0) {
+            renderMentionList();
+        }
+        return true;
+    }
+    
+    /**
+     * 用选中的用户名替换光标前的@提及
+     * @param {string} mentioned 用户名
+     */
+    function insertMention(mentioned) {
+        const caret = messageInput.selectionStart;
+        const before = messageInput.value.slice(0, caret).replace(MENTION_PATTERN, '@' + mentioned + ' ');
+        messageInput.value = before + messageInput.value.slice(caret);
+        messageInput.selectionStart = messageInput.selectionEnd = before.length;
+        hideMentionList();
+        messageInput.focus();
+    }
+    
     /**
      * 发送消息
      */
@@ -260,7 +558,87 @@ document.addEventListener('DOMContentLoaded', function() {
             connectWebSocket();
         }
     }
-    
+
+    /**
+     * 处理图片选择
+     * @param {Event} event 选择事件
+     */
+    function handleImageUpload(event) {
+        handleFileUpload(event);
+    }
+
+    /**
+     * 处理文件选择，分块上传后由服务端发布文件消息
+     * @param {Event} event 选择事件
+     */
+    function handleFileUpload(event) {
+        const file = event.target.files[0];
+        event.target.value = '';
+        if (!file) {
+            return;
+        }
+
+        const params = new URLSearchParams({
+            fileName: file.name,
+            fileSize: file.size,
+            fileType: file.type || 'application/octet-stream'
+        });
+        if (currentRecipient) {
+            params.append('recipient', currentRecipient);
+        }
+
+        showNotification('上传中', '正在上传 ' + file.name, 'info');
+        fetch('/api/uploads?' + params, { method: 'POST' })
+            .then(readUploadResponse)
+            .then(upload => uploadChunks(file, upload.uploadId, upload.receivedBytes, upload.chunkSize, 0))
+            .then(uploadId => fetch('/api/uploads/' + uploadId + '/complete', { method: 'POST' }))
+            .then(readUploadResponse)
+            .then(() => showNotification('上传成功', '文件已发送', 'success'))
+            .catch(error => showNotification('上传失败', error.message, 'error'));
+    }
+
+    /**
+     * 从指定位置开始依次上传分块，失败时查询服务端进度后续传
+     * @param {File} file 文件
+     * @param {string} uploadId 上传ID
+     * @param {number} offset 起始位置
+     * @param {number} chunkSize 分块大小
+     * @param {number} retries 已连续重试的次数
+     * @returns {Promise<string>} 上传ID
+     */
+    function uploadChunks(file, uploadId, offset, chunkSize, retries) {
+        if (offset >= file.size) {
+            return Promise.resolve(uploadId);
+        }
+        const chunk = file.slice(offset, Math.min(offset + chunkSize, file.size));
+        return fetch('/api/uploads/' + uploadId + '?offset=' + offset, { method: 'PUT', body: chunk })
+            .then(readUploadResponse)
+            .then(result => uploadChunks(file, uploadId, result.receivedBytes, chunkSize, 0))
+            .catch(error => {
+                if (retries >= MAX_UPLOAD_RETRIES) {
+                    throw error;
+                }
+                return new Promise(resolve => setTimeout(resolve, 1000 * (retries + 1)))
+                    .then(() => fetch('/api/uploads/' + uploadId))
+                    .then(readUploadResponse)
+                    .then(upload => uploadChunks(file, uploadId, upload.receivedBytes, chunkSize, retries + 1));
+            });
+    }
+
+    /**
+     * 解析上传接口的响应，失败时抛出服务端返回的错误信息
+     * @param {Response} response 响应
+     * @returns {Promise<Object>} 响应内容
+     */
+    function readUploadResponse(response) {
+        return response.json().catch(() => ({})).then(result => {
+            if (!response.ok) {
+                throw new Error(result.error || '服务器错误 ' + response.status);
+            }
+            return result;
+        });
+    }
+
     /**
      * 处理接收到的消息
      * @param {Object} message 消息对象
@@ -294,6 +672,11 @@ document.addEventListener('DOMContentLoaded', function() {
             case 'SYSTEM_NOTICE':
                 addSystemMessageToChat(message);
                 
+                // 离线期间的提及汇总
+                if (message.metadata && message.metadata.mentions) {
+                    showNotification('有人提到了你', message.content, 'info');
+                }
+                
                 // 如果消息包含用户列表信息，更新用户列表
                 if (message.metadata && message.metadata.userList) {
                     updateUserList(message.metadata.userList);
@@ -346,15 +729,17 @@ document.addEventListener('DOMContentLoaded', function() {
         
         // 如果是接收的消息，添加头像和用户名
         if (!isSent) {
-            // 生成头像颜色（基于用户名）
-            const avatarColor = generateAvatarColor(message.sender);
+            // 优先使用服务端附带的发送者资料，没有时基于用户名生成头像颜色
+            const metadata = message.metadata || {};
+            const avatarColor = metadata.senderAvatarColor || generateAvatarColor(message.sender);
+            const displayName = metadata.senderNickname || message.sender;
             
             messageHTML += `
                 <div class="mr-2 flex flex-col items-center">
                     <div class="user-avatar" style="background-color: ${avatarColor}">
-                        ${message.sender.charAt(0).toUpperCase()}
+                        ${displayName.charAt(0).toUpperCase()}
                     </div>
-                    <span class="text-xs text-gray-500 mt-1">${message.sender}</span>
+                    <span class="text-xs text-gray-500 mt-1">${displayName}</span>
                 </div>
             `;
         }
@@ -375,6 +760,13 @@ document.addEventListener('DOMContentLoaded', function() {
         // 设置HTML
         messageElement.innerHTML = messageHTML;
         
+        // 提到当前用户的消息高亮显示
+        if (!isSent && message.metadata && Array.isArray(message.metadata.mentioned)
+                && message.metadata.mentioned.includes(username)) {
+            messageElement.classList.add('mentioned');
+            messageElement.querySelector('.message-bubble').classList.add('ring-2', 'ring-yellow-400');
+        }
+        
         // 添加到消息容器
         messageContainer.appendChild(messageElement);
     }
@@ -473,6 +865,16 @@ document.addEventListener('DOMContentLoaded', function() {
         }
     }
     
+    /**
+     * 格式化未读数角标，超过99条（或服务端标记为已达统计上限）时显示为“99+”
+     * @param {number} count 未读数
+     * @param {boolean} capped 服务端返回的unreadCapped
+     * @returns {string} 角标文本
+     */
+    function formatUnread(count, capped) {
+        return capped || count > 99 ? '99+' : String(count);
+    }
+    
     /**
      * 更新用户列表
      * @param {Array} users 用户列表
@@ -489,7 +891,7 @@ document.addEventListener('DOMContentLoaded', function() {
                 <i class="fas fa-users mr-2 text-blue-500"></i>
                 <span>群聊</span>
                 <span class="ml-auto bg-blue-100 text-blue-800 text-xs px-2 py-1 rounded-full">${users.length}</span>
-                ${unreadMessages['GROUP'] ? `<div class="unread-badge">${unreadMessages['GROUP']}</div>` : ''}
+                ${unreadMessages['GROUP'] ? `<div class="unread-badge">${formatUnread(unreadMessages['GROUP'])}</div>` : ''}
             </div>
         `;
         
@@ -528,7 +930,7 @@ document.addEventListener('DOMContentLoaded', function() {
                         ${user.charAt(0).toUpperCase()}
                     </div>
                     <span class="ml-2">${user}</span>
-                    ${unreadMessages[user] ? `<div class="unread-badge">${unreadMessages[user]}</div>` : ''}
+                    ${unreadMessages[user] ? `<div class="unread-badge">${formatUnread(unreadMessages[user])}</div>` : ''}
                 </div>
             `;
             
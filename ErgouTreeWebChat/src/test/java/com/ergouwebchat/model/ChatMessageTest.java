@@ -0,0 +1,24 @@
+package com.ergouwebchat.model;
+
+import com.ergouwebchat.model.enums.MessageType;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ChatMessageTest {
+
+    @Test
+    void incomingMessageUsesServerTimestamp() {
+        Message future = new Message(null, MessageType.TEXT, "alice", null, "hi",
+                LocalDateTime.now().plusYears(1), null);
+        long before = System.currentTimeMillis();
+
+        ChatMessage message = ChatMessage.fromMessage(future);
+
+        // 客户端填写的时间被忽略（粗粒度时钟允许少量误差）
+        assertThat(message.getTimestamp()).isBetween(before - 1_000, System.currentTimeMillis() + 1_000);
+    }
+}
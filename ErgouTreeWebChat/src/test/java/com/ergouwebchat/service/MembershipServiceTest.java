@@ -0,0 +1,47 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.repository.ConversationMemberRepository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MembershipServiceTest {
+
+    private final ConversationMemberRepository repository = mock(ConversationMemberRepository.class);
+    private final MembershipService service = new MembershipService(repository, 10);
+
+    @Test
+    void existingMemberDoesNotWriteAgain() {
+        when(repository.findUserIdsAfter(eq(1L), anyLong(), any())).thenReturn(List.of(5L, 9L));
+
+        // 每条群消息都会调用，已是成员时只查内存
+        assertThat(service.addMember(1L, 5L)).isFalse();
+        assertThat(service.addMember(1L, 5L)).isFalse();
+
+        verify(repository, never()).addMember(anyLong(), anyLong(), any());
+        verify(repository, times(1)).findUserIdsAfter(eq(1L), anyLong(), any());
+    }
+
+    @Test
+    void newMemberIsWrittenOnceAndCached() {
+        when(repository.findUserIdsAfter(eq(1L), anyLong(), any())).thenReturn(List.of(5L));
+        when(repository.addMember(eq(1L), eq(7L), any())).thenReturn(1);
+
+        assertThat(service.addMember(1L, 7L)).isTrue();
+        assertThat(service.addMember(1L, 7L)).isFalse();
+
+        verify(repository, times(1)).addMember(eq(1L), eq(7L), any());
+        assertThat(service.getMemberCount(1L)).isEqualTo(2);
+    }
+}
@@ -0,0 +1,153 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.entity.Mention;
+import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.repository.MentionRepository;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.service.cluster.ClusterBus;
+import com.ergouwebchat.service.cluster.InProcessClusterBus;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MentionServiceTest {
+
+    private final MentionRepository repository = mock(MentionRepository.class);
+    private final UserCache userCache = mock(UserCache.class);
+    private MentionService service;
+
+    @AfterEach
+    void tearDown() {
+        if (service != null) {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    void recordReturnsBeforeTheRowsAreSaved() throws InterruptedException {
+        when(userCache.find("bob")).thenReturn(Optional.of(new UserProfile(2L, "bob", "bob", null)));
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(inv -> {
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        }).when(repository).saveAll(anyList());
+        service = open(new InProcessClusterBus("node"));
+
+        long start = System.nanoTime();
+        service.record(message("hi @bob"), List.of("bob"), username -> false);
+        service.record(message("again @bob"), List.of("bob"), username -> false);
+        // 写入线程被阻塞时投递线程不受影响
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1000);
+
+        release.countDown();
+        verify(repository, timeout(5000).atLeastOnce()).saveAll(anyList());
+    }
+
+    @Test
+    void digestSkipsDatabaseForUsersWithoutPendingMentions() {
+        when(userCache.find("alice")).thenReturn(Optional.of(new UserProfile(1L, "alice", "alice", null)));
+        when(repository.findUserIdsWithUnnotified()).thenReturn(List.of());
+        service = open(new InProcessClusterBus("node"));
+        service.loadPendingUsers();
+
+        assertThat(service.createDigest("alice")).isNull();
+        verify(repository, never()).findUnnotified(anyLong(), any());
+    }
+
+    @Test
+    void digestIsBuiltOnceAfterAnOfflineMention() {
+        when(userCache.find("bob")).thenReturn(Optional.of(new UserProfile(2L, "bob", "bob", null)));
+        when(repository.findUserIdsWithUnnotified()).thenReturn(List.of());
+        Mention mention = new Mention();
+        mention.setId(7L);
+        mention.setUserId(2L);
+        mention.setMessageId("m1");
+        mention.setConversationKey("GROUP");
+        mention.setSender("alice");
+        mention.setCreatedAt(java.time.LocalDateTime.now());
+        when(repository.findUnnotified(any(), any())).thenReturn(List.of(mention));
+        service = open(new InProcessClusterBus("node"));
+        service.loadPendingUsers();
+
+        service.record(message("hi @bob"), List.of("bob"), username -> false);
+        verify(repository, timeout(5000)).saveAll(anyList());
+
+        ChatMessage digest = service.createDigest("bob");
+        assertThat(digest).isNotNull();
+        assertThat(digest.getExtraMetadata("mentionCount")).isEqualTo(1L);
+        verify(repository).markNotified(2L, 7L);
+        // 已汇总，再次重连不查询
+        assertThat(service.createDigest("bob")).isNull();
+        verify(repository).findUnnotified(any(), any());
+    }
+
+    @Test
+    void failedBatchIsRetriedOnce() {
+        when(userCache.find("bob")).thenReturn(Optional.of(new UserProfile(2L, "bob", "bob", null)));
+        when(repository.saveAll(anyList()))
+                .thenThrow(new RuntimeException("deadlock"))
+                .thenReturn(List.of());
+        service = open(new InProcessClusterBus("node"));
+
+        service.record(message("hi @bob"), List.of("bob"), username -> false);
+
+        verify(repository, timeout(5000).times(2)).saveAll(anyList());
+        assertThat(service.getDroppedCount()).isZero();
+    }
+
+    @Test
+    void batchIsDroppedAfterTheRetryFails() throws InterruptedException {
+        when(userCache.find("bob")).thenReturn(Optional.of(new UserProfile(2L, "bob", "bob", null)));
+        when(repository.saveAll(anyList())).thenThrow(new RuntimeException("db down"));
+        service = open(new InProcessClusterBus("node"));
+
+        service.record(message("hi @bob"), List.of("bob"), username -> false);
+
+        verify(repository, timeout(5000).times(2)).saveAll(anyList());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getDroppedCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(service.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void clusterModeAlwaysQueries() {
+        when(userCache.find("alice")).thenReturn(Optional.of(new UserProfile(1L, "alice", "alice", null)));
+        service = open(mock(ClusterBus.class));
+        service.loadPendingUsers();
+
+        assertThat(service.createDigest("alice")).isNull();
+        verify(repository).findUnnotified(any(), any());
+        verify(repository, never()).findUserIdsWithUnnotified();
+    }
+
+    private MentionService open(ClusterBus bus) {
+        return new MentionService(repository, userCache, bus, mock(PlatformTransactionManager.class), 100);
+    }
+
+    private static ChatMessage message(String content) {
+        ChatMessage message = new ChatMessage(MessageType.TEXT, "alice", content);
+        message.setMessageId("m-" + content.hashCode());
+        return message;
+    }
+}
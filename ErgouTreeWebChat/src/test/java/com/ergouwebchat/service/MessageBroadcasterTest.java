@@ -0,0 +1,98 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.service.cluster.LoopbackClusterBus;
+import com.ergouwebchat.service.factory.MessageFactory;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageBroadcasterTest {
+
+    private final LoopbackClusterBus.Hub hub = new LoopbackClusterBus.Hub();
+    private final LoopbackClusterBus nodeA = new LoopbackClusterBus("test-a", hub);
+    private final LoopbackClusterBus nodeB = new LoopbackClusterBus("test-b", hub);
+    private final LoopbackClusterBus nodeC = new LoopbackClusterBus("test-c", hub);
+    // 每个节点各自的会话表
+    private final UserSessionManager sessionsA = new UserSessionManager();
+    private final UserSessionManager sessionsB = new UserSessionManager();
+    private final UserSessionManager sessionsC = new UserSessionManager();
+    private final MessageBroadcaster broadcasterA = new MessageBroadcaster(nodeA, sessionsA);
+    private final MessageBroadcaster broadcasterB = new MessageBroadcaster(nodeB, sessionsB);
+    private final MessageBroadcaster broadcasterC = new MessageBroadcaster(nodeC, sessionsC);
+
+    private RemoteEndpoint.Basic alice;
+    private RemoteEndpoint.Basic bob;
+    private RemoteEndpoint.Basic carol;
+    private RemoteEndpoint.Basic dave;
+
+    @BeforeEach
+    void setUp() {
+        nodeA.subscribe(broadcasterA::deliverFromCluster);
+        nodeB.subscribe(broadcasterB::deliverFromCluster);
+        nodeC.subscribe(broadcasterC::deliverFromCluster);
+        alice = connect(nodeA, sessionsA, "alice");
+        bob = connect(nodeB, sessionsB, "bob");
+        carol = connect(nodeB, sessionsB, "carol");
+        dave = connect(nodeC, sessionsC, "dave");
+    }
+
+    @AfterEach
+    void tearDown() {
+        nodeA.leave();
+        nodeB.leave();
+        nodeC.leave();
+    }
+
+    @Test
+    void broadcastReachesEveryRemoteUserExactlyOnce() throws Exception {
+        ChatMessage message = MessageFactory.createSystemMessage("hello");
+        broadcasterA.broadcastToAll(message);
+
+        verify(alice, times(1)).sendText(anyString());
+        verify(bob, times(1)).sendText(anyString());
+        verify(carol, times(1)).sendText(anyString());
+        verify(dave, times(1)).sendText(anyString());
+    }
+
+    @Test
+    void excludedUserIsSkippedOnRemoteNodes() throws Exception {
+        // 发送者在B节点，其他节点收到的广播帧也要排除发送者
+        broadcasterB.broadcastToAllExcept(MessageFactory.createSystemMessage("hi"), "bob");
+
+        verify(bob, never()).sendText(anyString());
+        verify(alice, times(1)).sendText(anyString());
+        verify(carol, times(1)).sendText(anyString());
+        verify(dave, times(1)).sendText(anyString());
+    }
+
+    @Test
+    void directMessageToOtherNodeIsDeliveredExactlyOnce() throws Exception {
+        broadcasterA.sendToUser("bob", MessageFactory.createSystemMessage("hi bob"));
+
+        verify(bob, times(1)).sendText(anyString());
+        verify(carol, never()).sendText(anyString());
+        verify(dave, never()).sendText(anyString());
+    }
+
+    private static RemoteEndpoint.Basic connect(LoopbackClusterBus node, UserSessionManager sessions, String username) {
+        RemoteEndpoint.Basic remote = mock(RemoteEndpoint.Basic.class);
+        Session session = mock(Session.class);
+        when(session.getId()).thenReturn("s-" + username);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getBasicRemote()).thenReturn(remote);
+        sessions.addUserSession(username, session);
+        node.getPresence().register(username, node.getNodeId());
+        return remote;
+    }
+}
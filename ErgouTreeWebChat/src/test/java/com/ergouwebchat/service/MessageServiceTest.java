@@ -0,0 +1,49 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.config.HandshakeAuthConfigurator;
+import com.ergouwebchat.service.cluster.ClusterBus;
+
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MessageServiceTest {
+
+    private final MessageService service = new MessageService(mock(ClusterBus.class));
+
+    @Test
+    void rejectsMessageWithForeignSender() {
+        Session session = sessionOf("alice");
+        assertThat(service.processIncomingMessage(
+                "{\"type\":\"TEXT\",\"sender\":\"bob\",\"content\":\"hi\"}", session)).isFalse();
+    }
+
+    @Test
+    void rejectsMessageOnUnauthenticatedSession() {
+        Session session = mock(Session.class);
+        when(session.getUserProperties()).thenReturn(new HashMap<>());
+        assertThat(service.processIncomingMessage(
+                "{\"type\":\"TEXT\",\"sender\":\"alice\",\"content\":\"hi\"}", session)).isFalse();
+    }
+
+    @Test
+    void rejectsClientSentSystemMessage() {
+        Session session = sessionOf("alice");
+        assertThat(service.processIncomingMessage(
+                "{\"type\":\"SYSTEM_NOTICE\",\"sender\":\"alice\",\"content\":\"hi\"}", session)).isFalse();
+    }
+
+    private static Session sessionOf(String username) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(HandshakeAuthConfigurator.AUTHENTICATED_USER, username);
+        Session session = mock(Session.class);
+        when(session.getUserProperties()).thenReturn(properties);
+        return session;
+    }
+}
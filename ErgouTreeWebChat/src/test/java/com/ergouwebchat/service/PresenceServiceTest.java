@@ -0,0 +1,117 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.model.enums.UserStatus;
+import com.ergouwebchat.service.cluster.LoopbackClusterBus;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PresenceServiceTest {
+
+    private final LoopbackClusterBus busA = new LoopbackClusterBus("presence-a", LoopbackClusterBus.Hub.shared());
+    private final LoopbackClusterBus busB = new LoopbackClusterBus("presence-b", LoopbackClusterBus.Hub.shared());
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final PresenceService nodeA = new PresenceService(jdbcTemplate, busA);
+    private final PresenceService nodeB = new PresenceService(mock(JdbcTemplate.class), busB);
+
+    @AfterEach
+    void tearDown() {
+        busA.getPresence().unregister("alice", "presence-a");
+        busA.getPresence().unregister("alice", "presence-b");
+        busA.leave();
+        busB.leave();
+    }
+
+    @Test
+    void loginAloneDoesNotMarkOnline() {
+        nodeA.login("alice");
+
+        assertThat(nodeA.getStatus("alice")).isEqualTo(UserStatus.OFFLINE);
+        assertThat(nodeA.getLastActive("alice")).isPositive();
+        assertThat(nodeA.getOnlineUsernames()).isEmpty();
+    }
+
+    @Test
+    void replicatesStatusChangesToOtherNodes() {
+        busA.getPresence().register("alice", "presence-a");
+        nodeA.online("alice");
+        assertThat(nodeB.getStatus("alice")).isEqualTo(UserStatus.ONLINE);
+
+        nodeA.setStatus("alice", UserStatus.BUSY);
+        assertThat(nodeB.getStatus("alice")).isEqualTo(UserStatus.BUSY);
+
+        busA.getPresence().unregister("alice", "presence-a");
+        nodeA.offline("alice");
+        assertThat(nodeB.getStatus("alice")).isEqualTo(UserStatus.OFFLINE);
+    }
+
+    @Test
+    void ignoresRemoteChangesForUsersConnectedLocally() {
+        // 用户已经重连到A，B上旧连接的下线通知不能覆盖A的状态
+        busA.getPresence().register("alice", "presence-a");
+        nodeA.online("alice");
+        nodeB.online("alice");
+        nodeB.offline("alice");
+
+        assertThat(nodeA.getStatus("alice")).isEqualTo(UserStatus.ONLINE);
+    }
+
+    @Test
+    void offlineUsersAreEvictedOnceFlushed() {
+        busA.getPresence().register("alice", "presence-a");
+        nodeA.online("alice");
+        nodeA.login("bob");
+        busA.getPresence().unregister("alice", "presence-a");
+        nodeA.offline("alice");
+        // 其他节点收到下线通知后不再保留记录
+        assertThat(nodeB.getTrackedCount()).isZero();
+
+        // 写回失败时保留记录，下一轮重试
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new RuntimeException("db down"));
+        assertThat(nodeA.flush()).isZero();
+        assertThat(nodeA.getTrackedCount()).isEqualTo(2);
+
+        reset(jdbcTemplate);
+        assertThat(nodeA.flush()).isEqualTo(2);
+        assertThat(nodeA.getTrackedCount()).isZero();
+        assertThat(nodeA.getStatus("alice")).isEqualTo(UserStatus.OFFLINE);
+    }
+
+    @Test
+    void onlineUsersStayTrackedAfterFlush() {
+        busA.getPresence().register("alice", "presence-a");
+        nodeA.online("alice");
+
+        nodeA.flush();
+
+        assertThat(nodeA.getTrackedCount()).isEqualTo(1);
+        assertThat(nodeA.getStatus("alice")).isEqualTo(UserStatus.ONLINE);
+    }
+
+    @Test
+    void resetSkipsUsersStillConnectedToOtherNodes() {
+        busB.getPresence().register("alice", "presence-b");
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class))).thenReturn(List.of("alice", "bob"));
+
+        nodeA.resetStaleStatuses();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(anyString(), rows.capture());
+        assertThat(rows.getValue()).hasSize(1);
+        assertThat(rows.getValue().get(0)).containsExactly("bob");
+    }
+}
@@ -0,0 +1,73 @@
+package com.ergouwebchat.service;
+
+import jakarta.websocket.RemoteEndpoint;
+import jakarta.websocket.Session;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SessionHeartbeatMonitorTest {
+
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private final SessionHeartbeatMonitor monitor =
+            new SessionHeartbeatMonitor(mock(MessageService.class), 1, 75, 1000, 2, 250);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        monitor.shutdown();
+    }
+
+    @Test
+    void blockedPingDoesNotDelayOtherSessions() throws Exception {
+        Session slow = session("slow", (properties) -> release.await());
+        CountDownLatch pinged = new CountDownLatch(1);
+        Map<String, Object> seenTimeout = new HashMap<>();
+        Session fast = session("fast", (properties) -> {
+            seenTimeout.put("timeout", properties.get(BLOCKING_SEND_TIMEOUT));
+            pinged.countDown();
+        });
+
+        monitor.register("slow", slow);
+        monitor.register("fast", fast);
+
+        assertThat(pinged.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(seenTimeout.get("timeout")).isEqualTo(250L);
+        // 发送结束后恢复会话原有的发送超时
+        Thread.sleep(50);
+        assertThat(fast.getUserProperties()).doesNotContainKey(BLOCKING_SEND_TIMEOUT);
+    }
+
+    private interface PingAction {
+        void run(Map<String, Object> properties) throws Exception;
+    }
+
+    private static Session session(String id, PingAction action) throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        RemoteEndpoint.Basic remote = mock(RemoteEndpoint.Basic.class);
+        doAnswer(invocation -> {
+            action.run(properties);
+            return null;
+        }).when(remote).sendPing(any(ByteBuffer.class));
+        Session session = mock(Session.class);
+        when(session.getId()).thenReturn(id);
+        when(session.isOpen()).thenReturn(true);
+        when(session.getUserProperties()).thenReturn(properties);
+        when(session.getBasicRemote()).thenReturn(remote);
+        return session;
+    }
+}
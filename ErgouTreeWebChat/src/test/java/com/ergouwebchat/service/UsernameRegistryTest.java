@@ -0,0 +1,57 @@
+package com.ergouwebchat.service;
+
+import com.ergouwebchat.repository.UserRepository;
+import com.ergouwebchat.service.cluster.ClusterBus;
+import com.ergouwebchat.service.cluster.InProcessClusterBus;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UsernameRegistryTest {
+
+    private final UserRepository userRepository = mock(UserRepository.class);
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+    @Test
+    void singleNodeAnswersAbsentNamesFromFilter() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class))).thenReturn(0L);
+        when(userRepository.existsByUsername("Alice")).thenReturn(true);
+        UsernameRegistry registry = new UsernameRegistry(userRepository, jdbcTemplate,
+                new InProcessClusterBus("node"), 1000, 0.01);
+        registry.rebuild();
+
+        registry.register("alice");
+        assertThat(registry.isAvailable("bob")).isTrue();
+        // 过滤器按小写保存，大小写不同的名字同样回落到数据库
+        assertThat(registry.isAvailable("Alice")).isFalse();
+
+        verify(userRepository, never()).existsByUsername("bob");
+        assertThat(registry.getStats()).containsEntry("filterAnswers", 1L).containsEntry("databaseChecks", 1L);
+    }
+
+    @Test
+    void clusterModeAlwaysChecksDatabase() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class))).thenReturn(0L);
+        // 其他节点注册的用户名不在本节点的过滤器中
+        when(userRepository.existsByUsername("carol")).thenReturn(true);
+        UsernameRegistry registry = new UsernameRegistry(userRepository, jdbcTemplate,
+                mock(ClusterBus.class), 1000, 0.01);
+        registry.buildOnStartup();
+        registry.rebuild();
+
+        assertThat(registry.isAvailable("carol")).isFalse();
+        assertThat(registry.isAvailable("dave")).isTrue();
+
+        verify(userRepository, times(1)).existsByUsername("dave");
+        assertThat(registry.getFilterAnswers()).isZero();
+    }
+}
@@ -0,0 +1,68 @@
+package com.ergouwebchat.service.auth;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HandshakeTokenServiceTest {
+
+    @Test
+    void issuedTokenVerifiesToUsername() {
+        HandshakeTokenService service = new HandshakeTokenService("secret", 300, 3600);
+        assertThat(service.verify(service.issue("二狗"))).isEqualTo("二狗");
+    }
+
+    @Test
+    void tokenIsAcceptedByNodeSharingTheSecret() {
+        HandshakeTokenService issuer = new HandshakeTokenService("secret", 300, 3600);
+        HandshakeTokenService other = new HandshakeTokenService("secret", 300, 3600);
+        assertThat(other.verify(issuer.issue("alice"))).isEqualTo("alice");
+        assertThat(new HandshakeTokenService("another", 300, 3600).verify(issuer.issue("alice"))).isNull();
+    }
+
+    @Test
+    void tamperedOrExpiredTokensAreRejected() {
+        HandshakeTokenService service = new HandshakeTokenService("secret", 300, 3600);
+        String token = service.issue("alice");
+        String forged = service.issue("mallory").substring(0, token.indexOf('.'))
+                + token.substring(token.indexOf('.'));
+        assertThat(service.verify(forged)).isNull();
+        assertThat(service.verify("garbage")).isNull();
+        assertThat(service.verify(null)).isNull();
+
+        HandshakeTokenService expired = new HandshakeTokenService("secret", -10, 3600);
+        assertThat(expired.verify(expired.issue("alice"))).isNull();
+    }
+
+    @Test
+    void renewalKeepsAuthenticationTimeAndStopsAfterMaxLifetime() {
+        HandshakeTokenService service = new HandshakeTokenService("secret", 300, 3600);
+        long now = System.currentTimeMillis();
+        String fresh = service.issue("alice");
+        HandshakeTokenService.Claims claims = service.verifyForRenewal(fresh);
+        assertThat(claims.getUsername()).isEqualTo("alice");
+
+        // 续期出来的令牌沿用认证时间
+        String renewed = service.issue("alice", claims.getAuthenticatedAt());
+        assertThat(service.verifyForRenewal(renewed).getAuthenticatedAt()).isEqualTo(claims.getAuthenticatedAt());
+
+        // 认证超过最长有效期：仍可握手到过期，但不能再续期
+        String stale = service.issue("alice", now - 3601_000L);
+        assertThat(service.verify(stale)).isEqualTo("alice");
+        assertThat(service.verifyForRenewal(stale)).isNull();
+    }
+
+    @Test
+    void revokedTokensAreRejected() {
+        HandshakeTokenService service = new HandshakeTokenService("secret", 300, 3600);
+        String token = service.issue("alice", System.currentTimeMillis() - 1000);
+
+        service.revoke("alice");
+
+        assertThat(service.verify(token)).isNull();
+        assertThat(service.verifyForRenewal(token)).isNull();
+        // 登出后重新登录取得的令牌不受影响
+        assertThat(service.verify(service.issue("alice", System.currentTimeMillis() + 1000))).isEqualTo("alice");
+        assertThat(service.verify(service.issue("bob"))).isEqualTo("bob");
+    }
+}
@@ -0,0 +1,73 @@
+package com.ergouwebchat.service.cache;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.model.Message;
+import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.service.factory.MessageFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FrameCacheTest {
+
+    private final FrameCache cache = FrameCache.getInstance();
+
+    @BeforeEach
+    void clear() {
+        cache.clear();
+    }
+
+    @Test
+    void encodesOnceAndDecodesFromOffHeap() {
+        ChatMessage message = MessageFactory.createSystemMessage("hello");
+        AtomicInteger encodes = new AtomicInteger();
+
+        String first = cache.getOrEncode(message, m -> "帧-" + encodes.incrementAndGet());
+        String second = cache.getOrEncode(message, m -> "帧-" + encodes.incrementAndGet());
+
+        assertEquals(1, encodes.get());
+        assertEquals(first, second);
+        // 按UTF-8字节计数
+        assertEquals((long) "帧-1".getBytes(StandardCharsets.UTF_8).length,
+                cache.getStats().get("bytes"));
+    }
+
+    @Test
+    void invalidateForcesReencode() {
+        ChatMessage message = MessageFactory.createSystemMessage("hello");
+        cache.getOrEncode(message, m -> "a");
+        cache.invalidate(message.getMessageId());
+
+        assertNull(cache.get(message.getMessageId()));
+        assertEquals("b", cache.getOrEncode(message, m -> "b"));
+    }
+
+    @Test
+    void oversizedFramesAreNotCached() {
+        ChatMessage message = MessageFactory.createSystemMessage("big");
+        String big = "x".repeat(64 * 1024 + 1);
+        cache.getOrEncode(message, m -> big);
+
+        assertNull(cache.get(message.getMessageId()));
+        assertEquals(0L, cache.getStats().get("frames"));
+    }
+
+    @Test
+    void clientSuppliedIdsAreNotUsedAsCacheKeys() {
+        Message first = new Message("same-id", MessageType.TEXT, "alice", null, "one", null, null);
+        Message second = new Message("same-id", MessageType.TEXT, "bob", null, "two", null, null);
+        ChatMessage a = ChatMessage.fromMessage(first);
+        ChatMessage b = ChatMessage.fromMessage(second);
+
+        assertNotEquals("same-id", a.getMessageId());
+        assertNotEquals(a.getMessageId(), b.getMessageId());
+        assertEquals("one", cache.getOrEncode(a, ChatMessage::getContent));
+        assertEquals("two", cache.getOrEncode(b, ChatMessage::getContent));
+    }
+}
@@ -0,0 +1,108 @@
+package com.ergouwebchat.service.cache;
+
+import com.ergouwebchat.model.entity.User;
+import com.ergouwebchat.repository.UserRepository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UserCacheTest {
+
+    private final UserRepository repository = mock(UserRepository.class);
+
+    @Test
+    void cachesHitsAndMissesAndCountsThem() {
+        when(repository.findByUsername("alice")).thenReturn(Optional.of(user(1L, "alice")));
+        when(repository.findByUsername("ghost")).thenReturn(Optional.empty());
+        UserCache cache = new UserCache(repository, 100, 60_000, 60_000);
+
+        assertThat(cache.find("alice")).isPresent();
+        assertThat(cache.find("alice")).isPresent();
+        assertThat(cache.find("ghost")).isEmpty();
+        assertThat(cache.isKnownAbsent("ghost")).isTrue();
+
+        verify(repository, times(1)).findByUsername("alice");
+        verify(repository, times(1)).findByUsername("ghost");
+        assertThat(cache.getStats()).containsEntry("hits", 1L).containsEntry("misses", 2L)
+                .containsEntry("negativeHits", 1L).containsEntry("entries", 2L);
+    }
+
+    @Test
+    void invalidateForcesReload() {
+        when(repository.findByUsername("alice")).thenReturn(Optional.of(user(1L, "alice")));
+        UserCache cache = new UserCache(repository, 100, 60_000, 60_000);
+
+        cache.find("alice");
+        cache.invalidate("alice");
+        cache.find("alice");
+
+        verify(repository, times(2)).findByUsername("alice");
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBeyondLimit() throws InterruptedException {
+        when(repository.findByUsername(anyString()))
+                .thenAnswer(inv -> Optional.of(user(1L, inv.getArgument(0))));
+        UserCache cache = new UserCache(repository, 10, 60_000, 60_000);
+
+        cache.find("keep");
+        for (int i = 0; i < 20; i++) {
+            Thread.sleep(1);
+            cache.find("user" + i);
+            // 一直访问的条目不会被淘汰
+            cache.find("keep");
+        }
+
+        assertThat(cache.getSize()).isLessThanOrEqualTo(10);
+        cache.find("keep");
+        verify(repository, times(1)).findByUsername("keep");
+    }
+
+    @Test
+    void concurrentLookupsDoNotLoseCounts() throws Exception {
+        when(repository.findByUsername(anyString()))
+                .thenAnswer(inv -> Optional.of(user(1L, inv.getArgument(0))));
+        UserCache cache = new UserCache(repository, 1000, 60_000, 60_000);
+        cache.find("alice");
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            Future<?>[] futures = new Future<?>[8];
+            for (int t = 0; t < futures.length; t++) {
+                futures[t] = pool.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        cache.find("alice");
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertThat(cache.getHits()).isEqualTo(80_000);
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    private static User user(Long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        user.setNickname(username);
+        return user;
+    }
+}
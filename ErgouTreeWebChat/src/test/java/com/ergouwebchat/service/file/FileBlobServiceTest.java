@@ -0,0 +1,209 @@
+package com.ergouwebchat.service.file;
+
+import com.ergouwebchat.model.entity.FileBlob;
+import com.ergouwebchat.repository.FileBlobRepository;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileBlobServiceTest {
+
+    private static final String HASH = "ab".repeat(32);
+    private static final String OTHER_HASH = "cd".repeat(32);
+    private static final long GRACE_MILLIS = 60_000;
+
+    @TempDir
+    Path directory;
+
+    private final FileBlobRepository blobRepository = mock(FileBlobRepository.class);
+    private FileStorage storage;
+    private FileBlobService service;
+
+    @BeforeEach
+    void setUp() {
+        storage = new FileStorage(directory.toString());
+        service = new FileBlobService(blobRepository, storage, mock(PlatformTransactionManager.class), GRACE_MILLIS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void releaseDropsOneReference() {
+        service.release(HASH);
+
+        verify(blobRepository).release(eq(HASH), eq(1), any());
+    }
+
+    @Test
+    void countsDedupHitsWhenContentAlreadyExists() throws IOException {
+        when(blobRepository.retain(anyString(), anyLong(), anyString(), any())).thenReturn(1, 2);
+        writeUpload("u1");
+        writeUpload("u2");
+
+        String path = service.acquire("u1", HASH, 5);
+        service.acquire("u2", HASH, 5);
+
+        assertThat(storage.resolve(path)).exists();
+        // 第二次上传的文件被丢弃
+        assertThat(directory.resolve("uploads/u2.part")).doesNotExist();
+        assertThat(service.getStats()).containsEntry("dedupHits", 1L).containsEntry("savedBytes", 5L);
+    }
+
+    @Test
+    void deletesCollectedContentOnlyAfterCommit() throws IOException {
+        Path file = writeBlob(HASH, System.currentTimeMillis());
+        collectInTransaction();
+
+        // 锁内移到回收目录，提交后才删除
+        assertThat(file).doesNotExist();
+        assertThat(trashFiles()).hasSize(1);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertThat(trashFiles()).isEmpty();
+        assertThat(service.getStats()).containsEntry("collected", 1L);
+    }
+
+    @Test
+    void restoresCollectedContentOnRollback() throws IOException {
+        Path file = writeBlob(HASH, System.currentTimeMillis());
+        collectInTransaction();
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertThat(file).exists();
+        assertThat(trashFiles()).isEmpty();
+    }
+
+    @Test
+    void acquireRacingCollectionKeepsItsOwnUpload() throws IOException {
+        Path file = writeBlob(HASH, System.currentTimeMillis());
+        collectInTransaction();
+        when(blobRepository.retain(anyString(), anyLong(), anyString(), any())).thenReturn(1);
+        writeUpload("u1");
+
+        // 回收提交后、删除文件前增加引用：内容路径已空出，移入本次上传的文件
+        service.acquire("u1", HASH, 5);
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertThat(file).exists();
+        assertThat(directory.resolve("uploads/u1.part")).doesNotExist();
+        assertThat(trashFiles()).isEmpty();
+    }
+
+    @Test
+    void keepsContentThatIsReferencedAgain() throws IOException {
+        Path file = writeBlob(HASH, System.currentTimeMillis());
+        FileBlob blob = new FileBlob();
+        blob.setHash(HASH);
+        blob.setPath(storage.blobPath(HASH));
+        blob.setRefCount(1);
+        when(blobRepository.findUnreferenced(any(), any())).thenReturn(List.of(HASH));
+        when(blobRepository.findLockedByHash(HASH)).thenReturn(Optional.of(blob));
+
+        service.collectGarbage();
+
+        verify(blobRepository, never()).delete(any(FileBlob.class));
+        assertThat(file).exists();
+    }
+
+    @Test
+    void sweepsOldFilesWithoutRecord() throws IOException {
+        long old = System.currentTimeMillis() - 2 * GRACE_MILLIS;
+        Path orphan = writeBlob(HASH, old);
+        Path recorded = writeBlob(OTHER_HASH, old);
+        Path recent = writeBlob("ef".repeat(32), System.currentTimeMillis());
+        when(blobRepository.findExistingHashes(any())).thenReturn(List.of(OTHER_HASH));
+        when(blobRepository.findLockedByHash(any())).thenReturn(Optional.empty());
+
+        service.sweepOrphans();
+
+        assertThat(orphan).doesNotExist();
+        assertThat(recorded).exists();
+        // 宽限期内的文件可能属于还没提交的事务
+        assertThat(recent).exists();
+        assertThat(service.getStats()).containsEntry("orphansRemoved", 1L);
+    }
+
+    @Test
+    void sweepKeepsFileWhoseRecordAppearsBeforeLocking() throws IOException {
+        Path file = writeBlob(HASH, System.currentTimeMillis() - 2 * GRACE_MILLIS);
+        when(blobRepository.findExistingHashes(any())).thenReturn(Collections.emptyList());
+        when(blobRepository.findLockedByHash(HASH)).thenReturn(Optional.of(new FileBlob()));
+
+        service.sweepOrphans();
+
+        assertThat(file).exists();
+    }
+
+    private void collectInTransaction() {
+        FileBlob blob = new FileBlob();
+        blob.setHash(HASH);
+        blob.setPath(storage.blobPath(HASH));
+        when(blobRepository.findUnreferenced(any(), any())).thenReturn(List.of(HASH));
+        when(blobRepository.findLockedByHash(HASH)).thenReturn(Optional.of(blob));
+        TransactionSynchronizationManager.initSynchronization();
+
+        service.collectGarbage();
+
+        verify(blobRepository).delete(blob);
+    }
+
+    private static void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        for (TransactionSynchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(status);
+        }
+    }
+
+    private List<Path> trashFiles() throws IOException {
+        Path trash = directory.resolve("trash");
+        if (!Files.isDirectory(trash)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(trash)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private void writeUpload(String uploadId) throws IOException {
+        Files.write(directory.resolve("uploads").resolve(uploadId + ".part"), new byte[5]);
+    }
+
+    private Path writeBlob(String hash, long modifiedMillis) throws IOException {
+        Path path = storage.resolve(storage.blobPath(hash));
+        Files.createDirectories(path.getParent());
+        Files.write(path, new byte[5]);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(modifiedMillis));
+        return path;
+    }
+}
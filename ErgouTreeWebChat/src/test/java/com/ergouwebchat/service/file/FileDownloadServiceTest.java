@@ -0,0 +1,98 @@
+package com.ergouwebchat.service.file;
+
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.entity.Conversation;
+import com.ergouwebchat.model.entity.FileEntity;
+import com.ergouwebchat.repository.ConversationRepository;
+import com.ergouwebchat.repository.FileRepository;
+import com.ergouwebchat.service.ConversationHistory;
+import com.ergouwebchat.service.MembershipService;
+import com.ergouwebchat.service.cache.UserCache;
+import com.ergouwebchat.service.storage.JpaMessageStore;
+import com.ergouwebchat.service.storage.MessageStore;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileDownloadServiceTest {
+
+    private final ConversationRepository conversationRepository = mock(ConversationRepository.class);
+    private final MembershipService membershipService = mock(MembershipService.class);
+    private final UserCache userCache = mock(UserCache.class);
+    private final MessageStore messageStore = mock(MessageStore.class);
+    private final FileDownloadService service = new FileDownloadService(mock(FileRepository.class),
+            mock(FileStorage.class), conversationRepository, membershipService, userCache, messageStore);
+
+    @BeforeEach
+    void setUp() {
+        when(userCache.find("alice")).thenReturn(Optional.of(new UserProfile(1L, "alice", "Alice", "#000")));
+        when(userCache.find("bob")).thenReturn(Optional.of(new UserProfile(2L, "bob", "Bob", "#000")));
+        when(messageStore.supportsReadStatus()).thenReturn(true);
+        Conversation group = new Conversation();
+        group.setId(7L);
+        when(conversationRepository.findByTypeAndName(Conversation.ConversationType.GROUP, JpaMessageStore.GROUP_NAME))
+                .thenReturn(Optional.of(group));
+    }
+
+    @Test
+    void deniesFilesWithoutConversationKey() {
+        assertThat(service.canAccess(fileIn(null), "alice")).isFalse();
+    }
+
+    @Test
+    void onlyParticipantsCanDownloadPrivateFiles() {
+        FileEntity file = fileIn(ConversationHistory.privateKey("alice", "bob"));
+
+        assertThat(service.canAccess(file, "alice")).isTrue();
+        assertThat(service.canAccess(file, "bob")).isTrue();
+        assertThat(service.canAccess(file, "carol")).isFalse();
+    }
+
+    @Test
+    void groupFilesRequireMembership() {
+        when(membershipService.isMember(7L, 1L)).thenReturn(true);
+        FileEntity file = fileIn(ConversationHistory.GROUP_KEY);
+
+        assertThat(service.canAccess(file, "alice")).isTrue();
+        assertThat(service.canAccess(file, "bob")).isFalse();
+        // 未注册的用户不查成员表
+        assertThat(service.canAccess(file, "carol")).isFalse();
+        verify(membershipService, times(2)).isMember(any(), any());
+        // 群聊会话ID只查一次
+        verify(conversationRepository, times(1)).findByTypeAndName(any(), any());
+    }
+
+    @Test
+    void groupFilesAreDeniedBeforeGroupExists() {
+        when(conversationRepository.findByTypeAndName(any(), any())).thenReturn(Optional.empty());
+
+        assertThat(service.canAccess(fileIn(ConversationHistory.GROUP_KEY), "alice")).isFalse();
+    }
+
+    @Test
+    void logBackendFallsBackToRegisteredUsers() {
+        when(messageStore.supportsReadStatus()).thenReturn(false);
+        FileEntity file = fileIn(ConversationHistory.GROUP_KEY);
+
+        assertThat(service.canAccess(file, "alice")).isTrue();
+        assertThat(service.canAccess(file, "carol")).isFalse();
+        verify(membershipService, never()).isMember(any(), anyLong());
+    }
+
+    private static FileEntity fileIn(String conversationKey) {
+        FileEntity file = new FileEntity();
+        file.setConversationKey(conversationKey);
+        return file;
+    }
+}
@@ -0,0 +1,54 @@
+package com.ergouwebchat.service.file;
+
+import com.ergouwebchat.repository.FileBlobRepository;
+import com.ergouwebchat.repository.FileRepository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileRetentionServiceTest {
+
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final FileBlobRepository blobRepository = mock(FileBlobRepository.class);
+    private final FileRetentionService service = new FileRetentionService(fileRepository, blobRepository,
+            mock(PlatformTransactionManager.class), 2, 0);
+
+    @Test
+    void releasesBlobReferencesBeforeDeletingRowsChunkByChunk() {
+        when(fileRepository.findIdsByConversationKeyBefore(eq("GROUP"), any(), any()))
+                .thenReturn(List.of(1L, 2L), List.of(3L), Collections.emptyList());
+        when(fileRepository.countBlobReferencesByIds(List.of(1L, 2L)))
+                .thenReturn(List.<Object[]>of(new Object[]{"aa", 2L}));
+        when(fileRepository.countBlobReferencesByIds(List.of(3L)))
+                .thenReturn(List.<Object[]>of(new Object[]{"bb", 1L}));
+        when(fileRepository.deleteByIds(List.of(1L, 2L))).thenReturn(2);
+        when(fileRepository.deleteByIds(List.of(3L))).thenReturn(1);
+
+        assertThat(service.purgeConversationBefore("GROUP", 1_000)).isEqualTo(3);
+
+        // 同一内容的两条记录合并为一次减少两个引用
+        verify(blobRepository).release(eq("aa"), eq(2), any());
+        verify(blobRepository).release(eq("bb"), eq(1), any());
+    }
+
+    @Test
+    void stopsWhenNothingIsLeft() {
+        when(fileRepository.findIdsBefore(any(), any())).thenReturn(Collections.emptyList());
+
+        assertThat(service.purgeBefore(1_000)).isZero();
+        verify(fileRepository, never()).deleteByIds(any());
+        verify(blobRepository, never()).release(any(), anyInt(), any());
+    }
+}
@@ -0,0 +1,157 @@
+package com.ergouwebchat.service.file;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.model.entity.FileEntity;
+import com.ergouwebchat.model.entity.FileUpload;
+import com.ergouwebchat.repository.FileRepository;
+import com.ergouwebchat.repository.FileUploadRepository;
+import com.ergouwebchat.service.MessageService;
+import com.ergouwebchat.service.cache.UserCache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileUploadServiceTest {
+
+    private static final byte[] CONTENT = "0123456789".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path directory;
+
+    private final FileUploadRepository uploadRepository = mock(FileUploadRepository.class);
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final FileBlobService blobService = mock(FileBlobService.class);
+    private final MessageService messageService = mock(MessageService.class);
+    private FileStorage storage;
+    private FileUpload upload;
+
+    @BeforeEach
+    void setUp() {
+        storage = new FileStorage(directory.toString());
+        upload = new FileUpload();
+        upload.setId("u1");
+        upload.setUploader("alice");
+        upload.setFileName("a.txt");
+        upload.setFileType("text/plain");
+        upload.setTotalSize((long) CONTENT.length);
+        when(uploadRepository.findById("u1")).thenAnswer(inv -> Optional.of(upload));
+        // 条件更新进度：只有当前值等于预期值时才推进
+        when(uploadRepository.advance(eq("u1"), anyLong(), anyLong(), any())).thenAnswer(inv -> {
+            if (!upload.getReceivedBytes().equals(inv.getArgument(1))) {
+                return 0;
+            }
+            upload.setReceivedBytes(inv.getArgument(2));
+            return 1;
+        });
+        when(uploadRepository.claimCompleted("u1")).thenReturn(1);
+        when(blobService.acquire(eq("u1"), anyString(), anyLong())).thenReturn("blobs/path");
+        when(fileRepository.save(any())).thenAnswer(inv -> {
+            FileEntity file = inv.getArgument(0);
+            file.setId(42L);
+            return file;
+        });
+        when(messageService.process(any(ChatMessage.class))).thenReturn(true);
+    }
+
+    @Test
+    void resumesAfterRestartAndRehashesTheWholeFile() throws Exception {
+        FileUploadService first = open();
+        assertThat(first.appendChunk("u1", "alice", 0, chunk(0, 4))).isEqualTo(4);
+        // 位置不一致的分块被拒绝，进度不变
+        assertThatThrownBy(() -> first.appendChunk("u1", "alice", 2, chunk(2, 6)))
+                .hasMessageContaining("已接收 4 字节");
+
+        // 服务重启后内存中的摘要丢失，从已接收的位置继续
+        FileUploadService restarted = open();
+        assertThat(restarted.appendChunk("u1", "alice", 4, chunk(4, 8))).isEqualTo(8);
+        assertThat(restarted.appendChunk("u1", "alice", 8, chunk(8, 10))).isEqualTo(10);
+
+        FileEntity file = restarted.complete("u1", "alice");
+
+        assertThat(file.getId()).isEqualTo(42L);
+        assertThat(file.getBlobHash()).isEqualTo(sha256(CONTENT));
+        verify(blobService).acquire("u1", sha256(CONTENT), CONTENT.length);
+    }
+
+    @Test
+    void keepsTheDigestAcrossChunksWithoutRestart() {
+        FileUploadService service = open();
+        service.appendChunk("u1", "alice", 0, chunk(0, 4));
+        service.appendChunk("u1", "alice", 4, chunk(4, 10));
+
+        assertThat(service.complete("u1", "alice").getBlobHash()).isEqualTo(sha256(CONTENT));
+    }
+
+    @Test
+    void onlyOneCompletionClaimsTheUpload() {
+        FileUploadService service = open();
+        service.appendChunk("u1", "alice", 0, chunk(0, 6));
+        service.appendChunk("u1", "alice", 6, chunk(6, 10));
+        when(uploadRepository.claimCompleted("u1")).thenReturn(0);
+
+        assertThatThrownBy(() -> service.complete("u1", "alice")).hasMessageContaining("正在完成或已完成");
+        verify(blobService, never()).acquire(anyString(), anyString(), anyLong());
+        verify(fileRepository, never()).save(any());
+    }
+
+    @Test
+    void offlineRecipientKeepsTheUploadForRetry() {
+        upload.setRecipient("bob");
+        FileUploadService service = open();
+        service.appendChunk("u1", "alice", 0, chunk(0, 6));
+        service.appendChunk("u1", "alice", 6, chunk(6, 10));
+
+        assertThatThrownBy(() -> service.complete("u1", "alice")).hasMessageContaining("不在线");
+        verify(uploadRepository, never()).claimCompleted(anyString());
+        verify(blobService, never()).acquire(anyString(), anyString(), anyLong());
+    }
+
+    @Test
+    void rejectedMessageRemovesTheFileRecord() {
+        when(messageService.process(any(ChatMessage.class))).thenReturn(false);
+        FileUploadService service = open();
+        service.appendChunk("u1", "alice", 0, chunk(0, 6));
+        service.appendChunk("u1", "alice", 6, chunk(6, 10));
+
+        assertThatThrownBy(() -> service.complete("u1", "alice")).hasMessageContaining("发送文件消息失败");
+        verify(fileRepository).delete(any(FileEntity.class));
+        verify(blobService).release(sha256(CONTENT));
+    }
+
+    private FileUploadService open() {
+        return new FileUploadService(uploadRepository, fileRepository, storage, blobService, messageService,
+                mock(UserCache.class), mock(PlatformTransactionManager.class), 1024, 6, 60_000);
+    }
+
+    private static ByteArrayInputStream chunk(int from, int to) {
+        return new ByteArrayInputStream(CONTENT, from, to - from);
+    }
+
+    private static String sha256(byte[] data) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
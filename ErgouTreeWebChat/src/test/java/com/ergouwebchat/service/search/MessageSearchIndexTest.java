@@ -0,0 +1,123 @@
+package com.ergouwebchat.service.search;
+
+import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.service.ConversationHistory;
+import com.ergouwebchat.service.storage.MessageArchive;
+import com.ergouwebchat.service.storage.MessageStore;
+import com.ergouwebchat.service.storage.SegmentedLogMessageStore;
+import com.ergouwebchat.service.storage.StoredMessage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class MessageSearchIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private SegmentedLogMessageStore store;
+    private MessageArchive archive;
+    private MessageSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        store = new SegmentedLogMessageStore(directory.resolve("log").toString(), 1024 * 1024, 4, 60_000);
+        archive = new MessageArchive(directory.resolve("archive").toString());
+        index = new MessageSearchIndex(store, archive, false);
+    }
+
+    @AfterEach
+    void tearDown() {
+        store.close();
+    }
+
+    @Test
+    void findsMessagesInOwnConversationsOnly() {
+        add("m1", ConversationHistory.GROUP_KEY, "alice", null, "今天一起吃火锅吧", 1000);
+        add("m2", ConversationHistory.privateKey("alice", "bob"), "alice", "bob", "火锅店在哪里", 2000);
+        add("m3", ConversationHistory.privateKey("carol", "dave"), "carol", "dave", "火锅太辣了", 3000);
+
+        assertThat(ids(index.search("bob", "火锅", 10))).containsExactly("m2", "m1");
+        assertThat(ids(index.search("carol", "火锅", 10))).containsExactly("m3", "m1");
+        assertThat(index.search("bob", "烧烤", 10)).isEmpty();
+    }
+
+    @Test
+    void contentIsLoadedFromArchiveWhenNotInStore() {
+        StoredMessage archived = new StoredMessage("a1", ConversationHistory.GROUP_KEY, "alice", null,
+                MessageType.TEXT, "archived hello world", null, 500);
+        archive.write(List.of(archived));
+        index.index(archived);
+
+        List<SearchHit> hits = index.search("bob", "hello", 10);
+        assertThat(hits).hasSize(1);
+        assertThat(hits.get(0).getContent()).isEqualTo("archived hello world");
+    }
+
+    @Test
+    void candidatesAreLoadedWithOneStoreQueryPerConversation() {
+        MessageStore database = mock(MessageStore.class);
+        MessageSearchIndex databaseIndex = new MessageSearchIndex(database, archive, false);
+        List<StoredMessage> messages = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            StoredMessage message = new StoredMessage("m" + i, ConversationHistory.GROUP_KEY, "alice", null,
+                    MessageType.TEXT, "weekly status " + i, null, i * 1000L);
+            messages.add(message);
+            databaseIndex.index(message);
+        }
+        when(database.findByIds(eq(ConversationHistory.GROUP_KEY), anyMap())).thenReturn(messages);
+
+        assertThat(ids(databaseIndex.search("bob", "status", 3))).containsExactly("m20", "m19", "m18");
+        verify(database, times(1)).findByIds(eq(ConversationHistory.GROUP_KEY), anyMap());
+        verify(database, never()).findRange(any(), anyLong(), anyLong(), anyInt());
+    }
+
+    @Test
+    void retentionPhysicallyCompactsTheIndex() {
+        for (int i = 1; i <= 10; i++) {
+            add("m" + i, ConversationHistory.GROUP_KEY, "alice", null, "status report " + i, i * 1000L);
+        }
+        assertThat(index.getDocumentCount()).isEqualTo(10);
+
+        index.removeBefore(6000);
+        assertThat(index.getDocumentCount()).isEqualTo(5);
+        assertThat(ids(index.search("bob", "report", 10))).containsExactly("m10", "m9", "m8", "m7", "m6");
+
+        index.removeConversationBefore(ConversationHistory.GROUP_KEY, 9000);
+        assertThat(index.getDocumentCount()).isEqualTo(2);
+        assertThat(ids(index.search("bob", "report", 10))).containsExactly("m10", "m9");
+
+        // 压缩后新增的文档照常可查
+        add("m11", ConversationHistory.GROUP_KEY, "alice", null, "final report", 11_000);
+        assertThat(ids(index.search("bob", "final report", 10))).containsExactly("m11");
+    }
+
+    private void add(String id, String key, String sender, String recipient, String content, long createdAt) {
+        StoredMessage message = new StoredMessage(id, key, sender, recipient, MessageType.TEXT, content, null, createdAt);
+        store.append(message);
+        index.index(message);
+    }
+
+    private static List<String> ids(List<SearchHit> hits) {
+        return hits.stream().map(SearchHit::getMessageId).collect(Collectors.toList());
+    }
+}
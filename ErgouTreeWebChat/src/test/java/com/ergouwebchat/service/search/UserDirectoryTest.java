@@ -0,0 +1,72 @@
+package com.ergouwebchat.service.search;
+
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.enums.UserStatus;
+import com.ergouwebchat.service.PresenceService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UserDirectoryTest {
+
+    private final PresenceService presenceService = mock(PresenceService.class);
+    private final UserDirectory directory = new UserDirectory(mock(JdbcTemplate.class), presenceService);
+
+    @BeforeEach
+    void setUp() {
+        when(presenceService.getStatus(anyString())).thenReturn(UserStatus.OFFLINE);
+        directory.put(new UserProfile(1L, "alice", "Wonder", null));
+        directory.put(new UserProfile(2L, "albert", "Al", null));
+        directory.put(new UserProfile(3L, "bob", "alpha", null));
+        directory.put(new UserProfile(4L, "carol", "carol", null));
+    }
+
+    @Test
+    void matchesUsernameAndNicknamePrefixesIgnoringCase() {
+        assertThat(usernames(directory.search("AL", 10, null))).containsExactly("albert", "alice", "bob");
+        assertThat(usernames(directory.search("won", 10, null))).containsExactly("alice");
+        assertThat(usernames(directory.search("z", 10, null))).isEmpty();
+        // 昵称与用户名相同时只建一个索引项
+        assertThat(directory.getKeyCount()).isEqualTo(7);
+    }
+
+    @Test
+    void listsOnlineUsersFirstAndHonoursLimitAndExclusion() {
+        when(presenceService.getStatus("bob")).thenReturn(UserStatus.ONLINE);
+
+        assertThat(usernames(directory.search("al", 10, null))).containsExactly("bob", "albert", "alice");
+        assertThat(usernames(directory.search("al", 2, null))).containsExactly("bob", "albert");
+        assertThat(usernames(directory.search("al", 10, "albert"))).containsExactly("bob", "alice");
+    }
+
+    @Test
+    void replacesOldKeysWhenNicknameChanges() {
+        directory.put(new UserProfile(3L, "bob", "Builder", null));
+
+        assertThat(usernames(directory.search("alp", 10, null))).isEmpty();
+        assertThat(usernames(directory.search("bu", 10, null))).containsExactly("bob");
+        assertThat(directory.getKeyCount()).isEqualTo(7);
+    }
+
+    @Test
+    void rebuildReplacesIndexWithDatabaseContents() {
+        // 模拟的数据库没有用户，重建后只剩之后加入的用户
+        directory.rebuild();
+        assertThat(directory.getKeyCount()).isZero();
+
+        directory.put(new UserProfile(5L, "dave", null, null));
+        assertThat(usernames(directory.search("d", 10, null))).containsExactly("dave");
+    }
+
+    private static List<String> usernames(List<UserProfile> profiles) {
+        return profiles.stream().map(UserProfile::getUsername).toList();
+    }
+}
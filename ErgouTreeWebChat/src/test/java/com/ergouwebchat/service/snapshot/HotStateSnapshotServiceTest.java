@@ -0,0 +1,102 @@
+package com.ergouwebchat.service.snapshot;
+
+import com.ergouwebchat.model.ChatMessage;
+import com.ergouwebchat.model.UserProfile;
+import com.ergouwebchat.model.entity.User;
+import com.ergouwebchat.repository.UserRepository;
+import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.service.ConversationHistory;
+import com.ergouwebchat.service.MessageService;
+import com.ergouwebchat.service.cache.UserCache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HotStateSnapshotServiceTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void savedSnapshotIsRestoredAndReplacedWithoutLeftovers() {
+        Path file = directory.resolve("hot-state.snap");
+        ChatMessage message = new ChatMessage(MessageType.TEXT, "alice", "hello");
+        message.setSequence(7);
+
+        MessageService source = mock(MessageService.class);
+        when(source.getHistorySnapshot()).thenReturn(Map.of(ConversationHistory.GROUP_KEY, List.of(message)));
+        when(source.getHistorySequence()).thenReturn(7L);
+        UserRepository sourceUsers = mock(UserRepository.class);
+        User alice = new User();
+        alice.setId(1L);
+        alice.setUsername("alice");
+        alice.setNickname("爱丽丝");
+        when(sourceUsers.findByUsername("alice")).thenReturn(Optional.of(alice));
+        UserCache sourceCache = new UserCache(sourceUsers, 100, 600_000, 30_000);
+        sourceCache.find("alice");
+        // 负缓存不进快照
+        sourceCache.find("nobody");
+        HotStateSnapshotService writer = new HotStateSnapshotService(source, sourceCache, file.toString());
+        assertThat(writer.save()).isTrue();
+        // 第二次保存替换已有的快照文件
+        assertThat(writer.save()).isTrue();
+        assertThat(Files.exists(directory.resolve("hot-state.snap.tmp"))).isFalse();
+
+        MessageService target = mock(MessageService.class);
+        UserRepository targetUsers = mock(UserRepository.class);
+        UserCache targetCache = new UserCache(targetUsers, 100, 600_000, 30_000);
+        new HotStateSnapshotService(target, targetCache, file.toString()).restore();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<String, List<ChatMessage>>> history = ArgumentCaptor.forClass(Map.class);
+        verify(target).restoreHistory(history.capture(), eq(7L));
+        ChatMessage restored = history.getValue().get(ConversationHistory.GROUP_KEY).get(0);
+        assertThat(restored.getContent()).isEqualTo("hello");
+        assertThat(restored.getSequence()).isEqualTo(7L);
+
+        // 用户资料从快照恢复，不查数据库
+        assertThat(targetCache.getSize()).isEqualTo(1);
+        assertThat(targetCache.find("alice").orElseThrow().getNickname()).isEqualTo("爱丽丝");
+        verify(targetUsers, never()).findByUsername(anyString());
+    }
+
+    @Test
+    void expiredProfilesAreNotRestored() {
+        UserCache cache = new UserCache(mock(UserRepository.class), 100, 1_000, 1_000);
+        HotStateSnapshot snapshot = new HotStateSnapshot(0, Map.of(), 0, List.of());
+        assertThat(snapshot.getUserProfiles()).isEmpty();
+        assertThat(cache.restore(new UserProfile(1L, "alice", "a", "#000"),
+                System.currentTimeMillis() - 5_000)).isFalse();
+        assertThat(cache.getSize()).isZero();
+    }
+
+    @Test
+    void seqMetadataIsNoLongerSwallowed() {
+        ChatMessage message = new ChatMessage(MessageType.TEXT, "alice", "hello");
+        message.addMetadata("seq", 3);
+        assertThat(message.getExtraMetadata("seq")).isEqualTo(3);
+    }
+
+    @Test
+    void sequenceIsNotExposedAsMetadata() {
+        ChatMessage message = new ChatMessage(MessageType.TEXT, "alice", "hello");
+        message.setSequence(42);
+        assertThat(message.toMetadataMap()).doesNotContainKey("seq");
+        assertThat(message.toMessage().getMetadata()).doesNotContainKey("seq");
+    }
+}
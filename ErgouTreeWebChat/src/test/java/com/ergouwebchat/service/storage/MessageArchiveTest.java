@@ -0,0 +1,126 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.model.enums.MessageType;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageArchiveTest {
+
+    private static final String KEY = "GROUP";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void retryingSameBatchReplacesFile() {
+        MessageArchive archive = new MessageArchive(directory.toString());
+        List<StoredMessage> batch = messages(1, 5);
+        archive.write(batch);
+        // 上次删除失败，同一批次再次归档
+        archive.write(messages(1, 5));
+
+        assertThat(archive.getFileCount()).isEqualTo(1);
+        assertThat(ids(archive.findRange(KEY, 0, Long.MAX_VALUE, 100))).containsExactly("m1", "m2", "m3", "m4", "m5");
+        assertThat(new MessageArchive(directory.toString()).getFileCount()).isEqualTo(1);
+    }
+
+    @Test
+    void overlappingBatchesAreDeduplicatedOnRead() {
+        MessageArchive archive = new MessageArchive(directory.toString());
+        archive.write(messages(1, 5));
+        // 上一批次只删除了前两条，剩余消息进入下一个文件
+        archive.write(messages(3, 8));
+
+        assertThat(archive.getFileCount()).isEqualTo(2);
+        assertThat(ids(archive.findRange(KEY, 0, Long.MAX_VALUE, 100)))
+                .containsExactly("m1", "m2", "m3", "m4", "m5", "m6", "m7", "m8");
+        assertThat(ids(archive.findRecent(KEY, 4, Long.MAX_VALUE))).containsExactly("m8", "m7", "m6", "m5");
+        List<String> all = new ArrayList<>();
+        archive.forEach(message -> all.add(message.getMessageId()));
+        assertThat(all).hasSize(8).doesNotHaveDuplicates();
+    }
+
+    @Test
+    void compactionRemovesDeletedConversationFromFiles() throws Exception {
+        MessageArchive archive = new MessageArchive(directory.toString());
+        List<StoredMessage> batch = messages(KEY, 1, 3);
+        batch.addAll(messages("PRIVATE:alice:bob", 4, 5));
+        archive.write(batch);
+        archive.write(messages(KEY, 6, 7));
+
+        archive.deleteConversation(KEY);
+        assertThat(archive.compact()).isEqualTo(2);
+
+        // 只含被删除会话的文件整个删除，另一个文件只剩其他会话的消息
+        assertThat(archive.getFileCount()).isEqualTo(1);
+        MessageArchive reopened = new MessageArchive(directory.toString());
+        assertThat(reopened.findRange(KEY, 0, Long.MAX_VALUE, 100)).isEmpty();
+        assertThat(ids(reopened.findRange("PRIVATE:alice:bob", 0, Long.MAX_VALUE, 100))).containsExactly("m4", "m5");
+        List<String> all = new ArrayList<>();
+        reopened.forEach(message -> all.add(message.getMessageId()));
+        assertThat(all).containsExactly("m4", "m5");
+    }
+
+    @Test
+    void compactionRewritesPartiallyExpiredFiles() {
+        MessageArchive archive = new MessageArchive(directory.toString());
+        archive.write(messages(KEY, 1, 5));
+
+        archive.deleteConversationBefore(KEY, 3500);
+        assertThat(archive.compact()).isEqualTo(1);
+        // 再次压缩没有需要重写的文件
+        assertThat(archive.compact()).isZero();
+
+        assertThat(ids(archive.findRange(KEY, 0, Long.MAX_VALUE, 100))).containsExactly("m4", "m5");
+        assertThat(ids(new MessageArchive(directory.toString()).findRange(KEY, 0, Long.MAX_VALUE, 100)))
+                .containsExactly("m4", "m5");
+    }
+
+    @Test
+    void tombstonesArePrunedOnceFilesAreCompacted() throws Exception {
+        MessageArchive archive = new MessageArchive(directory.toString());
+        archive.write(messages(KEY, 1, 5));
+        archive.deleteConversation(KEY);
+        archive.compact();
+        // 刚写入的墓碑要挡住稍后写入的旧批次
+        assertThat(archive.getTombstoneCount()).isEqualTo(1);
+        archive.write(messages(KEY, 1, 2));
+        assertThat(archive.findRange(KEY, 0, Long.MAX_VALUE, 100)).isEmpty();
+        archive.compact();
+
+        // 重启后墓碑已过了保护期，压缩完成即可丢弃
+        MessageArchive reopened = new MessageArchive(directory.toString());
+        assertThat(reopened.getTombstoneCount()).isEqualTo(1);
+        assertThat(reopened.compactIfNeeded()).isZero();
+        assertThat(reopened.getTombstoneCount()).isZero();
+        assertThat(reopened.getFileCount()).isZero();
+        assertThat(Files.readAllLines(directory.resolve("tombstones"), StandardCharsets.UTF_8)).isEmpty();
+        assertThat(new MessageArchive(directory.toString()).getTombstoneCount()).isZero();
+    }
+
+    private static List<StoredMessage> messages(int from, int to) {
+        return messages(KEY, from, to);
+    }
+
+    private static List<StoredMessage> messages(String key, int from, int to) {
+        List<StoredMessage> messages = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            messages.add(new StoredMessage("m" + i, key, "alice", null, MessageType.TEXT, "content " + i, null, i * 1000L));
+        }
+        return messages;
+    }
+
+    private static List<String> ids(List<StoredMessage> messages) {
+        return messages.stream().map(StoredMessage::getMessageId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,104 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.model.enums.MessageType;
+import com.ergouwebchat.util.CircuitBreaker;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ResilientMessageStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final MessageStore delegate = mock(MessageStore.class);
+    private ResilientMessageStore store;
+
+    @AfterEach
+    void tearDown() {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    @Test
+    void spillsWritesAndSkipsReadsWhileOpen() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60_000, 1000);
+        store = open(breaker);
+        doThrow(new IllegalStateException("down")).when(delegate).append(any());
+
+        store.append(message("m1"));
+        assertThat(store.getBreakerState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(store.getSpilledCount()).isEqualTo(1);
+
+        // 断开期间查询直接降级，不访问后端
+        assertThat(store.findRecent("GROUP", 10)).isEmpty();
+        assertThat(store.findRange("GROUP", 0, 1000, 10)).isEmpty();
+        verify(delegate, never()).findRecent(anyString(), anyInt());
+
+        assertThat(store.getStats()).containsEntry("breakerState", "OPEN").containsEntry("tripCount", 1L)
+                .containsEntry("spilled", 1L);
+    }
+
+    @Test
+    void unavailableReadTripsBreakerAndFallsBack() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60_000, 1000);
+        store = open(breaker);
+        when(delegate.findRecent("GROUP", 10)).thenThrow(new IllegalStateException("down"));
+
+        assertThat(store.findRecent("GROUP", 10)).isEmpty();
+        assertThat(store.getBreakerState()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    void dataErrorsPropagateWithoutTripping() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 60_000, 1000);
+        store = open(breaker);
+        doThrow(new IllegalArgumentException("发送者不存在")).when(delegate).append(any());
+
+        assertThatThrownBy(() -> store.append(message("m1"))).isInstanceOf(IllegalArgumentException.class);
+        assertThat(store.getBreakerState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(store.getSpilledCount()).isZero();
+    }
+
+    @Test
+    void halfOpenProbeIsReleasedWhenDelegateThrowsError() {
+        CircuitBreaker breaker = new CircuitBreaker("test", 1, 0, 1000);
+        breaker.onFailure();
+        store = open(breaker);
+        when(delegate.findRecent("GROUP", 10)).thenThrow(new AssertionError("boom"));
+
+        assertThatThrownBy(() -> store.findRecent("GROUP", 10)).isInstanceOf(AssertionError.class);
+        // 试探调用已结束并重新断开，冷却后可以再次试探
+        assertThat(store.getBreakerState()).isEqualTo(CircuitBreaker.State.OPEN);
+        doReturn(List.of(message("m1"))).when(delegate).findRecent("GROUP", 10);
+        assertThat(store.findRecent("GROUP", 10)).hasSize(1);
+        assertThat(store.getBreakerState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    private ResilientMessageStore open(CircuitBreaker breaker) {
+        SpillJournal journal = new SpillJournal(directory.resolve("journal.log").toString(), 60_000);
+        return new ResilientMessageStore(delegate, breaker, journal,
+                e -> e instanceof IllegalStateException, 60_000, 10);
+    }
+
+    private static StoredMessage message(String id) {
+        return new StoredMessage(id, "GROUP", "alice", null, MessageType.TEXT, "hello", null, 1000L);
+    }
+}
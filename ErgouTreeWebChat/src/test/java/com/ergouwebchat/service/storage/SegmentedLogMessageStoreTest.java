@@ -0,0 +1,105 @@
+package com.ergouwebchat.service.storage;
+
+import com.ergouwebchat.model.enums.MessageType;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SegmentedLogMessageStoreTest {
+
+    private static final String KEY = "GROUP";
+
+    @TempDir
+    Path directory;
+
+    private final List<SegmentedLogMessageStore> opened = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(SegmentedLogMessageStore::close);
+    }
+
+    @Test
+    void replaysSegmentsAfterCrashAndIgnoresTornTail() throws IOException {
+        SegmentedLogMessageStore store = open(256);
+        for (int i = 1; i <= 20; i++) {
+            store.append(message("m" + i, i * 1000L));
+        }
+        assertThat(store.getSegmentCount()).isGreaterThan(1);
+
+        // 模拟写到一半崩溃：活动段末尾留下不完整的记录，且没有调用close
+        Path activeSegment = lastSegment();
+        Files.write(activeSegment, new byte[]{0, 0, 0, 64, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        SegmentedLogMessageStore recovered = open(256);
+        assertThat(ids(recovered.findRecent(KEY, 100))).hasSize(20).startsWith("m20", "m19");
+        assertThat(ids(recovered.findRange(KEY, 5000, 9000, 3))).containsExactly("m5", "m6", "m7");
+
+        // 截断的末尾被丢弃后可以继续追加
+        recovered.append(message("m21", 21000L));
+        assertThat(ids(open(256).findRecent(KEY, 1))).containsExactly("m21");
+    }
+
+    @Test
+    void retentionCutoffSurvivesRestart() {
+        SegmentedLogMessageStore store = open(1024 * 1024);
+        for (int i = 1; i <= 10; i++) {
+            store.append(message("m" + i, i * 1000L));
+        }
+        // 所有记录都在活动段中，不会删除段，只靠水位过滤
+        store.deleteBefore(6000L);
+        assertThat(ids(store.findRecent(KEY, 100))).hasSize(5);
+
+        assertThat(ids(open(1024 * 1024).findRecent(KEY, 100))).containsExactly("m10", "m9", "m8", "m7", "m6");
+    }
+
+    @Test
+    void conversationFloorSurvivesDeletionOfItsSegment() {
+        SegmentedLogMessageStore store = open(256);
+        for (int i = 1; i <= 10; i++) {
+            store.append(message("m" + i, i * 1000L));
+        }
+        // 会话截断记录写在m10之后的旧段中
+        store.deleteConversationBefore(KEY, 20_000L);
+        for (int i = 11; i <= 40; i++) {
+            store.append(message("m" + i, i * 1000L));
+        }
+        // 删除截断记录所在的段，会话下限仍高于全局水位
+        store.deleteBefore(16_000L);
+
+        List<String> recent = ids(open(256).findRecent(KEY, 100));
+        assertThat(recent).hasSize(21).startsWith("m40").endsWith("m20");
+    }
+
+    private SegmentedLogMessageStore open(long segmentBytes) {
+        SegmentedLogMessageStore store = new SegmentedLogMessageStore(directory.toString(), segmentBytes, 4, 60_000);
+        opened.add(store);
+        return store;
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().reduce((first, second) -> second).orElseThrow();
+        }
+    }
+
+    private static StoredMessage message(String id, long createdAt) {
+        return new StoredMessage(id, KEY, "alice", null, MessageType.TEXT, "content " + id, null, createdAt);
+    }
+
+    private static List<String> ids(List<StoredMessage> messages) {
+        return messages.stream().map(StoredMessage::getMessageId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,54 @@
+package com.ergouwebchat.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BloomFilterTest {
+
+    @Test
+    void neverReportsAddedValuesAsAbsent() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("user" + i);
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(filter.mightContain("user" + i)).isTrue();
+        }
+        assertThat(filter.getAddedCount()).isEqualTo(10_000);
+        assertThat(filter.isSaturated()).isFalse();
+    }
+
+    @Test
+    void keepsFalsePositivesNearTargetRate() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("user" + i);
+        }
+        int falsePositives = 0;
+        int probes = 100_000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain("other" + i)) {
+                falsePositives++;
+            }
+        }
+        // 目标1%，留出统计波动的余量
+        assertThat((double) falsePositives / probes).isLessThan(0.02);
+    }
+
+    @Test
+    void reportsSaturationPastCapacity() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        for (int i = 0; i <= 100; i++) {
+            filter.put("user" + i);
+        }
+        assertThat(filter.isSaturated()).isTrue();
+    }
+
+    @Test
+    void rejectsInvalidRates() {
+        assertThatThrownBy(() -> new BloomFilter(100, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new BloomFilter(100, 1)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
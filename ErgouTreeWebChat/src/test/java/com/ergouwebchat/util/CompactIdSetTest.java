@@ -0,0 +1,80 @@
+package com.ergouwebchat.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompactIdSetTest {
+
+    @Test
+    void matchesTreeSetUnderRandomAddsAndRemoves() {
+        CompactIdSet set = new CompactIdSet();
+        TreeSet<Integer> expected = new TreeSet<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 50_000; i++) {
+            // 集中在少数几个桶里，让容器在数组和位图之间来回转换
+            int id = random.nextInt(3) * 65536 + random.nextInt(12_000);
+            if (random.nextInt(3) == 0) {
+                assertThat(set.remove(id)).isEqualTo(expected.remove(id));
+            } else {
+                assertThat(set.add(id)).isEqualTo(expected.add(id));
+            }
+        }
+        assertThat(set.size()).isEqualTo(expected.size());
+        assertThat(toList(set)).isEqualTo(new ArrayList<>(expected));
+        for (int id = 0; id < 3 * 65536; id += 7) {
+            assertThat(set.contains(id)).isEqualTo(expected.contains(id));
+        }
+    }
+
+    @Test
+    void convertsToBitmapAndBackWithoutLosingIds() {
+        CompactIdSet set = new CompactIdSet();
+        for (int id = 0; id < 10_000; id++) {
+            set.add(id * 2);
+        }
+        assertThat(set.size()).isEqualTo(10_000);
+        // 删到数组容量的一半以下时换回数组容器
+        for (int id = 0; id < 9_000; id++) {
+            assertThat(set.remove(id * 2)).isTrue();
+        }
+        assertThat(set.size()).isEqualTo(1_000);
+        assertThat(set.contains(17_998)).isFalse();
+        assertThat(set.contains(18_000)).isTrue();
+        assertThat(toList(set)).hasSize(1_000).first().isEqualTo(18_000);
+    }
+
+    @Test
+    void keepsSparseIdsAcrossBucketsInOrder() {
+        CompactIdSet set = new CompactIdSet();
+        int[] ids = {Integer.MAX_VALUE, 0, 70_000, 65_535, 1 << 30, 65_536};
+        for (int id : ids) {
+            set.add(id);
+        }
+        assertThat(toList(set)).containsExactly(0, 65_535, 65_536, 70_000, 1 << 30, Integer.MAX_VALUE);
+        assertThat(set.remove(70_000)).isTrue();
+        assertThat(set.remove(70_000)).isFalse();
+        assertThat(set.contains(70_000)).isFalse();
+        assertThat(set.size()).isEqualTo(5);
+    }
+
+    @Test
+    void rejectsNegativeIds() {
+        CompactIdSet set = new CompactIdSet();
+        assertThatThrownBy(() -> set.add(-1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(set.contains(-1)).isFalse();
+        assertThat(set.remove(-1)).isFalse();
+    }
+
+    private static List<Integer> toList(CompactIdSet set) {
+        List<Integer> ids = new ArrayList<>();
+        set.forEach(ids::add);
+        return ids;
+    }
+}
@@ -0,0 +1,43 @@
+package com.ergouwebchat.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HttpRangesTest {
+
+    @Test
+    void parsesClosedOpenAndSuffixRanges() {
+        assertThat(HttpRanges.parseRange("bytes=0-99", 1000)).containsExactly(0, 99);
+        assertThat(HttpRanges.parseRange("bytes=900-", 1000)).containsExactly(900, 999);
+        assertThat(HttpRanges.parseRange("bytes=-100", 1000)).containsExactly(900, 999);
+        // 结束位置超出文件时截断到文件末尾
+        assertThat(HttpRanges.parseRange("bytes=500-5000", 1000)).containsExactly(500, 999);
+        assertThat(HttpRanges.parseRange("bytes=-5000", 1000)).containsExactly(0, 999);
+    }
+
+    @Test
+    void reportsUnsatisfiableRangesAsEmpty() {
+        assertThat(HttpRanges.parseRange("bytes=1000-", 1000)).isEmpty();
+        assertThat(HttpRanges.parseRange("bytes=-0", 1000)).isEmpty();
+        assertThat(HttpRanges.parseRange("bytes=-10", 0)).isEmpty();
+    }
+
+    @Test
+    void ignoresUnsupportedOrMalformedRanges() {
+        assertThat(HttpRanges.parseRange("bytes=0-1,5-6", 1000)).isNull();
+        assertThat(HttpRanges.parseRange("items=0-1", 1000)).isNull();
+        assertThat(HttpRanges.parseRange("bytes=abc", 1000)).isNull();
+        assertThat(HttpRanges.parseRange("bytes=x-1", 1000)).isNull();
+        assertThat(HttpRanges.parseRange("bytes=9-1", 1000)).isNull();
+    }
+
+    @Test
+    void matchesEtagsWeaklyAndByWildcard() {
+        assertThat(HttpRanges.etagMatches(null, "\"a\"")).isFalse();
+        assertThat(HttpRanges.etagMatches("\"a\"", "\"a\"")).isTrue();
+        assertThat(HttpRanges.etagMatches("\"b\", W/\"a\"", "\"a\"")).isTrue();
+        assertThat(HttpRanges.etagMatches("*", "\"a\"")).isTrue();
+        assertThat(HttpRanges.etagMatches("\"b\"", "\"a\"")).isFalse();
+    }
+}